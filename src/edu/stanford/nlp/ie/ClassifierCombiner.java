@@ -13,6 +13,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 
 import edu.stanford.nlp.io.IOUtils;
@@ -30,6 +34,7 @@ import edu.stanford.nlp.util.ErasureUtils;
 import edu.stanford.nlp.util.Generics;
 import edu.stanford.nlp.util.StringUtils;
 import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
 
 /**
  * Merges the outputs of two or more AbstractSequenceClassifiers according to
@@ -62,6 +67,16 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
 
   private List<AbstractSequenceClassifier<IN>> baseClassifiers;
 
+  /**
+   * Loads a base classifier from a path.  Code which makes many combiners, such as a server, can give
+   * one which shares the base classifiers of combiners that only differ in how they use them (for example,
+   * NER with and without the numeric classifiers), rather than loading each model again.
+   * Base classifiers are only read once loaded, so sharing them is as safe as sharing a combiner between threads.
+   */
+  public interface ClassifierLoader {
+    AbstractSequenceClassifier<?> load(Properties props, String path) throws IOException;
+  }
+
   /**
    * NORMAL means that if one classifier uses PERSON, later classifiers can't also add PERSON, for example. <br>
    * HIGH_RECALL allows later models do set PERSON as long as it doesn't clobber existing annotations.
@@ -74,6 +89,27 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
   static final String COMBINATION_MODE_PROPERTY = "ner.combinationMode";
   final CombinationMode combinationMode;
 
+  /**
+   * Whether to run the base classifiers of a sentence at the same time, each on its own thread,
+   * so that tagging a sentence takes about as long as the slowest of them rather than all of them together.
+   * The results are the same either way.
+   */
+  static final String PARALLEL_MODELS_PROPERTY = "ner.parallelModels";
+  private boolean parallelModels;
+
+  /**
+   * The threads the base classifiers run on when they are run in parallel, shared by all combiners.
+   * The calling thread runs the first base classifier itself, and any others which no thread has
+   * got to by the time it is done, so a sentence never waits on a busy pool.
+   */
+  private static class ModelExecutor {
+    static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "ClassifierCombiner");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
   // keep track of properties used to initialize
   public Properties initProps;
   // keep track of paths used to load CRFs
@@ -87,6 +123,7 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
   public ClassifierCombiner(Properties p) throws IOException {
     super(p);
     this.combinationMode = extractCombinationModeSafe(p);
+    this.parallelModels = PropertiesUtils.getBool(p, PARALLEL_MODELS_PROPERTY, false);
     String loadPath1, loadPath2;
     List<String> paths = new ArrayList<>();
 
@@ -135,10 +172,24 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
    *  @throws IOException If IO errors in loading classifier files
    */
   public ClassifierCombiner(Properties props, CombinationMode combinationMode, String... loadPaths) throws IOException {
+    this(props, combinationMode, ClassifierCombiner::loadClassifierFromPath, loadPaths);
+  }
+
+  /** Loads a series of base classifiers from the paths specified using the
+   *  Properties specified, with the given loader.
+   *
+   *  @param props Properties for the classifier to use (encodings, output format, etc.)
+   *  @param combinationMode How to handle multiple classifiers specifying the same entity type
+   *  @param loader Loads each base classifier from its path
+   *  @param loadPaths Paths to the base classifiers
+   *  @throws IOException If IO errors in loading classifier files
+   */
+  public ClassifierCombiner(Properties props, CombinationMode combinationMode, ClassifierLoader loader, String... loadPaths) throws IOException {
     super(props);
     this.combinationMode = combinationMode;
+    this.parallelModels = PropertiesUtils.getBool(props, PARALLEL_MODELS_PROPERTY, false);
     List<String> paths = new ArrayList<>(Arrays.asList(loadPaths));
-    loadClassifiers(props, paths);
+    loadClassifiers(props, paths, loader);
     this.initLoadPaths = new ArrayList<>(paths);
     this.initProps = props;
   }
@@ -205,6 +256,7 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
       newCM = CombinationMode.valueOf(cm);
     }
     this.combinationMode = newCM;
+    this.parallelModels = PropertiesUtils.getBool(initProps, PARALLEL_MODELS_PROPERTY, false);
     // read in the base classifiers
     Integer numClassifiers = ois.readInt();
     // set up the list of base classifiers
@@ -261,9 +313,13 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
   }
 
   private void loadClassifiers(Properties props, List<String> paths) throws IOException {
+    loadClassifiers(props, paths, ClassifierCombiner::loadClassifierFromPath);
+  }
+
+  private void loadClassifiers(Properties props, List<String> paths, ClassifierLoader loader) throws IOException {
     baseClassifiers = new ArrayList<>();
     for(String path: paths){
-      AbstractSequenceClassifier<IN> cls = loadClassifierFromPath(props, path);
+      AbstractSequenceClassifier<IN> cls = ErasureUtils.uncheckedCast(loader.load(props, path));
       baseClassifiers.add(cls);
       if(DEBUG){
         System.err.printf("Successfully loaded classifier #%d from %s.%n", baseClassifiers.size(), path);
@@ -444,17 +500,23 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
     if (baseClassifiers.isEmpty()) {
       return tokens;
     }
-    List<List<IN>> baseOutputs = new ArrayList<>();
+    List<List<IN>> baseOutputs;
+    if (parallelModels && baseClassifiers.size() > 1) {
+      baseOutputs = classifyInParallel(tokens);
+    } else {
+      baseOutputs = new ArrayList<>();
+      baseOutputs.add(baseClassifiers.get(0).classifySentence(tokens));
+    }
 
     // the first base model works in place, modifying the original tokens
-    List<IN> output = baseClassifiers.get(0).classifySentence(tokens);
+    List<IN> output = baseOutputs.get(0);
     // classify(List<IN>) is supposed to work in place, so add AnswerAnnotation to tokens!
     for (int i = 0, sz = output.size(); i < sz; i++) {
       tokens.get(i).set(CoreAnnotations.AnswerAnnotation.class, output.get(i).get(CoreAnnotations.AnswerAnnotation.class));
     }
-    baseOutputs.add(tokens);
+    baseOutputs.set(0, tokens);
 
-    for (int i = 1, sz = baseClassifiers.size(); i < sz; i ++) {
+    for (int i = baseOutputs.size(), sz = baseClassifiers.size(); i < sz; i ++) {
       //List<CoreLabel> copy = deepCopy(tokens);
       // no need for deep copy: classifySentence creates a copy of the input anyway
       // List<CoreLabel> copy = tokens;
@@ -467,6 +529,47 @@ public class ClassifierCombiner<IN extends CoreMap & HasWord> extends AbstractSe
     return finalAnswer;
   }
 
+  /**
+   * Runs each base classifier on its own copy of the tokens, at the same time.
+   * The tokens are only read until all of the base classifiers are done.
+   *
+   * @return The output of each base classifier, in order
+   */
+  private List<List<IN>> classifyInParallel(List<IN> tokens) {
+    List<FutureTask<List<IN>>> tasks = new ArrayList<>(baseClassifiers.size());
+    for (AbstractSequenceClassifier<IN> classifier : baseClassifiers) {
+      tasks.add(new FutureTask<>(() -> classifier.classifySentence(tokens)));
+    }
+    for (int i = 1, sz = tasks.size(); i < sz; i++) {
+      ModelExecutor.executor.execute(tasks.get(i));
+    }
+    List<List<IN>> outputs = new ArrayList<>(tasks.size());
+    try {
+      for (FutureTask<List<IN>> task : tasks) {
+        task.run(); // does nothing if another thread has already started it
+        outputs.add(task.get());
+      }
+    } catch (InterruptedException e) {
+      tasks.forEach(task -> task.cancel(true));
+      throw new RuntimeInterruptedException(e);
+    } catch (ExecutionException e) {
+      tasks.forEach(task -> task.cancel(true));
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    return outputs;
+  }
+
+  /** Sets whether the base classifiers of a sentence are run at the same time, as by the ner.parallelModels property */
+  public void setParallelModels(boolean parallelModels) {
+    this.parallelModels = parallelModels;
+  }
+
 
   @SuppressWarnings("unchecked")
   @Override
@@ -123,9 +123,21 @@ public class NERClassifierCombiner extends ClassifierCombiner<CoreLabel>  {
                                Properties nscProps,
                                String... loadPaths)
     throws IOException
+  {
+    this(applyNumericClassifiers, nerLanguage, useSUTime, augmentRegexNER, nscProps, ClassifierCombiner::loadClassifierFromPath, loadPaths);
+  }
+
+  public NERClassifierCombiner(boolean applyNumericClassifiers,
+                               Language nerLanguage,
+                               boolean useSUTime,
+                               boolean augmentRegexNER,
+                               Properties nscProps,
+                               ClassifierLoader loader,
+                               String... loadPaths)
+    throws IOException
   {
     // NOTE: nscProps may contains sutime props which will not be recognized by the SeqClassifierFlags
-    super(nscProps, ClassifierCombiner.extractCombinationModeSafe(nscProps), loadPaths);
+    super(nscProps, ClassifierCombiner.extractCombinationModeSafe(nscProps), loader, loadPaths);
     this.applyNumericClassifiers = applyNumericClassifiers;
     this.nerLanguage = nerLanguage;
     this.useSUTime = useSUTime;
@@ -193,7 +205,7 @@ public class NERClassifierCombiner extends ClassifierCombiner<CoreLabel>  {
 
   public static final Set<String> DEFAULT_PASS_DOWN_PROPERTIES =
           CollectionUtils.asSet("encoding", "inputEncoding", "outputEncoding", "maxAdditionalKnownLCWords","map",
-                  "ner.combinationMode");
+                  "ner.combinationMode", "ner.parallelModels");
 
   /** This factory method is used to create the NERClassifierCombiner used in NERCombinerAnnotator
    *  (and, thence, in StanfordCoreNLP).
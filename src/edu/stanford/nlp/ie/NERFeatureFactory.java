@@ -37,6 +37,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,6 +52,7 @@ import edu.stanford.nlp.process.WordShapeClassifier;
 import edu.stanford.nlp.sequences.Clique;
 import edu.stanford.nlp.sequences.CoNLLDocumentReaderAndWriter;
 import edu.stanford.nlp.sequences.FeatureFactory;
+import edu.stanford.nlp.sequences.FeatureKey;
 import edu.stanford.nlp.sequences.SeqClassifierFlags;
 import edu.stanford.nlp.trees.international.pennchinese.RadicalMap;
 import edu.stanford.nlp.util.Generics;
@@ -398,6 +400,56 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
   @Override
   public Collection<String> getCliqueFeatures(PaddedList<IN> cInfo, int loc, Clique clique) {
     Collection<String> features = Generics.newHashSet();
+    addCliqueFeatures(cInfo, loc, clique, (c, suffix) -> addAllInterningAndSuffixing(features, c, suffix));
+    // log.info(StringUtils.join(features,"\n")+"\n");
+    return features;
+  }
+
+  /**
+   * Whether a class of factory makes its features as this class does, so that
+   * {@link #getCliqueFeatureKeys(PaddedList, int, Clique)} can make the same ones.
+   */
+  private static final ClassValue<Boolean> makesOwnFeatures = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      // neither of the methods which make the features may be overridden
+      for (Class<?> c = type; c != NERFeatureFactory.class; c = c.getSuperclass()) {
+        try {
+          c.getDeclaredMethod("getCliqueFeatures", PaddedList.class, int.class, Clique.class);
+          return false;
+        } catch (NoSuchMethodException e) {
+          // not here
+        }
+        try {
+          c.getDeclaredMethod("addAllInterningAndSuffixing", Collection.class, Collection.class, String.class);
+          return false;
+        } catch (NoSuchMethodException e) {
+          // not here
+        }
+      }
+      return true;
+    }
+  };
+
+  /**
+   * The features of {@link #getCliqueFeatures(PaddedList, int, Clique)}, in the same order,
+   * without building the copies of the feature names with the clique suffixes.
+   */
+  @Override
+  public Collection<FeatureKey> getCliqueFeatureKeys(PaddedList<IN> cInfo, int loc, Clique clique) {
+    if ( ! makesOwnFeatures.get(getClass())) {
+      return super.getCliqueFeatureKeys(cInfo, loc, clique);
+    }
+    Collection<FeatureKey> features = Generics.newHashSet();
+    addCliqueFeatures(cInfo, loc, clique, (c, suffix) -> FeatureKey.addAllSuffixing(features, c, suffix));
+    return features;
+  }
+
+  /**
+   * Makes the features of a clique, and passes each group of them to the accumulator,
+   * along with the suffix they should have.
+   */
+  private void addCliqueFeatures(PaddedList<IN> cInfo, int loc, Clique clique, BiConsumer<Collection<String>, String> accumulator) {
     String domain = cInfo.get(0).get(CoreAnnotations.DomainAnnotation.class);
     final boolean doFE = domain != null;
 
@@ -413,9 +465,9 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
     } else if (clique == cliqueCpC) {
       c = featuresCpC(cInfo, loc);
       suffix = "CpC";
-      addAllInterningAndSuffixing(features, c, suffix);
+      accumulator.accept(c, suffix);
       if (doFE) {
-        addAllInterningAndSuffixing(features, c, domain + '-' + suffix);
+        accumulator.accept(c, domain + '-' + suffix);
       }
       c = featuresCnC(cInfo, loc-1);
       suffix = "CnC";
@@ -434,9 +486,9 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
     } else if (clique == cliqueCpCp2C) {
       c = featuresCpCp2C(cInfo, loc);
       suffix = "CpCp2C";
-      addAllInterningAndSuffixing(features, c, suffix);
+      accumulator.accept(c, suffix);
       if (doFE) {
-        addAllInterningAndSuffixing(features, c, domain+ '-' + suffix);
+        accumulator.accept(c, domain+ '-' + suffix);
       }
       c = featuresCpCnC(cInfo, loc-1);
       suffix = "CpCnC";
@@ -450,13 +502,10 @@ public class NERFeatureFactory<IN extends CoreLabel> extends FeatureFactory<IN>
       throw new IllegalArgumentException("Unknown clique: " + clique);
     }
 
-    addAllInterningAndSuffixing(features, c, suffix);
+    accumulator.accept(c, suffix);
     if (doFE) {
-      addAllInterningAndSuffixing(features, c, domain + '-' + suffix);
+      accumulator.accept(c, domain + '-' + suffix);
     }
-
-    // log.info(StringUtils.join(features,"\n")+"\n");
-    return features;
   }
 
 
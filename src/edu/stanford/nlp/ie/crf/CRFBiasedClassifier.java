@@ -57,6 +57,12 @@ public class CRFBiasedClassifier<IN extends CoreMap> extends CRFClassifier<IN>
 
   public CRFBiasedClassifier(SeqClassifierFlags flags) {super(flags); }
 
+  /** The bias features are added in {@link #makeDatum(List, int, List)} */
+  @Override
+  protected boolean canMakeFeatureIds() {
+    return false;
+  }
+
   @Override
   public CRFDatum<List<String>, CRFLabel> makeDatum(List<IN> info, int loc, List<FeatureFactory<IN>> featureFactories) {
 
@@ -92,6 +98,7 @@ public class CRFBiasedClassifier<IN extends CoreMap> extends CRFClassifier<IN>
   }
 
   void addBiasFeature() {
+    unmapWeights();
     if(!featureIndex.contains(BIAS)) {
       featureIndex.add(BIAS);
       double[][] newWeights = new double[weights.length+1][];
@@ -150,6 +150,15 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   Index<String> featureIndex;
   /** caches the featureIndex */
   int[] map;
+  /** The featureIndex as a table of FeatureKeys, made when first tagging */
+  private transient volatile FeatureKeyIndex featureKeyIndex;
+  /** Viterbi over the clique potentials, when they are linear, made when first tagging */
+  private transient volatile ViterbiDecoder viterbiDecoder;
+  /** The margin of AdaptiveBeam inference, when flags.beamMargin isn't positive */
+  private static final double DEFAULT_BEAM_MARGIN = 10.0;
+  /** How far the features of NERFeatureFactory look, apart from the disjunctions and occurrence patterns */
+  private static final int NER_FEATURE_CONTEXT = 5;
+  private static final int OCCURRENCE_PATTERN_CONTEXT = 150;
   Random random = new Random(2147483647L);
   Index<Integer> nodeFeatureIndicesMap;
   Index<Integer> edgeFeatureIndicesMap;
@@ -269,6 +278,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    * @param scale The scale to multiply by
    */
   public void scaleWeights(double scale) {
+    unmapWeights();
     for (int i = 0; i < weights.length; i++) {
       for (int j = 0; j < weights[i].length; j++) {
         weights[i][j] *= scale;
@@ -354,6 +364,8 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    */
   public void combine(CRFClassifier<IN> crf, double weight) {
     Timing timer = new Timing();
+    unmapWeights();
+    crf.unmapWeights();
 
     // Check the CRFClassifiers are compatible
     if (!this.pad.equals(crf.pad)) {
@@ -396,6 +408,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   public void dropFeaturesBelowThreshold(double threshold) {
+    unmapWeights();
     Index<String> newFeatureIndex = new HashIndex<>();
     for (int i = 0; i < weights.length; i++) {
       double smallest = weights[i][0];
@@ -414,12 +427,16 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       }
     }
 
+    // a loaded classifier has no map, so the feature types are found from the names
     int[] newMap = new int[newFeatureIndex.size()];
+    double[][] newWeights = new double[newFeatureIndex.size()][];
     for (int i = 0; i < newMap.length; i++) {
       int index = featureIndex.indexOf(newFeatureIndex.get(i));
-      newMap[i] = map[index];
+      newMap[i] = map != null ? map[index] : getFeatureTypeIndex(index);
+      newWeights[i] = weights[index];
     }
     map = newMap;
+    weights = newWeights;
     featureIndex = newFeatureIndex;
   }
 
@@ -452,6 +469,17 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       Collections.reverse(document);
     }
 
+    if (canMakeFeatureIds()) {
+      makeFeatureIds(document, data);
+      for (int j = 0; j < docSize; j++) {
+        labels[j] = classIndex.indexOf(document.get(j).get(CoreAnnotations.AnswerAnnotation.class));
+      }
+      if (flags.useReverse) {
+        Collections.reverse(document);
+      }
+      return new Triple<>(data, labels, featureVals);
+    }
+
     // log.info("docSize:"+docSize);
     for (int j = 0; j < docSize; j++) {
       CRFDatum<List<String>, CRFLabel> d = makeDatum(document, j, featureFactories);
@@ -531,6 +559,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   public void printLabelValue(List<IN> document) {
+    unmapWeights();
     if (flags.useReverse) {
       Collections.reverse(document);
     }
@@ -955,6 +984,69 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     return labelIndex;
   }
 
+  /**
+   * Whether {@link #documentToDataAndLabels(List)} can look the features of the factories up
+   * in the featureIndex directly, without making a {@link CRFDatum} of feature names at each position.
+   * That is not possible when the features have values, or are printed, or when a subclass
+   * makes its datums differently.
+   */
+  protected boolean canMakeFeatureIds() {
+    return ! flags.useEmbedding && flags.printFeatures == null;
+  }
+
+  /**
+   * Fills in data[j][k] with the ids of the features of the document, in the same order as
+   * {@link #makeDatum(List, int, List)} makes them, leaving out the features which aren't in the featureIndex.
+   */
+  private void makeFeatureIds(List<IN> document, int[][][] data) {
+    FeatureKeyIndex keyIndex = featureKeyIndex();
+    PaddedList<IN> pInfo = new PaddedList<>(document, pad);
+
+    List<List<Clique>> windowCliques = new ArrayList<>(windowSize);
+    Collection<Clique> done = Generics.newHashSet();
+    for (int i = 0; i < windowSize; i++) {
+      List<Clique> cliques = FeatureFactory.getCliques(i, 0);
+      cliques.removeAll(done);
+      done.addAll(cliques);
+      windowCliques.add(cliques);
+    }
+
+    int[] ids = new int[64];
+    for (int j = 0, docSize = document.size(); j < docSize; j++) {
+      for (int k = 0; k < windowSize; k++) {
+        int m = 0;
+        for (Clique c : windowCliques.get(k)) {
+          for (FeatureFactory<IN> featureFactory : featureFactories) {
+            for (FeatureKey key : featureFactory.getCliqueFeatureKeys(pInfo, j, c)) {
+              int index = keyIndex.indexOf(key);
+              if (index >= 0) {
+                if (m == ids.length) {
+                  ids = Arrays.copyOf(ids, 2 * m);
+                }
+                ids[m++] = index;
+              }
+            }
+          }
+        }
+        data[j][k] = Arrays.copyOf(ids, m);
+      }
+    }
+  }
+
+  private FeatureKeyIndex featureKeyIndex() {
+    FeatureKeyIndex keyIndex = featureKeyIndex;
+    if (keyIndex == null || ! keyIndex.isFor(featureIndex)) {
+      synchronized (this) {
+        keyIndex = featureKeyIndex;
+        if (keyIndex == null || ! keyIndex.isFor(featureIndex)) {
+          keyIndex = new FeatureKeyIndex(featureIndex);
+          featureKeyIndex = keyIndex;
+        }
+      }
+    }
+    return keyIndex;
+  }
+
   /**
    * Makes a CRFDatum by producing features and a label from input data at a
    * specific position, using the provided factory.
@@ -1208,8 +1300,10 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   /**
-   * Do standard sequence inference, using either Viterbi or Beam inference
+   * Do standard sequence inference, using either Viterbi, Beam or AdaptiveBeam inference
    * depending on the value of {@code flags.inferenceType}.
+   * AdaptiveBeam is Viterbi which, after each token, drops the labels scoring more than
+   * {@code flags.beamMargin} below the best, so that only ambiguous tokens keep all of them.
    *
    * @param document Document to classify. Classification happens in place.
    *          This document is modified.
@@ -1220,6 +1314,10 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       return document;
     }
 
+    ViterbiDecoder decoder = viterbiDecoder();
+    if (decoder != null) {
+      return classifyViterbi(document, documentToDataAndLabels(document), decoder);
+    }
     SequenceModel model = getSequenceModel(document);
     return classifyMaxEnt(document, model);
   }
@@ -1228,10 +1326,235 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     if (document.isEmpty()) {
       return document;
     }
+    ViterbiDecoder decoder = viterbiDecoder();
+    if (decoder != null) {
+      return classifyViterbi(document, documentDataAndLabels, decoder);
+    }
     SequenceModel model = getSequenceModel(documentDataAndLabels, document);
     return classifyMaxEnt(document, model);
   }
 
+  /**
+   * Classify many sentences, or documents, in place, as {@link #classify(List)} does for one.
+   * When the inference is Viterbi over linear clique potentials, the sentences are decoded
+   * straight from the clique potentials, in arrays which are reused from one sentence to the next
+   * rather than in a calibrated CRFCliqueTree for each; the answers are the same.
+   *
+   * @param sentences The sentences to classify. Each of them is modified.
+   * @return The classified sentences
+   */
+  public List<List<IN>> classifySentences(List<List<IN>> sentences) {
+    ViterbiDecoder decoder = flags.doGibbs || ! flags.crfType.equalsIgnoreCase("maxent") ? null : viterbiDecoder();
+    for (List<IN> sentence : sentences) {
+      if (decoder == null) {
+        classify(sentence);
+      } else if ( ! sentence.isEmpty()) {
+        classifyViterbi(sentence, documentToDataAndLabels(sentence), decoder);
+      }
+    }
+    return sentences;
+  }
+
+  /**
+   * Classify a document again after an edit, in place, relabeling only the tokens near the edit.
+   * The labels of the tokens outside the edit are kept, and used as the labels to either side
+   * of the tokens which are relabeled.  Those are the tokens whose features may have changed,
+   * and a margin around them, which is doubled on a side until the new labels at that edge
+   * agree with the old ones, or it reaches the end of the document.  The labels are then those
+   * that classifying the whole document would give, unless the best labeling changes beyond
+   * a stretch of tokens on which it agreed with the old one.
+   * <br>
+   * This needs Viterbi (or AdaptiveBeam) inference over linear clique potentials, and features
+   * which only look at nearby tokens, as those of {@link NERFeatureFactory} do unless
+   * {@code useBeginSent} is set.  Otherwise, or if a token outside the edit has no label,
+   * the whole document is classified.
+   *
+   * @param document The edited document.  Its tokens outside the edit should have the
+   *     answers they were given when it was last classified.  It is modified.
+   * @param start The first token of the edit
+   * @param end The token after the last one of the edit; start, if tokens were only deleted
+   * @return The classified document
+   */
+  public List<IN> classifyIncrementally(List<IN> document, int start, int end) {
+    int size = document.size();
+    if (start < 0 || end < start || end > size) {
+      throw new IndexOutOfBoundsException("The edit [" + start + ", " + end + ") is not in a document of " + size + " tokens");
+    }
+    int context = featureContext();
+    ViterbiDecoder decoder = null;
+    if (context >= 0 && ! flags.doGibbs && flags.crfType.equalsIgnoreCase("maxent") && ! flags.useReverse) {
+      decoder = viterbiDecoder();
+    }
+    int[] previous = decoder == null ? null : previousAnswers(document, start, end);
+    if (previous == null) {
+      return classify(document);
+    }
+
+    int history = windowSize - 1;
+    // tokens up to context away from the edit have new features, and so may get new labels
+    int leftMargin = Math.max(context, history);
+    int rightMargin = leftMargin;
+    while (true) {
+      int from = Math.max(0, start - leftMargin);
+      int to = Math.min(size, end + rightMargin);
+      int[] labels = relabel(document, from, to, previous, context, decoder);
+      boolean leftConverged = from == 0 || agree(labels, 0, previous, from, history);
+      boolean rightConverged = to == size || agree(labels, to - from - history, previous, to - history, history);
+      if (leftConverged && rightConverged) {
+        for (int j = from; j < to; j++) {
+          document.get(j).set(CoreAnnotations.AnswerAnnotation.class, classIndex.get(labels[j - from]));
+        }
+        return document;
+      }
+      if ( ! leftConverged) {
+        leftMargin *= 2;
+      }
+      if ( ! rightConverged) {
+        rightMargin *= 2;
+      }
+    }
+  }
+
+  /**
+   * How many tokens to either side of a token its features can look at, or -1 if they
+   * can look at the whole document, or it isn't known how far they look.
+   */
+  private int featureContext() {
+    if (flags.useBeginSent) {
+      return -1;
+    }
+    for (FeatureFactory<IN> featureFactory : featureFactories) {
+      if (featureFactory.getClass() != NERFeatureFactory.class) {
+        return -1;
+      }
+    }
+    int context = Math.max(NER_FEATURE_CONTEXT, windowSize);
+    context = Math.max(context, Math.max(flags.disjunctionWidth, flags.wideDisjunctionWidth));
+    if (flags.useOccurrencePatterns) {
+      context = Math.max(context, OCCURRENCE_PATTERN_CONTEXT);
+    }
+    return context;
+  }
+
+  /** The class of the answer of each token outside an edit, or null if one of them has none */
+  private int[] previousAnswers(List<IN> document, int start, int end) {
+    int[] previous = new int[document.size()];
+    for (int j = 0; j < previous.length; j++) {
+      if (j >= start && j < end) {
+        continue;
+      }
+      String answer = document.get(j).get(CoreAnnotations.AnswerAnnotation.class);
+      previous[j] = answer == null ? -1 : classIndex.indexOf(answer);
+      if (previous[j] < 0) {
+        return null;
+      }
+    }
+    return previous;
+  }
+
+  /**
+   * Find the best labels of the tokens [from, to) given the previous labels of the
+   * windowSize - 1 tokens to either side of them, which the search is held to.
+   * Only those tokens and the tokens within the feature context of them are featurized.
+   */
+  private int[] relabel(List<IN> document, int from, int to, int[] previous, int context, ViterbiDecoder decoder) {
+    int history = windowSize - 1;
+    int fixedFrom = Math.max(0, from - history);
+    int fixedTo = Math.min(document.size(), to + history);
+    int featuresFrom = Math.max(0, fixedFrom - context);
+    int featuresTo = Math.min(document.size(), fixedTo + context);
+    Triple<int[][][], int[], double[][][]> dataAndLabels = documentToDataAndLabels(document.subList(featuresFrom, featuresTo));
+    int offset = fixedFrom - featuresFrom;
+    int length = fixedTo - fixedFrom;
+    int[][][] data = Arrays.copyOfRange(dataAndLabels.first(), offset, offset + length);
+    double[][][] featureVals = Arrays.copyOfRange(dataAndLabels.third(), offset, offset + length);
+
+    int[][] allowedTags = new int[length][];
+    for (int j = 0; j < length; j++) {
+      int position = fixedFrom + j;
+      if (position < from || position >= to) {
+        allowedTags[j] = new int[] { previous[position] };
+      } else if (labelDictionary != null) {
+        String observation = document.get(position).get(CoreAnnotations.TextAnnotation.class);
+        if (labelDictionary.isConstrained(observation)) {
+          allowedTags[j] = labelDictionary.getConstrainedSet(observation);
+        }
+      }
+    }
+    int[] best = new int[length];
+    decoder.bestSequence(data, featureVals, allowedTags, beamMargin(), best);
+    return Arrays.copyOfRange(best, from - fixedFrom, to - fixedFrom);
+  }
+
+  /** Whether the labels [offset, offset + length) are the previous labels [position, position + length) */
+  private static boolean agree(int[] labels, int offset, int[] previous, int position, int length) {
+    for (int j = 0; j < length; j++) {
+      if (labels[offset + j] != previous[position + j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The decoder for the current weights, or null if the inference isn't Viterbi or AdaptiveBeam,
+   *     or the clique potentials aren't linear in the weights
+   */
+  private ViterbiDecoder viterbiDecoder() {
+    if (flags.inferenceType != null && ! flags.inferenceType.equalsIgnoreCase("Viterbi") &&
+        ! flags.inferenceType.equalsIgnoreCase("AdaptiveBeam")) {
+      return null;
+    }
+    CliquePotentialFunction potentials = getCliquePotentialFunctionForTest();
+    if ( ! (potentials instanceof LinearPotentials)) {
+      return null;
+    }
+    ViterbiDecoder decoder = viterbiDecoder;
+    if (decoder == null || ! decoder.isFor(potentials)) {
+      decoder = new ViterbiDecoder((LinearPotentials) potentials, labelIndices, classIndex.size(),
+                                   classIndex.indexOf(flags.backgroundSymbol));
+      viterbiDecoder = decoder;
+    }
+    return decoder;
+  }
+
+  /** The score margin of the Viterbi search: infinite, unless the inference is AdaptiveBeam */
+  private double beamMargin() {
+    if ("AdaptiveBeam".equalsIgnoreCase(flags.inferenceType)) {
+      return flags.beamMargin > 0.0 ? flags.beamMargin : DEFAULT_BEAM_MARGIN;
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  private List<IN> classifyViterbi(List<IN> document, Triple<int[][][], int[], double[][][]> documentDataAndLabels,
+                                   ViterbiDecoder decoder) {
+    int docSize = document.size();
+    int[][] allowedTags = null;
+    if (labelDictionary != null) {
+      // as in TestSequenceModel
+      allowedTags = new int[docSize][];
+      for (int j = 0; j < docSize; j++) {
+        String observation = document.get(j).get(CoreAnnotations.TextAnnotation.class);
+        if (labelDictionary.isConstrained(observation)) {
+          allowedTags[j] = labelDictionary.getConstrainedSet(observation);
+        }
+      }
+    }
+    int[] bestSequence = new int[docSize];
+    decoder.bestSequence(documentDataAndLabels.first(), documentDataAndLabels.third(), allowedTags, beamMargin(), bestSequence);
+
+    if (flags.useReverse) {
+      Collections.reverse(document);
+    }
+    for (int j = 0; j < docSize; j++) {
+      document.get(j).set(CoreAnnotations.AnswerAnnotation.class, classIndex.get(bestSequence[j]));
+    }
+    if (flags.useReverse) {
+      Collections.reverse(document);
+    }
+    return document;
+  }
+
   private List<IN> classifyMaxEnt(List<IN> document, SequenceModel model) {
     if (document.isEmpty()) {
       return document;
@@ -1242,12 +1565,13 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     }
 
     BestSequenceFinder tagInference;
-    if (flags.inferenceType.equalsIgnoreCase("Viterbi")) {
+    if (flags.inferenceType.equalsIgnoreCase("Viterbi") || flags.inferenceType.equalsIgnoreCase("AdaptiveBeam")) {
+      // without linear clique potentials there is no adaptive beam, so the search is exact
       tagInference = new ExactBestSequenceFinder();
     } else if (flags.inferenceType.equalsIgnoreCase("Beam")) {
       tagInference = new BeamBestSequenceFinder(flags.beamSize);
     } else {
-      throw new RuntimeException("Unknown inference type: " + flags.inferenceType + ". Your options are Viterbi|Beam.");
+      throw new RuntimeException("Unknown inference type: " + flags.inferenceType + ". Your options are Viterbi|Beam|AdaptiveBeam.");
     }
 
     int[] bestSequence = tagInference.bestSequence(model);
@@ -1581,9 +1905,30 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   public void train(Collection<List<IN>> objectBankWrapper, DocumentReaderAndWriter<IN> readerAndWriter) {
     Timing timer = new Timing();
 
-    Collection<List<IN>> docs = new ArrayList<>();
-    for (List<IN> doc : objectBankWrapper) {
-      docs.add(doc);
+    if (flags.featurizedDataFile != null && getClass() != CRFClassifier.class) {
+      throw new UnsupportedOperationException("featurizedDataFile is only supported by CRFClassifier, not " + getClass().getName());
+    }
+    if (flags.featurizedDataFile != null && flags.reuseFeaturizedData && new File(flags.featurizedDataFile).exists()) {
+      try {
+        CRFFeaturizedData featurized = CRFFeaturizedData.open(new File(flags.featurizedDataFile));
+        featurized.readIndices(this);
+        log.info("Read the indices and " + featurized.size() + " featurized documents from " + flags.featurizedDataFile);
+        trainWithFeaturizedData(featurized);
+      } catch (IOException | ClassNotFoundException e) {
+        throw new RuntimeIOException("Couldn't read featurized documents from " + flags.featurizedDataFile, e);
+      }
+      return;
+    }
+
+    Collection<List<IN>> docs;
+    if ((flags.trainWorkers != null || flags.featurizedDataFile != null) && flags.numOfSlices <= 0) {
+      // the documents are only read once, to index them, so they needn't all be in memory
+      docs = objectBankWrapper;
+    } else {
+      docs = new ArrayList<>();
+      for (List<IN> doc : objectBankWrapper) {
+        docs.add(doc);
+      }
     }
 
     if (flags.numOfSlices > 0) {
@@ -1615,6 +1960,24 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
       dumpFeatures(docs);
     }
 
+    if (flags.trainWorkers != null) {
+      trainWithWorkers();
+      return;
+    }
+
+    if (flags.featurizedDataFile != null) {
+      timer.start();
+      File file = new File(flags.featurizedDataFile);
+      try {
+        int numDocs = CRFFeaturizedData.write(this, docs, file);
+        log.info("Time to featurize " + numDocs + " docs to " + file + ": " + Timing.toSecondsString(timer.stop()) + " seconds");
+        trainWithFeaturizedData(CRFFeaturizedData.open(file));
+      } catch (IOException e) {
+        throw new RuntimeIOException("Couldn't featurize documents to " + file, e);
+      }
+      return;
+    }
+
     for (int i = 0; i <= flags.numTimesPruneFeatures; i++) {
       timer.start();
       Triple<int[][][][], int[][], double[][][][]> dataAndLabelsAndFeatureVals = documentsToDataAndLabels(docs);
@@ -1753,6 +2116,64 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     }
   }
 
+  /**
+   * Train the weights with the documents featurized, and the gradient computed, by the
+   * {@link CRFGradientWorker}s in {@code flags.trainWorkers}, each over its own shard of the documents.
+   * The documents have already been indexed here; this only runs the minimizer, which must be QN.
+   */
+  private void trainWithWorkers() {
+    if ( ! flags.useQN) {
+      throw new IllegalArgumentException("trainWorkers is only supported with useQN");
+    }
+    Timing timer = new Timing();
+    try (CRFDistributedObjectiveFunction func = new CRFDistributedObjectiveFunction(this, flags.trainWorkers.split(","))) {
+      log.info("Time to featurize docs on the workers: " + Timing.toSecondsString(timer.stop()) + " seconds");
+      minimizeWeights(func);
+    }
+  }
+
+  /**
+   * Train the weights over documents featurized to disk, which are read back a document at a time
+   * on each pass, rather than kept in memory.
+   */
+  private void trainWithFeaturizedData(CRFFeaturizedData featurized) {
+    minimizeWeights(new CRFFeaturizedDataObjectiveFunction(featurized, windowSize, classIndex, labelIndices, map,
+        flags.priorType, flags.backgroundSymbol, flags.sigma, flags.multiThreadGrad));
+  }
+
+  /** Set the weights to the minimum of the objective function, starting from its initial weights */
+  private void minimizeWeights(CRFLogConditionalObjectiveFunction func) {
+    cliquePotentialFunctionHelper = func;
+    Minimizer<DiffFunction> minimizer = getMinimizer();
+    double[] initialWeights = func.initial();
+    log.info("numWeights: " + initialWeights.length);
+    this.weights = to2D(minimizer.minimize(func, flags.tolerance, initialWeights), labelIndices, map);
+  }
+
+  /**
+   * Write what {@link #makeAnswerArraysAndTagIndex(Collection)} makes, which is needed to featurize
+   * documents for training and to save the trained classifier.
+   */
+  void writeTrainingIndices(ObjectOutputStream oos) throws IOException {
+    oos.writeObject(classIndex);
+    oos.writeObject(labelIndices);
+    oos.writeObject(featureIndex);
+    oos.writeObject(map);
+    oos.writeObject(knownLCWords);
+    oos.writeObject(labelDictionary);
+  }
+
+  /** Read the indices written by {@link #writeTrainingIndices(ObjectOutputStream)}, in place of indexing documents */
+  @SuppressWarnings("unchecked")
+  void readTrainingIndices(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+    classIndex = (Index<String>) ois.readObject();
+    labelIndices = (List<Index<CRFLabel>>) ois.readObject();
+    featureIndex = (Index<String>) ois.readObject();
+    map = (int[]) ois.readObject();
+    knownLCWords = (MaxSizeConcurrentHashSet<String>) ois.readObject();
+    labelDictionary = (LabelDictionary) ois.readObject();
+  }
+
   public static double[][] to2D(double[] weights, List<Index<CRFLabel>> labelIndices, int[] map) {
     double[][] newWeights = new double[map.length][];
     int index = 0;
@@ -2342,6 +2763,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   protected void serializeTextClassifier(PrintWriter pw) throws Exception {
+    unmapWeights();
     pw.printf("labelIndices.length=\t%d%n", labelIndices.size());
     for (int i = 0; i < labelIndices.size(); i++) {
       pw.printf("labelIndices[%d].size()=\t%d%n", i, labelIndices.get(i).size());
@@ -2557,10 +2979,19 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
    */
   @Override
   public void serializeClassifier(ObjectOutputStream oos) {
+    unmapWeights();
+    serializeClassifier(oos, featureIndex, weights);
+  }
+
+  /**
+   * Serialize the classifier with the given features and weights, which are null
+   * when a {@link CRFModelFile} keeps them outside of the serialized classifier.
+   */
+  void serializeClassifier(ObjectOutputStream oos, Index<String> features, double[][] featureWeights) {
     try {
       oos.writeObject(labelIndices);
       oos.writeObject(classIndex);
-      oos.writeObject(featureIndex);
+      oos.writeObject(features);
       oos.writeObject(flags);
       if (flags.useEmbedding) {
         oos.writeObject(embeddings);
@@ -2573,7 +3004,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
         oos.writeObject(ff);
       }
       oos.writeInt(windowSize);
-      oos.writeObject(weights);
+      oos.writeObject(featureWeights);
       // oos.writeObject(WordShapeClassifier.getKnownLowerCaseWords());
 
       oos.writeObject(knownLCWords);
@@ -2585,6 +3016,24 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     }
   }
 
+  /**
+   * If the weights are read from a mapped {@link CRFModelFile}, read them and the
+   * features into memory, for the code which saves, prints or changes the weights
+   * as arrays.  The features are put in a {@link HashIndex}, which can be added to.
+   */
+  void unmapWeights() {
+    if (weights == null && cliquePotentialFunction instanceof MappedCliquePotentialFunction) {
+      MappedCliquePotentialFunction mapped = (MappedCliquePotentialFunction) cliquePotentialFunction;
+      double[][] unmapped = new double[featureIndex.size()][];
+      for (int i = 0; i < unmapped.length; i++) {
+        unmapped[i] = mapped.weights(i);
+      }
+      featureIndex = new HashIndex<>(featureIndex);
+      weights = unmapped;
+      cliquePotentialFunction = null;
+    }
+  }
+
   /**
    * Loads a classifier from the specified InputStream. This version works
    * quietly (unless VERBOSE is true). If props is non-null then any properties
@@ -2645,9 +3094,13 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     if (props != null) {
       flags.setProperties(props, false);
     }
+    if (flags.compactFeatureIndex && featureIndex != null && ! (featureIndex instanceof StringIndex)) {
+      featureIndex = new StringIndex(featureIndex);
+    }
 
     windowSize = ois.readInt();
     weights = (double[][]) ois.readObject();
+    cliquePotentialFunction = null;
 
     // WordShapeClassifier.setKnownLowerCaseWords((Set) ois.readObject());
     Set<String> lcWords = (Set<String>) ois.readObject();
@@ -2669,6 +3122,35 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
     }
   }
 
+  /**
+   * Loads a classifier from a file, classpath resource, or URL.  A file in the
+   * {@link CRFModelFile} format is mapped into memory rather than read.
+   */
+  @Override
+  public void loadClassifier(String loadPath, Properties props) throws ClassCastException, IOException, ClassNotFoundException {
+    File file = new File(loadPath);
+    if (file.isFile() && CRFModelFile.isModelFile(file)) {
+      loadClassifier(file, props);
+    } else {
+      super.loadClassifier(loadPath, props);
+    }
+  }
+
+  /**
+   * Loads a classifier from a file.  A file in the {@link CRFModelFile} format
+   * is mapped into memory rather than read.
+   */
+  @Override
+  public void loadClassifier(File file, Properties props) throws ClassCastException, IOException, ClassNotFoundException {
+    if (CRFModelFile.isModelFile(file)) {
+      Timing t = new Timing();
+      CRFModelFile.load(this, file, props);
+      t.done(log, "Mapping classifier from " + file.getAbsolutePath());
+    } else {
+      super.loadClassifier(file, props);
+    }
+  }
+
   /**
    * This is used to load the default supplied classifier stored within the jar
    * file. THIS FUNCTION WILL ONLY WORK IF THE CODE WAS LOADED FROM A JAR FILE
@@ -2771,6 +3253,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   public void writeWeights(PrintStream p) {
+    unmapWeights();
     for (String feature : featureIndex) {
       int index = featureIndex.indexOf(feature);
       // line.add(feature+"["+(-p)+"]");
@@ -2787,6 +3270,7 @@ public class CRFClassifier<IN extends CoreMap> extends AbstractSequenceClassifie
   }
 
   public Map<String, Counter<String>> topWeights() {
+    unmapWeights();
     Map<String, Counter<String>> w = new HashMap<>();
     for (String feature : featureIndex) {
       int index = featureIndex.indexOf(feature);
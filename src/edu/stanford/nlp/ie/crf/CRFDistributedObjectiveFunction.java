@@ -0,0 +1,160 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.util.logging.Redwood;
+
+/**
+ * The objective function of a CRFClassifier whose training documents are spread over
+ * {@link CRFGradientWorker}s.  The workers compute the log-likelihood and gradient of their
+ * shards at the same time, and this adds them up and adds the prior, so a minimizer sees
+ * the same function as {@link CRFLogConditionalObjectiveFunction} over all of the documents.
+ * Only the full function is computed, not the stochastic one, so this is for QN only.
+ */
+class CRFDistributedObjectiveFunction extends CRFLogConditionalObjectiveFunction implements Closeable {
+
+  /** A logger for this class */
+  private static final Redwood.RedwoodChannels log = Redwood.channels(CRFDistributedObjectiveFunction.class);
+
+  private final List<Socket> sockets = new ArrayList<>();
+  private final List<DataInputStream> ins = new ArrayList<>();
+  private final List<DataOutputStream> outs = new ArrayList<>();
+  private final int numDocs;
+  /** The point being calculated */
+  private double[] x;
+
+  /**
+   * Connect to the workers, and send them the indices of the classifier.
+   *
+   * @param crf A classifier whose documents have been indexed, but which has no weights
+   * @param workers The host:port of each worker
+   */
+  CRFDistributedObjectiveFunction(CRFClassifier<?> crf, String[] workers) {
+    super(new int[0][][][], new int[0][], crf.windowSize, crf.classIndex, crf.labelIndices, crf.map,
+        crf.flags.priorType, crf.flags.backgroundSymbol, crf.flags.sigma, null, 1);
+    ByteArrayOutputStream setup = new ByteArrayOutputStream();
+    try {
+      try (ObjectOutputStream oos = new ObjectOutputStream(setup)) {
+        crf.serializeClassifier(oos, crf.featureIndex, null);
+        oos.writeObject(crf.map);
+      }
+      int docs = 0;
+      for (String worker : workers) {
+        int colon = worker.lastIndexOf(':');
+        if (colon < 0) {
+          throw new IllegalArgumentException("A worker should be given as host:port, not " + worker);
+        }
+        Socket socket = new Socket(worker.substring(0, colon).trim(), Integer.parseInt(worker.substring(colon + 1).trim()));
+        sockets.add(socket);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        ins.add(in);
+        outs.add(out);
+        out.writeInt(CRFGradientWorker.SETUP);
+        out.writeInt(setup.size());
+        setup.writeTo(out);
+        out.flush();
+      }
+      // the workers featurize their shards at the same time
+      for (int i = 0; i < workers.length; i++) {
+        int workerDocs = ins.get(i).readInt();
+        int workerDimension = ins.get(i).readInt();
+        if (workerDimension != domainDimension()) {
+          throw new IllegalStateException("Worker " + workers[i] + " has " + workerDimension + " weights, not " + domainDimension());
+        }
+        log.info("Worker " + workers[i] + " has " + workerDocs + " documents");
+        docs += workerDocs;
+      }
+      numDocs = docs;
+    } catch (IOException e) {
+      close();
+      throw new RuntimeIOException("Couldn't set up the training workers", e);
+    }
+  }
+
+  @Override
+  public int dataDimension() {
+    return numDocs;
+  }
+
+  @Override
+  public void calculate(double[] x) {
+    this.x = x;
+    super.calculate(x);
+  }
+
+  /** The sum over the workers of the log-likelihood of their documents, with their gradients added to E */
+  @Override
+  protected double regularGradientAndValue() {
+    double prob = 0.0;
+    try {
+      // send the weights to all of the workers first, so that they calculate at the same time
+      for (DataOutputStream out : outs) {
+        out.writeInt(CRFGradientWorker.CALCULATE);
+        CRFGradientWorker.writeDoubles(out, x);
+        out.flush();
+      }
+      for (DataInputStream in : ins) {
+        prob -= in.readDouble();
+        int length = in.readInt();
+        if (length != domainDimension()) {
+          throw new IllegalStateException("A worker sent a gradient of " + length + " weights, not " + domainDimension());
+        }
+        // the gradient of a worker is its E - Ehat, and Ehat here is all zeros
+        for (double[] row : E) {
+          for (int j = 0; j < row.length; j++) {
+            row[j] += in.readDouble();
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeIOException("Lost a training worker", e);
+    }
+    return prob;
+  }
+
+  @Override
+  public void calculateStochastic(double[] x, double[] v, int[] batch) {
+    throw new UnsupportedOperationException("Training with workers only supports QN");
+  }
+
+  @Override
+  public double calculateStochasticUpdate(double[] x, double xScale, int[] batch, double gScale) {
+    throw new UnsupportedOperationException("Training with workers only supports QN");
+  }
+
+  @Override
+  public void calculateStochasticGradient(double[] x, int[] batch) {
+    throw new UnsupportedOperationException("Training with workers only supports QN");
+  }
+
+  @Override
+  public double valueAt(double[] x, double xScale, int[] batch) {
+    throw new UnsupportedOperationException("Training with workers only supports QN");
+  }
+
+  /** Tell the workers that training is done, and disconnect from them */
+  @Override
+  public void close() {
+    for (DataOutputStream out : outs) {
+      try {
+        out.writeInt(CRFGradientWorker.DONE);
+        out.flush();
+      } catch (IOException e) {
+        log.warn("Couldn't tell a training worker that training is done: " + e);
+      }
+    }
+    for (Socket socket : sockets) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+}
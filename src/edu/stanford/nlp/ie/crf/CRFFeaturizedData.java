@@ -0,0 +1,323 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.Triple;
+
+import static edu.stanford.nlp.util.MappedFiles.align;
+import static edu.stanford.nlp.util.MappedFiles.littleEndian;
+
+/**
+ * The featurized training documents of a CRFClassifier, in a file which is mapped into memory
+ * and decoded a document at a time on each pass of training, so that the training data
+ * needn't fit in the heap as the arrays made by {@link CRFClassifier#documentsToDataAndLabels(Collection)}.
+ * The documents are featurized one at a time as they are written.  The file also holds the
+ * indices of the classes, labels and features, so it can be used again to train with other
+ * settings of the optimization (sigma, priorType, QNsize and so on) without reading or
+ * featurizing the documents again.
+ * <br>
+ * Each document is a record of varints: its number of tokens, the label of each token,
+ * and then for each token and clique size, one more than the number of features (0 for none
+ * at all), followed by the differences between each feature id and the one before it,
+ * zigzag encoded so that the features keep their order.  If the features have values
+ * (with useEmbedding), each list of features is followed by one more than the number of
+ * values (0 for none), and then the values as little endian doubles.  A record never
+ * crosses a boundary of {@link #SEGMENT_SIZE}, so that each segment can be mapped on its own.
+ * <br>
+ * The file is little endian, and starts with a fixed header:
+ * <pre>
+ *   int magic ("CRFD"), int version, int number of documents, int window size,
+ *   long end of the documents, long offset and long length of the indices,
+ *   long offset of the record offsets, int 1 if the features have values and else 0, int 0
+ * </pre>
+ * followed by the records, the serialized indices, and the offset of each record.
+ *
+ * @see CRFClassifier#train(Collection, edu.stanford.nlp.sequences.DocumentReaderAndWriter)
+ */
+class CRFFeaturizedData {
+
+  /** "CRFD", read little endian */
+  private static final int MAGIC = 0x44465243;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 56;
+  static final long SEGMENT_SIZE = 1L << 30;
+
+  private final int size;
+  private final int window;
+  private final boolean hasValues;
+  private final ByteBuffer[] segments;
+  private final LongBuffer offsets;
+  private final ByteBuffer indices;
+
+  private CRFFeaturizedData(int size, int window, boolean hasValues, ByteBuffer[] segments, LongBuffer offsets, ByteBuffer indices) {
+    this.size = size;
+    this.window = window;
+    this.hasValues = hasValues;
+    this.segments = segments;
+    this.offsets = offsets;
+    this.indices = indices;
+  }
+
+  /**
+   * Featurize documents, which the classifier has indexed, into a file, one document at a time.
+   *
+   * @param crf The classifier, whose indices are saved with the documents
+   * @param documents The documents to featurize
+   * @param file The file to write
+   * @return The number of documents written
+   */
+  static <IN extends CoreMap> int write(CRFClassifier<IN> crf, Collection<List<IN>> documents, File file) throws IOException {
+    ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(indexBytes)) {
+      crf.writeTrainingIndices(oos);
+    }
+
+    // only these are given values in memory, by documentsToDataAndLabels
+    boolean hasValues = crf.flags.useEmbedding;
+    List<Long> recordOffsets = new ArrayList<>();
+    long position = HEADER_SIZE;
+    try (FileOutputStream fos = new FileOutputStream(file);
+         OutputStream out = new BufferedOutputStream(fos, 1 << 16)) {
+      out.write(new byte[HEADER_SIZE]);
+      ByteArrayOutputStream record = new ByteArrayOutputStream();
+      for (List<IN> document : documents) {
+        Triple<int[][][], int[], double[][][]> dataAndLabels = crf.documentToDataAndLabels(document);
+        record.reset();
+        encode(dataAndLabels.first(), dataAndLabels.second(), hasValues ? dataAndLabels.third() : null, record);
+        if (record.size() > SEGMENT_SIZE) {
+          throw new IllegalArgumentException("A document is too large to featurize to disk: " + record.size() + " bytes");
+        }
+        if (position / SEGMENT_SIZE != (position + record.size() - 1) / SEGMENT_SIZE) {
+          // skip to the next segment, leaving a hole which reads as zeros
+          position += SEGMENT_SIZE - position % SEGMENT_SIZE;
+          out.flush();
+          fos.getChannel().position(position);
+        }
+        recordOffsets.add(position);
+        record.writeTo(out);
+        position += record.size();
+      }
+      long documentsEnd = position;
+      recordOffsets.add(documentsEnd);
+
+      long indicesOffset = documentsEnd;
+      out.write(indexBytes.toByteArray());
+      position += indexBytes.size();
+      long offsetsOffset = align(position);
+      out.write(new byte[(int) (offsetsOffset - position)]);
+      ByteBuffer offsetBytes = littleEndian(8 * recordOffsets.size());
+      for (long offset : recordOffsets) {
+        offsetBytes.putLong(offset);
+      }
+      out.write(offsetBytes.array());
+      out.flush();
+
+      ByteBuffer header = littleEndian(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(recordOffsets.size() - 1).putInt(crf.windowSize)
+          .putLong(documentsEnd).putLong(indicesOffset).putLong(indexBytes.size()).putLong(offsetsOffset)
+          .putInt(hasValues ? 1 : 0).putInt(0);
+      header.flip();
+      FileChannel channel = fos.getChannel();
+      for (long at = 0; header.hasRemaining(); ) {
+        at += channel.write(header, at);
+      }
+    }
+    return recordOffsets.size() - 1;
+  }
+
+  /** Map a file of featurized documents */
+  static CRFFeaturizedData open(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      // the mappings stay valid after the channel is closed
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt(0) != MAGIC) {
+        throw new IOException("Not a file of featurized CRF documents: " + file);
+      }
+      int version = header.getInt(4);
+      if (version != VERSION) {
+        throw new IOException("Unknown featurized CRF documents version " + version + " in " + file);
+      }
+      int size = header.getInt(8);
+      int window = header.getInt(12);
+      long documentsEnd = header.getLong(16);
+      long indicesOffset = header.getLong(24);
+      long indicesLength = header.getLong(32);
+      long offsetsOffset = header.getLong(40);
+      boolean hasValues = header.getInt(48) != 0;
+
+      ByteBuffer[] segments = new ByteBuffer[(int) ((documentsEnd + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+      for (int i = 0; i < segments.length; i++) {
+        long start = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, documentsEnd - start))
+            .order(ByteOrder.LITTLE_ENDIAN);
+      }
+      LongBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, offsetsOffset, 8L * (size + 1))
+          .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+      ByteBuffer indices = channel.map(FileChannel.MapMode.READ_ONLY, indicesOffset, indicesLength);
+      return new CRFFeaturizedData(size, window, hasValues, segments, offsets, indices);
+    }
+  }
+
+  /** @return The number of documents */
+  int size() {
+    return size;
+  }
+
+  /** Read the indices saved with the documents into a classifier, in place of indexing the documents */
+  void readIndices(CRFClassifier<?> crf) throws IOException, ClassNotFoundException {
+    byte[] bytes = new byte[indices.capacity()];
+    indices.duplicate().get(bytes);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      crf.readTrainingIndices(ois);
+    }
+    if (crf.windowSize != window) {
+      throw new IllegalStateException("The documents were featurized with a window of " + window + ", not " + crf.windowSize);
+    }
+  }
+
+  /** Decode the labels of a document */
+  int[] labels(int doc) {
+    long offset = offsets.get(doc);
+    ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)];
+    int[] position = { (int) (offset % SEGMENT_SIZE) };
+    int[] labels = new int[readVarint(segment, position)];
+    for (int t = 0; t < labels.length; t++) {
+      labels[t] = readVarint(segment, position);
+    }
+    return labels;
+  }
+
+  /** Decode the features of a document, as data[doc] of {@link CRFClassifier#documentsToDataAndLabels(Collection)} */
+  int[][][] data(int doc) {
+    int[][][] data = new int[numTokens(doc)][window][];
+    decode(doc, data, null);
+    return data;
+  }
+
+  /**
+   * Decode the values of the features of a document, as featureVals[doc] of
+   * {@link CRFClassifier#documentsToDataAndLabels(Collection)}.
+   *
+   * @return The values, or null if the features were saved without them, as they have none
+   */
+  double[][][] featureVals(int doc) {
+    if ( ! hasValues) {
+      return null;
+    }
+    int numTokens = numTokens(doc);
+    double[][][] values = new double[numTokens][window][];
+    decode(doc, new int[numTokens][window][], values);
+    return values;
+  }
+
+  private int numTokens(int doc) {
+    long offset = offsets.get(doc);
+    return readVarint(segments[(int) (offset / SEGMENT_SIZE)], new int[] { (int) (offset % SEGMENT_SIZE) });
+  }
+
+  /** Decode the features of a document into data, and their values into values, unless it is null */
+  private void decode(int doc, int[][][] data, double[][][] values) {
+    long offset = offsets.get(doc);
+    ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)];
+    int[] position = { (int) (offset % SEGMENT_SIZE) };
+    int numTokens = readVarint(segment, position);
+    for (int t = 0; t < numTokens; t++) {
+      readVarint(segment, position);
+    }
+    for (int t = 0; t < numTokens; t++) {
+      for (int j = 0; j < window; j++) {
+        int count = readVarint(segment, position) - 1;
+        if (count >= 0) {
+          int[] features = new int[count];
+          int feature = 0;
+          for (int m = 0; m < count; m++) {
+            int delta = readVarint(segment, position);
+            feature += (delta >>> 1) ^ -(delta & 1);
+            features[m] = feature;
+          }
+          data[t][j] = features;
+        }
+        if (hasValues) {
+          int numValues = readVarint(segment, position) - 1;
+          if (numValues >= 0 && values != null) {
+            values[t][j] = new double[numValues];
+            for (int m = 0; m < numValues; m++) {
+              values[t][j][m] = segment.getDouble(position[0] + 8 * m);
+            }
+          }
+          position[0] += 8 * Math.max(numValues, 0);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param featureVals The values of the features, or null to save them without values;
+   *                    as in {@link CRFClassifier#documentToDataAndLabels(List)}
+   */
+  private static void encode(int[][][] data, int[] labels, double[][][] featureVals, ByteArrayOutputStream out) {
+    writeVarint(out, labels.length);
+    for (int label : labels) {
+      writeVarint(out, label);
+    }
+    for (int t = 0; t < data.length; t++) {
+      for (int j = 0; j < data[t].length; j++) {
+        int[] features = data[t][j];
+        if (features == null) {
+          writeVarint(out, 0);
+        } else {
+          writeVarint(out, features.length + 1);
+          int previous = 0;
+          for (int feature : features) {
+            int delta = feature - previous;
+            writeVarint(out, (delta << 1) ^ (delta >> 31));
+            previous = feature;
+          }
+        }
+        if (featureVals != null) {
+          double[] values = featureVals[t][j];
+          if (values == null) {
+            writeVarint(out, 0);
+          } else {
+            writeVarint(out, values.length + 1);
+            ByteBuffer bytes = littleEndian(8 * values.length);
+            for (double value : values) {
+              bytes.putDouble(value);
+            }
+            out.write(bytes.array(), 0, bytes.capacity());
+          }
+        }
+      }
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /** Read a varint at an absolute position, so that threads can share the buffer */
+  private static int readVarint(ByteBuffer buffer, int[] position) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer.get(position[0]++);
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,41 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.util.List;
+
+import edu.stanford.nlp.util.Index;
+
+/**
+ * The objective function of a CRFClassifier over documents featurized to disk, which are decoded
+ * from their {@link CRFFeaturizedData} one at a time as they are used, on every pass.
+ * Only the features of the documents being worked on are in memory.
+ */
+class CRFFeaturizedDataObjectiveFunction extends CRFLogConditionalObjectiveFunction {
+
+  private final CRFFeaturizedData documents;
+
+  CRFFeaturizedDataObjectiveFunction(CRFFeaturizedData documents, int window, Index<String> classIndex,
+                                     List<Index<CRFLabel>> labelIndices, int[] map, String priorType,
+                                     String backgroundSymbol, double sigma, int multiThreadGrad) {
+    // data and labels are only placeholders, for their lengths
+    super(new int[documents.size()][][][], new int[documents.size()][], window, classIndex, labelIndices, map,
+        priorType, backgroundSymbol, sigma, null, multiThreadGrad, false);
+    this.documents = documents;
+    empiricalCounts(Ehat);
+  }
+
+  @Override
+  protected int[][][] docData(int docIndex) {
+    return documents.data(docIndex);
+  }
+
+  @Override
+  protected int[] docLabels(int docIndex) {
+    return documents.labels(docIndex);
+  }
+
+  @Override
+  protected double[][][] docFeatureVals(int docIndex) {
+    return documents.featureVals(docIndex);
+  }
+
+}
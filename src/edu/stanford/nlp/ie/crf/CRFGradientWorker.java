@@ -0,0 +1,194 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+
+import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.DocumentReaderAndWriter;
+import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.util.Triple;
+import edu.stanford.nlp.util.logging.Redwood;
+
+/**
+ * Computes the log-likelihood and its gradient over one shard of the training data of a
+ * CRFClassifier, for a coordinator which trains the classifier with the {@code trainWorkers} flag.
+ * Each worker only featurizes its own shard, so the featurized training data is spread over the
+ * heaps of the workers rather than having to fit in one, and each worker still uses
+ * {@code multiThreadGrad} threads on its shard.
+ * <br>
+ * The coordinator reads its training documents once, to index the classes, labels and
+ * features, and sends the indices to each worker; its training files should be the union of the
+ * shards of the workers.  It then runs the minimizer (which must be QN), sending each
+ * set of weights to all of the workers and adding up their results.  The result is the same
+ * model as training in one JVM.  To train with two workers:
+ * <pre>
+ *   java edu.stanford.nlp.ie.crf.CRFGradientWorker -port 5001 -trainFile shard1.tsv
+ *   java edu.stanford.nlp.ie.crf.CRFGradientWorker -port 5002 -trainFile shard2.tsv
+ *   java edu.stanford.nlp.ie.crf.CRFClassifier -prop ner.prop -trainFile all.tsv
+ *       -trainWorkers localhost:5001,localhost:5002 -serializeTo ner.ser.gz
+ * </pre>
+ * A worker takes the training file flags (trainFile, trainFiles or trainFileList, and
+ * baseTrainDir), multiThreadGrad, and the flags to read its files with, such as map and
+ * inputEncoding; the flags which define the features come from the coordinator.
+ * It serves one coordinator, and exits when the coordinator is done.
+ * <br>
+ * The worker trusts whoever connects to it first: the setup message is Java serialization,
+ * which the worker deserializes, so anyone who can reach the port can run code in the worker's
+ * JVM.  There is no authentication or encryption.  So by default the worker only listens on
+ * the loopback address, for a coordinator on the same machine.  To take a coordinator on
+ * another machine, give the address to listen on with {@code -host}, e.g., {@code -host 0.0.0.0}
+ * for all of them, and only do so on a network where every machine which can reach the port
+ * is trusted, or behind a firewall which only lets the coordinator through.
+ * <br>
+ * The messages over the connection, all big endian, are:
+ * <ul>
+ *   <li>SETUP, then the length and bytes of the classifier without weights (as written by
+ *       {@link CRFClassifier#serializeClassifier(ObjectOutputStream)}) followed by its feature map;
+ *       the worker answers with its number of documents and of weights</li>
+ *   <li>CALCULATE, then the weights; the worker answers with the negated log-likelihood of its
+ *       documents and its gradient, with no prior</li>
+ *   <li>DONE</li>
+ * </ul>
+ * where arrays of doubles are written as their length followed by the doubles.
+ */
+public class CRFGradientWorker implements Runnable {
+
+  /** A logger for this class */
+  private static final Redwood.RedwoodChannels log = Redwood.channels(CRFGradientWorker.class);
+
+  static final int SETUP = 1;
+  static final int CALCULATE = 2;
+  static final int DONE = 3;
+
+  private final ServerSocket serverSocket;
+  private final Properties props;
+  /** The documents of the shard, or null to read them with the training file flags */
+  private final Collection<List<CoreLabel>> documents;
+
+  /**
+   * @param serverSocket The socket to take the connection of the coordinator on; see above on which address to bind it to
+   * @param props The flags of the worker, which override those of the coordinator
+   */
+  public CRFGradientWorker(ServerSocket serverSocket, Properties props) {
+    this(serverSocket, props, null);
+  }
+
+  CRFGradientWorker(ServerSocket serverSocket, Properties props, Collection<List<CoreLabel>> documents) {
+    this.serverSocket = serverSocket;
+    this.props = props;
+    this.documents = documents;
+  }
+
+  /** Serve one coordinator, until it is done */
+  @Override
+  public void run() {
+    try (Socket socket = serverSocket.accept();
+         DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+      log.info("Coordinator connected from " + socket.getRemoteSocketAddress());
+      CRFLogConditionalObjectiveFunction func = null;
+      while (true) {
+        int command = in.readInt();
+        switch (command) {
+        case SETUP:
+          func = setUp(in);
+          out.writeInt(func.dataDimension());
+          out.writeInt(func.domainDimension());
+          out.flush();
+          break;
+        case CALCULATE:
+          if (func == null) {
+            throw new IllegalStateException("Asked to calculate before being set up");
+          }
+          double[] x = readDoubles(in);
+          out.writeDouble(func.valueAt(x));
+          writeDoubles(out, func.derivativeAt(x));
+          out.flush();
+          break;
+        case DONE:
+          log.info("Coordinator is done");
+          return;
+        default:
+          throw new IOException("Unknown command from coordinator: " + command);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeIOException(e);
+    }
+  }
+
+  /** Read the classifier of the coordinator, and featurize the shard with it */
+  private CRFLogConditionalObjectiveFunction setUp(DataInputStream in) throws IOException {
+    byte[] setup = new byte[in.readInt()];
+    in.readFully(setup);
+    CRFClassifier<CoreLabel> crf = new CRFClassifier<>(props);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(setup))) {
+      crf.loadClassifier(ois, props);
+      crf.map = (int[]) ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+
+    Collection<List<CoreLabel>> docs = documents;
+    if (docs == null) {
+      DocumentReaderAndWriter<CoreLabel> readerAndWriter = crf.makeReaderAndWriter();
+      if (props.getProperty("trainFiles") != null) {
+        docs = crf.makeObjectBankFromFiles(crf.flags.baseTrainDir, crf.flags.trainFiles, readerAndWriter);
+      } else if (props.getProperty("trainFileList") != null) {
+        docs = crf.makeObjectBankFromFiles(crf.flags.trainFileList.split(","), readerAndWriter);
+      } else if (props.getProperty("trainFile") != null) {
+        docs = crf.makeObjectBankFromFile(crf.flags.trainFile, readerAndWriter);
+      } else {
+        throw new IllegalArgumentException("A worker needs its shard of the training data, as -trainFile, -trainFiles or -trainFileList");
+      }
+    }
+    Triple<int[][][][], int[][], double[][][][]> dataAndLabels = crf.documentsToDataAndLabels(docs);
+    log.info("Featurized " + dataAndLabels.first().length + " documents");
+    // the coordinator adds the prior, once
+    return new CRFLogConditionalObjectiveFunction(dataAndLabels.first(), dataAndLabels.second(), crf.windowSize,
+        crf.classIndex, crf.labelIndices, crf.map, "NONE", crf.flags.backgroundSymbol, crf.flags.sigma, null,
+        crf.flags.multiThreadGrad);
+  }
+
+  static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+    out.writeInt(values.length);
+    for (double value : values) {
+      out.writeDouble(value);
+    }
+  }
+
+  static double[] readDoubles(DataInputStream in) throws IOException {
+    double[] values = new double[in.readInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readDouble();
+    }
+    return values;
+  }
+
+  /**
+   * Start a worker.  The options are -port, the port to listen for the coordinator on,
+   * -host, the address to listen on (by default the loopback address only; see above before
+   * changing it), and the flags of the worker, such as -trainFile.
+   */
+  public static void main(String[] args) throws IOException {
+    Properties props = StringUtils.argsToProperties(args);
+    String port = props.getProperty("port");
+    if (port == null) {
+      log.info("Usage: java " + CRFGradientWorker.class.getName() + " -port port [-host address] -trainFile shard.tsv [-multiThreadGrad threads]");
+      return;
+    }
+    String host = props.getProperty("host");
+    InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+    props.remove("port");
+    props.remove("host");
+    try (ServerSocket serverSocket = new ServerSocket(Integer.parseInt(port), 0, address)) {
+      log.info("Waiting for the coordinator on " + serverSocket.getInetAddress() + " port " + serverSocket.getLocalPort());
+      new CRFGradientWorker(serverSocket, props).run();
+    }
+  }
+
+}
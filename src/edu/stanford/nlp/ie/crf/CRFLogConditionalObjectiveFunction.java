@@ -157,14 +157,27 @@ public class CRFLogConditionalObjectiveFunction extends AbstractStochasticCachin
     }
   }
 
+  /** The features of a document, as in data[docIndex] */
+  protected int[][][] docData(int docIndex) {
+    return data[docIndex];
+  }
+
+  /** The labels of a document, as in labels[docIndex] */
+  protected int[] docLabels(int docIndex) {
+    return labels[docIndex];
+  }
+
+  /** The values of the features of a document, as in featureVal[docIndex], or null if they have none */
+  protected double[][][] docFeatureVals(int docIndex) {
+    return featureVal != null ? featureVal[docIndex] : null;
+  }
+
   protected void empiricalCountsForADoc(double[][] eHat, int docIndex) {
-    int[][][] docData = data[docIndex];
-    int[] docLabels = labels[docIndex];
+    int[][][] docData = docData(docIndex);
+    int[] docLabels = docLabels(docIndex);
     int[] windowLabels = new int[window];
     Arrays.fill(windowLabels, classIndex.indexOf(backgroundSymbol));
-    double[][][] featureValArr = null;
-    if (featureVal != null)
-      featureValArr = featureVal[docIndex];
+    double[][][] featureValArr = docFeatureVals(docIndex);
 
     if (docLabels.length>docData.length) { // only true for self-training
       // fill the windowLabel array with the extra docLabels
@@ -217,11 +230,8 @@ public class CRFLogConditionalObjectiveFunction extends AbstractStochasticCachin
   }
 
   protected double expectedCountsAndValueForADoc(double[][] E, int docIndex, boolean doExpectedCountCalc, boolean doValueCalc) {
-    int[][][] docData = data[docIndex];
-    double[][][] featureVal3DArr = null;
-    if (featureVal != null) {
-      featureVal3DArr = featureVal[docIndex];
-    }
+    int[][][] docData = docData(docIndex);
+    double[][][] featureVal3DArr = docFeatureVals(docIndex);
     // make a clique tree for this document
     CRFCliqueTree cliqueTree = CRFCliqueTree.getCalibratedCliqueTree(docData, labelIndices, numClasses, classIndex, backgroundSymbol, cliquePotentialFunc, featureVal3DArr);
 
@@ -262,7 +272,7 @@ public class CRFLogConditionalObjectiveFunction extends AbstractStochasticCachin
 
   /** Compute the log probability of the document given the model with the parameters x. */
   private double documentLogProbability(int[][][] docData, int docIndex, CRFCliqueTree cliqueTree) {
-    int[] docLabels = labels[docIndex];
+    int[] docLabels = docLabels(docIndex);
     int[] given = new int[window - 1];
     Arrays.fill(given, classIndex.indexOf(backgroundSymbol));
     if (docLabels.length>docData.length) { // only true for self-training
@@ -0,0 +1,214 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.MappedFiles;
+import edu.stanford.nlp.util.MappedStringIndex;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.util.logging.Redwood;
+
+import static edu.stanford.nlp.util.MappedFiles.align;
+import static edu.stanford.nlp.util.MappedFiles.ints;
+import static edu.stanford.nlp.util.MappedFiles.littleEndian;
+import static edu.stanford.nlp.util.MappedFiles.section;
+
+/**
+ * A binary file format for CRFClassifier models, which is mapped into memory
+ * rather than read, so that loading a model is nearly instant, and the JVMs on a
+ * host which load the same model share one copy of it in the page cache.
+ * <br>
+ * The feature names and the weights, which are most of a model, are stored in
+ * flat sections which are used where they are: the names are sorted and front coded,
+ * with a hash table to look them up (see {@link MappedStringIndex}), and the weights
+ * are floats or half-precision floats (see {@link MappedCliquePotentialFunction}).
+ * The rest of the model, such as the flags and the feature factories, is stored as it is
+ * by {@link CRFClassifier#serializeClassifier(ObjectOutputStream)} and read as usual.
+ * <br>
+ * The file is little endian, and starts with a fixed header:
+ * <pre>
+ *   int magic ("CRFB"), int version, int weight bits (32 or 16), int number of features,
+ *   int names per block, int hash table capacity,
+ *   long offset and long length of the serialized rest of the model,
+ *   long offset and long length of the names,
+ *   long offset of the blocks, long offset of the rows, long offset of the weights,
+ *   long offset of the hash table
+ * </pre>
+ * and the sections follow, each aligned to 8 bytes.
+ * <br>
+ * {@link CRFClassifier#loadClassifier(String, Properties)} recognizes these files, so they
+ * can be used wherever a serialized classifier can, as long as they are files and not
+ * classpath resources.  A mapped classifier can tag, and can be serialized again in
+ * either format.  To convert a serialized classifier: <br>
+ * {@code java edu.stanford.nlp.ie.crf.CRFModelFile -loadClassifier english.all.3class.distsim.crf.ser.gz
+ * -serializeTo english.all.3class.distsim.crfb [-halfPrecision]}
+ */
+public class CRFModelFile {
+
+  /** A logger for this class */
+  private static final Redwood.RedwoodChannels log = Redwood.channels(CRFModelFile.class);
+
+  /** "CRFB", read little endian */
+  private static final int MAGIC = 0x42465243;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 96;
+  private static final int BLOCK_SIZE = 16;
+
+  private CRFModelFile() {} // static methods
+
+  /** @return Whether the file is a model in this format */
+  public static boolean isModelFile(File file) {
+    return MappedFiles.hasMagic(file, MAGIC, HEADER_SIZE);
+  }
+
+  /**
+   * Write a classifier in this format.
+   *
+   * @param crf A classifier with linear weights
+   * @param file The file to write
+   * @param halfPrecision Whether to store the weights as half-precision floats rather than floats.
+   *                      The model is about half the size, and tags slightly differently.
+   */
+  public static void write(CRFClassifier<?> crf, File file, boolean halfPrecision) throws IOException {
+    if ( ! (crf.getCliquePotentialFunctionForTest() instanceof LinearPotentials)) {
+      throw new IllegalArgumentException("Only a classifier with linear weights can be written as a CRFModelFile");
+    }
+    crf.unmapWeights();
+    Index<String> featureIndex = crf.featureIndex;
+    double[][] weights = crf.weights;
+    int numFeatures = featureIndex.size();
+
+    // the features are stored sorted, so their ids change
+    String[] names = featureIndex.objectsList().toArray(new String[numFeatures]);
+    Integer[] order = new Integer[numFeatures];
+    for (int i = 0; i < numFeatures; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> names[a].compareTo(names[b]));
+
+    ByteArrayOutputStream rest = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(rest)) {
+      crf.serializeClassifier(oos, null, null);
+    }
+
+    String[] sorted = new String[numFeatures];
+    for (int i = 0; i < numFeatures; i++) {
+      sorted[i] = names[order[i]];
+    }
+    MappedStringIndex.Encoding encoding = MappedStringIndex.encode(sorted, BLOCK_SIZE);
+
+    int[] rows = new int[numFeatures + 1];
+    long numWeights = 0;
+    for (int i = 0; i < numFeatures; i++) {
+      rows[i] = (int) numWeights;
+      numWeights += weights[order[i]].length;
+      if (numWeights > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Too many weights for a CRFModelFile: " + numWeights);
+      }
+    }
+    rows[numFeatures] = (int) numWeights;
+
+    int capacity = encoding.table.length / 2;
+    long restOffset = HEADER_SIZE;
+    long namesOffset = align(restOffset + rest.size());
+    long blocksOffset = align(namesOffset + encoding.names.length);
+    long rowsOffset = align(blocksOffset + 4L * encoding.blocks.length);
+    long weightsOffset = align(rowsOffset + 4L * rows.length);
+    long tableOffset = align(weightsOffset + (halfPrecision ? 2 : 4) * numWeights);
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = littleEndian(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(halfPrecision ? 16 : 32).putInt(numFeatures)
+          .putInt(BLOCK_SIZE).putInt(capacity)
+          .putLong(restOffset).putLong(rest.size())
+          .putLong(namesOffset).putLong(encoding.names.length)
+          .putLong(blocksOffset).putLong(rowsOffset).putLong(weightsOffset).putLong(tableOffset);
+      MappedFiles.write(channel, header, 0);
+      MappedFiles.write(channel, ByteBuffer.wrap(rest.toByteArray()), restOffset);
+      MappedFiles.write(channel, ByteBuffer.wrap(encoding.names), namesOffset);
+      MappedFiles.write(channel, ints(encoding.blocks), blocksOffset);
+      MappedFiles.write(channel, ints(rows), rowsOffset);
+      long position = weightsOffset;
+      for (int i = 0; i < numFeatures; i++) {
+        double[] row = weights[order[i]];
+        ByteBuffer buffer = littleEndian(row.length * (halfPrecision ? 2 : 4));
+        for (double weight : row) {
+          if (halfPrecision) {
+            buffer.putShort(MappedCliquePotentialFunction.floatToHalf((float) weight));
+          } else {
+            buffer.putFloat((float) weight);
+          }
+        }
+        position += MappedFiles.write(channel, buffer, position);
+      }
+      MappedFiles.write(channel, ints(encoding.table), tableOffset);
+    }
+  }
+
+  /** Map a model file, and set the classifier up to use it */
+  static void load(CRFClassifier<?> crf, File file, Properties props) throws IOException, ClassNotFoundException {
+    ByteBuffer mapped = MappedFiles.map(file, MAGIC, VERSION, "CRF model");
+    int weightBits = mapped.getInt(8);
+    int numFeatures = mapped.getInt(12);
+    int blockSize = mapped.getInt(16);
+    int capacity = mapped.getInt(20);
+    long restOffset = mapped.getLong(24);
+    long restLength = mapped.getLong(32);
+    long namesOffset = mapped.getLong(40);
+    long namesLength = mapped.getLong(48);
+    long blocksOffset = mapped.getLong(56);
+    long rowsOffset = mapped.getLong(64);
+    long weightsOffset = mapped.getLong(72);
+    long tableOffset = mapped.getLong(80);
+
+    byte[] rest = new byte[(int) restLength];
+    ByteBuffer restBuffer = section(mapped, restOffset, restLength);
+    restBuffer.get(rest);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(rest))) {
+      crf.loadClassifier(ois, props);
+    }
+
+    int numBlocks = (numFeatures + blockSize - 1) / blockSize;
+    crf.featureIndex = new MappedStringIndex(numFeatures, blockSize,
+        section(mapped, namesOffset, namesLength),
+        section(mapped, blocksOffset, 4L * numBlocks).asIntBuffer(),
+        section(mapped, tableOffset, 8L * capacity).asIntBuffer());
+    ByteBuffer rows = section(mapped, rowsOffset, 4L * (numFeatures + 1));
+    int numWeights = rows.getInt(4 * numFeatures);
+    if (weightBits == 16) {
+      crf.cliquePotentialFunction = new MappedCliquePotentialFunction(rows.asIntBuffer(),
+          section(mapped, weightsOffset, 2L * numWeights).asShortBuffer());
+    } else if (weightBits == 32) {
+      crf.cliquePotentialFunction = new MappedCliquePotentialFunction(rows.asIntBuffer(),
+          section(mapped, weightsOffset, 4L * numWeights).asFloatBuffer());
+    } else {
+      throw new IOException("Unknown weight size " + weightBits + " in " + file);
+    }
+    crf.weights = null;
+  }
+
+  /**
+   * Convert a serialized classifier to this format.  The options are -loadClassifier, the
+   * classifier to convert, -serializeTo, the file to write, and -halfPrecision, to store the
+   * weights as half-precision floats.
+   */
+  public static void main(String[] args) throws Exception {
+    Properties props = StringUtils.argsToProperties(args);
+    String loadPath = props.getProperty("loadClassifier");
+    String serializeTo = props.getProperty("serializeTo");
+    if (loadPath == null || serializeTo == null) {
+      log.info("Usage: java " + CRFModelFile.class.getName() + " -loadClassifier model.ser.gz -serializeTo model.crfb [-halfPrecision]");
+      return;
+    }
+    CRFClassifier<?> crf = CRFClassifier.getClassifier(loadPath);
+    write(crf, new File(serializeTo), PropertiesUtils.getBool(props, "halfPrecision", false));
+    log.info("Wrote " + crf.featureIndex.size() + " features to " + serializeTo);
+  }
+
+}
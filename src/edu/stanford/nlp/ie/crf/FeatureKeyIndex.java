@@ -0,0 +1,63 @@
+package edu.stanford.nlp.ie.crf;
+
+import edu.stanford.nlp.sequences.FeatureKey;
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.MappedStringIndex;
+import edu.stanford.nlp.util.StringIdTable;
+import edu.stanford.nlp.util.StringIndex;
+
+/**
+ * A read-only hash table over the feature names of a CRF model, in which
+ * {@link FeatureKey}s can be looked up without building the Strings they stand for.
+ * It is built once when a model is first used for tagging, and is never saved with the model.
+ * A {@link MappedStringIndex} or a {@link StringIndex} has a table of its own, which is used instead.
+ */
+class FeatureKeyIndex {
+
+  private final Index<String> featureIndex;
+  private final MappedStringIndex mapped;
+  private final StringIndex strings;
+  private final int size;
+  private final StringIdTable table;
+
+  FeatureKeyIndex(Index<String> featureIndex) {
+    this.featureIndex = featureIndex;
+    this.size = featureIndex.size();
+    mapped = featureIndex instanceof MappedStringIndex ? (MappedStringIndex) featureIndex : null;
+    strings = featureIndex instanceof StringIndex ? (StringIndex) featureIndex : null;
+    if (mapped != null || strings != null) {
+      table = null;
+      return;
+    }
+    table = new StringIdTable(size);
+    for (int id = 0; id < size; ++id) {
+      table.put(id, featureIndex.get(id).hashCode());
+    }
+  }
+
+  /** @return Whether this is still the table of the given feature index */
+  boolean isFor(Index<String> index) {
+    return index == featureIndex && index.size() == size;
+  }
+
+  /** @return The id of the feature, as in the feature index, or -1 if the model doesn't have it */
+  int indexOf(FeatureKey key) {
+    if (mapped != null) {
+      return mapped.indexOf(key, key.hashCode());
+    }
+    if (strings != null) {
+      return strings.indexOf(key, key.hashCode());
+    }
+    int hash = key.hashCode();
+    for (int slot = table.slot(hash); ; slot = table.next(slot)) {
+      int id = table.id(slot);
+      if (id < 0) {
+        return -1;
+      }
+      if (table.hash(slot) == hash && key.matches(featureIndex.get(id))) {
+        return id;
+      }
+    }
+  }
+
+}
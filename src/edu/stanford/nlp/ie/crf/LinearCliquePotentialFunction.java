@@ -3,7 +3,7 @@ package edu.stanford.nlp.ie.crf;
 /**
  * @author Mengqiu Wang
  */
-public class LinearCliquePotentialFunction implements CliquePotentialFunction {
+public class LinearCliquePotentialFunction implements LinearPotentials {
 
   private final double[][] weights;
 
@@ -11,6 +11,14 @@ public class LinearCliquePotentialFunction implements CliquePotentialFunction {
     this.weights = weights;
   }
 
+  @Override
+  public void addWeights(int feature, double value, double[] potentials, int offset, int numLabelings) {
+    double[] row = weights[feature];
+    for (int k = 0; k < numLabelings; k++) {
+      potentials[offset + k] += row[k] * value;
+    }
+  }
+
   @Override
   public double computeCliquePotential(int cliqueSize, int labelIndex,
       int[] cliqueFeatures, double[] featureVal, int posInSent) {
@@ -0,0 +1,22 @@
+package edu.stanford.nlp.ie.crf;
+
+/**
+ * Clique potentials which are sums of the weights of the features of the clique,
+ * whose weights can be added up a row at a time.
+ *
+ * @see ViterbiDecoder
+ */
+interface LinearPotentials extends CliquePotentialFunction {
+
+  /**
+   * Add the weights of a feature, times its value, to the potentials of each labeling of its clique.
+   *
+   * @param feature The id of the feature
+   * @param value The value of the feature, which is 1.0 for a feature without values
+   * @param potentials The potentials to add to
+   * @param offset Where the labelings of the clique start in potentials
+   * @param numLabelings The number of labelings of the clique
+   */
+  void addWeights(int feature, double value, double[] potentials, int offset, int numLabelings);
+
+}
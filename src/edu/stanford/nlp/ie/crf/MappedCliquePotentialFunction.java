@@ -0,0 +1,136 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Linear clique potentials over the weights of a {@link CRFModelFile}, read straight
+ * from the file mapped into memory.  The weights are stored as floats, or as
+ * half-precision floats, a row for each feature, and are widened to doubles
+ * as they are summed.
+ */
+class MappedCliquePotentialFunction implements LinearPotentials {
+
+  /** Every half-precision float, as a float */
+  private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+  static {
+    for (int h = 0; h < HALF_TO_FLOAT.length; h++) {
+      HALF_TO_FLOAT[h] = halfToFloat((short) h);
+    }
+  }
+
+  /** Where the row of each feature starts, and then where the last one ends */
+  private final IntBuffer rows;
+  /** The weights, if they are floats */
+  private final FloatBuffer floats;
+  /** The weights, if they are half-precision floats */
+  private final ShortBuffer halves;
+
+  MappedCliquePotentialFunction(IntBuffer rows, FloatBuffer floats) {
+    this.rows = rows;
+    this.floats = floats;
+    this.halves = null;
+  }
+
+  MappedCliquePotentialFunction(IntBuffer rows, ShortBuffer halves) {
+    this.rows = rows;
+    this.floats = null;
+    this.halves = halves;
+  }
+
+  /** @return The weight of a feature for a labeling of its clique */
+  double weight(int feature, int labelIndex) {
+    int index = rows.get(feature) + labelIndex;
+    return floats != null ? floats.get(index) : HALF_TO_FLOAT[halves.get(index) & 0xffff];
+  }
+
+  /** @return The weights of a feature, for each labeling of its clique */
+  double[] weights(int feature) {
+    int start = rows.get(feature);
+    double[] row = new double[rows.get(feature + 1) - start];
+    for (int k = 0; k < row.length; k++) {
+      row[k] = weight(feature, k);
+    }
+    return row;
+  }
+
+  @Override
+  public double computeCliquePotential(int cliqueSize, int labelIndex,
+      int[] cliqueFeatures, double[] featureVal, int posInSent) {
+    double output = 0.0;
+    for (int m = 0; m < cliqueFeatures.length; m++) {
+      double dotProd = weight(cliqueFeatures[m], labelIndex);
+      if (featureVal != null) {
+        dotProd *= featureVal[m];
+      }
+      output += dotProd;
+    }
+    return output;
+  }
+
+  @Override
+  public void addWeights(int feature, double value, double[] potentials, int offset, int numLabelings) {
+    int start = rows.get(feature);
+    if (floats != null) {
+      for (int k = 0; k < numLabelings; k++) {
+        potentials[offset + k] += floats.get(start + k) * value;
+      }
+    } else {
+      for (int k = 0; k < numLabelings; k++) {
+        potentials[offset + k] += HALF_TO_FLOAT[halves.get(start + k) & 0xffff] * value;
+      }
+    }
+  }
+
+  /** @return The half-precision float nearest to a float, rounding to even */
+  static short floatToHalf(float f) {
+    int bits = Float.floatToIntBits(f);
+    int sign = (bits >>> 16) & 0x8000;
+    int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+    int mantissa = bits & 0x7fffff;
+    if (exponent >= 0x1f) {
+      if (((bits >>> 23) & 0xff) == 0xff && mantissa != 0) {
+        return (short) (sign | 0x7e00);  // NaN
+      }
+      return (short) (sign | 0x7c00);  // too big: infinity
+    }
+    if (exponent <= 0) {
+      if (exponent < -10) {
+        return (short) sign;  // too small: zero
+      }
+      // subnormal
+      mantissa |= 0x800000;
+      int shift = 14 - exponent;
+      int half = mantissa >> shift;
+      int rest = mantissa & ((1 << shift) - 1);
+      int halfway = 1 << (shift - 1);
+      if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+        half++;
+      }
+      return (short) (sign | half);
+    }
+    int half = (exponent << 10) | (mantissa >> 13);
+    int rest = mantissa & 0x1fff;
+    if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+      half++;  // may carry into the exponent, up to infinity, which is right
+    }
+    return (short) (sign | half);
+  }
+
+  static float halfToFloat(short h) {
+    int bits = h & 0xffff;
+    int sign = (bits & 0x8000) << 16;
+    int exponent = (bits >>> 10) & 0x1f;
+    int mantissa = bits & 0x3ff;
+    if (exponent == 0x1f) {
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+    }
+    if (exponent == 0) {
+      float value = mantissa * 0x1p-24f;
+      return sign == 0 ? value : -value;
+    }
+    return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+  }
+
+}
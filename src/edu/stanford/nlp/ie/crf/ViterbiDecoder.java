@@ -0,0 +1,238 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.nlp.util.Index;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
+
+/**
+ * Viterbi decoding for a CRF with linear clique potentials, done directly on the
+ * potentials of the cliques, in flat arrays.
+ * <br>
+ * The best sequence of a calibrated {@link CRFCliqueTree} is the sequence with the highest
+ * sum of clique potentials, so there is no need to build and calibrate the factor tables
+ * to find it.  Here the potentials at each position are summed into one array, indexed by
+ * the labels of the whole window, and the recursion runs over the states of the
+ * previous window - 1 labels.  The arrays are kept for each thread and reused
+ * from one sentence to the next.
+ * <br>
+ * The search can also be pruned with an adaptive beam: after each position, the states
+ * whose score is more than a margin below the best one are dropped.  Where one label
+ * clearly beats the others, as on most tokens of news text which are plainly O,
+ * a single state goes on to the next position, and all of them are only kept where the
+ * labels are close.  The margin is a difference of log potentials, so states more than
+ * e<sup>margin</sup> times less likely than the best path so far are dropped.
+ *
+ * @see CRFClassifier#classifySentences(List)
+ */
+class ViterbiDecoder {
+
+  private final LinearPotentials potentials;
+  private final int numClasses;
+  private final int window;
+  /** The number of states: the possible labelings of window - 1 positions */
+  private final int numStates;
+  /** The number of labelings of a whole window */
+  private final int numWindows;
+  private final int startState;
+  /** For each clique size - 1, the number of labelings of that size */
+  private final int[] numLabelings;
+  /** For each clique size - 1, where its potentials start in the array of potentials of a position */
+  private final int[] offsets;
+  private final int totalLabelings;
+  /**
+   * For each clique size - 1 and each labeling of the window, the index of the potential of
+   * the clique's labels in the array of potentials, or -1 if the model never saw those labels.
+   */
+  private final int[][] cliqueOfWindow;
+
+  private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+  /** The arrays of one decoding, grown as needed */
+  private class Scratch {
+    double[] potentials = new double[totalLabelings];
+    double[] scores = new double[numStates];
+    double[] nextScores = new double[numStates];
+    int[] alive = new int[numStates];
+    int[] backPointers = new int[0];
+  }
+
+  ViterbiDecoder(LinearPotentials potentials, List<Index<CRFLabel>> labelIndices,
+                 int numClasses, int backgroundIndex) {
+    this.potentials = potentials;
+    this.numClasses = numClasses;
+    this.window = labelIndices.size();
+    int states = 1;
+    int start = 0;
+    for (int i = 0; i < window - 1; i++) {
+      states *= numClasses;
+      start = start * numClasses + backgroundIndex;
+    }
+    numStates = states;
+    numWindows = states * numClasses;
+    startState = start;
+
+    numLabelings = new int[window];
+    offsets = new int[window];
+    int total = 0;
+    for (int j = 0; j < window; j++) {
+      offsets[j] = total;
+      numLabelings[j] = labelIndices.get(j).size();
+      total += numLabelings[j];
+    }
+    totalLabelings = total;
+
+    cliqueOfWindow = new int[window][numWindows];
+    for (int j = 0; j < window; j++) {
+      // the labels of a clique of size j + 1 are the last j + 1 digits of the window
+      int size = 1;
+      for (int i = 0; i <= j; i++) {
+        size *= numClasses;
+      }
+      int[] ofSuffix = new int[size];
+      Arrays.fill(ofSuffix, -1);
+      Index<CRFLabel> labelIndex = labelIndices.get(j);
+      for (int k = 0; k < numLabelings[j]; k++) {
+        int suffix = 0;
+        for (int label : labelIndex.get(k).getLabel()) {
+          suffix = suffix * numClasses + label;
+        }
+        ofSuffix[suffix] = offsets[j] + k;
+      }
+      for (int w = 0; w < numWindows; w++) {
+        cliqueOfWindow[j][w] = ofSuffix[w % size];
+      }
+    }
+  }
+
+  /** @return Whether this decodes with the given potentials */
+  boolean isFor(CliquePotentialFunction cliquePotentialFunction) {
+    return cliquePotentialFunction == potentials;
+  }
+
+  /**
+   * Find the best labels of a sentence.
+   *
+   * @param data The features of each position, for each clique size, as made by
+   *             {@link CRFClassifier#documentToDataAndLabels(List)}
+   * @param featureVals The values of the features, which may be null
+   * @param allowedTags The labels allowed at each position, or null if all of them are
+   * @param best Where to put the best label of each position
+   */
+  void bestSequence(int[][][] data, double[][][] featureVals, int[][] allowedTags, int[] best) {
+    bestSequence(data, featureVals, allowedTags, Double.POSITIVE_INFINITY, best);
+  }
+
+  /**
+   * Find the best labels of a sentence, keeping only the states within a margin of the best
+   * one after each position.  With an infinite margin, the search is exact.
+   *
+   * @param data The features of each position, for each clique size, as made by
+   *             {@link CRFClassifier#documentToDataAndLabels(List)}
+   * @param featureVals The values of the features, which may be null
+   * @param allowedTags The labels allowed at each position, or null if all of them are
+   * @param margin How far below the best score a state may be and still be kept
+   * @param best Where to put the best label of each position
+   * @return The total number of states kept, over all positions
+   */
+  int bestSequence(int[][][] data, double[][][] featureVals, int[][] allowedTags, double margin, int[] best) {
+    if (Thread.interrupted()) {  // Allow interrupting
+      throw new RuntimeInterruptedException();
+    }
+    int length = data.length;
+    Scratch s = scratch.get();
+    if (s.backPointers.length < length * numStates) {
+      s.backPointers = new int[Math.max(length * numStates, 2 * s.backPointers.length)];
+    }
+    double[] potentialsAt = s.potentials;
+    double[] scores = s.scores;
+    double[] nextScores = s.nextScores;
+    int[] alive = s.alive;
+    int[] backPointers = s.backPointers;
+
+    Arrays.fill(scores, Double.NEGATIVE_INFINITY);
+    scores[startState] = 0.0;
+    alive[0] = startState;
+    int numAlive = 1;
+    int kept = 0;
+    for (int t = 0; t < length; t++) {
+      // the potential of each labeling of each clique; multiplying by 1.0 keeps the sums exact
+      Arrays.fill(potentialsAt, 0.0);
+      for (int j = 0; j < window; j++) {
+        int[] features = data[t][j];
+        double[] values = featureVals == null || featureVals[t] == null ? null : featureVals[t][j];
+        for (int m = 0; m < features.length; m++) {
+          potentials.addWeights(features[m], values == null ? 1.0 : values[m], potentialsAt, offsets[j], numLabelings[j]);
+        }
+      }
+
+      Arrays.fill(nextScores, Double.NEGATIVE_INFINITY);
+      int[] tags = allowedTags == null ? null : allowedTags[t];
+      int numTags = tags == null ? numClasses : tags.length;
+      int back = t * numStates;
+      for (int a = 0; a < numAlive; a++) {
+        int state = alive[a];
+        double score = scores[state];
+        int first = state * numClasses;
+        for (int i = 0; i < numTags; i++) {
+          int w = first + (tags == null ? i : tags[i]);
+          double next = score + windowScore(w, potentialsAt);
+          int nextState = w % numStates;
+          if (next > nextScores[nextState]) {
+            nextScores[nextState] = next;
+            backPointers[back + nextState] = w;
+          }
+        }
+      }
+
+      double threshold = Double.NEGATIVE_INFINITY;
+      if (margin < Double.POSITIVE_INFINITY) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : nextScores) {
+          max = Math.max(max, score);
+        }
+        threshold = max - margin;
+      }
+      numAlive = 0;
+      for (int state = 0; state < numStates; state++) {
+        if (nextScores[state] > Double.NEGATIVE_INFINITY && nextScores[state] >= threshold) {
+          alive[numAlive++] = state;
+        } else {
+          nextScores[state] = Double.NEGATIVE_INFINITY;
+        }
+      }
+      kept += numAlive;
+      double[] swap = scores;
+      scores = nextScores;
+      nextScores = swap;
+    }
+
+    int state = 0;
+    for (int i = 1; i < numStates; i++) {
+      if (scores[i] > scores[state]) {
+        state = i;
+      }
+    }
+    for (int t = length - 1; t >= 0; t--) {
+      int w = backPointers[t * numStates + state];
+      best[t] = w % numClasses;
+      state = w / numClasses;
+    }
+    return kept;
+  }
+
+  /** The potential of a labeling of the window, summed over its cliques, as in a FactorTable */
+  private double windowScore(int w, double[] potentialsAt) {
+    double score = 0.0;
+    for (int j = 0; j < window; j++) {
+      int clique = cliqueOfWindow[j][w];
+      if (clique < 0) {
+        return Double.NEGATIVE_INFINITY;
+      }
+      score = j == 0 ? potentialsAt[clique] : potentialsAt[clique] + score;
+    }
+    return score;
+  }
+
+}
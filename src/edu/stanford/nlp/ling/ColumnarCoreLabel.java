@@ -0,0 +1,279 @@
+package edu.stanford.nlp.ling;
+
+import java.util.*;
+
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * A {@link CoreLabel} whose most common annotations are kept in a {@link TokenColumns} store,
+ * shared with the other tokens of its document, rather than in the label itself.
+ * It can be used anywhere a CoreLabel is: the annotations which have no column,
+ * or whose value is null, are kept by the label as usual.
+ * <br>
+ * A copy made with {@link CoreLabel#CoreLabel(CoreLabel)}, or by serialization, is a plain CoreLabel.
+ *
+ * @see TokenColumns#columnar(List)
+ */
+public class ColumnarCoreLabel extends CoreLabel {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient TokenColumns columns;
+  private final int row;
+
+  /**
+   * Create the view of a token of a store.
+   *
+   * @param columns The store of the document's tokens
+   * @param row Which token of the store this is
+   */
+  public ColumnarCoreLabel(TokenColumns columns, int row) {
+    super(0);
+    if (row < 0 || row >= columns.size()) {
+      throw new IndexOutOfBoundsException("Token " + row + " of a store of " + columns.size());
+    }
+    this.columns = columns;
+    this.row = row;
+  }
+
+  /** Set all the annotations of another CoreMap on this label */
+  void putAll(CoreMap other) {
+    for (Class<?> key : other.keySet()) {
+      @SuppressWarnings("unchecked")
+      Class<? extends Key<Object>> typedKey = (Class<? extends Key<Object>>) key;
+      set(typedKey, other.get(typedKey));
+    }
+    compact();
+  }
+
+  @Override
+  protected boolean isSelfContained() {
+    return false;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <VALUE> VALUE get(Class<? extends Key<VALUE>> key) {
+    int column = TokenColumns.column(key);
+    if (column >= 0 && columns.has(row, column)) {
+      if (ArrayCoreMap.listener != null) {
+        ArrayCoreMap.listener.accept(key);
+      }
+      return (VALUE) columns.get(row, column);
+    }
+    return super.get(key);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <VALUE> VALUE set(Class<? extends Key<VALUE>> key, VALUE value) {
+    int column = TokenColumns.column(key);
+    if (column < 0) {
+      return super.set(key, value);
+    }
+    VALUE previous = (VALUE) columns.get(row, column);
+    if (TokenColumns.accepts(column, value)) {
+      if (previous == null) {
+        previous = super.remove(key);
+      }
+      columns.set(row, column, value);
+      return previous;
+    } else {
+      columns.clear(row, column);
+      VALUE stored = super.set(key, value);
+      return previous != null ? previous : stored;
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <VALUE> VALUE remove(Class<? extends Key<VALUE>> key) {
+    int column = TokenColumns.column(key);
+    if (column >= 0 && columns.has(row, column)) {
+      VALUE previous = (VALUE) columns.get(row, column);
+      columns.clear(row, column);
+      return previous;
+    }
+    return super.remove(key);
+  }
+
+  @Override
+  public <VALUE> boolean containsKey(Class<? extends Key<VALUE>> key) {
+    int column = TokenColumns.column(key);
+    return (column >= 0 && columns.has(row, column)) || super.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return columns.count(row) + super.size();
+  }
+
+  @Override
+  public Set<Class<?>> keySet() {
+    List<Class<?>> keys = new ArrayList<>(size());
+    for (int column = 0; column < TokenColumns.KEYS.length; ++column) {
+      if (columns.has(row, column)) {
+        keys.add(TokenColumns.KEYS[column]);
+      }
+    }
+    keys.addAll(super.keySet());
+    return new AbstractSet<Class<?>>() {
+      @Override
+      public Iterator<Class<?>> iterator() {
+        return new Iterator<Class<?>>() {
+          private final Iterator<Class<?>> iterator = keys.iterator();
+          private Class<?> last;
+
+          @Override
+          public boolean hasNext() {
+            return iterator.hasNext();
+          }
+
+          @Override
+          public Class<?> next() {
+            last = iterator.next();
+            return last;
+          }
+
+          @Override
+          @SuppressWarnings("unchecked")
+          public void remove() {
+            iterator.remove();
+            ColumnarCoreLabel.this.remove((Class<? extends Key<Object>>) last);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keys.size();
+      }
+    };
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Set<Class<?>> keySetNotNull() {
+    Set<Class<?>> keys = super.keySetNotNull();
+    for (int column = 0; column < TokenColumns.KEYS.length; ++column) {
+      if (columns.has(row, column)) {
+        keys.add(TokenColumns.KEYS[column]);
+      }
+    }
+    return keys;
+  }
+
+  // The accessors of the int columns, without boxing
+
+  @Override
+  public int index() {
+    return columns.has(row, TokenColumns.INDEX) ? columns.intValue(row, TokenColumns.INDEX) : super.index();
+  }
+
+  @Override
+  public int sentIndex() {
+    return columns.has(row, TokenColumns.SENTENCE_INDEX) ? columns.intValue(row, TokenColumns.SENTENCE_INDEX) : super.sentIndex();
+  }
+
+  @Override
+  public int beginPosition() {
+    return columns.has(row, TokenColumns.BEGIN_POSITION) ? columns.intValue(row, TokenColumns.BEGIN_POSITION) : super.beginPosition();
+  }
+
+  @Override
+  public int endPosition() {
+    return columns.has(row, TokenColumns.END_POSITION) ? columns.intValue(row, TokenColumns.END_POSITION) : super.endPosition();
+  }
+
+  // The rest of ArrayCoreMap reads its own arrays directly, so these add the columns to what it finds there.
+  // The columns come first, as in keySet().
+
+  /** The hash code of ArrayCoreMap is linear in the sums of the hash codes of the keys and of the values */
+  @Override
+  public int hashCode() {
+    int keysCode = 0;
+    int valuesCode = 0;
+    for (int column = 0; column < TokenColumns.KEYS.length; ++column) {
+      if (columns.has(row, column)) {
+        keysCode += TokenColumns.KEYS[column].hashCode();
+        valuesCode += columns.get(row, column).hashCode();
+      }
+    }
+    return keysCode * 37 + valuesCode + super.hashCode();
+  }
+
+  @Override
+  public String toShorterString(String... what) {
+    StringBuilder s = new StringBuilder("[");
+    for (int column = 0; column < TokenColumns.KEYS.length; ++column) {
+      String name = shortName(TokenColumns.KEYS[column]);
+      if (columns.has(row, column) && includes(what, name)) {
+        if (s.length() > 1) {
+          s.append(' ');
+        }
+        s.append(name).append('=').append(columns.get(row, column));
+      }
+    }
+    String rest = super.toShorterString(what);
+    if (rest.length() > 2) {
+      if (s.length() > 1) {
+        s.append(' ');
+      }
+      s.append(rest, 1, rest.length() - 1);
+    }
+    return s.append(']').toString();
+  }
+
+  @Override
+  public String toShortString(char separator, String... what) {
+    StringBuilder s = new StringBuilder();
+    for (int column = 0; column < TokenColumns.KEYS.length; ++column) {
+      if (columns.has(row, column) && includes(what, shortName(TokenColumns.KEYS[column]))) {
+        if (s.length() > 0) {
+          s.append(separator);
+        }
+        s.append(columns.get(row, column));
+      }
+    }
+    String rest = super.toShortString(separator, what);
+    if (rest.indexOf(' ') >= 0) {
+      // ArrayCoreMap wraps its answer in braces exactly when it has a space
+      rest = rest.substring(1, rest.length() - 1);
+    }
+    if ( ! rest.isEmpty()) {
+      if (s.length() > 0) {
+        s.append(separator);
+      }
+      s.append(rest);
+    }
+    String answer = s.toString();
+    return answer.indexOf(' ') < 0 ? answer : '{' + answer + '}';
+  }
+
+  /** The name of a key as it is printed and asked for, e.g., PartOfSpeech */
+  private static String shortName(Class<?> key) {
+    String name = key.getSimpleName();
+    int annoIdx = name.lastIndexOf("Annotation");
+    return annoIdx >= 0 ? name.substring(0, annoIdx) : name;
+  }
+
+  /** Whether a key is one of those asked for, where none at all means all of them */
+  private static boolean includes(String[] what, String name) {
+    if (what.length == 0) {
+      return true;
+    }
+    for (String item : what) {
+      if (item.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** The store is not serialized; a plain copy is */
+  private Object writeReplace() {
+    return new CoreLabel(this);
+  }
+
+}
@@ -0,0 +1,192 @@
+package edu.stanford.nlp.ling;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A column store for the most common annotations of the tokens of a document,
+ * to be read and written through {@link ColumnarCoreLabel} views.
+ * <br>
+ * A plain {@link CoreLabel} keeps each of its annotations as an object of its own:
+ * a boxed Integer for each offset and index, and a String for each of its word,
+ * tag, NER tag, lemma, and so on.  For a long document, that is millions of small
+ * objects.  Here, the integer annotations are kept in {@code int[]} columns, and the
+ * string annotations are interned into a table shared by all the tokens of the document,
+ * so that each distinct word or tag is stored once and a token only holds its id.
+ * Any other annotation is kept by the view itself, as in a CoreLabel.
+ * <br>
+ * The store is safe to use from several threads at once, as long as each token is
+ * only written by one thread at a time, which is already the case for a CoreLabel.
+ * A value is written to its column before the bit saying that the token has it is set,
+ * and the bits are volatile, so a thread which finds that a token has a value also
+ * finds the value.
+ *
+ * @see #columnar(List)
+ */
+public class TokenColumns {
+
+  /** The annotations kept as ids of interned strings */
+  private static final Class<?>[] STRING_KEYS = {
+      CoreAnnotations.TextAnnotation.class,
+      CoreAnnotations.OriginalTextAnnotation.class,
+      CoreAnnotations.ValueAnnotation.class,
+      CoreAnnotations.BeforeAnnotation.class,
+      CoreAnnotations.AfterAnnotation.class,
+      CoreAnnotations.PartOfSpeechAnnotation.class,
+      CoreAnnotations.NamedEntityTagAnnotation.class,
+      CoreAnnotations.LemmaAnnotation.class,
+      CoreAnnotations.DocIDAnnotation.class,
+  };
+
+  /** The annotations kept as ints */
+  private static final Class<?>[] INT_KEYS = {
+      CoreAnnotations.CharacterOffsetBeginAnnotation.class,
+      CoreAnnotations.CharacterOffsetEndAnnotation.class,
+      CoreAnnotations.IndexAnnotation.class,
+      CoreAnnotations.SentenceIndexAnnotation.class,
+      CoreAnnotations.TokenBeginAnnotation.class,
+      CoreAnnotations.TokenEndAnnotation.class,
+  };
+
+  /** All the column keys: the string ones, and then the int ones */
+  static final Class<?>[] KEYS = new Class<?>[STRING_KEYS.length + INT_KEYS.length];
+  static {
+    System.arraycopy(STRING_KEYS, 0, KEYS, 0, STRING_KEYS.length);
+    System.arraycopy(INT_KEYS, 0, KEYS, STRING_KEYS.length, INT_KEYS.length);
+  }
+
+  /** The index in {@link #KEYS} of each column key, so that a get does not scan them */
+  private static final Map<Class<?>, Integer> COLUMNS = new IdentityHashMap<>();
+  static {
+    for (int i = 0; i < KEYS.length; ++i) {
+      COLUMNS.put(KEYS[i], i);
+    }
+  }
+
+  static final int BEGIN_POSITION = column(CoreAnnotations.CharacterOffsetBeginAnnotation.class);
+  static final int END_POSITION = column(CoreAnnotations.CharacterOffsetEndAnnotation.class);
+  static final int INDEX = column(CoreAnnotations.IndexAnnotation.class);
+  static final int SENTENCE_INDEX = column(CoreAnnotations.SentenceIndexAnnotation.class);
+
+  private final int size;
+  /** The columns, by their index in {@link #KEYS}; a column is only allocated once it is first set */
+  private final AtomicReferenceArray<int[]> columns = new AtomicReferenceArray<>(KEYS.length);
+  /** For each token, a bit for each of its columns which is set; each value is published by setting its bit */
+  private final AtomicIntegerArray present;
+
+  /** The interned strings, by id.  The array is replaced, never changed in place, when it grows. */
+  private volatile String[] strings = new String[64];
+  /** The ids of the interned strings; new ones are only added holding the lock on this */
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+  /**
+   * Create an empty store.
+   *
+   * @param size The number of tokens to store
+   */
+  public TokenColumns(int size) {
+    this.size = size;
+    this.present = new AtomicIntegerArray(size);
+  }
+
+  /**
+   * Copy a list of tokens into a new store, and return the views of the copies,
+   * which can be used wherever the tokens were.
+   * The tokens given are not changed.
+   */
+  public static List<CoreLabel> columnar(List<CoreLabel> tokens) {
+    TokenColumns columns = new TokenColumns(tokens.size());
+    List<CoreLabel> views = new ArrayList<>(tokens.size());
+    for (int i = 0; i < tokens.size(); ++i) {
+      ColumnarCoreLabel view = new ColumnarCoreLabel(columns, i);
+      view.putAll(tokens.get(i));
+      views.add(view);
+    }
+    return views;
+  }
+
+  /** @return The number of tokens in this store */
+  public int size() {
+    return size;
+  }
+
+  /** @return The number of distinct strings stored, across all the string columns */
+  public int distinctStrings() {
+    return ids.size();
+  }
+
+  /** @return The index of the column for this key, or -1 if the key is not kept in a column */
+  static int column(Class<?> key) {
+    Integer column = COLUMNS.get(key);
+    return column != null ? column : -1;
+  }
+
+  /** @return Whether a value of this type can be kept in the given column */
+  static boolean accepts(int column, Object value) {
+    return column < STRING_KEYS.length ? value instanceof String : value instanceof Integer;
+  }
+
+  boolean has(int row, int column) {
+    return (present.get(row) & (1 << column)) != 0;
+  }
+
+  int intValue(int row, int column) {
+    return columns.get(column)[row];
+  }
+
+  /** @return The value of a column for a token, or null if it is not set */
+  Object get(int row, int column) {
+    if ( ! has(row, column)) {
+      return null;
+    }
+    int value = columns.get(column)[row];
+    return column < STRING_KEYS.length ? strings[value] : Integer.valueOf(value);
+  }
+
+  /** Set the value of a column for a token; the value must be {@link #accepts(int, Object) accepted} */
+  void set(int row, int column, Object value) {
+    int stored = column < STRING_KEYS.length ? intern((String) value) : (Integer) value;
+    int[] values = columns.get(column);
+    if (values == null) {
+      columns.compareAndSet(column, null, new int[size]);
+      values = columns.get(column);
+    }
+    values[row] = stored;
+    // only one thread writes a token, so the bits need no compare and set
+    present.set(row, present.get(row) | 1 << column);
+  }
+
+  void clear(int row, int column) {
+    present.set(row, present.get(row) & ~(1 << column));
+  }
+
+  /** @return How many columns are set for a token */
+  int count(int row) {
+    return Integer.bitCount(present.get(row));
+  }
+
+  private int intern(String value) {
+    Integer id = ids.get(value);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(value);
+      if (id == null) {
+        id = ids.size();
+        String[] table = strings;
+        if (id == table.length) {
+          table = Arrays.copyOf(table, table.length * 2);
+        }
+        table[id] = value;
+        strings = table;
+        // published last, so that whoever finds the id also finds the string
+        ids.put(value, id);
+      }
+      return id;
+    }
+  }
+
+}
@@ -6,6 +6,7 @@ import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
 import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,8 +44,9 @@ public class Classifier  {
   // b1: hiddenSize
   // W2: numLabels x hiddenSize
 
-  // Weight matrices
-  private final double[][] W1, W2, E;
+  // Weight matrices (null once stored in another precision for parsing,
+  // see #makeParsingWeights)
+  private double[][] W1, W2, E;
   private final double[] b1;
 
   // Global gradSaved
@@ -70,6 +72,49 @@ public class Classifier  {
    */
   private final Map<Integer, Integer> preMap;
 
+  /**
+   * The entries of {@link #preMap} in an open-addressed table, so that
+   * they can be looked up while parsing without boxing: for each slot,
+   * the feature ID plus one (or 0 if the slot is empty), and then its
+   * index into {@link #saved}.
+   */
+  private final int[] preTable;
+
+  /**
+   * The weights used for parsing, made again whenever {@link #saved} is,
+   * and dropped whenever a training step changes the weights.
+   *
+   * @see #computeScores(int[][], int, double[][], double[][])
+   */
+  private volatile ParsingWeights parsingWeights;
+
+  /**
+   * Space for an embedding and for the activations of an input, for
+   * each thread feeding batches forward, so that it is not allocated
+   * on every call of {@link #computeScores(int[][], int, double[][], double[][])}.
+   */
+  private final ThreadLocal<double[][]> scoreBuffers;
+
+  /**
+   * The embeddings, W1 and W2 transposed, so that a batch can be fed
+   * forward a row at a time, and the precomputed activations, all
+   * stored in the precision of {@link Config#weightPrecision}. When not
+   * training, the activations of further inputs are cached in
+   * {@code cache} while parsing.
+   */
+  private static class ParsingWeights {
+    final WeightMatrix E, W1T, W2T, saved;
+    final PreComputeCache cache;
+
+    ParsingWeights(WeightMatrix E, WeightMatrix W1T, WeightMatrix W2T, WeightMatrix saved, PreComputeCache cache) {
+      this.E = E;
+      this.W1T = W1T;
+      this.W2T = W2T;
+      this.saved = saved;
+      this.cache = cache;
+    }
+  }
+
   /**
    * Initial training state is dependent on how the classifier is
    * initialized. We use this flag to determine whether calls to
@@ -145,6 +190,19 @@ public class Classifier  {
     for (int i = 0; i < preComputed.size() && i < config.numPreComputed; ++i)
       preMap.put(preComputed.get(i), i);
 
+    int capacity = Integer.highestOneBit(Math.max(2 * preMap.size(), 2) - 1) << 1;
+    preTable = new int[2 * capacity];
+    for (Map.Entry<Integer, Integer> entry : preMap.entrySet()) {
+      int slot = preSlot(entry.getKey(), capacity);
+      while (preTable[2 * slot] != 0)
+        slot = (slot + 1) & (capacity - 1);
+      preTable[2 * slot] = entry.getKey() + 1;
+      preTable[2 * slot + 1] = entry.getValue();
+    }
+
+    scoreBuffers = ThreadLocal.withInitial(() -> new double[][] {
+        new double[config.embeddingSize], new double[config.hiddenSize] });
+
     isTraining = dataset != null;
     if (isTraining)
       jobHandler = new MulticoreWrapper<>(config.trainingThreads, new CostFunction(), false);
@@ -600,6 +658,9 @@ public class Classifier  {
         }
       }
     }
+
+    // The weights used for parsing are copies, so they are stale now
+    parsingWeights = null;
   }
 
   private void initGradientHistories() {
@@ -646,11 +707,20 @@ public class Classifier  {
   /**
    * Pre-compute hidden layer activations for some set of possible
    * feature inputs.
+   * <p>
+   * If the weights were already stored in less than double precision
+   * for parsing, they are first made into doubles again from those, so
+   * the activations are found from the weights as rounded.
    *
    * @param toPreCompute Set of feature IDs for which hidden layer
    *                     activations should be precomputed
    */
-  public void preCompute(Set<Integer> toPreCompute) {
+  public synchronized void preCompute(Set<Integer> toPreCompute) {
+    if (W1 == null) {
+      E = getE();
+      W1 = getW1();
+      W2 = getW2();
+    }
     long startTime = System.currentTimeMillis();
 
     // NB: It'd make sense to just make the first dimension of this
@@ -670,49 +740,194 @@ public class Classifier  {
     }
     log.info("PreComputed " + toPreCompute.size() + ", Elapsed Time: " + (System
         .currentTimeMillis() - startTime) / 1000.0 + " (s)");
+
+    makeParsingWeights();
   }
 
-  double[] computeScores(int[] feature) {
-    return computeScores(feature, preMap);
+  /**
+   * Makes the weights used for parsing from the current weights and
+   * precomputed activations. A classifier made for training always
+   * parses in double precision, even once training is finalized, and
+   * has no cache.
+   * <p>
+   * When parsing in less than double precision, the weights in doubles
+   * (and the precomputed activations) are dropped afterwards to save
+   * memory. {@link #getE()}, {@link #getW1()} and {@link #getW2()} then
+   * return them as stored, and {@link #preCompute(Set)} starts from
+   * those. The precomputed activations are stored as floats rather than
+   * bytes in INT8 precision, as in the {@link PreComputeCache}.
+   */
+  private synchronized void makeParsingWeights() {
+    boolean training = dataset != null;
+    Config.WeightPrecision precision = training ? Config.WeightPrecision.DOUBLE : config.weightPrecision;
+    Config.WeightPrecision savedPrecision = precision == Config.WeightPrecision.INT8 ? Config.WeightPrecision.FLOAT : precision;
+    ParsingWeights weights = new ParsingWeights(WeightMatrix.of(E, precision),
+        WeightMatrix.of(transpose(W1), precision), WeightMatrix.of(transpose(W2), precision),
+        WeightMatrix.of(saved != null ? saved : new double[0][], savedPrecision),
+        training ? null : new PreComputeCache(config.preComputeCacheSize, config.hiddenSize, precision));
+    if (precision != Config.WeightPrecision.DOUBLE) {
+      long bytes = weights.E.bytes() + weights.W1T.bytes() + weights.W2T.bytes() + weights.saved.bytes();
+      log.info(String.format("Stored weights in %s precision for parsing: %.1f MB", precision, bytes / 1e6));
+      E = W1 = W2 = saved = null;
+    }
+    parsingWeights = weights;
+  }
+
+  private ParsingWeights parsingWeights() {
+    ParsingWeights weights = parsingWeights;
+    if (weights == null) {
+      synchronized (this) {
+        if (parsingWeights == null)
+          makeParsingWeights();
+        weights = parsingWeights;
+      }
+    }
+    return weights;
+  }
+
+  private static double[][] transpose(double[][] m) {
+    double[][] t = new double[m[0].length][m.length];
+    for (int i = 0; i < m.length; ++i)
+      for (int j = 0; j < m[i].length; ++j)
+        t[j][i] = m[i][j];
+    return t;
+  }
+
+  /** The slot to start looking for a feature ID at in {@link #preTable} */
+  private static int preSlot(int index, int capacity) {
+    int h = (index ^ (index >>> 16)) * 0x85ebca6b;
+    h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+    return (h ^ (h >>> 16)) & (capacity - 1);
+  }
+
+  /**
+   * The index into {@link #saved} of a feature ID, or -1 if its hidden
+   * layer activations are not precomputed.
+   */
+  private int preComputedIndex(int index) {
+    int mask = preTable.length / 2 - 1;
+    for (int slot = preSlot(index, mask + 1); ; slot = (slot + 1) & mask) {
+      int key = preTable[2 * slot] - 1;
+      if (key == index)
+        return preTable[2 * slot + 1];
+      if (key < 0)
+        return -1;
+    }
   }
 
   /**
    * Feed a feature vector forward through the network. Returns the
    * values of the output layer.
    */
-  private double[] computeScores(int[] feature, Map<Integer, Integer> preMap) {
-    double[] hidden = new double[config.hiddenSize];
-    int offset = 0;
-    for (int j = 0; j < feature.length; ++j) {
-      int tok = feature[j];
-      int index = tok * config.numTokens + j;
-
-      if (preMap.containsKey(index)) {
-        int id = preMap.get(index);
-        for (int i = 0; i < config.hiddenSize; ++i)
-          hidden[i] += saved[id][i];
-      } else {
-        for (int i = 0; i < config.hiddenSize; ++i)
-          for (int k = 0; k < config.embeddingSize; ++k)
-            hidden[i] += W1[i][offset + k] * E[tok][k];
+  double[] computeScores(int[] feature) {
+    double[][] scores = new double[1][numLabels];
+    computeScores(new int[][] { feature }, 1, new double[1][config.hiddenSize], scores);
+    return scores[0];
+  }
+
+  /**
+   * Feed a batch of feature vectors forward through the network at
+   * once. Each input feature, taken across the batch, adds either its
+   * precomputed activations or its embedding times its block of W1 to
+   * the hidden layer, so that the block is only fetched once per batch;
+   * the output layer is then computed for the whole batch from the rows
+   * of W2. Every score is summed in the same order as when feeding one
+   * vector forward, so batching doesn't change any parse.
+   * <p>
+   * The weights are stored in the precision of
+   * {@link Config#weightPrecision}, but the layers are always summed in
+   * doubles.
+   * <p>
+   * Inputs that were not precomputed are looked up in the
+   * {@link PreComputeCache}, and are added to it once they are seen
+   * often enough. With a cache, scores depend on what was parsed before
+   * in their last bits.
+   *
+   * @param features Feature vectors, of which the first {@code n} are
+   *                 fed forward
+   * @param n The size of the batch
+   * @param hidden Space for the hidden layer, at least {@code n} rows
+   *               of {@code hiddenSize}
+   * @param scores Filled with the values of the output layer, in the
+   *               first {@code n} rows of {@code numLabels}
+   */
+  void computeScores(int[][] features, int n, double[][] hidden, double[][] scores) {
+    ParsingWeights weights = parsingWeights();
+    WeightMatrix E = weights.E, W1T = weights.W1T, W2T = weights.W2T, saved = weights.saved;
+    PreComputeCache cache = weights.cache;
+    int hiddenSize = config.hiddenSize, embeddingSize = config.embeddingSize;
+
+    for (int b = 0; b < n; ++b)
+      Arrays.fill(hidden[b], 0, hiddenSize, 0.0);
+
+    double[][] buffers = scoreBuffers.get();
+    double[] embedding = buffers[0], activations = buffers[1];
+    int preComputedHits = 0, cacheHits = 0, misses = 0;
+    for (int j = 0, offset = 0; j < config.numTokens; ++j, offset += embeddingSize) {
+      for (int b = 0; b < n; ++b) {
+        int tok = features[b][j];
+        int index = tok * config.numTokens + j;
+        int id = preComputedIndex(index);
+        if (id >= 0) {
+          saved.addRow(id, hidden[b]);
+          preComputedHits++;
+          continue;
+        }
+
+        WeightMatrix cached = cache != null ? cache.get(index) : null;
+        if (cached != null) {
+          cached.addRow(0, hidden[b]);
+          cacheHits++;
+          continue;
+        }
+
+        misses++;
+        E.getRow(tok, embedding);
+        if (cache != null && cache.admits(index)) {
+          Arrays.fill(activations, 0.0);
+          W1T.addRows(offset, embedding, activations);
+          cache.put(index, activations).addRow(0, hidden[b]);
+        } else {
+          W1T.addRows(offset, embedding, hidden[b]);
+        }
       }
-      offset += config.embeddingSize;
     }
+    if (cache != null)
+      cache.record(preComputedHits, cacheHits, misses);
+
+    for (int b = 0; b < n; ++b) {
+      double[] h = hidden[b];
+      double[] score = scores[b];
+      for (int i = 0; i < hiddenSize; ++i) {
+        h[i] += b1[i];
+        h[i] = h[i] * h[i] * h[i];  // cube nonlinearity
+      }
 
-    for (int i = 0; i < config.hiddenSize; ++i) {
-      hidden[i] += b1[i];
-      hidden[i] = hidden[i] * hidden[i] * hidden[i];  // cube nonlinearity
+      Arrays.fill(score, 0, numLabels, 0.0);
+      W2T.addRows(0, h, score);
     }
+  }
 
-    double[] scores = new double[numLabels];
-    for (int i = 0; i < numLabels; ++i)
-      for (int j = 0; j < config.hiddenSize; ++j)
-        scores[i] += W2[i][j] * hidden[j];
-    return scores;
+  /**
+   * The cache of hidden-layer activations filled while parsing, which
+   * also counts how often precomputed activations are used, or null
+   * for a classifier made for training.
+   */
+  public PreComputeCache getPreComputeCache() {
+    return parsingWeights().cache;
   }
 
+  /** The precomputed activations, as stored for parsing.  Visible for testing. */
+  WeightMatrix getSaved() {
+    return parsingWeights().saved;
+  }
+
+  // When the weights are stored in less than double precision, these
+  // return them in doubles again, as rounded
+
   public double[][] getW1() {
-    return W1;
+    double[][] W1 = this.W1;
+    return W1 != null ? W1 : transpose(parsingWeights().W1T.toArray());
   }
 
   public double[] getb1() {
@@ -720,11 +935,13 @@ public class Classifier  {
   }
 
   public double[][] getW2() {
-    return W2;
+    double[][] W2 = this.W2;
+    return W2 != null ? W2 : transpose(parsingWeights().W2T.toArray());
   }
 
   public double[][] getE() {
-    return E;
+    double[][] E = this.E;
+    return E != null ? E : parsingWeights().E.toArray();
   }
 
   /**
@@ -0,0 +1,77 @@
+package edu.stanford.nlp.parser.nndep;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+import edu.stanford.nlp.util.Pair;
+import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.util.logging.Redwood;
+
+/**
+ * Measures the cost in accuracy of storing a parser model's weights in less
+ * than double precision (see {@link Config#weightPrecision}). The model is
+ * loaded once in each precision, and its UAS and LAS on a CoNLL-X treebank,
+ * as found by {@link DependencyParser#testCoNLLScores(String, String)}, are
+ * compared with those in double precision.
+ * <p>
+ * Usage: {@code java edu.stanford.nlp.parser.nndep.CompareWeightPrecision -model modelFile -testFile dev.conll [-maxLoss 0.5]}
+ * <p>
+ * Other options are passed on to the parser. The program exits with status 1
+ * if the LAS in some precision is more than {@code maxLoss} points below the
+ * LAS in double precision.
+ */
+public class CompareWeightPrecision {
+
+  /** A logger for this class */
+  private static Redwood.RedwoodChannels log = Redwood.channels(CompareWeightPrecision.class);
+
+  private CompareWeightPrecision() {} // static methods
+
+  /**
+   * Parses a treebank with a model in each precision.
+   *
+   * @param modelFile The model to load
+   * @param testFile A treebank in CoNLL-X format
+   * @param props Other options for the parser
+   * @return The UAS and LAS in each precision
+   */
+  public static Map<Config.WeightPrecision, Pair<Double, Double>> compare(String modelFile, String testFile,
+                                                                          Properties props) {
+    Map<Config.WeightPrecision, Pair<Double, Double>> scores = new EnumMap<>(Config.WeightPrecision.class);
+    for (Config.WeightPrecision precision : Config.WeightPrecision.values()) {
+      Properties precisionProps = new Properties();
+      precisionProps.putAll(props);
+      precisionProps.setProperty("weightPrecision", precision.name());
+      DependencyParser parser = DependencyParser.loadFromModelFile(modelFile, precisionProps);
+      scores.put(precision, parser.testCoNLLScores(testFile, null));
+    }
+    return scores;
+  }
+
+  public static void main(String[] args) {
+    Properties props = StringUtils.argsToProperties(args);
+    String modelFile = props.getProperty("model", DependencyParser.DEFAULT_MODEL);
+    String testFile = props.getProperty("testFile");
+    if (testFile == null) {
+      log.info("Usage: java " + CompareWeightPrecision.class.getName() + " -model modelFile -testFile dev.conll [-maxLoss 0.5]");
+      System.exit(2);
+    }
+    double maxLoss = Double.parseDouble(props.getProperty("maxLoss", "0.5"));
+
+    Map<Config.WeightPrecision, Pair<Double, Double>> scores = compare(modelFile, testFile, props);
+    Pair<Double, Double> baseline = scores.get(Config.WeightPrecision.DOUBLE);
+    boolean failed = false;
+    System.out.printf("%-8s %8s %8s %8s%n", "", "UAS", "LAS", "LAS loss");
+    for (Map.Entry<Config.WeightPrecision, Pair<Double, Double>> entry : scores.entrySet()) {
+      double loss = baseline.second() - entry.getValue().second();
+      System.out.printf("%-8s %8.4f %8.4f %8.4f%n", entry.getKey(), entry.getValue().first(), entry.getValue().second(), loss);
+      failed |= loss > maxLoss;
+    }
+    if (failed) {
+      System.out.printf("LAS dropped by more than %.2f points%n", maxLoss);
+      System.exit(1);
+    }
+  }
+
+}
@@ -208,6 +208,38 @@ public class Config {
    */
   public String tagger = MaxentTagger.DEFAULT_JAR_PATH;
 
+  /**
+   * Number of sentences to parse together when parsing several at once.
+   * The classifier scores the next transitions of all of the sentences
+   * in a batch together.
+   *
+   * @see DependencyParser#predictMultiple(java.util.List)
+   */
+  public int parseBatchSize = 64;
+
+  /** The precisions in which weights can be stored for parsing */
+  public enum WeightPrecision { DOUBLE, FLOAT, INT8 }
+
+  /**
+   * The precision in which the weights of a loaded model, and the
+   * precomputed hidden-layer activations, are stored for parsing.
+   * {@code FLOAT} halves their size, and {@code INT8} stores each row of
+   * weights as bytes with a scale, in about an eighth of the size,
+   * at a small cost in accuracy. Training always uses doubles.
+   */
+  public WeightPrecision weightPrecision = WeightPrecision.DOUBLE;
+
+  /**
+   * Megabytes of memory to cache hidden-layer activations in while
+   * parsing, for inputs that are frequent in the text being parsed but
+   * were not precomputed at training time. The cache is shared by all
+   * threads parsing with the same model. If 0, nothing is cached, but
+   * the lookups of precomputed inputs are still counted.
+   *
+   * @see PreComputeCache
+   */
+  public double preComputeCacheSize = 0;
+
   public Config(Properties properties) {
     setProperties(properties);
   }
@@ -236,6 +268,9 @@ public class Config {
     // Runtime parsing options
     sentenceDelimiter = PropertiesUtils.getString(props, "sentenceDelimiter", sentenceDelimiter);
     tagger = PropertiesUtils.getString(props, "tagger.model", tagger);
+    parseBatchSize = PropertiesUtils.getInt(props, "parseBatchSize", parseBatchSize);
+    weightPrecision = PropertiesUtils.get(props, "weightPrecision", weightPrecision, WeightPrecision.class);
+    preComputeCacheSize = PropertiesUtils.getDouble(props, "preComputeCacheSize", preComputeCacheSize);
 
     String escaperClass = props.getProperty("escaper");
     escaper = escaperClass != null ? ReflectionLoading.loadByReflection(escaperClass) : null;
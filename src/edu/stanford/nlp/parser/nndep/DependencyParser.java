@@ -28,6 +28,7 @@ import edu.stanford.nlp.trees.UniversalEnglishGrammaticalStructure;
 import edu.stanford.nlp.trees.international.pennchinese.ChineseGrammaticalRelations;
 import edu.stanford.nlp.trees.international.pennchinese.ChineseGrammaticalStructure;
 import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.RuntimeInterruptedException;
 import edu.stanford.nlp.util.StringUtils;
 import edu.stanford.nlp.util.Timing;
@@ -38,7 +39,6 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.*;
 
-import static java.util.stream.Collectors.toList;
 
 /**
  * This class defines a transition-based dependency parser which makes
@@ -146,11 +146,13 @@ public class DependencyParser  {
    *         "unknown" word if the word is unknown
    */
   public int getWordID(String s) {
-      return wordIDs.containsKey(s) ? wordIDs.get(s) : wordIDs.get(Config.UNKNOWN);
+      Integer id = wordIDs.get(s);
+      return id != null ? id : wordIDs.get(Config.UNKNOWN);
   }
 
   public int getPosID(String s) {
-      return posIDs.containsKey(s) ? posIDs.get(s) : posIDs.get(Config.UNKNOWN);
+      Integer id = posIDs.get(s);
+      return id != null ? id : posIDs.get(Config.UNKNOWN);
   }
 
   public int getLabelID(String s) {
@@ -217,8 +219,12 @@ public class DependencyParser  {
   private static final int STACK_OFFSET = 6;
   private static final int STACK_NUMBER = 6;
 
-  private int[] getFeatureArray(Configuration c) {
-    int[] feature = new int[config.numTokens];  // positions 0-17 hold fWord, 18-35 hold fPos, 36-47 hold fLabel
+  /**
+   * Fills in the features of a configuration, as {@link #getFeatures(Configuration)}
+   * lists them, in an array of {@code numTokens} ints.
+   */
+  private int[] getFeatureArray(Configuration c, int[] feature) {
+    // positions 0-17 hold fWord, 18-35 hold fPos, 36-47 hold fLabel
 
     for (int j = 2; j >= 0; --j) {
       int index = c.getStack(j);
@@ -710,7 +716,7 @@ public class DependencyParser  {
         // prediction, we just do this once in #initialize
         classifier.preCompute();
 
-        List<DependencyTree> predicted = devSents.stream().map(this::predictInner).collect(toList());
+        List<DependencyTree> predicted = predictInner(devSents);
 
         double uas = config.noPunc ? system.getUASnoPunc(devSents, predicted, devTrees) : system.getUAS(devSents, predicted, devTrees);
         log.info("UAS: " + uas);
@@ -735,7 +741,8 @@ public class DependencyParser  {
     if (devFile != null) {
       // Do final UAS evaluation and save if final model beats the
       // best intermediate one
-      List<DependencyTree> predicted = devSents.stream().map(this::predictInner).collect(toList());
+      classifier.preCompute();
+      List<DependencyTree> predicted = predictInner(devSents);
       double uas = config.noPunc ? system.getUASnoPunc(devSents, predicted, devTrees) : system.getUAS(devSents, predicted, devTrees);
 
       if (uas > bestUAS) {
@@ -911,33 +918,96 @@ public class DependencyParser  {
   }
 
   /**
-   * Determine the dependency parse of the given sentence.
+   * Determine the dependency parses of the given sentences.
    * <p>
-   * This "inner" method returns a structure unique to this package; use {@link #predict(edu.stanford.nlp.util.CoreMap)}
+   * Up to {@link Config#parseBatchSize} sentences are parsed together
+   * in a batch, each taking one transition at a time, so that the
+   * classifier scores the configurations of the whole batch at once.
+   * As soon as a sentence is parsed, the next one takes its place.
+   * <p>
+   * This "inner" method returns a structure unique to this package; use {@link #predictMultiple(java.util.List)}
    * for general parsing purposes.
    */
-  private DependencyTree predictInner(CoreMap sentence) {
+  private List<DependencyTree> predictInner(List<? extends CoreMap> sentences) {
     int numTrans = system.numTransitions();
+    int batchSize = Math.max(1, Math.min(config.parseBatchSize, sentences.size()));
+
+    DependencyTree[] trees = new DependencyTree[sentences.size()];
+    Configuration[] batch = new Configuration[batchSize];
+    int[] sentenceIndex = new int[batchSize];
+    int[][] features = new int[batchSize][config.numTokens];
+    double[][] hidden = new double[batchSize][config.hiddenSize];
+    double[][] scores = new double[batchSize][numTrans];
+
+    int next = 0;
+    int size = 0;
+    while (true) {
+      // Fill the batch up with the next sentences
+      for (; size < batchSize && next < sentences.size(); ++next) {
+        Configuration c = system.initialConfiguration(sentences.get(next));
+        if (system.isTerminal(c)) {
+          trees[next] = c.tree;
+        } else {
+          batch[size] = c;
+          sentenceIndex[size] = next;
+          size++;
+        }
+      }
+      if (size == 0)
+        break;
 
-    Configuration c = system.initialConfiguration(sentence);
-    while (!system.isTerminal(c)) {
       if (Thread.interrupted()) {  // Allow interrupting
         throw new RuntimeInterruptedException();
       }
-      double[] scores = classifier.computeScores(getFeatureArray(c));
-
-      double optScore = Double.NEGATIVE_INFINITY;
-      String optTrans = null;
-
-      for (int j = 0; j < numTrans; ++j) {
-        if (scores[j] > optScore && system.canApply(c, system.transitions.get(j))) {
-          optScore = scores[j];
-          optTrans = system.transitions.get(j);
+      for (int b = 0; b < size; ++b)
+        getFeatureArray(batch[b], features[b]);
+      classifier.computeScores(features, size, hidden, scores);
+
+      for (int b = 0; b < size; ) {
+        Configuration c = batch[b];
+        double optScore = Double.NEGATIVE_INFINITY;
+        String optTrans = null;
+
+        for (int j = 0; j < numTrans; ++j) {
+          if (scores[b][j] > optScore && system.canApply(c, system.transitions.get(j))) {
+            optScore = scores[b][j];
+            optTrans = system.transitions.get(j);
+          }
+        }
+        system.apply(c, optTrans);
+
+        if (system.isTerminal(c)) {
+          // Move the last configuration of the batch into this one's place
+          trees[sentenceIndex[b]] = c.tree;
+          size--;
+          batch[b] = batch[size];
+          sentenceIndex[b] = sentenceIndex[size];
+          batch[size] = null;
+          double[] row = scores[b];
+          scores[b] = scores[size];
+          scores[size] = row;
+        } else {
+          b++;
         }
       }
-      system.apply(c, optTrans);
     }
-    return c.tree;
+    return Arrays.asList(trees);
+  }
+
+  /**
+   * Determine the dependency parse of the given sentence.
+   * <p>
+   * This "inner" method returns a structure unique to this package; use {@link #predict(edu.stanford.nlp.util.CoreMap)}
+   * for general parsing purposes.
+   */
+  private DependencyTree predictInner(CoreMap sentence) {
+    return predictInner(Collections.singletonList(sentence)).get(0);
+  }
+
+  private void checkInitialized() {
+    if (system == null)
+      throw new IllegalStateException("Parser has not been  " +
+          "loaded and initialized; first load a model.");
   }
 
   /**
@@ -948,13 +1018,30 @@ public class DependencyParser  {
    *         (see {@link #initialize(boolean)}
    */
   public GrammaticalStructure predict(CoreMap sentence) {
-    if (system == null)
-      throw new IllegalStateException("Parser has not been  " +
-          "loaded and initialized; first load a model.");
+    checkInitialized();
+    return makeGrammaticalStructure(sentence, predictInner(sentence));
+  }
 
-    DependencyTree result = predictInner(sentence);
+  /**
+   * Determine the dependency parses of several sentences using the loaded
+   * model. This is faster than calling {@link #predict(edu.stanford.nlp.util.CoreMap)}
+   * on each of them, as the sentences are parsed in batches
+   * (see {@link Config#parseBatchSize}).
+   *
+   * @throws java.lang.IllegalStateException If parser has not yet been loaded and initialized
+   *         (see {@link #initialize(boolean)}
+   */
+  public List<GrammaticalStructure> predictMultiple(List<? extends CoreMap> sentences) {
+    checkInitialized();
+    List<DependencyTree> results = predictInner(sentences);
+    List<GrammaticalStructure> structures = new ArrayList<>(sentences.size());
+    for (int i = 0; i < sentences.size(); i++)
+      structures.add(makeGrammaticalStructure(sentences.get(i), results.get(i)));
+    return structures;
+  }
 
-    // The rest of this method is just busy-work to convert the
+  private GrammaticalStructure makeGrammaticalStructure(CoreMap sentence, DependencyTree result) {
+    // This method is just busy-work to convert the
     // package-local representation into a CoreNLP-standard
     // GrammaticalStructure.
 
@@ -1027,6 +1114,10 @@ public class DependencyParser  {
    * @see #predict(edu.stanford.nlp.util.CoreMap)
    */
   public GrammaticalStructure predict(List<? extends HasWord> sentence) {
+    return predict(toCoreMap(sentence));
+  }
+
+  private static CoreMap toCoreMap(List<? extends HasWord> sentence) {
     CoreLabel sentenceLabel = new CoreLabel();
     List<CoreLabel> tokens = new ArrayList<>();
 
@@ -1058,7 +1149,26 @@ public class DependencyParser  {
 
     sentenceLabel.set(CoreAnnotations.TokensAnnotation.class, tokens);
 
-    return predict(sentenceLabel);
+    return sentenceLabel;
+  }
+
+  /**
+   * The cache of hidden-layer activations which the classifier fills while
+   * parsing, and its hit rates so far. It is shared by all threads parsing
+   * with this parser.
+   *
+   * @return The cache, or null if no model is loaded or the model is being
+   *         trained
+   * @see Config#preComputeCacheSize
+   */
+  public PreComputeCache getPreComputeCache() {
+    return classifier != null ? classifier.getPreComputeCache() : null;
+  }
+
+  private void logPreComputeCache() {
+    PreComputeCache cache = getPreComputeCache();
+    if (cache != null)
+      log.info(cache);
   }
 
   //TODO: support sentence-only files as input
@@ -1070,6 +1180,16 @@ public class DependencyParser  {
    *  @return The LAS score on the dataset
    */
   public double testCoNLL(String testFile, String outFile) {
+    return testCoNLLScores(testFile, outFile).second();
+  }
+
+  /** Run the parser in the modelFile on a testFile and perhaps save output.
+   *
+   *  @param testFile File to parse. In CoNLL-X format. Assumed to have gold answers included.
+   *  @param outFile File to write results to in CoNLL-X format.  If null, no output is written
+   *  @return The UAS and LAS scores on the dataset
+   */
+  public Pair<Double, Double> testCoNLLScores(String testFile, String outFile) {
     log.info("Test File: " + testFile);
     Timing timer = new Timing();
     List<CoreMap> testSents = new ArrayList<>();
@@ -1092,7 +1212,7 @@ public class DependencyParser  {
     }
     System.err.printf("OOV Words: %d / %d = %.2f%%\n", numOOVWords, numWords, numOOVWords * 100.0 / numWords);
 
-    List<DependencyTree> predicted = testSents.stream().map(this::predictInner).collect(toList());
+    List<DependencyTree> predicted = predictInner(testSents);
     Map<String, Double> result = system.evaluate(testSents, predicted, testTrees);
 
     double uas = config.noPunc ? result.get("UASnoPunc") : result.get("UAS");
@@ -1105,11 +1225,12 @@ public class DependencyParser  {
     double sentspersec = numSentences / (((double) millis) / 1000);
     System.err.printf("%s parsed %d words in %d sentences in %.1fs at %.1f w/s, %.1f sent/s.%n",
             StringUtils.getShortClassName(this), numWords, numSentences, millis / 1000.0, wordspersec, sentspersec);
+    logPreComputeCache();
 
     if (outFile != null) {
         Util.writeConllFile(outFile, testSents, predicted);
     }
-    return las;
+    return new Pair<>(uas, las);
   }
 
   private void parseTextFile(BufferedReader input, PrintWriter output) {
@@ -1132,10 +1253,13 @@ public class DependencyParser  {
 
     timer.start();
 
-    int numSentences = 0;
+    List<CoreMap> sentences = new ArrayList<>(tagged.size());
     for (List<TaggedWord> taggedSentence : tagged) {
-      GrammaticalStructure parse = predict(taggedSentence);
+      sentences.add(toCoreMap(taggedSentence));
+    }
 
+    int numSentences = 0;
+    for (GrammaticalStructure parse : predictMultiple(sentences)) {
       Collection<TypedDependency> deps = parse.typedDependencies();
       for (TypedDependency dep : deps)
         output.println(dep);
@@ -1148,6 +1272,7 @@ public class DependencyParser  {
     double seconds = millis / 1000.0;
     System.err.printf("Parsed %d sentences in %.2f seconds (%.2f sents/sec).%n",
         numSentences, seconds, numSentences / seconds);
+    logPreComputeCache();
   }
 
   /**
@@ -1243,8 +1368,11 @@ public class DependencyParser  {
    *   <tr><th>Option</th><th>Default</th><th>Description</th></tr>
    *   <tr><td><tt>&#8209;escaper</tt></td><td>N/A</td><td>Only applicable for testing with <tt>-textFile</tt>. If provided, use this word-escaper when parsing raw sentences. (Should be a fully-qualified class name like <tt>edu.stanford.nlp.trees.international.arabic.ATBEscaper</tt>.)</td></tr>
    *   <tr><td><tt>&#8209;numPreComputed</tt></td><td>100000</td><td>The parser pre-computes hidden-layer unit activations for particular inputs words at both training and testing time in order to speed up feedforward computation in the neural network. This parameter determines how many words for which we should compute hidden-layer activations.</td></tr>
+   *   <tr><td><tt>&#8209;parseBatchSize</tt></td><td>64</td><td>Number of sentences to parse together in a batch when parsing many sentences, as with <tt>-testFile</tt> or <tt>-textFile</tt>. The hidden and output layers of the neural network are computed for the whole batch at once.</td></tr>
    *   <tr><td><tt>&#8209;sentenceDelimiter</tt></td><td>N/A</td><td>Only applicable for testing with <tt>-textFile</tt>.  If provided, assume that the given <tt>textFile</tt> has already been sentence-split, and that sentences are separated by this delimiter.</td></tr>
    *   <tr><td><tt>&#8209;tagger.model</tt></td><td>edu/stanford/nlp/models/pos-tagger/english-left3words/english-left3words-distsim.tagger</td><td>Only applicable for testing with <tt>-textFile</tt>. Path to a part-of-speech tagger to use to pre-tag the raw sentences before parsing.</td></tr>
+   *   <tr><td><tt>&#8209;preComputeCacheSize</tt></td><td>0</td><td>Megabytes of memory in which to cache the hidden-layer activations of inputs which are frequent in the text being parsed but were not among the <tt>numPreComputed</tt> chosen at training time. The cache is shared by all threads parsing with the model, and its hit rates are printed after parsing a <tt>-testFile</tt> or <tt>-textFile</tt>.</td></tr>
+   *   <tr><td><tt>&#8209;weightPrecision</tt></td><td>double</td><td>The precision in which to store the weights of the loaded model, and the precomputed activations, for parsing: <tt>double</tt>, <tt>float</tt> (half the memory) or <tt>int8</tt> (bytes with a scale for each row, about an eighth of the memory, at a small cost in accuracy). See {@link CompareWeightPrecision} to measure that cost on a treebank.</td></tr>
    * </table>
    */
   public static void main(String[] args) {
@@ -0,0 +1,279 @@
+package edu.stanford.nlp.parser.nndep;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of the hidden-layer activations of single inputs, that is of a
+ * feature ID at some position, which is filled while parsing.  It holds the
+ * inputs that are frequent in the text being parsed but were not among the
+ * {@link Config#numPreComputed} precomputed at training time, such as the
+ * vocabulary of a domain unlike the training treebank.  The cache is shared
+ * by all threads parsing with the same {@link Classifier}, and takes up
+ * about {@link Config#preComputeCacheSize} megabytes.
+ * <br>
+ * The cache is set associative: an input can only be in one of the
+ * {@code WAYS} slots of the set it hashes to.  How often each input is
+ * looked up is counted approximately in a small sketch, whose counts are
+ * halved every so often so that old traffic is forgotten.  A missed input
+ * is only admitted once it has been seen a few times, and then only in
+ * place of an input of its set that has been seen less often.  Lookups
+ * take no locks; two threads admitting inputs to the same set at once may
+ * just overwrite each other's entry.
+ * <br>
+ * The activations are stored as doubles if {@link Config#weightPrecision}
+ * is DOUBLE, and otherwise as floats: they are the sums of many weights,
+ * and quantizing them to INT8 would cost far more accuracy than quantizing
+ * each weight does.  Since a cached input's activations are added to the
+ * hidden layer as one row, rather than one embedding value at a time, a
+ * score may differ in its last bits from the same score found without
+ * the cache.
+ *
+ * @see Classifier#computeScores(int[][], int, double[][], double[][])
+ */
+public class PreComputeCache {
+
+  /** The number of slots in each set */
+  private static final int WAYS = 4;
+
+  /** The number of times an input must have been seen to be admitted */
+  private static final int ADMISSION_COUNT = 2;
+
+  /** The most an input's count in the sketch can reach */
+  private static final int MAX_COUNT = 15;
+
+  /** A guess of the bytes taken up by an entry beyond its activations */
+  private static final int ENTRY_OVERHEAD = 64;
+
+  private static class Entry {
+    final int index;
+    final WeightMatrix activations;
+
+    Entry(int index, WeightMatrix activations) {
+      this.index = index;
+      this.activations = activations;
+    }
+  }
+
+  /** The precision activations are stored in: DOUBLE or FLOAT */
+  private final Config.WeightPrecision precision;
+
+  private final AtomicReferenceArray<Entry> entries;
+  private final int setMask;
+
+  /**
+   * The counts of the count-min sketch.  They are updated without
+   * synchronization, so a count may now and then miss an increment.
+   */
+  private final int[] counts;
+  private final int countMask;
+
+  /** Lookups between halvings of {@link #counts} */
+  private final int sampleSize;
+  private final AtomicInteger samples = new AtomicInteger();
+
+  private final LongAdder preComputedHits = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder admissions = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param megabytes The memory to fill with activations. If it's 0, no
+   *                  input is ever cached, but lookups are still counted.
+   * @param hiddenSize The size of the hidden layer
+   * @param precision The precision of the model's weights
+   */
+  PreComputeCache(double megabytes, int hiddenSize, Config.WeightPrecision precision) {
+    this.precision = precision == Config.WeightPrecision.DOUBLE ? precision : Config.WeightPrecision.FLOAT;
+
+    int valueBytes = this.precision == Config.WeightPrecision.DOUBLE ? 8 * hiddenSize : 4 * hiddenSize;
+    long numSets = (long) (megabytes * 1e6) / (WAYS * ((long) valueBytes + ENTRY_OVERHEAD));
+    numSets = numSets > 0 ? Long.highestOneBit(Math.min(numSets, 1 << 24)) : 0;
+    entries = new AtomicReferenceArray<>((int) numSets * WAYS);
+    setMask = (int) numSets - 1;
+
+    counts = new int[numSets > 0 ? (int) numSets * WAYS * 4 : 0];
+    countMask = counts.length - 1;
+    sampleSize = 10 * entries.length();
+  }
+
+  /** The number of inputs the cache can hold */
+  public int capacity() {
+    return entries.length();
+  }
+
+  private static int hash(int index) {
+    int h = (index ^ (index >>> 16)) * 0x85ebca6b;
+    h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+  /** The estimated number of times an input has been looked up lately */
+  private int count(int h) {
+    return Math.min(counts[h & countMask], counts[(h >>> 16 | h << 16) & countMask]);
+  }
+
+  private void increment(int h) {
+    int i = h & countMask, j = (h >>> 16 | h << 16) & countMask;
+    int count = Math.min(counts[i], counts[j]);
+    if (count < MAX_COUNT) {
+      // only increment the smaller counts, as in a conservative update
+      if (counts[i] == count)
+        counts[i] = count + 1;
+      if (counts[j] == count)
+        counts[j] = count + 1;
+    }
+  }
+
+  /**
+   * Finds the cached activations of an input, and counts the lookup.
+   *
+   * @param index The feature ID times the number of tokens, plus the
+   *              position
+   * @return The activations, in a matrix of one row, or null if the input
+   *         is not in the cache
+   */
+  WeightMatrix get(int index) {
+    if (setMask < 0)
+      return null;
+    int h = hash(index);
+    increment(h);
+    int first = (h & setMask) * WAYS;
+    for (int w = 0; w < WAYS; ++w) {
+      Entry e = entries.get(first + w);
+      if (e != null && e.index == index)
+        return e.activations;
+    }
+    return null;
+  }
+
+  /**
+   * The slot to admit an input to, in place of whichever input is in it,
+   * or -1 if the input should not be admitted.
+   */
+  private int victim(int index) {
+    int h = hash(index);
+    int count = count(h);
+    if (count < ADMISSION_COUNT)
+      return -1;
+    int first = (h & setMask) * WAYS;
+    int victim = -1, victimCount = Integer.MAX_VALUE;
+    for (int w = 0; w < WAYS; ++w) {
+      Entry e = entries.get(first + w);
+      if (e == null)
+        return first + w;
+      if (e.index == index)
+        return -1;
+      int c = count(hash(e.index));
+      if (c < victimCount) {
+        victim = first + w;
+        victimCount = c;
+      }
+    }
+    return count > victimCount ? victim : -1;
+  }
+
+  /**
+   * Whether a missed input has been seen often enough to be cached.  If
+   * so, its activations should be computed and {@link #put put} in the
+   * cache.
+   */
+  boolean admits(int index) {
+    return setMask >= 0 && victim(index) >= 0;
+  }
+
+  /**
+   * Caches the activations of an input, if it should still be admitted.
+   *
+   * @return The activations as they are stored in the cache
+   */
+  WeightMatrix put(int index, double[] activations) {
+    WeightMatrix m = WeightMatrix.of(new double[][] { activations.clone() }, precision);
+    int slot = victim(index);
+    if (slot >= 0) {
+      Entry old = entries.getAndSet(slot, new Entry(index, m));
+      admissions.increment();
+      if (old != null)
+        evictions.increment();
+    }
+    return m;
+  }
+
+  /**
+   * Counts the lookups made while feeding a batch forward, and halves the
+   * counts in the sketch once enough lookups have been made since they
+   * were last halved.
+   */
+  void record(int preComputedHits, int hits, int misses) {
+    this.preComputedHits.add(preComputedHits);
+    this.hits.add(hits);
+    this.misses.add(misses);
+
+    if (setMask >= 0 && samples.addAndGet(hits + misses) >= sampleSize) {
+      samples.set(0);
+      for (int i = 0; i < counts.length; ++i)
+        counts[i] >>= 1;
+    }
+  }
+
+  /** The number of lookups of inputs precomputed at training time */
+  public long preComputedHits() {
+    return preComputedHits.sum();
+  }
+
+  /** The number of lookups of inputs found in this cache */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /** The number of lookups of inputs whose activations had to be computed */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /** The number of inputs put in the cache */
+  public long admissions() {
+    return admissions.sum();
+  }
+
+  /** The number of inputs put in the cache in place of another one */
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /** The number of inputs now in the cache */
+  public int size() {
+    int size = 0;
+    for (int i = 0; i < entries.length(); ++i)
+      if (entries.get(i) != null)
+        size++;
+    return size;
+  }
+
+  /**
+   * The fraction of lookups of inputs not precomputed at training time
+   * that were found in this cache
+   */
+  public double hitRate() {
+    long hits = hits(), lookups = hits + misses();
+    return lookups == 0 ? 0.0 : (double) hits / lookups;
+  }
+
+  /**
+   * The fraction of all lookups whose activations didn't have to be
+   * computed, because they were precomputed or found in this cache
+   */
+  public double totalHitRate() {
+    long found = preComputedHits() + hits(), lookups = found + misses();
+    return lookups == 0 ? 0.0 : (double) found / lookups;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PreComputeCache: %d/%d inputs, %d admitted, %d evicted; hit rate %.2f%%, %.2f%% with precomputed inputs",
+        size(), capacity(), admissions(), evictions(), hitRate() * 100, totalHitRate() * 100);
+  }
+
+}
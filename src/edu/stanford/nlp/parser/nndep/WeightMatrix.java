@@ -0,0 +1,239 @@
+package edu.stanford.nlp.parser.nndep;
+
+/**
+ * A matrix of network weights used for parsing, stored by rows in the precision
+ * given by {@link Config#weightPrecision}.  The classifier only ever adds whole
+ * rows (scaled) into a hidden or output layer, which is still summed in doubles.
+ * <br>
+ * In 8 bit precision, each row is stored as bytes together with a scale, which is
+ * the largest absolute weight in the row divided by 127.
+ *
+ * @see Classifier#computeScores(int[][], int, double[][], double[][])
+ */
+abstract class WeightMatrix {
+
+  /** Adds a row to {@code v} */
+  abstract void addRow(int row, double[] v);
+
+  /**
+   * Adds {@code x[k]} times the row {@code first + k} to {@code v}, for
+   * each {@code k} in turn.
+   */
+  abstract void addRows(int first, double[] x, double[] v);
+
+  /** Copies a row into {@code v} */
+  void getRow(int row, double[] v) {
+    for (int j = 0; j < v.length; ++j)
+      v[j] = get(row, j);
+  }
+
+  abstract double get(int row, int column);
+
+  abstract int numRows();
+
+  abstract int columns(int row);
+
+  /** The number of bytes taken up by the weights */
+  abstract long bytes();
+
+  /** The weights, in doubles */
+  double[][] toArray() {
+    double[][] m = new double[numRows()][];
+    for (int i = 0; i < m.length; ++i) {
+      m[i] = new double[columns(i)];
+      for (int j = 0; j < m[i].length; ++j)
+        m[i][j] = get(i, j);
+    }
+    return m;
+  }
+
+  /**
+   * Stores a matrix in the given precision.  A matrix of doubles is not
+   * copied, but used as it is.
+   */
+  static WeightMatrix of(double[][] m, Config.WeightPrecision precision) {
+    switch (precision) {
+      case FLOAT:
+        return new FloatMatrix(m);
+      case INT8:
+        return new Int8Matrix(m);
+      default:
+        return new DoubleMatrix(m);
+    }
+  }
+
+  static class DoubleMatrix extends WeightMatrix {
+
+    private final double[][] rows;
+
+    DoubleMatrix(double[][] rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    void addRows(int first, double[] x, double[] v) {
+      for (int k = 0; k < x.length; ++k) {
+        double[] w = rows[first + k];
+        double xk = x[k];
+        for (int i = 0; i < w.length; ++i)
+          v[i] += w[i] * xk;
+      }
+    }
+
+    @Override
+    void getRow(int row, double[] v) {
+      System.arraycopy(rows[row], 0, v, 0, v.length);
+    }
+
+    @Override
+    void addRow(int row, double[] v) {
+      double[] w = rows[row];
+      for (int i = 0; i < w.length; ++i)
+        v[i] += w[i];
+    }
+
+    @Override
+    double get(int row, int column) {
+      return rows[row][column];
+    }
+
+    @Override
+    int numRows() {
+      return rows.length;
+    }
+
+    @Override
+    int columns(int row) {
+      return rows[row].length;
+    }
+
+    @Override
+    long bytes() {
+      long bytes = 0;
+      for (double[] w : rows)
+        bytes += 8L * w.length;
+      return bytes;
+    }
+
+  }
+
+  static class FloatMatrix extends WeightMatrix {
+
+    private final float[][] rows;
+
+    FloatMatrix(double[][] m) {
+      rows = new float[m.length][];
+      for (int i = 0; i < m.length; ++i) {
+        rows[i] = new float[m[i].length];
+        for (int j = 0; j < m[i].length; ++j)
+          rows[i][j] = (float) m[i][j];
+      }
+    }
+
+    @Override
+    void addRows(int first, double[] x, double[] v) {
+      for (int k = 0; k < x.length; ++k) {
+        float[] w = rows[first + k];
+        double xk = x[k];
+        for (int i = 0; i < w.length; ++i)
+          v[i] += w[i] * xk;
+      }
+    }
+
+    @Override
+    void addRow(int row, double[] v) {
+      float[] w = rows[row];
+      for (int i = 0; i < w.length; ++i)
+        v[i] += w[i];
+    }
+
+    @Override
+    double get(int row, int column) {
+      return rows[row][column];
+    }
+
+    @Override
+    int numRows() {
+      return rows.length;
+    }
+
+    @Override
+    int columns(int row) {
+      return rows[row].length;
+    }
+
+    @Override
+    long bytes() {
+      long bytes = 0;
+      for (float[] w : rows)
+        bytes += 4L * w.length;
+      return bytes;
+    }
+
+  }
+
+  static class Int8Matrix extends WeightMatrix {
+
+    private final byte[][] rows;
+    private final double[] scales;
+
+    Int8Matrix(double[][] m) {
+      rows = new byte[m.length][];
+      scales = new double[m.length];
+      for (int i = 0; i < m.length; ++i) {
+        double max = 0;
+        for (double w : m[i])
+          max = Math.max(max, Math.abs(w));
+        scales[i] = max / 127;
+        rows[i] = new byte[m[i].length];
+        if (max > 0) {
+          for (int j = 0; j < m[i].length; ++j)
+            rows[i][j] = (byte) Math.round(m[i][j] / scales[i]);
+        }
+      }
+    }
+
+    @Override
+    void addRows(int first, double[] x, double[] v) {
+      for (int k = 0; k < x.length; ++k) {
+        byte[] w = rows[first + k];
+        double scale = x[k] * scales[first + k];
+        for (int i = 0; i < w.length; ++i)
+          v[i] += w[i] * scale;
+      }
+    }
+
+    @Override
+    void addRow(int row, double[] v) {
+      byte[] w = rows[row];
+      double scale = scales[row];
+      for (int i = 0; i < w.length; ++i)
+        v[i] += w[i] * scale;
+    }
+
+    @Override
+    double get(int row, int column) {
+      return rows[row][column] * scales[row];
+    }
+
+    @Override
+    int numRows() {
+      return rows.length;
+    }
+
+    @Override
+    int columns(int row) {
+      return rows[row].length;
+    }
+
+    @Override
+    long bytes() {
+      long bytes = 8L * scales.length;
+      for (byte[] w : rows)
+        bytes += w.length;
+      return bytes;
+    }
+
+  }
+
+}
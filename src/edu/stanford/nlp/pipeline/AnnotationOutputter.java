@@ -1,10 +1,12 @@
 package edu.stanford.nlp.pipeline;
 
 import edu.stanford.nlp.trees.TreePrint;
+import edu.stanford.nlp.util.PropertiesUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Properties;
 
 /**
  * <p>An interface for outputting CoreNLP Annotations to different output
@@ -85,4 +87,19 @@ public abstract class AnnotationOutputter {
     return options;
   }
 
+  /**
+   * Populates options from StanfordCoreNLP pipeline, but reads the output properties
+   * (encoding, prettyPrint, ...) from the given properties instead of the pipeline's own.
+   * This is for a pipeline which is shared by requests that only differ in their output.
+   */
+  public static Options getOptions(StanfordCoreNLP pipeline, Properties properties) {
+    Options options = getOptions(pipeline);
+    options.relationsBeam = PropertiesUtils.getDouble(properties, "printable.relation.beam", 0.0);
+    options.beamPrintingOption = options.relationsBeam;
+    options.encoding = properties.getProperty("encoding", "UTF-8");
+    options.printSingletons = PropertiesUtils.getBool(properties, "output.printSingletonEntities", false);
+    options.pretty = PropertiesUtils.getBool(properties, "prettyPrint", true);
+    return options;
+  }
+
 }
@@ -9,7 +9,19 @@ import edu.stanford.nlp.util.logging.Redwood;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 
 /**
@@ -33,14 +45,37 @@ public class AnnotationPipeline implements Annotator  {
 
   private final List<Annotator> annotators;
   private List<MutableLong> accumulatedTime;
+  /** Time documents spent queued in front of each annotator; only used in pipelined mode */
+  private List<MutableLong> accumulatedWaitTime;
+
+  /**
+   * If true, multi-document annotation runs on a single work-stealing pool,
+   * and every {@link SentenceAnnotator} splits a document into one task per
+   * sentence on that same pool.  See {@link #setWorkStealing(boolean)}.
+   */
+  private boolean workStealing = false;
+
+  /**
+   * The number of worker threads of each annotator's stage in pipelined mode,
+   * or null if pipelined mode is off.  See {@link #setPipelined(int[], int)}.
+   */
+  private int[] stageThreads = null;
+
+  /** The capacity of the queue in front of each stage in pipelined mode */
+  private int stageQueueSize = 1;
+
+  /** Told how long each annotator took on each document, if not null.  See {@link #setTimingListener(ObjLongConsumer)}. */
+  private ObjLongConsumer<Annotator> timingListener = null;
 
   public AnnotationPipeline(List<Annotator> annotators) {
     this.annotators = annotators;
     if (TIME) {
       int num = annotators.size();
       accumulatedTime = new ArrayList<>(num);
+      accumulatedWaitTime = new ArrayList<>(num);
       for (int i = 0; i < num; i++) {
         accumulatedTime.add(new MutableLong());
+        accumulatedWaitTime.add(new MutableLong());
       }
     }
   }
@@ -53,9 +88,80 @@ public class AnnotationPipeline implements Annotator  {
     annotators.add(annotator);
     if (TIME) {
       accumulatedTime.add(new MutableLong());
+      accumulatedWaitTime.add(new MutableLong());
     }
   }
 
+  /**
+   * Turn on or off the work-stealing scheduler for multi-document annotation.
+   * When on, {@link #annotate(Iterable, int, Consumer)} submits each document as a task
+   * to one shared {@link ForkJoinPool}.  Document-level annotators (tokenize, coref, ...)
+   * run as part of the document's task, while sentence-level annotators fork one subtask
+   * per sentence and join them before the next stage starts.  Idle threads steal
+   * sentences from whichever document still has work, so a single very long document
+   * no longer pins one core while the rest sit idle.
+   * Annotators with a time limit ({@code maxtime}) keep their own thread pool.
+   *
+   * @param workStealing Whether to use the work-stealing scheduler
+   */
+  public void setWorkStealing(boolean workStealing) {
+    this.workStealing = workStealing;
+  }
+
+  public boolean isWorkStealing() {
+    return workStealing;
+  }
+
+  /**
+   * Turn on pipelined mode for multi-document annotation.
+   * In this mode, {@link #annotate(Iterable, int, Consumer)} runs every annotator as a
+   * separate stage with its own worker threads and a bounded queue in front of it, so that,
+   * for example, document N+1 is tokenized while document N is being parsed.
+   * The numThreads argument of that method is then ignored in favor of the per-stage counts.
+   * Documents may finish in a different order than they were given if any stage has
+   * more than one worker.  {@link #timingInformation()} then also reports how long
+   * documents waited in each stage's queue.
+   *
+   * @param stageThreads The number of workers for each annotator, in pipeline order,
+   *                     or null to turn pipelined mode off
+   * @param queueSize The number of documents which may wait in front of each stage
+   */
+  public void setPipelined(int[] stageThreads, int queueSize) {
+    if (stageThreads != null) {
+      if (stageThreads.length != annotators.size()) {
+        throw new IllegalArgumentException("Expected " + annotators.size() + " stage thread counts, got " + stageThreads.length);
+      }
+      for (int n : stageThreads) {
+        if (n < 1) {
+          throw new IllegalArgumentException("Each stage needs at least one thread: " + Arrays.toString(stageThreads));
+        }
+      }
+      if (queueSize < 1) {
+        throw new IllegalArgumentException("Stage queue size must be positive: " + queueSize);
+      }
+      this.stageThreads = stageThreads.clone();
+    } else {
+      this.stageThreads = null;
+    }
+    this.stageQueueSize = queueSize;
+  }
+
+  public boolean isPipelined() {
+    return stageThreads != null;
+  }
+
+  /**
+   * Set a listener which is told, after each annotator runs on a document, which annotator
+   * it was and how many milliseconds it took.  Unlike {@link #timingInformation()}, this
+   * lets a caller keep live counters, for example to export them from a server.
+   * The listener is called from whichever thread ran the annotator, so it must be thread-safe.
+   *
+   * @param timingListener The listener, or null to remove it
+   */
+  public void setTimingListener(ObjLongConsumer<Annotator> timingListener) {
+    this.timingListener = timingListener;
+  }
+
   /**
    * Run the pipeline on an input annotation.
    * The annotation is modified in place.
@@ -78,6 +184,9 @@ public class AnnotationPipeline implements Annotator  {
         long elapsed = t.stop();
         MutableLong m = it.next();
         m.incValue(elapsed);
+        if (timingListener != null) {
+          timingListener.accept(annotator, elapsed);
+        }
       }
     }
   }
@@ -124,12 +233,23 @@ public class AnnotationPipeline implements Annotator  {
    *                 The return value of the callback is ignored.
    */
   public void annotate(final Iterable<Annotation> annotations, int numThreads, final Consumer<Annotation> callback){
+    // case: one stage per annotator, with the per-stage thread counts
+    if (stageThreads != null) {
+      annotatePipelined(annotations, callback, false);
+      return;
+    }
     // case: single thread (no point in spawning threads)
     if(numThreads == 1) {
       for(Annotation ann : annotations) {
         annotate(ann);
         callback.accept(ann);
       }
+      return;
+    }
+    // case: shared work-stealing pool, split down to sentences
+    if (workStealing) {
+      annotateWorkStealing(annotations, numThreads, callback);
+      return;
     }
     // Java's equivalent to ".map{ lambda(annotation) => annotate(annotation) }
     Iterable<Runnable> threads = () -> {
@@ -167,6 +287,211 @@ public class AnnotationPipeline implements Annotator  {
     Redwood.Util.threadAndRun(this.getClass().getSimpleName(), threads, numThreads );
   }
 
+  /**
+   * Annotate the documents on one work-stealing pool of numThreads threads, blocking
+   * until all of them (and their callbacks) are done.
+   */
+  private void annotateWorkStealing(final Iterable<Annotation> annotations, int numThreads, final Consumer<Annotation> callback) {
+    ForkJoinPool pool = newWorkStealingPool(numThreads);
+    try {
+      List<ForkJoinTask<?>> tasks = new ArrayList<>();
+      for (Annotation input : annotations) {
+        tasks.add(pool.submit(new RecursiveAction() {
+          private static final long serialVersionUID = 1L;
+          @Override
+          protected void compute() {
+            annotate(input);
+            callback.accept(input);
+          }
+        }));
+      }
+      for (ForkJoinTask<?> task : tasks) {
+        task.join();
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** A document on its way through the stages, with the time it entered its current queue */
+  private static class StageItem {
+    final Annotation annotation;
+    long enqueued;
+
+    StageItem(Annotation annotation) {
+      this.annotation = annotation;
+    }
+  }
+
+  /** Marks the end of the input in a stage's queue */
+  private static final StageItem END_OF_INPUT = new StageItem(null);
+
+  /**
+   * Run the annotators as a chain of stages connected by bounded queues, blocking
+   * until every document has gone through all of them.
+   * If an annotator or the callback throws, no more documents are read, the ones
+   * already in the stages are dropped, and the first failure is rethrown once every
+   * stage has stopped, as it would be when annotating on one thread.
+   *
+   * @param recordFailures If true, a document on which an annotator throws is
+   *                       instead handed to the callback right away, with the
+   *                       failure in its {@link CoreAnnotations.ExceptionAnnotation},
+   *                       and the other documents go on
+   */
+  void annotatePipelined(final Iterable<Annotation> annotations, final Consumer<Annotation> callback,
+                         final boolean recordFailures) {
+    final int numStages = annotators.size();
+    final int[] threads = stageThreads;
+    List<BlockingQueue<StageItem>> queues = new ArrayList<>(numStages);
+    List<AtomicInteger> running = new ArrayList<>(numStages);
+    int totalThreads = 0;
+    for (int i = 0; i < numStages; i++) {
+      queues.add(new ArrayBlockingQueue<>(stageQueueSize));
+      running.add(new AtomicInteger(threads[i]));
+      totalThreads += threads[i];
+    }
+    if (numStages == 0) {
+      annotations.forEach(callback);
+      return;
+    }
+
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    ExecutorService executor = Executors.newFixedThreadPool(totalThreads);
+    for (int stage = 0; stage < numStages; stage++) {
+      final int i = stage;
+      for (int worker = 0; worker < threads[i]; worker++) {
+        executor.execute(() -> {
+          Annotator annotator = annotators.get(i);
+          BlockingQueue<StageItem> in = queues.get(i);
+          BlockingQueue<StageItem> out = (i + 1 < numStages) ? queues.get(i + 1) : null;
+          Timing t = new Timing();
+          try {
+            while (true) {
+              StageItem item = in.take();
+              if (item == END_OF_INPUT) {
+                break;
+              }
+              if (failure.get() != null) {
+                // keep draining the queue so that nobody blocks putting into it
+                continue;
+              }
+              if (TIME) {
+                MutableLong wait = accumulatedWaitTime.get(i);
+                synchronized (wait) {
+                  wait.incValue(System.currentTimeMillis() - item.enqueued);
+                }
+                t.start();
+              }
+              boolean failed = false;
+              try {
+                annotator.annotate(item.annotation);
+              } catch (Throwable e) {
+                if ( ! recordFailures) {
+                  failure.compareAndSet(null, e);
+                  continue;
+                }
+                item.annotation.set(CoreAnnotations.ExceptionAnnotation.class, e);
+                failed = true;
+              }
+              if (TIME && ! failed) {
+                long elapsed = t.stop();
+                MutableLong m = accumulatedTime.get(i);
+                synchronized (m) {
+                  m.incValue(elapsed);
+                }
+                if (timingListener != null) {
+                  timingListener.accept(annotator, elapsed);
+                }
+              }
+              if (out != null && ! failed) {
+                item.enqueued = System.currentTimeMillis();
+                out.put(item);
+              } else {
+                try {
+                  callback.accept(item.annotation);
+                } catch (Throwable e) {
+                  failure.compareAndSet(null, e);
+                }
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            // the last worker of a stage to finish tells the next stage there is nothing more
+            if (running.get(i).decrementAndGet() == 0 && out != null) {
+              try {
+                for (int k = 0; k < threads[i + 1]; k++) {
+                  out.put(END_OF_INPUT);
+                }
+              } catch (InterruptedException e) {
+                failure.compareAndSet(null, new RuntimeInterruptedException(e));
+              }
+            }
+          }
+        });
+      }
+    }
+    executor.shutdown();
+
+    BlockingQueue<StageItem> first = queues.get(0);
+    try {
+      try {
+        for (Annotation annotation : annotations) {
+          if (failure.get() != null) {
+            break;
+          }
+          StageItem item = new StageItem(annotation);
+          item.enqueued = System.currentTimeMillis();
+          first.put(item);
+        }
+      } catch (RuntimeException | Error e) {
+        // reading the input failed: let the stages drain what they have, then rethrow
+        failure.compareAndSet(null, e);
+      }
+      for (int k = 0; k < threads[0]; k++) {
+        first.put(END_OF_INPUT);
+      }
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      throw new RuntimeInterruptedException(e);
+    }
+    Throwable e = failure.get();
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e instanceof Error) {
+      throw (Error) e;
+    } else if (e != null) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Create a work-stealing pool whose threads are recognized by
+   * {@link SentenceAnnotator} as places where it is safe to fork one task per sentence.
+   *
+   * @param numThreads The parallelism of the pool
+   * @return A new pool; the caller is responsible for shutting it down
+   */
+  static ForkJoinPool newWorkStealingPool(int numThreads) {
+    return new ForkJoinPool(numThreads, WorkStealingThread::new, null, false);
+  }
+
+  /**
+   * @return true if the current thread belongs to a pool made by {@link #newWorkStealingPool(int)}
+   */
+  static boolean inWorkStealingPool() {
+    return Thread.currentThread() instanceof WorkStealingThread;
+  }
+
+  /** Marker type for the threads of the pipeline's work-stealing pool. */
+  private static class WorkStealingThread extends ForkJoinWorkerThread {
+    WorkStealingThread(ForkJoinPool pool) {
+      super(pool);
+      setName("AnnotationPipeline-worker-" + getPoolIndex());
+    }
+  }
+
   /** Return the total pipeline annotation time in milliseconds.
    *
    *  @return The total pipeline annotation time in milliseconds
@@ -194,10 +519,15 @@ public class AnnotationPipeline implements Annotator  {
       sb.append(IOUtils.eolChar);
       Iterator<MutableLong> it = accumulatedTime.iterator();
       long total = 0;
+      Iterator<MutableLong> waitIt = accumulatedWaitTime.iterator();
       for (Annotator annotator : annotators) {
         MutableLong m = it.next();
+        MutableLong wait = waitIt.next();
         sb.append(StringUtils.getShortClassName(annotator)).append(": ");
         sb.append(Timing.toSecondsString(m.longValue())).append(" sec.");
+        if (stageThreads != null || wait.longValue() > 0) {
+          sb.append(" (queue wait: ").append(Timing.toSecondsString(wait.longValue())).append(" sec.)");
+        }
         sb.append(IOUtils.eolChar);
         total += m.longValue();
       }
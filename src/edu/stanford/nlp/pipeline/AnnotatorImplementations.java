@@ -1,6 +1,8 @@
 package edu.stanford.nlp.pipeline;
 import edu.stanford.nlp.util.logging.Redwood;
 
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
+import edu.stanford.nlp.ie.ClassifierCombiner;
 import edu.stanford.nlp.ie.NERClassifierCombiner;
 import edu.stanford.nlp.ie.regexp.NumberSequenceClassifier;
 import edu.stanford.nlp.naturalli.NaturalLogicAnnotator;
@@ -70,6 +72,14 @@ public class AnnotatorImplementations  {
     return new MorphaAnnotator(verbose);
   }
 
+  /**
+   * Load one of the base classifiers of the NER annotator.  An implementation which makes many NER annotators
+   * with different properties, as the server does, can share the classifiers they have in common here.
+   */
+  protected AbstractSequenceClassifier<?> nerClassifier(Properties properties, String path) throws IOException {
+    return ClassifierCombiner.loadClassifierFromPath(properties, path);
+  }
+
   /**
    * Annotate for named entities -- note that this combines multiple NER tag sets, and some auxiliary things (like temporal tagging)
    */
@@ -119,7 +129,7 @@ public class AnnotatorImplementations  {
       PropertiesUtils.overWriteProperties(combinerProperties, sutimeProps);
     }
     NERClassifierCombiner nerCombiner = new NERClassifierCombiner(applyNumericClassifiers, nerLanguage,
-            useSUTime, applyRegexner, combinerProperties, loadPaths);
+            useSUTime, applyRegexner, combinerProperties, this::nerClassifier, loadPaths);
 
     int nThreads = PropertiesUtils.getInt(properties, "ner.nthreads", PropertiesUtils.getInt(properties, "nthreads", 1));
     long maxTime = PropertiesUtils.getLong(properties, "ner.maxtime", 0);
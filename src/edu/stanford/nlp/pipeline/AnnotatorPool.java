@@ -28,6 +28,14 @@ public class AnnotatorPool  {
    */
   private static final Map<Pair<String, String>, SoftReference<Annotator>> cache = Generics.newHashMap();
 
+  /**
+   * The growth of the heap, in bytes, while each annotator in the {@link AnnotatorPool#cache} was created.
+   * This is mostly the size of its models, but it is only approximate: other threads
+   * may allocate (or the garbage collector may free) memory in the meantime.
+   * Guarded by the cache's lock.
+   */
+  private static final Map<Pair<String, String>, Long> creationMemory = Generics.newHashMap();
+
   /**
    * A set of annotators that we want to keep hard references to.
    * These are cleaned up in {@link AnnotatorPool#gc}'s timer task.
@@ -62,6 +70,7 @@ public class AnnotatorPool  {
             if (entry.getValue().get() == null) {  // this reference has been garbage collected
               actionsTaken += 1;
               iter.remove();
+              creationMemory.remove(entry.getKey());
             }
           }
         }
@@ -148,11 +157,18 @@ public class AnnotatorPool  {
     synchronized (cache) {
       annotator = Optional.ofNullable(cache.get(key)).flatMap(x -> Optional.ofNullable(x.get()));
     }
+    Long memory = null;
     if (!annotator.isPresent()) {
+      Runtime runtime = Runtime.getRuntime();
+      long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
       annotator = Optional.of(factory.create());
+      memory = Math.max(0, runtime.totalMemory() - runtime.freeMemory() - memoryBefore);
     }
     synchronized (cache) {
       cache.put(key, new SoftReference<>(annotator.orElse(null)));  // will never be null though
+      if (memory != null) {
+        creationMemory.put(key, memory);
+      }
     }
 
     // Return
@@ -163,4 +179,62 @@ public class AnnotatorPool  {
     }
   }
 
+  /**
+   * The signature of the named annotator; that is, the key it is (or would be) cached
+   * under once it is created by {@link #get(String)}.  Two pools give the same annotator
+   * signature exactly when they would share the annotator.
+   *
+   * @param name The annotator's name, e.g., "ner"
+   * @return The signature of the annotator
+   * @throws IllegalArgumentException If there is no annotator with this name
+   */
+  public String signature(String name) {
+    AnnotatorFactory factory;
+    synchronized (factories) {
+      factory = this.factories.get(name);
+    }
+    if (factory == null) {
+      throw new IllegalArgumentException("No annotator named " + name);
+    }
+    return factory.signature();
+  }
+
+  /**
+   * The approximate memory used by the annotator with this name and signature,
+   * as in {@link AnnotatorPool#annotatorMemory()}.
+   *
+   * @return The memory in bytes, or 0 if the annotator is not loaded
+   */
+  public static long annotatorMemory(String name, String signature) {
+    Pair<String, String> key = Pair.makePair(name, signature);
+    synchronized (cache) {
+      SoftReference<Annotator> reference = cache.get(key);
+      if (reference == null || reference.get() == null) {
+        return 0;
+      }
+      return creationMemory.getOrDefault(key, 0L);
+    }
+  }
+
+  /**
+   * The approximate memory used by each annotator which is still loaded, summed over
+   * the annotators of the same name (i.e., the same annotator with different properties).
+   * This is the growth of the heap while the annotator was created, so it is mostly the size
+   * of its models; memory which the annotator allocates later, while annotating, is not counted.
+   *
+   * @return A map from annotator name (e.g., "pos") to bytes
+   */
+  public static Map<String, Long> annotatorMemory() {
+    Map<String, Long> memory = Generics.newHashMap();
+    synchronized (cache) {
+      for (Map.Entry<Pair<String, String>, Long> entry : creationMemory.entrySet()) {
+        SoftReference<Annotator> reference = cache.get(entry.getKey());
+        if (reference != null && reference.get() != null) {
+          memory.merge(entry.getKey().first, entry.getValue(), Long::sum);
+        }
+      }
+    }
+    return memory;
+  }
+
 }
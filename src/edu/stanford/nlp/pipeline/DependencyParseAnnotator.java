@@ -13,6 +13,7 @@ import edu.stanford.nlp.util.ArraySet;
 import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.MetaClass;
 import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
 
 import java.util.*;
 
@@ -71,10 +72,34 @@ public class DependencyParseAnnotator extends SentenceAnnotator  {
     return maxTime;
   }
 
+  /**
+   * Unless the sentences are to be parsed in parallel or with a timeout,
+   * parses all of them at once, as the parser does that in batches.
+   */
+  @Override
+  public void annotate(Annotation annotation) {
+    if (nThreads == 1 && maxTime <= 0 && !AnnotationPipeline.inWorkStealingPool() &&
+        annotation.containsKey(CoreAnnotations.SentencesAnnotation.class)) {
+      List<CoreMap> sentences = annotation.get(CoreAnnotations.SentencesAnnotation.class);
+      // the parser itself checks for interruption between transitions
+      List<GrammaticalStructure> parses = parser.predictMultiple(sentences);
+      for (int i = 0; i < sentences.size(); i++) {
+        if (Thread.interrupted()) {
+          throw new RuntimeInterruptedException();
+        }
+        setDependencies(sentences.get(i), parses.get(i));
+      }
+    } else {
+      super.annotate(annotation);
+    }
+  }
+
   @Override
   protected void doOneSentence(Annotation annotation, CoreMap sentence) {
-    GrammaticalStructure gs = parser.predict(sentence);
+    setDependencies(sentence, parser.predict(sentence));
+  }
 
+  private void setDependencies(CoreMap sentence, GrammaticalStructure gs) {
     SemanticGraph deps = SemanticGraphFactory.makeFromTree(gs, Mode.COLLAPSED, extraDependencies, true, null),
                   uncollapsedDeps = SemanticGraphFactory.makeFromTree(gs, Mode.BASIC, extraDependencies, true, null),
                   ccDeps = SemanticGraphFactory.makeFromTree(gs, Mode.CCPROCESSED, extraDependencies, true, null),
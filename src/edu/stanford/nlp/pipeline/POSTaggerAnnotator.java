@@ -6,15 +6,13 @@ import java.util.*;
 import edu.stanford.nlp.ling.*;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 import edu.stanford.nlp.util.*;
-import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
-import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
 /**
  * Wrapper for the maxent part of speech tagger.
  *
  * @author Anna Rafferty
  */
-public class POSTaggerAnnotator implements Annotator  {
+public class POSTaggerAnnotator extends SentenceAnnotator  {
 
   /** A logger for this class */
   private static Redwood.RedwoodChannels log = Redwood.channels(POSTaggerAnnotator.class);
@@ -90,49 +88,34 @@ public class POSTaggerAnnotator implements Annotator  {
   }
 
   @Override
-  public void annotate(Annotation annotation) {
-    // turn the annotation into a sentence
-    if (annotation.containsKey(CoreAnnotations.SentencesAnnotation.class)) {
-      if (nThreads == 1) {
-        for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
-          doOneSentence(sentence);
-        }
-      } else {
-        MulticoreWrapper<CoreMap, CoreMap> wrapper = new MulticoreWrapper<>(nThreads, new POSTaggerProcessor());
-        for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
-          wrapper.put(sentence);
-          while (wrapper.peek()) {
-            wrapper.poll();
-          }
-        }
-        wrapper.join();
-        while (wrapper.peek()) {
-          wrapper.poll();
-        }
-      }
-    } else {
-      throw new RuntimeException("unable to find words/tokens in: " + annotation);
-    }
+  protected int nThreads() {
+    return nThreads;
   }
 
-  private class POSTaggerProcessor implements ThreadsafeProcessor<CoreMap, CoreMap> {
-    @Override
-    public CoreMap process(CoreMap sentence) {
-      return doOneSentence(sentence);
-    }
+  @Override
+  protected long maxTime() {
+    return -1;
+  }
 
-    @Override
-    public ThreadsafeProcessor<CoreMap, CoreMap> newInstance() {
-      return this;
+  @Override
+  protected void doOneSentence(Annotation annotation, CoreMap sentence) {
+    doOneSentence(sentence);
+  }
+
+  @Override
+  protected void doOneFailedSentence(Annotation annotation, CoreMap sentence) {
+    for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
+      token.set(CoreAnnotations.PartOfSpeechAnnotation.class, "X");
     }
   }
 
   private CoreMap doOneSentence(CoreMap sentence) {
     List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
-    List<TaggedWord> tagged = null;
+    boolean tagged = false;
     if (tokens.size() <= maxSentenceLength) {
       try {
-        tagged = pos.tagSentence(tokens, this.reuseTags);
+        pos.tagCoreLabels(tokens, this.reuseTags);
+        tagged = true;
       } catch (OutOfMemoryError e) {
         log.info("WARNING: Tagging of sentence ran out of memory. " +
                            "Will ignore and continue: " +
@@ -140,11 +123,7 @@ public class POSTaggerAnnotator implements Annotator  {
       }
     }
 
-    if (tagged != null) {
-      for (int i = 0, sz = tokens.size(); i < sz; i++) {
-        tokens.get(i).set(CoreAnnotations.PartOfSpeechAnnotation.class, tagged.get(i).tag());
-      }
-    } else {
+    if ( ! tagged) {
       for (CoreLabel token : tokens) {
         token.set(CoreAnnotations.PartOfSpeechAnnotation.class, "X");
       }
@@ -146,7 +146,7 @@ public class ProtobufAnnotationSerializer extends AnnotationSerializer {
    * @see ProtobufAnnotationSerializer#ProtobufAnnotationSerializer(boolean)
    */
   public static class LossySerializationException extends RuntimeException {
-    private LossySerializationException(String msg) { super(msg); }
+    LossySerializationException(String msg) { super(msg); }
   }
 
   /**
@@ -0,0 +1,350 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+
+import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+
+/**
+ * Iterates over the documents of a file of length-delimited {@link CoreNLPProtos.Document}s,
+ * as written by {@link ProtobufAnnotationSerializer#write(Annotation, java.io.OutputStream)}
+ * or {@link ProtobufDocumentWriter}, decoding only the parts of each document which are asked for.
+ * <br>
+ * The file is memory mapped, a window at a time, so it can be far larger than the heap,
+ * and the fields which are not asked for -- say, the parse trees and coref of a
+ * corpus which is only read for its tokens and NER tags -- are skipped over on the
+ * wire without ever being copied or decoded.
+ * The tokens, and with them their POS, NER, lemma, etc., are always decoded, as is
+ * everything which is not one of the {@link Part}s.
+ * <br>
+ * For example:
+ * <pre>
+ *   try (ProtobufDocumentReader reader = new ProtobufDocumentReader(new File("corpus.pb"))) {
+ *     while (reader.hasNext()) {
+ *       Annotation doc = reader.next();
+ *       ...
+ *     }
+ *   }
+ * </pre>
+ *
+ * @see ProtobufDocumentWriter
+ */
+public class ProtobufDocumentReader implements Iterator<Annotation>, Closeable {
+
+  /** The optional parts of a document, which are only decoded when asked for */
+  public enum Part {
+    /** The constituency trees, including the binarized, sentiment and k-best trees */
+    PARSE_TREES(new int[] {},
+        new int[] { CoreNLPProtos.Sentence.PARSETREE_FIELD_NUMBER, CoreNLPProtos.Sentence.BINARIZEDPARSETREE_FIELD_NUMBER,
+                    CoreNLPProtos.Sentence.ANNOTATEDPARSETREE_FIELD_NUMBER, CoreNLPProtos.Sentence.KBESTPARSETREES_FIELD_NUMBER }),
+    /** All the flavors of dependency graphs */
+    DEPENDENCIES(new int[] {},
+        new int[] { CoreNLPProtos.Sentence.BASICDEPENDENCIES_FIELD_NUMBER, CoreNLPProtos.Sentence.COLLAPSEDDEPENDENCIES_FIELD_NUMBER,
+                    CoreNLPProtos.Sentence.COLLAPSEDCCPROCESSEDDEPENDENCIES_FIELD_NUMBER, CoreNLPProtos.Sentence.ALTERNATIVEDEPENDENCIES_FIELD_NUMBER,
+                    CoreNLPProtos.Sentence.ENHANCEDDEPENDENCIES_FIELD_NUMBER, CoreNLPProtos.Sentence.ENHANCEDPLUSPLUSDEPENDENCIES_FIELD_NUMBER }),
+    /** The OpenIE and KBP triples, and the entailed sentences; these need the {@link #DEPENDENCIES} */
+    TRIPLES(new int[] {},
+        new int[] { CoreNLPProtos.Sentence.OPENIETRIPLE_FIELD_NUMBER, CoreNLPProtos.Sentence.KBPTRIPLE_FIELD_NUMBER,
+                    CoreNLPProtos.Sentence.ENTAILEDSENTENCE_FIELD_NUMBER }),
+    /** The entity and relation mentions of the relation extractor */
+    RELATIONS(new int[] {},
+        new int[] { CoreNLPProtos.Sentence.HASRELATIONANNOTATIONS_FIELD_NUMBER, CoreNLPProtos.Sentence.ENTITY_FIELD_NUMBER,
+                    CoreNLPProtos.Sentence.RELATION_FIELD_NUMBER }),
+    /** The entity mentions, of both the sentences and the document */
+    ENTITY_MENTIONS(new int[] { CoreNLPProtos.Document.MENTIONS_FIELD_NUMBER },
+        new int[] { CoreNLPProtos.Sentence.MENTIONS_FIELD_NUMBER }),
+    /** The coref chains, and the mentions coref found them from */
+    COREF(new int[] { CoreNLPProtos.Document.COREFCHAIN_FIELD_NUMBER },
+        new int[] { CoreNLPProtos.Sentence.MENTIONSFORCOREF_FIELD_NUMBER, CoreNLPProtos.Sentence.HASCOREFMENTIONSANNOTATION_FIELD_NUMBER }),
+    /** The quotations of the document */
+    QUOTES(new int[] { CoreNLPProtos.Document.QUOTE_FIELD_NUMBER }, new int[] {});
+
+    private final int[] documentFields;
+    private final int[] sentenceFields;
+
+    Part(int[] documentFields, int[] sentenceFields) {
+      this.documentFields = documentFields;
+      this.sentenceFields = sentenceFields;
+    }
+  }
+
+  /** The most bytes mapped at once; a single document may still be larger than this */
+  private static final long DEFAULT_WINDOW = 1L << 30;
+
+  /** The wire types of the protobuf encoding */
+  private static final int WIRETYPE_VARINT = 0;
+  private static final int WIRETYPE_FIXED64 = 1;
+  private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  private static final int WIRETYPE_FIXED32 = 5;
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private final long windowSize;
+  private final ProtobufAnnotationSerializer serializer;
+  /** The document fields which are skipped */
+  private final BitSet skippedDocumentFields = new BitSet();
+  /** The sentence fields which are skipped */
+  private final BitSet skippedSentenceFields = new BitSet();
+
+  /** The currently mapped region of the file, and where in the file it starts */
+  private MappedByteBuffer window;
+  private long windowStart = 0;
+  /** The offset in the file of the next document */
+  private long position = 0;
+  private CoreNLPProtos.Document next;
+
+  /**
+   * Read the documents of a file with the default serializer, decoding none of the optional parts.
+   */
+  public ProtobufDocumentReader(File file) throws IOException {
+    this(file, new ProtobufAnnotationSerializer(), EnumSet.noneOf(Part.class));
+  }
+
+  /**
+   * Read the documents of a file.
+   *
+   * @param file A file of length-delimited Document protos.
+   * @param serializer The serializer to convert each document to an Annotation, e.g., one which handles extensions.
+   * @param parts The optional parts of the documents to decode; the others are skipped.
+   */
+  public ProtobufDocumentReader(File file, ProtobufAnnotationSerializer serializer, Set<Part> parts) throws IOException {
+    this(file, serializer, parts, DEFAULT_WINDOW);
+  }
+
+  /** Visible for testing: the window size sets how much of the file is mapped at once. */
+  ProtobufDocumentReader(File file, ProtobufAnnotationSerializer serializer, Set<Part> parts, long windowSize) throws IOException {
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    this.fileSize = channel.size();
+    this.windowSize = windowSize;
+    this.serializer = serializer;
+    Set<Part> wanted = EnumSet.noneOf(Part.class);
+    wanted.addAll(parts);
+    if (wanted.contains(Part.TRIPLES)) {
+      // the entailed sentences are read against the dependencies
+      wanted.add(Part.DEPENDENCIES);
+    }
+    for (Part part : Part.values()) {
+      if ( ! wanted.contains(part)) {
+        for (int field : part.documentFields) {
+          skippedDocumentFields.set(field);
+        }
+        for (int field : part.sentenceFields) {
+          skippedSentenceFields.set(field);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = readNext();
+      } catch (IOException e) {
+        throw new RuntimeIOException(e);
+      }
+    }
+    return next != null;
+  }
+
+  /**
+   * The next document, as a proto holding only the parts which were asked for.
+   * This is cheaper than {@link #next()} for callers which only need a field or two.
+   */
+  public CoreNLPProtos.Document nextProto() {
+    if ( ! hasNext()) {
+      throw new NoSuchElementException();
+    }
+    CoreNLPProtos.Document document = next;
+    next = null;
+    return document;
+  }
+
+  /**
+   * The next document.
+   * Its {@link CoreAnnotations.DocIDAnnotation} is also set on each of its sentences,
+   * as ssplit does, since {@link ProtobufDocumentWriter} only saves it with the document.
+   */
+  @Override
+  public Annotation next() {
+    Annotation document = serializer.fromProto(nextProto());
+    String docid = document.get(CoreAnnotations.DocIDAnnotation.class);
+    List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    if (docid != null && sentences != null) {
+      for (CoreMap sentence : sentences) {
+        sentence.set(CoreAnnotations.DocIDAnnotation.class, docid);
+      }
+    }
+    return document;
+  }
+
+  private CoreNLPProtos.Document readNext() throws IOException {
+    if (position >= fileSize) {
+      return null;
+    }
+    // The length of the message, as a varint of at most 5 bytes
+    ByteBuffer header = map(position, Math.min(5, fileSize - position));
+    long length = readVarint(header);
+    int headerLength = header.position();
+    if (length > Integer.MAX_VALUE || position + headerLength + length > fileSize) {
+      throw new InvalidProtocolBufferException("Truncated or corrupt document at offset " + position);
+    }
+    ByteBuffer message = map(position + headerLength, length);
+    position += headerLength + length;
+    return readDocument(message);
+  }
+
+  /**
+   * Get a view of a region of the file, moving the mapped window if the region
+   * is not in it.
+   */
+  private ByteBuffer map(long offset, long length) throws IOException {
+    if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+      long size = Math.min(Math.max(length, Math.min(windowSize, fileSize - offset)), Integer.MAX_VALUE);
+      window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+      windowStart = offset;
+    }
+    ByteBuffer view = window.duplicate();
+    view.position((int) (offset - windowStart));
+    view.limit((int) (offset - windowStart + length));
+    return view.slice();
+  }
+
+  private CoreNLPProtos.Document readDocument(ByteBuffer message) throws IOException {
+    CoreNLPProtos.Document.Builder document = CoreNLPProtos.Document.newBuilder();
+    int keptFrom = 0;
+    while (message.hasRemaining()) {
+      int fieldStart = message.position();
+      int field = readVarintAsInt(message) >>> 3;
+      if (field == CoreNLPProtos.Document.SENTENCE_FIELD_NUMBER) {
+        merge(document, message, keptFrom, fieldStart);
+        ByteBuffer sentence = readLengthDelimited(message);
+        document.addSentence(readSentence(sentence));
+        keptFrom = message.position();
+      } else if (skippedDocumentFields.get(field)) {
+        merge(document, message, keptFrom, fieldStart);
+        message.position(fieldStart);
+        skipField(message);
+        keptFrom = message.position();
+      } else {
+        message.position(fieldStart);
+        skipField(message);
+      }
+    }
+    merge(document, message, keptFrom, message.limit());
+    return document.buildPartial();
+  }
+
+  private CoreNLPProtos.Sentence readSentence(ByteBuffer message) throws IOException {
+    CoreNLPProtos.Sentence.Builder sentence = CoreNLPProtos.Sentence.newBuilder();
+    int keptFrom = 0;
+    while (message.hasRemaining()) {
+      int fieldStart = message.position();
+      int field = readVarintAsInt(message) >>> 3;
+      message.position(fieldStart);
+      if (skippedSentenceFields.get(field)) {
+        merge(sentence, message, keptFrom, fieldStart);
+        skipField(message);
+        keptFrom = message.position();
+      } else {
+        skipField(message);
+      }
+    }
+    merge(sentence, message, keptFrom, message.limit());
+    return sentence.buildPartial();
+  }
+
+  /**
+   * Decode a run of consecutive fields into a builder.
+   * Merging the runs one after another decodes the same message as decoding them
+   * all at once, less the fields in between.
+   */
+  private static void merge(Message.Builder builder, ByteBuffer message, int from, int to) throws IOException {
+    if (from >= to) {
+      return;
+    }
+    ByteBuffer run = message.duplicate();
+    run.position(from);
+    run.limit(to);
+    CodedInputStream input = CodedInputStream.newInstance(run.slice());
+    input.setSizeLimit(Integer.MAX_VALUE);
+    builder.mergeFrom(input);
+  }
+
+  private static ByteBuffer readLengthDelimited(ByteBuffer message) throws IOException {
+    int length = readVarintAsInt(message);
+    if (length < 0 || length > message.remaining()) {
+      throw new InvalidProtocolBufferException("Truncated message");
+    }
+    ByteBuffer field = message.duplicate();
+    field.limit(message.position() + length);
+    message.position(message.position() + length);
+    return field.slice();
+  }
+
+  /** Move past the field starting at the current position */
+  private static void skipField(ByteBuffer message) throws IOException {
+    int tag = readVarintAsInt(message);
+    switch (tag & 7) {
+      case WIRETYPE_VARINT:
+        readVarint(message);
+        break;
+      case WIRETYPE_FIXED64:
+        skipBytes(message, 8);
+        break;
+      case WIRETYPE_LENGTH_DELIMITED:
+        skipBytes(message, readVarintAsInt(message));
+        break;
+      case WIRETYPE_FIXED32:
+        skipBytes(message, 4);
+        break;
+      default:
+        throw new InvalidProtocolBufferException("Unsupported wire type " + (tag & 7) + " for field " + (tag >>> 3));
+    }
+  }
+
+  private static void skipBytes(ByteBuffer message, int length) throws IOException {
+    if (length < 0 || length > message.remaining()) {
+      throw new InvalidProtocolBufferException("Truncated message");
+    }
+    message.position(message.position() + length);
+  }
+
+  private static int readVarintAsInt(ByteBuffer message) throws IOException {
+    return (int) readVarint(message);
+  }
+
+  private static long readVarint(ByteBuffer message) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if ( ! message.hasRemaining()) {
+        throw new InvalidProtocolBufferException("Truncated varint");
+      }
+      byte b = message.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new InvalidProtocolBufferException("Malformed varint");
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+
+}
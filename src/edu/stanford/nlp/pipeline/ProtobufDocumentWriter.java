@@ -0,0 +1,118 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.protobuf.CodedOutputStream;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.StringUtils;
+
+/**
+ * Writes length-delimited {@link CoreNLPProtos.Document}s a sentence at a time,
+ * in the same format as {@link ProtobufAnnotationSerializer#write(Annotation, OutputStream)}.
+ * <br>
+ * Each sentence is serialized as soon as it is given to {@link #writeSentence(CoreMap)},
+ * so that it can be thrown away right after, and the proto of the whole document is never
+ * built. Only the encoded bytes of the sentences are held until the document is finished,
+ * as the length of the document comes before it in the stream.
+ * <br>
+ * The {@link CoreAnnotations.DocIDAnnotation} which ssplit copies onto each sentence is
+ * not written with the sentence; it is the document's id, which is written once with the
+ * document, and {@link ProtobufDocumentReader} sets it on the sentences again.
+ * <pre>
+ *   for (CoreMap sentence : sentences) {
+ *     writer.writeSentence(sentence);
+ *   }
+ *   writer.endDocument(document);
+ * </pre>
+ *
+ * @see ProtobufDocumentReader
+ */
+public class ProtobufDocumentWriter implements Closeable {
+
+  private final OutputStream out;
+  private final ProtobufAnnotationSerializer serializer;
+  /** The encoded sentences of the current document */
+  private final ByteArrayOutputStream sentenceBytes = new ByteArrayOutputStream();
+  private final CodedOutputStream sentenceOutput = CodedOutputStream.newInstance(sentenceBytes);
+  private int sentenceCount = 0;
+
+  public ProtobufDocumentWriter(OutputStream out) {
+    this(out, new ProtobufAnnotationSerializer());
+  }
+
+  public ProtobufDocumentWriter(OutputStream out, ProtobufAnnotationSerializer serializer) {
+    this.out = out;
+    this.serializer = serializer;
+  }
+
+  /**
+   * Add a sentence to the current document.
+   *
+   * @throws ProtobufAnnotationSerializer.LossySerializationException If the sentence has keys which would not be saved
+   *                                                                  by a lossless serializer.
+   */
+  public void writeSentence(CoreMap sentence) throws IOException {
+    Set<Class<?>> keysToSerialize = new HashSet<>(sentence.keySet());
+    keysToSerialize.remove(CoreAnnotations.DocIDAnnotation.class);  // saved with the document
+    CoreNLPProtos.Sentence.Builder builder = serializer.toProtoBuilder(sentence, keysToSerialize);
+    if (serializer.enforceLosslessSerialization && !keysToSerialize.isEmpty()) {
+      throw new ProtobufAnnotationSerializer.LossySerializationException("Keys are not being serialized: " + StringUtils.join(keysToSerialize));
+    }
+    sentenceOutput.writeMessage(CoreNLPProtos.Document.SENTENCE_FIELD_NUMBER, builder.build());
+    sentenceCount++;
+  }
+
+  /**
+   * Finish the current document, and write it out.
+   * The sentences of the document are the ones given to {@link #writeSentence(CoreMap)}
+   * since the last document; everything else, e.g., the text, the doc id, or the
+   * coref chains, is taken from the given annotation.
+   *
+   * @param document The document, whose {@link CoreAnnotations.SentencesAnnotation} is ignored.
+   */
+  public void endDocument(Annotation document) throws IOException {
+    Annotation rest = new Annotation(document);
+    rest.remove(CoreAnnotations.SentencesAnnotation.class);
+    if (sentenceCount > 0) {
+      // the tokens are saved with the sentences
+      rest.remove(CoreAnnotations.TokensAnnotation.class);
+    }
+    CoreNLPProtos.Document header = serializer.toProto(rest);
+    sentenceOutput.flush();
+
+    // fields may come in any order on the wire, so the sentences can follow the rest of the document
+    CodedOutputStream output = CodedOutputStream.newInstance(out);
+    output.writeRawVarint32(header.getSerializedSize() + sentenceBytes.size());
+    header.writeTo(output);
+    output.flush();
+    sentenceBytes.writeTo(out);
+    out.flush();
+    sentenceBytes.reset();
+    sentenceCount = 0;
+  }
+
+  /** Write a whole document, a sentence at a time. */
+  public void write(Annotation document) throws IOException {
+    List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    if (sentences != null) {
+      for (CoreMap sentence : sentences) {
+        writeSentence(sentence);
+      }
+    }
+    endDocument(document);
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+
+}
@@ -1,6 +1,9 @@
 package edu.stanford.nlp.pipeline;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.RejectedExecutionException;
 
 import edu.stanford.nlp.ling.CoreAnnotations;
@@ -12,8 +15,10 @@ import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 /**
  * A parent class for annotators which might want to analyze one
  * sentence at a time, possibly in a multithreaded manner.
- *
- * TODO: also factor out the POS
+ * <br>
+ * When called from the work-stealing pool of an {@link AnnotationPipeline}
+ * (see {@link AnnotationPipeline#setWorkStealing(boolean)}), the sentences
+ * are forked as tasks on that pool rather than on a per-document thread pool.
  *
  * @author John Bauer
  */
@@ -43,10 +48,37 @@ public abstract class SentenceAnnotator implements Annotator {
     return wrapper;
   }
 
+  /** Annotates one sentence as a task of the pipeline's work-stealing pool. */
+  private class SentenceTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final Annotation annotation;
+    final CoreMap sentence;
+
+    SentenceTask(Annotation annotation, CoreMap sentence) {
+      this.annotation = annotation;
+      this.sentence = sentence;
+    }
+
+    @Override
+    protected void compute() {
+      doOneSentence(annotation, sentence);
+    }
+  }
+
   @Override
   public void annotate(Annotation annotation) {
     if (annotation.containsKey(CoreAnnotations.SentencesAnnotation.class)) {
-      if (nThreads() != 1 || maxTime() > 0) {
+      if (maxTime() <= 0 && AnnotationPipeline.inWorkStealingPool()) {
+        List<CoreMap> sentences = annotation.get(CoreAnnotations.SentencesAnnotation.class);
+        List<SentenceTask> tasks = new ArrayList<>(sentences.size());
+        for (CoreMap sentence : sentences) {
+          tasks.add(new SentenceTask(annotation, sentence));
+        }
+        // Forks all but one task and runs the rest here; while waiting,
+        // this thread helps with other documents' queued sentences.
+        ForkJoinTask.invokeAll(tasks);
+      } else if (nThreads() != 1 || maxTime() > 0) {
         InterruptibleMulticoreWrapper<CoreMap, CoreMap> wrapper = buildWrapper(annotation);
         for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
           boolean success = false;
@@ -36,7 +36,7 @@ import edu.stanford.nlp.util.IntPair;
  *
  * @author John Bauer
  */
-public class SentimentAnnotator implements Annotator {
+public class SentimentAnnotator extends SentenceAnnotator {
 
   private static final String DEFAULT_MODEL = "edu/stanford/nlp/models/sentiment/sentiment.ser.gz";
 
@@ -67,53 +67,61 @@ public class SentimentAnnotator implements Annotator {
     )));
   }
 
+  /** One sentence at a time, as before; the sentences are only spread over threads on a work-stealing pool */
   @Override
-  public void annotate(Annotation annotation) {
-    if (annotation.containsKey(CoreAnnotations.SentencesAnnotation.class)) {
-      // TODO: parallelize
-      List<CoreMap> sentences = annotation.get(CoreAnnotations.SentencesAnnotation.class);
-      for (CoreMap sentence : sentences) {
-        Tree binarized = sentence.get(TreeCoreAnnotations.BinarizedTreeAnnotation.class);
-        if (binarized == null) {
-          throw new AssertionError("Binarized sentences not built by parser");
+  protected int nThreads() {
+    return 1;
+  }
+
+  @Override
+  protected long maxTime() {
+    return -1;
+  }
+
+  @Override
+  protected void doOneFailedSentence(Annotation annotation, CoreMap sentence) {
+    // nothing to fill in: there is no time limit, so sentences never fail
+  }
+
+  @Override
+  protected void doOneSentence(Annotation annotation, CoreMap sentence) {
+    Tree binarized = sentence.get(TreeCoreAnnotations.BinarizedTreeAnnotation.class);
+    if (binarized == null) {
+      throw new AssertionError("Binarized sentences not built by parser");
+    }
+    Tree collapsedUnary = transformer.transformTree(binarized);
+    SentimentCostAndGradient scorer = new SentimentCostAndGradient(model, null);
+    scorer.forwardPropagateTree(collapsedUnary);
+    sentence.set(SentimentCoreAnnotations.SentimentAnnotatedTree.class, collapsedUnary);
+    int sentiment = RNNCoreAnnotations.getPredictedClass(collapsedUnary);
+    sentence.set(SentimentCoreAnnotations.SentimentClass.class, SentimentUtils.sentimentString(model, sentiment));
+    Tree tree = sentence.get(TreeCoreAnnotations.TreeAnnotation.class);
+    if (tree != null) {
+      collapsedUnary.setSpans();
+      // map the sentiment annotations onto the tree
+      Map<IntPair,String> spanSentiment = Generics.newHashMap();
+      for (Tree bt : collapsedUnary) {
+        IntPair p = bt.getSpan();
+        int sen = RNNCoreAnnotations.getPredictedClass(bt);
+        String sentStr = SentimentUtils.sentimentString(model, sen);
+        if ( ! spanSentiment.containsKey(p)) {
+          // we'll take the first = highest one discovered
+          spanSentiment.put(p, sentStr);
         }
-        Tree collapsedUnary = transformer.transformTree(binarized);
-        SentimentCostAndGradient scorer = new SentimentCostAndGradient(model, null);
-        scorer.forwardPropagateTree(collapsedUnary);
-        sentence.set(SentimentCoreAnnotations.SentimentAnnotatedTree.class, collapsedUnary);
-        int sentiment = RNNCoreAnnotations.getPredictedClass(collapsedUnary);
-        sentence.set(SentimentCoreAnnotations.SentimentClass.class, SentimentUtils.sentimentString(model, sentiment));
-        Tree tree = sentence.get(TreeCoreAnnotations.TreeAnnotation.class);
-        if (tree != null) {
-          collapsedUnary.setSpans();
-          // map the sentiment annotations onto the tree
-          Map<IntPair,String> spanSentiment = Generics.newHashMap();
-          for (Tree bt : collapsedUnary) {
-            IntPair p = bt.getSpan();
-            int sen = RNNCoreAnnotations.getPredictedClass(bt);
-            String sentStr = SentimentUtils.sentimentString(model, sen);
-            if ( ! spanSentiment.containsKey(p)) {
-              // we'll take the first = highest one discovered
-              spanSentiment.put(p, sentStr);
-            }
-          }
-          if (((CoreLabel) tree.label()).containsKey(CoreAnnotations.SpanAnnotation.class)) {
-            throw new IllegalStateException("This code assumes you don't have SpanAnnotation");
-          }
-          tree.setSpans();
-          for (Tree t : tree) {
-            IntPair p = t.getSpan();
-            String str = spanSentiment.get(p);
-            if (str != null) {
-              CoreLabel cl = (CoreLabel) t.label();
-              cl.set(SentimentCoreAnnotations.SentimentClass.class, str);
-              cl.remove(CoreAnnotations.SpanAnnotation.class);
-            }
-          }
+      }
+      if (((CoreLabel) tree.label()).containsKey(CoreAnnotations.SpanAnnotation.class)) {
+        throw new IllegalStateException("This code assumes you don't have SpanAnnotation");
+      }
+      tree.setSpans();
+      for (Tree t : tree) {
+        IntPair p = t.getSpan();
+        String str = spanSentiment.get(p);
+        if (str != null) {
+          CoreLabel cl = (CoreLabel) t.label();
+          cl.set(SentimentCoreAnnotations.SentimentClass.class, str);
+          cl.remove(CoreAnnotations.SpanAnnotation.class);
         }
       }
-    } else {
-      throw new RuntimeException("unable to find sentences in: " + annotation);
     }
   }
 
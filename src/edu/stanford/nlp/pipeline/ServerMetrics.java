@@ -0,0 +1,251 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.StringUtils;
+
+/**
+ * The live counters of a {@link StanfordCoreNLPServer}, written out in the
+ * Prometheus text exposition format by its /metrics endpoint.
+ * <br>
+ * Everything is a running total since the server started (or a gauge read at
+ * scrape time), so rates such as tokens or sentences per second are computed
+ * by the scraper, e.g., {@code rate(corenlp_tokens_total[1m])}.
+ * All the methods are thread-safe and cheap enough to call on every request.
+ *
+ * @see <a href="https://prometheus.io/docs/instrumenting/exposition_formats/">The exposition format</a>
+ */
+public class ServerMetrics {
+
+  /** The content type of the exposition format */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /** The label of annotators which CoreNLP does not define, whatever the client named them */
+  static final String CUSTOM_ANNOTATOR = "custom";
+
+  /** The upper bounds, in seconds, of the buckets of the latency histograms */
+  private static final double[] LATENCY_BUCKETS = { 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+  private final ConcurrentMap<String, LongAdder> requests = new ConcurrentHashMap<>();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder timedOut = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final ConcurrentMap<String, Histogram> latency = new ConcurrentHashMap<>();
+  private final LongAdder documents = new LongAdder();
+  private final LongAdder tokens = new LongAdder();
+  private final LongAdder sentences = new LongAdder();
+  private final ConcurrentMap<String, LongAdder> annotatorMillis = new ConcurrentHashMap<>();
+  private final LongAdder pipelineCacheHits = new LongAdder();
+  private final LongAdder pipelineCacheMisses = new LongAdder();
+  /** Values read when the metrics are written out, e.g., the length of a queue */
+  private final Map<String, Gauge> gauges = Collections.synchronizedMap(new LinkedHashMap<>());
+
+  /** The help text and the value of a gauge */
+  private static class Gauge {
+    final String help;
+    final LongSupplier value;
+
+    Gauge(String help, LongSupplier value) {
+      this.help = help;
+      this.value = value;
+    }
+  }
+
+  /** A cumulative histogram, as Prometheus expects it */
+  private static class Histogram {
+    final AtomicLongArray counts = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+    final LongAdder sumMillis = new LongAdder();
+
+    void observe(long millis) {
+      double seconds = millis / 1000.0;
+      int bucket = 0;
+      while (bucket < LATENCY_BUCKETS.length && seconds > LATENCY_BUCKETS[bucket]) {
+        bucket++;
+      }
+      counts.incrementAndGet(bucket);
+      sumMillis.add(millis);
+    }
+  }
+
+  /** Count a request to one of the server's endpoints */
+  public void requestReceived(String endpoint) {
+    requests.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+  }
+
+  /** Count a request rejected because the server is overloaded */
+  public void requestRejected() {
+    rejected.increment();
+  }
+
+  /** Count a request which did not finish before its timeout */
+  public void requestTimedOut() {
+    timedOut.increment();
+  }
+
+  /** Count a request which failed with an exception */
+  public void requestFailed() {
+    failed.increment();
+  }
+
+  /**
+   * Record the time it took to answer a request, from when it was received,
+   * so that it includes any time spent waiting for a CoreNLP thread.
+   *
+   * The histograms are labeled by annotator chain, with any annotator which
+   * CoreNLP does not define labeled {@value #CUSTOM_ANNOTATOR}, so that clients
+   * can't make up any number of labels.
+   *
+   * @param annotators The annotator chain of the request, e.g., "tokenize,ssplit,pos"
+   * @param millis The latency of the request, in milliseconds
+   */
+  public void requestFinished(String annotators, long millis) {
+    latency.computeIfAbsent(annotatorChainLabel(annotators), k -> new Histogram()).observe(millis);
+  }
+
+  /** The name of an annotator as a label: itself if CoreNLP defines it, and {@value #CUSTOM_ANNOTATOR} otherwise */
+  static String annotatorLabel(String name) {
+    String lowerCase = name.toLowerCase();
+    return StanfordCoreNLP.isNamedAnnotator(lowerCase) ? lowerCase : CUSTOM_ANNOTATOR;
+  }
+
+  /** An annotator chain as a label, e.g., "tokenize,ssplit,custom" */
+  static String annotatorChainLabel(String annotators) {
+    StringJoiner label = new StringJoiner(",");
+    for (String name : annotators.trim().split("[, \\t]+")) {
+      if ( ! name.isEmpty()) {
+        label.add(annotatorLabel(name));
+      }
+    }
+    return label.toString();
+  }
+
+  /** Count the tokens and sentences of an annotated document */
+  public void documentAnnotated(Annotation document) {
+    documents.increment();
+    List<?> documentTokens = document.get(CoreAnnotations.TokensAnnotation.class);
+    if (documentTokens != null) {
+      tokens.add(documentTokens.size());
+    }
+    List<?> documentSentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    if (documentSentences != null) {
+      sentences.add(documentSentences.size());
+    }
+  }
+
+  /**
+   * Add to the time spent in an annotator.
+   * This is meant to be an {@link AnnotationPipeline#setTimingListener(java.util.function.ObjLongConsumer) timing listener}.
+   */
+  public void annotatorFinished(Annotator annotator, long millis) {
+    annotatorMillis.computeIfAbsent(StringUtils.getShortClassName(annotator), k -> new LongAdder()).add(millis);
+  }
+
+  /** Count a lookup in the server's pipeline cache */
+  public void pipelineCacheLookup(boolean hit) {
+    (hit ? pipelineCacheHits : pipelineCacheMisses).increment();
+  }
+
+  /**
+   * Register a gauge, whose value is read each time the metrics are written out.
+   *
+   * @param name The name of the metric, e.g., "corenlp_executor_queued_requests"
+   * @param help A one line description of the metric
+   * @param value The current value of the metric
+   */
+  public void gauge(String name, String help, LongSupplier value) {
+    gauges.put(name, new Gauge(help, value));
+  }
+
+  /**
+   * Write out all the metrics in the Prometheus text exposition format.
+   *
+   * @param out The writer to write the metrics to; it is not closed.
+   */
+  public void write(Writer out) throws IOException {
+    header(out, "corenlp_requests_total", "counter", "Requests received, by endpoint");
+    for (Map.Entry<String, LongAdder> entry : new TreeMap<>(requests).entrySet()) {
+      sample(out, "corenlp_requests_total", "endpoint", entry.getKey(), entry.getValue().sum());
+    }
+    counter(out, "corenlp_requests_rejected_total", "Requests rejected because the server was overloaded", rejected.sum());
+    counter(out, "corenlp_requests_timed_out_total", "Requests which did not finish before their timeout", timedOut.sum());
+    counter(out, "corenlp_requests_failed_total", "Requests which failed with an exception", failed.sum());
+
+    header(out, "corenlp_request_duration_seconds", "histogram", "Time to answer an annotation request, by annotator chain");
+    for (Map.Entry<String, Histogram> entry : new TreeMap<>(latency).entrySet()) {
+      String chain = "annotators=\"" + escape(entry.getKey()) + '"';
+      Histogram histogram = entry.getValue();
+      long cumulative = 0;
+      for (int i = 0; i <= LATENCY_BUCKETS.length; ++i) {
+        cumulative += histogram.counts.get(i);
+        String bound = i < LATENCY_BUCKETS.length ? Double.toString(LATENCY_BUCKETS[i]) : "+Inf";
+        out.write("corenlp_request_duration_seconds_bucket{" + chain + ",le=\"" + bound + "\"} " + cumulative + '\n');
+      }
+      out.write("corenlp_request_duration_seconds_sum{" + chain + "} " + histogram.sumMillis.sum() / 1000.0 + '\n');
+      out.write("corenlp_request_duration_seconds_count{" + chain + "} " + cumulative + '\n');
+    }
+
+    counter(out, "corenlp_documents_total", "Documents annotated", documents.sum());
+    counter(out, "corenlp_tokens_total", "Tokens in the documents annotated", tokens.sum());
+    counter(out, "corenlp_sentences_total", "Sentences in the documents annotated", sentences.sum());
+
+    header(out, "corenlp_annotator_seconds_total", "counter", "Time spent in each annotator");
+    for (Map.Entry<String, LongAdder> entry : new TreeMap<>(annotatorMillis).entrySet()) {
+      sample(out, "corenlp_annotator_seconds_total", "annotator", entry.getKey(), entry.getValue().sum() / 1000.0);
+    }
+
+    counter(out, "corenlp_pipeline_cache_hits_total", "Requests which reused a cached pipeline", pipelineCacheHits.sum());
+    counter(out, "corenlp_pipeline_cache_misses_total", "Requests which had to create a new pipeline", pipelineCacheMisses.sum());
+
+    header(out, "corenlp_annotator_memory_bytes", "gauge",
+        "Approximate heap used by each annotator which is still loaded: the growth of the heap while it was loaded");
+    Map<String, Long> memory = new TreeMap<>();
+    for (Map.Entry<String, Long> entry : AnnotatorPool.annotatorMemory().entrySet()) {
+      memory.merge(annotatorLabel(entry.getKey()), entry.getValue(), Long::sum);
+    }
+    for (Map.Entry<String, Long> entry : memory.entrySet()) {
+      sample(out, "corenlp_annotator_memory_bytes", "annotator", entry.getKey(), entry.getValue());
+    }
+
+    List<Map.Entry<String, Gauge>> gaugeList;
+    synchronized (gauges) {
+      gaugeList = new ArrayList<>(gauges.entrySet());
+    }
+    for (Map.Entry<String, Gauge> entry : gaugeList) {
+      header(out, entry.getKey(), "gauge", entry.getValue().help);
+      out.write(entry.getKey() + ' ' + entry.getValue().value.getAsLong() + '\n');
+    }
+    Runtime runtime = Runtime.getRuntime();
+    header(out, "corenlp_jvm_heap_used_bytes", "gauge", "Heap in use");
+    out.write("corenlp_jvm_heap_used_bytes " + (runtime.totalMemory() - runtime.freeMemory()) + '\n');
+    header(out, "corenlp_jvm_heap_max_bytes", "gauge", "The most heap the JVM will use");
+    out.write("corenlp_jvm_heap_max_bytes " + runtime.maxMemory() + '\n');
+  }
+
+  private static void header(Writer out, String name, String type, String help) throws IOException {
+    out.write("# HELP " + name + ' ' + help + '\n');
+    out.write("# TYPE " + name + ' ' + type + '\n');
+  }
+
+  private static void counter(Writer out, String name, String help, long value) throws IOException {
+    header(out, name, "counter", help);
+    out.write(name + ' ' + value + '\n');
+  }
+
+  private static void sample(Writer out, String name, String label, String labelValue, Number value) throws IOException {
+    out.write(name + '{' + label + "=\"" + escape(labelValue) + "\"} " + value + '\n');
+  }
+
+  /** Escape a label value, as the exposition format requires */
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+}
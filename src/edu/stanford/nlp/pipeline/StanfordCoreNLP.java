@@ -43,7 +43,11 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -119,6 +123,9 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
 
   private Semaphore availableProcessors;
 
+  /** Pool for {@link #annotate(Annotation, Consumer)} if the work-stealing scheduler is on; created lazily */
+  private ForkJoinPool workStealingPool;
+
 
   /**
    * Constructs a pipeline using as properties the properties file found in the classpath
@@ -438,11 +445,13 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
     } else {
       this.availableProcessors = new Semaphore(1);
     }
+    setWorkStealing(PropertiesUtils.getBool(this.properties, "workStealing", false));
 
     // now construct the annotators from the given properties in the given order
     List<String> annoNames = Arrays.asList(getRequiredProperty(props, "annotators").split("[, \t]+"));
     Set<String> alreadyAddedAnnoNames = Generics.newHashSet();
     Set<Class<? extends CoreAnnotation>> requirementsSatisfied = Generics.newHashSet();
+    List<Integer> stageThreads = new ArrayList<>();
     for (String name : annoNames) {
       name = name.trim();
       if (name.isEmpty()) { continue; }
@@ -450,6 +459,7 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
 
       Annotator an = pool.get(name);
       this.addAnnotator(an);
+      stageThreads.add(PropertiesUtils.getInt(props, name + ".stageThreads", 1));
 
       if (enforceRequirements) {
         Set<Class<? extends CoreAnnotation>> allRequirements = an.requires();
@@ -469,6 +479,10 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
       alreadyAddedAnnoNames.add(name);
     }
 
+    if (PropertiesUtils.getBool(props, "pipelined", false)) {
+      setPipelined(ArrayUtils.asPrimitiveIntArray(stageThreads), PropertiesUtils.getInt(props, "pipelined.queueSize", 4));
+    }
+
     // Sanity check
     if (! alreadyAddedAnnoNames.contains(STANFORD_SSPLIT)) {
       System.setProperty(NEWLINE_SPLITTER_PROPERTY, "false");
@@ -485,6 +499,19 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
   }
 
 
+  /** The names of {@link #getNamedAnnotators()}, made the first time they are needed */
+  private static class NamedAnnotators {
+    static final Set<String> names = Collections.unmodifiableSet(getNamedAnnotators().keySet());
+  }
+
+  /**
+   * Whether CoreNLP itself defines an annotator of this name, as opposed to one
+   * registered with a customAnnotatorClass property.
+   */
+  static boolean isNamedAnnotator(String name) {
+    return NamedAnnotators.names.contains(name);
+  }
+
   /**
    * This function defines the list of named annotators in CoreNLP, along with how to construct
    * them.
@@ -603,6 +630,27 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
   @Override
   public void annotate(Annotation annotation) {
     super.annotate(annotation);
+    countWords(annotation);
+  }
+
+  /**
+   * {@inheritDoc}
+   * In pipelined mode the annotators are called directly, so the words
+   * are counted as each document comes out of the last stage.
+   */
+  @Override
+  public void annotate(final Iterable<Annotation> annotations, int numThreads, final Consumer<Annotation> callback) {
+    if (isPipelined()) {
+      super.annotate(annotations, numThreads, annotation -> {
+        countWords(annotation);
+        callback.accept(annotation);
+      });
+    } else {
+      super.annotate(annotations, numThreads, callback);
+    }
+  }
+
+  private synchronized void countWords(Annotation annotation) {
     List<CoreLabel> words = annotation.get(CoreAnnotations.TokensAnnotation.class);
     if (words != null) {
       numWords += words.size();
@@ -620,7 +668,7 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
       } catch (InterruptedException e) {
         throw new RuntimeInterruptedException(e);
       }
-      new Thread(() -> {
+      Runnable task = () -> {
         try {
           annotate(annotation);
         } catch (Throwable t) {
@@ -628,7 +676,34 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
         }
         callback.accept(annotation);
         availableProcessors.release();
-      }).start();
+      };
+      if (isWorkStealing()) {
+        getWorkStealingPool().execute(task);
+      } else {
+        new Thread(task).start();
+      }
+    }
+  }
+
+  /** The pool of {@link #annotate(Annotation, Consumer)}, made again if it was shut down. Visible for testing. */
+  synchronized ForkJoinPool getWorkStealingPool() {
+    if (workStealingPool == null) {
+      workStealingPool = newWorkStealingPool(PropertiesUtils.getInt(properties, "threads", 1));
+    }
+    return workStealingPool;
+  }
+
+  /**
+   * Shut down the threads which {@link #annotate(Annotation, Consumer)} runs documents on
+   * when workStealing is set.  The documents already given to it are still annotated.
+   * The pipeline can still be used afterwards, and starts new threads when it needs them.
+   * {@link #processFiles(String, Collection, int)}, and so {@link #run()}, call this when
+   * they are done.
+   */
+  public synchronized void shutdown() {
+    if (workStealingPool != null) {
+      workStealingPool.shutdown();
+      workStealingPool = null;
     }
   }
 
@@ -787,6 +862,7 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
     os.println("\tIf annotator \"tokenize\" is defined:");
     os.println("\t\"tokenize.options\" - PTBTokenizer options (see edu.stanford.nlp.process.PTBTokenizer for details)");
     os.println("\t\"tokenize.whitespace\" - If true, just use whitespace tokenization");
+    os.println("\t\"tokenize.columnar\" - If true, keep the common token annotations in compact columns, to save memory on long documents");
 
     os.println();
     os.println("\tIf annotator \"cleanxml\" is defined:");
@@ -844,6 +920,12 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
     os.println("\t\"replaceExtension\" - flag to chop off the last extension before adding outputExtension to file");
     os.println("\t\"noClobber\" - don't automatically override (clobber) output files that already exist");
 		os.println("\t\"threads\" - multithread on this number of threads");
+    os.println("\t\"stream\" - run the pipeline on one large file (or \"-\" for stdin) with one document per line, writing to \"outputFile\" (or stdout)");
+    os.println("\t\"stream.format\" - \"text\" (default), \"tsv\" (id<tab>text), or \"jsonl\" (objects with \"text\" and \"id\")");
+    os.println("\t\"stream.window\" - the most documents read but not yet written (defaults to 4 * threads)");
+    os.println("\t\"stream.ordered\" - write documents in input order (default true), or as soon as they are done");
+    os.println("\t\"workStealing\" - with threads, share one work-stealing pool across documents and split sentence-level annotators by sentence");
+    os.println("\t\"pipelined\" - run each annotator as a stage with its own threads (\"<annotator>.stageThreads\", default 1) and a queue of \"pipelined.queueSize\" documents");
     os.println();
     os.println("If none of the above are present, run the pipeline in an interactive shell (default properties will be loaded from the classpath).");
     os.println("The shell accepts input from stdin and displays the output at stdout.");
@@ -943,6 +1025,13 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
     AnnotationOutputter.Options options = AnnotationOutputter.getOptions(this);
     StanfordCoreNLP.OutputFormat outputFormat = StanfordCoreNLP.OutputFormat.valueOf(properties.getProperty("outputFormat", DEFAULT_OUTPUT_FORMAT).toUpperCase());
     processFiles(base, files, numThreads, properties, this::annotate, createOutputter(properties, options), outputFormat);
+    if (isWorkStealing()) {
+      // the pool's threads are daemons, so wait here for the documents still in flight
+      int permits = PropertiesUtils.getInt(properties, "threads", 1);
+      availableProcessors.acquireUninterruptibly(permits);
+      availableProcessors.release(permits);
+      shutdown();
+    }
   }
 
 
@@ -1215,6 +1304,224 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
     */
   }
 
+  /**
+   * Process a stream of documents, one document per line, writing the output of each
+   * document to a single output stream.
+   * Unlike {@link #processFiles(String, Collection, int)}, the input is read lazily, so it
+   * can be one huge file (or stdin) with millions of documents.
+   * Memory is bounded by the "stream.window" property: at most that many documents
+   * are read but not yet written at any time, and reading blocks when the window is full.
+   * Other properties used:
+   * <ul>
+   *   <li>"stream.format": "text" (default), "tsv", or "jsonl"; see {@link StreamingDocumentReader.Format}</li>
+   *   <li>"stream.ordered": if true (default), write documents in input order;
+   *       otherwise write them as soon as they are done</li>
+   *   <li>"continueOnAnnotateError": skip documents which fail instead of stopping</li>
+   * </ul>
+   * Each document's output is followed by a newline, except for the serialized output format.
+   * If this throws, no document is still being annotated.
+   *
+   * @param input The documents, one per line
+   * @param output Where to write the annotated documents
+   * @param numThreads The number of threads to annotate on, unless in pipelined mode
+   *
+   * @throws IOException If there is a problem reading or writing
+   */
+  public void processStream(BufferedReader input, OutputStream output, int numThreads) throws IOException {
+    StreamingDocumentReader.Format format =
+        StreamingDocumentReader.Format.valueOf(properties.getProperty("stream.format", "text").toUpperCase());
+    int window = PropertiesUtils.getInt(properties, "stream.window", 4 * Math.max(numThreads, 1));
+    boolean ordered = PropertiesUtils.getBool(properties, "stream.ordered", true);
+    boolean continueOnAnnotateError = PropertiesUtils.getBool(properties, "continueOnAnnotateError", false);
+    OutputFormat outputFormat = OutputFormat.valueOf(properties.getProperty("outputFormat", DEFAULT_OUTPUT_FORMAT).toUpperCase());
+    BiConsumer<Annotation, OutputStream> print = createOutputter(properties, AnnotationOutputter.getOptions(this));
+
+    StreamWriter writer = new StreamWriter(output, print, outputFormat != OutputFormat.SERIALIZED,
+                                           window, ordered, continueOnAnnotateError);
+    StreamingDocumentReader reader = new StreamingDocumentReader(input, format);
+    Iterable<Annotation> documents = () -> new Iterator<Annotation>() {
+      @Override
+      public boolean hasNext() {
+        return reader.hasNext();
+      }
+      @Override
+      public Annotation next() {
+        Annotation document = reader.next();
+        writer.admit(document);
+        return document;
+      }
+    };
+
+    if (isPipelined()) {
+      // failed documents go to the writer, which skips them or stops the stream
+      annotatePipelined(documents, document -> {
+        countWords(document);
+        writer.finished(document);
+      }, true);
+    } else if (numThreads == 1) {
+      for (Annotation document : documents) {
+        annotate(document, writer);
+      }
+    } else {
+      ExecutorService executor = isWorkStealing() ? newWorkStealingPool(numThreads) : Executors.newFixedThreadPool(numThreads);
+      boolean admittedAll = false;
+      try {
+        for (Annotation document : documents) {
+          executor.execute(() -> annotate(document, writer));
+        }
+        admittedAll = true;
+      } finally {
+        // the stream stopped early: drop the documents not started yet
+        if (admittedAll) {
+          executor.shutdown();
+        } else {
+          executor.shutdownNow();
+        }
+        try {
+          executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          executor.shutdownNow();
+          if (admittedAll) {
+            throw new RuntimeInterruptedException(e);
+          }
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    writer.awaitAll();
+    output.flush();
+    logger.info("Processed " + writer.written + " documents from " + reader.lineNumber() + " lines" +
+        (writer.failed > 0 ? ", error annotating " + writer.failed + " documents" : ""));
+  }
+
+  /** Annotates a document of {@link #processStream(BufferedReader, OutputStream, int)}, and hands it to the writer */
+  private void annotate(Annotation document, StreamWriter writer) {
+    try {
+      annotate(document);
+    } catch (Throwable t) {
+      document.set(CoreAnnotations.ExceptionAnnotation.class, t);
+    }
+    writer.finished(document);
+  }
+
+  /**
+   * Writes the documents of {@link #processStream(BufferedReader, OutputStream, int)}
+   * and enforces its window of documents in flight.
+   * Finished documents are serialized right away by the thread which annotated them, so
+   * documents which wait for an earlier one to be written only hold on to their output bytes.
+   */
+  private static class StreamWriter {
+    private final OutputStream output;
+    private final BiConsumer<Annotation, OutputStream> print;
+    private final boolean newlineAfterDocument;
+    private final int window;
+    private final Semaphore inFlight;
+    private final boolean ordered;
+    private final boolean continueOnAnnotateError;
+
+    /** The position of each admitted document in the input, until it is finished */
+    private final Map<Annotation, Long> positions = new IdentityHashMap<>();
+    /** In ordered mode, the outputs which wait for an earlier document; null for a skipped document */
+    private final Map<Long, byte[]> pending = new HashMap<>();
+    private long nextAdmitted = 0;
+    private long nextWritten = 0;
+    private RuntimeException failure = null;
+    int written = 0;
+    int failed = 0;
+
+    StreamWriter(OutputStream output, BiConsumer<Annotation, OutputStream> print, boolean newlineAfterDocument,
+                 int window, boolean ordered, boolean continueOnAnnotateError) {
+      if (window < 1) {
+        throw new IllegalArgumentException("stream.window must be positive: " + window);
+      }
+      this.output = output;
+      this.print = print;
+      this.newlineAfterDocument = newlineAfterDocument;
+      this.window = window;
+      this.inFlight = new Semaphore(window);
+      this.ordered = ordered;
+      this.continueOnAnnotateError = continueOnAnnotateError;
+    }
+
+    /** Waits for room in the window, then registers the document */
+    void admit(Annotation document) {
+      inFlight.acquireUninterruptibly();
+      synchronized (this) {
+        if (failure != null) {
+          inFlight.release();
+          throw failure;
+        }
+        positions.put(document, nextAdmitted++);
+      }
+    }
+
+    void finished(Annotation document) {
+      byte[] bytes = null;
+      Throwable ex = document.get(CoreAnnotations.ExceptionAnnotation.class);
+      String id = document.get(CoreAnnotations.DocIDAnnotation.class);
+      if (ex == null) {
+        try {
+          ByteArrayOutputStream os = new ByteArrayOutputStream();
+          print.accept(document, os);
+          if (newlineAfterDocument) {
+            os.write('\n');
+          }
+          bytes = os.toByteArray();
+        } catch (RuntimeException e) {
+          ex = e;
+        }
+      }
+      synchronized (this) {
+        if (ex != null) {
+          failed++;
+          if (continueOnAnnotateError) {
+            logger.err("Error annotating document " + id + ": " + ex);
+          } else if (failure == null) {
+            failure = new RuntimeException("Error annotating document " + id, ex);
+          }
+        }
+        long position = positions.remove(document);
+        try {
+          if ( ! ordered) {
+            write(bytes);
+          } else {
+            pending.put(position, bytes);
+            while (pending.containsKey(nextWritten)) {
+              write(pending.remove(nextWritten));
+              nextWritten++;
+            }
+          }
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = new RuntimeIOException(e);
+          }
+        }
+      }
+      inFlight.release();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+      if (bytes != null) {
+        output.write(bytes);
+        written++;
+        if (written % 1000 == 0) {
+          logger.info("Processed " + written + " documents");
+        }
+      }
+    }
+
+    /** Waits until every admitted document is written, then rethrows the first failure, if any */
+    void awaitAll() {
+      inFlight.acquireUninterruptibly(window);
+      inFlight.release(window);
+      synchronized (this) {
+        if (failure != null) {
+          throw failure;
+        }
+      }
+    }
+  }
+
   public void processFiles(final Collection<File> files, int numThreads) throws IOException {
     processFiles(null, files, numThreads);
   }
@@ -1270,6 +1577,26 @@ public class StanfordCoreNLP extends AnnotationPipeline  {
       this.processFiles(null, files, numThreads);
     }
 
+    //
+    // Process one large file (or stdin) holding many documents
+    //
+    else if (properties.containsKey("stream")) {
+      String fileName = properties.getProperty("stream");
+      String encoding = getEncoding();
+      BufferedReader input = (fileName.isEmpty() || fileName.equals("-")) ?
+          new BufferedReader(new InputStreamReader(System.in, encoding)) : IOUtils.readerFromString(fileName, encoding);
+      String outputFile = properties.getProperty("outputFile");
+      OutputStream output = (outputFile == null || outputFile.equals("-")) ?
+          new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)) :
+          new BufferedOutputStream(new FileOutputStream(outputFile));
+      try {
+        this.processStream(input, output, numThreads);
+      } finally {
+        input.close();
+        output.close();
+      }
+    }
+
     //
     // Run the interactive shell
     //
@@ -3,6 +3,8 @@ package edu.stanford.nlp.pipeline;
 import edu.stanford.nlp.io.FileSequentialCollection;
 import edu.stanford.nlp.io.IOUtils;
 import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.PropertiesUtils;
 import edu.stanford.nlp.util.StringUtils;
 import edu.stanford.nlp.util.logging.Redwood;
 import edu.stanford.nlp.util.logging.StanfordRedwoodConfiguration;
@@ -10,7 +12,13 @@ import edu.stanford.nlp.util.logging.StanfordRedwoodConfiguration;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -48,13 +56,15 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
    *       multiple of them if we want to run multiple threads on that endpoint.</li>
    * </ul>
    */
-  private static class Backend {
+  static class Backend {
     /** The protocol to connect to the server with. */
     public final String protocol;
     /** The hostname of the server running the CoreNLP annotators */
     public final String host;
     /** The port of the server running the CoreNLP annotators */
     public final int port;
+    /** The load on this backend's server; shared by all the backends which are equal to this one */
+    private BackendStats stats = new BackendStats();
     public Backend(String protocol, String host, int port) {
       this.protocol = protocol;
       this.host = host;
@@ -78,9 +88,51 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
     }
   }
 
+  /**
+   * The measured load of one server, for picking the backend which should answer soonest.
+   */
+  private static class BackendStats {
+    /** The weight of the newest latency in the moving average */
+    private static final double DECAY = 0.2;
+    /** Requests currently running on this server. Guarded by the scheduler's stateLock. */
+    private int outstanding = 0;
+    /** A moving average of the latency of this server, in milliseconds */
+    private volatile double latency = 0.0;
+
+    synchronized void observe(long millis) {
+      latency = latency == 0.0 ? millis : (1.0 - DECAY) * latency + DECAY * millis;
+    }
+
+    /** Count a failure as a very slow response, so that the server is avoided for a while. */
+    synchronized void failed() {
+      latency = Math.max(2.0 * latency, 1000.0);
+    }
+
+    /** How long a new request should take here: every outstanding request, and the new one, at the average latency */
+    double expectedLatency() {
+      return (outstanding + 1) * Math.max(latency, 1.0);
+    }
+  }
+
+  /**
+   * A request waiting in the {@link BackendScheduler}'s queue.
+   */
+  private static class ScheduledRequest {
+    final BiConsumer<Backend, Consumer<Backend>> annotate;
+    /** A backend not to run on if another is free, e.g., the one a request is being retried after; or null */
+    final Backend avoid;
+
+    ScheduledRequest(BiConsumer<Backend, Consumer<Backend>> annotate, Backend avoid) {
+      this.annotate = annotate;
+      this.avoid = avoid;
+    }
+  }
+
   /**
    * A special type of {@link Thread}, which is responsible for scheduling jobs
    * on the backend.
+   * Each request goes to the free backend whose server has the least outstanding
+   * requests, weighted by its measured latency.
    */
   private static class BackendScheduler extends Thread {
     /**
@@ -97,7 +149,7 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
      * released control of the backend, and it can be used for other things.
      * Remember to lock access to this object with {@link BackendScheduler#stateLock}.
      */
-    private final Queue<BiConsumer<Backend, Consumer<Backend>>> queue;
+    private final Queue<ScheduledRequest> queue;
     /**
      * The lock on access to {@link BackendScheduler#queue}.
      */
@@ -130,6 +182,11 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
      */
     private boolean doRun = true;
 
+    /**
+     * The number of distinct servers among the backends.
+     */
+    public final int numServers;
+
     /**
      * Create a new scheduler from a list of backends.
      * These can contain duplicates -- in that case, that many concurrent
@@ -141,6 +198,43 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
       this.backends = backends;
       this.freeAnnotators = new LinkedList<>(backends);
       this.queue = new LinkedList<>();
+      // Backends which are equal are threads on the same server, and share its stats
+      List<Backend> servers = new ArrayList<>();
+      for (Backend backend : backends) {
+        Optional<Backend> server = servers.stream().filter(backend::equals).findFirst();
+        if (server.isPresent()) {
+          backend.stats = server.get().stats;
+        } else {
+          servers.add(backend);
+        }
+      }
+      this.numServers = servers.size();
+    }
+
+    /**
+     * Take the free backend whose server should answer soonest.
+     * Remember to lock access to this object with {@link BackendScheduler#stateLock}.
+     *
+     * @param avoid A backend to only take if no other is free, or null.
+     */
+    private Backend takeFreeBackend(Backend avoid) {
+      Backend best = null;
+      for (Backend candidate : freeAnnotators) {
+        if (best == null) {
+          best = candidate;
+        } else {
+          boolean bestAvoided = best.equals(avoid);
+          boolean candidateAvoided = candidate.equals(avoid);
+          if ((bestAvoided && ! candidateAvoided) ||
+              (bestAvoided == candidateAvoided && candidate.stats.expectedLatency() < best.stats.expectedLatency())) {
+            best = candidate;
+          }
+        }
+      }
+      Backend taken = best;
+      freeAnnotators.removeIf(backend -> backend == taken);
+      taken.stats.outstanding += 1;
+      return taken;
     }
 
     /** {@inheritDoc} */
@@ -149,7 +243,7 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
       try {
         while (doRun) {
           // Wait for a request
-          BiConsumer<Backend, Consumer<Backend>> request;
+          ScheduledRequest request;
           Backend annotator;
           stateLock.lock();
           try {
@@ -167,18 +261,19 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
             while (freeAnnotators.isEmpty()) {
               newlyFree.await();
             }
-            annotator = freeAnnotators.poll();
+            annotator = takeFreeBackend(request.avoid);
           } finally {
             stateLock.unlock();
           }
           // We have an annotator
 
           // Run the annotation
-          request.accept(annotator, freedAnnotator -> {
+          request.annotate.accept(annotator, freedAnnotator -> {
             // ASYNC: we've freed this annotator
             // add it back to the queue and register it as available
             stateLock.lock();
             try {
+              freedAnnotator.stats.outstanding -= 1;
               freeAnnotators.add(freedAnnotator);
 
               // If the queue is empty, and all the annotators have returned, we're done
@@ -205,11 +300,12 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
      *                 to do some processing. The implementation of this callback
      *                 MUST CALL the second argument when it is done processing,
      *                 to register the backend as free for further work.
+     * @param avoid A backend not to run on if another one is free, or null.
      */
-    public void schedule(BiConsumer<Backend, Consumer<Backend>> annotate) {
+    public void schedule(BiConsumer<Backend, Consumer<Backend>> annotate, Backend avoid) {
       stateLock.lock();
       try {
-        queue.add(annotate);
+        queue.add(new ScheduledRequest(annotate, avoid));
         enqueued.signal();
       } finally {
         stateLock.unlock();
@@ -233,6 +329,53 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
   /** The scheduler to use when running on multiple backends at a time */
   private final BackendScheduler scheduler;
 
+  /**
+   * The threads which make the requests to the server.  The connections are kept alive between
+   * requests; HttpURLConnection keeps up to http.maxConnections (by default 5) idle connections
+   * to each server, which may be raised on the command line when running more threads per server.
+   */
+  private final ExecutorService requestExecutor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "corenlp-client");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** Fires delayed retries and hedged requests */
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "corenlp-client-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** The number of times to retry a failed request, each time preferring a different server (client.retries) */
+  private final int maxRetries;
+
+  /**
+   * If positive, the milliseconds after which a request which has not come back is also sent to a
+   * second server; the first response wins (client.hedgeAfter).  This trims the latency tail
+   * when some server is slow, at the cost of some duplicate work.
+   */
+  private final long hedgeAfterMillis;
+
+  /** If positive, the milliseconds to wait to connect to a server (client.connectTimeout) */
+  private final int connectTimeoutMillis;
+
+  /**
+   * If positive, the milliseconds to wait for a server to answer before the request counts as
+   * failed, and is retried (client.readTimeout).  This should be longer than it takes to annotate
+   * the longest document.
+   */
+  private final int readTimeoutMillis;
+
+  /** The most documents to send in one request to the server's /batch endpoint (client.batchSize) */
+  private final int batchSize;
+
+  /** Only documents shorter than this many characters are batched (client.batchMaxChars) */
+  private final int batchMaxChars;
+
+  /** Requests which have been made but not all of whose documents have come back */
+  private final AtomicInteger pendingRequests = new AtomicInteger(0);
+
   /**
    * The annotation serializer responsible for translating between the wire format
    * (protocol buffers) and the {@link Annotation} classes.
@@ -254,12 +397,20 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
     this.properties = properties;
     Properties serverProperties = new Properties();
     for (String key : properties.stringPropertyNames()) {
-      serverProperties.setProperty(key, properties.getProperty(key));
+      if ( ! key.startsWith("client.")) {
+        serverProperties.setProperty(key, properties.getProperty(key));
+      }
     }
     Collections.shuffle(backends, new Random(System.currentTimeMillis()));
     this.scheduler = new BackendScheduler(backends);
     this.apiKey = apiKey;
     this.apiSecret = apiSecret;
+    this.maxRetries = PropertiesUtils.getInt(properties, "client.retries", 3);
+    this.hedgeAfterMillis = PropertiesUtils.getLong(properties, "client.hedgeAfter", -1);
+    this.batchSize = PropertiesUtils.getInt(properties, "client.batchSize", 1);
+    this.batchMaxChars = PropertiesUtils.getInt(properties, "client.batchMaxChars", 1000);
+    this.connectTimeoutMillis = PropertiesUtils.getInt(properties, "client.connectTimeout", 0);
+    this.readTimeoutMillis = PropertiesUtils.getInt(properties, "client.readTimeout", 0);
 
     // Set required serverProperties
     serverProperties.setProperty("inputFormat", "serialized");
@@ -285,7 +436,7 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
    *
    * @see StanfordCoreNLPClient#StanfordCoreNLPClient(Properties, List, String, String)
    */
-  private StanfordCoreNLPClient(Properties properties, List<Backend> backends) {
+  StanfordCoreNLPClient(Properties properties, List<Backend> backends) {
     this(properties, backends, null, null);
   }
 
@@ -384,29 +535,20 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
    */
   @Override
   public void annotate(Annotation annotation) {
-    final Lock lock = new ReentrantLock();
-    final Condition annotationDone = lock.newCondition();
-    annotate(Collections.singleton(annotation), 1, (Annotation annInput) -> {
-      try {
-        lock.lock();
-        annotationDone.signal();
-      } finally {
-        lock.unlock();
-      }
-    });
+    CountDownLatch annotationDone = new CountDownLatch(1);
+    annotate(annotation, (Annotation annInput) -> annotationDone.countDown());
     try {
-      lock.lock();
       annotationDone.await();  // Only wait for one callback to complete; only annotating one document
     } catch (InterruptedException e) {
       log.info("Interrupt while waiting for annotation to return");
-    } finally {
-      lock.unlock();
     }
   }
 
   /**
    * This method fires off a request to the server. Upon returning, it calls the provided
    * callback method.
+   * If client.batchSize is more than 1, short documents are sent together, that many
+   * at a time, to the server's /batch endpoint.
    *
    * @param annotations The input annotations to process
    * @param numThreads The number of threads to run on. IGNORED in this class.
@@ -414,8 +556,23 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
    */
   @Override
   public void annotate(final Iterable<Annotation> annotations, int numThreads, final Consumer<Annotation> callback){
+    List<Annotation> batch = new ArrayList<>();
     for (Annotation annotation : annotations) {
-      annotate(annotation, callback);
+      String text = annotation.get(CoreAnnotations.TextAnnotation.class);
+      if (batchSize > 1 && text != null && text.length() < batchMaxChars) {
+        batch.add(annotation);
+        if (batch.size() >= batchSize) {
+          submit(new PendingRequest(batch, callback), null, 0);
+          batch = new ArrayList<>();
+        }
+      } else {
+        annotate(annotation, callback);
+      }
+    }
+    if (batch.size() == 1) {
+      annotate(batch.get(0), callback);
+    } else if ( ! batch.isEmpty()) {
+      submit(new PendingRequest(batch, callback), null, 0);
     }
   }
 
@@ -429,102 +586,302 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
    *                 The input to this callback is the same as the passed Annotation object.
    */
   public void annotate(final Annotation annotation, final Consumer<Annotation> callback) {
-    scheduler.schedule((Backend backend, Consumer<Backend> isFinishedCallback) -> new Thread(() -> {
+    submit(new PendingRequest(Collections.singletonList(annotation), callback), null, 0);
+  }
+
+
+  /**
+   * One request to the server, of either one document or a batch of them.
+   * With retries and hedging, it may be sent more than once, and even be running on two
+   * servers at the same time; only the first response is kept.
+   */
+  private class PendingRequest {
+    final List<Annotation> documents;
+    final Consumer<Annotation> callback;
+    /** The path on the server: the main endpoint for one document, or /batch */
+    final String path;
+    /** The documents, serialized; computed once for all the attempts */
+    final byte[] message;
+    /** Set by the first attempt which succeeds, or by the last one to fail */
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicBoolean started = new AtomicBoolean(false);
+    final AtomicInteger retries = new AtomicInteger(0);
+    /** The attempts which are queued or running */
+    final AtomicInteger inFlight = new AtomicInteger(0);
+
+    PendingRequest(List<Annotation> documents, Consumer<Annotation> callback) {
+      this.documents = documents;
+      this.callback = callback;
+      this.path = documents.size() == 1 ? StanfordCoreNLPClient.this.path : StanfordCoreNLPClient.this.path + "/batch";
       try {
-        // 1. Create the input
-        // 1.1 Create a protocol buffer
         ByteArrayOutputStream os = new ByteArrayOutputStream();
-        serializer.write(annotation, os);
+        // the writer leaves out the DocIDAnnotation which ssplit copies onto the sentences
+        ProtobufDocumentWriter writer = new ProtobufDocumentWriter(os, serializer);
+        if (documents.size() == 1) {
+          writer.write(documents.get(0));
+        } else {
+          // On the wire, the documents of a batch are named by their position, so we can match up the responses.
+          // The names are set on copies, since the caller may be reading the documents meanwhile.
+          for (int i = 0; i < documents.size(); ++i) {
+            Annotation copy = documents.get(i).copy();
+            copy.set(CoreAnnotations.DocIDAnnotation.class, Integer.toString(i));
+            writer.write(copy);
+          }
+        }
         os.close();
-        byte[] message = os.toByteArray();
-        // 1.2 Create the query params
-
-        String queryParams = String.format(
-            "properties=%s",
-            URLEncoder.encode(StanfordCoreNLPClient.this.propsAsJSON, "utf-8"));
-
-        // 2. Create a connection
-        URL serverURL = new URL(backend.protocol, backend.host,
-            backend.port,
-            StanfordCoreNLPClient.this.path + '?' + queryParams);
-
-        // 3. Do the annotation
-        //    This method has two contracts:
-        //    1. It should call the two relevant callbacks
-        //    2. It must not throw an exception
-        doAnnotation(annotation, backend, serverURL, message, 0);
-      } catch (Throwable t) {
+        this.message = os.toByteArray();
+      } catch (IOException e) {
+        throw new RuntimeIOException(e);
+      }
+      pendingRequests.incrementAndGet();
+    }
+  }
+
+  /**
+   * Queue an attempt at a request on the scheduler.
+   *
+   * @param request The request to make.
+   * @param avoid A backend not to run on if another one is free, e.g., the one which just failed; or null.
+   * @param delayMillis How long to wait before queueing the attempt, e.g., when the server asked us to come back later.
+   */
+  private void submit(PendingRequest request, Backend avoid, long delayMillis) {
+    request.inFlight.incrementAndGet();
+    Runnable schedule = () -> scheduler.schedule((Backend backend, Consumer<Backend> isFinishedCallback) ->
+        requestExecutor.execute(() -> attempt(request, backend, isFinishedCallback)), avoid);
+    if (delayMillis > 0) {
+      timer.schedule(schedule, delayMillis, TimeUnit.MILLISECONDS);
+    } else {
+      schedule.run();
+    }
+  }
+
+
+  /**
+   * Make one attempt at a request on a backend.
+   * On failure, the request is retried on another backend, up to client.retries times;
+   * after that, the documents are annotated locally.
+   * This method must not throw an exception, and must free the backend.
+   */
+  private void attempt(PendingRequest request, Backend backend, Consumer<Backend> isFinishedCallback) {
+    if (request.done.get()) {  // a hedged request already came back
+      isFinishedCallback.accept(backend);
+      request.inFlight.decrementAndGet();
+      return;
+    }
+    if (hedgeAfterMillis > 0 && scheduler.numServers > 1 && request.started.compareAndSet(false, true)) {
+      timer.schedule(() -> {
+        if ( ! request.done.get()) {
+          submit(request, backend, 0);
+        }
+      }, hedgeAfterMillis, TimeUnit.MILLISECONDS);
+    }
+    long start = System.currentTimeMillis();
+    List<Annotation> responses;
+    try {
+      responses = doAnnotation(request, backend);
+      backend.stats.observe(System.currentTimeMillis() - start);
+    } catch (Throwable t) {
+      backend.stats.failed();
+      isFinishedCallback.accept(backend);
+      if ( ! request.done.get() && request.retries.incrementAndGet() <= maxRetries) {
+        log.warn(t);
+        submit(request, backend, t instanceof ServerBusyException ? ((ServerBusyException) t).retryAfterMillis : 0);
+      }
+      // Give up only if this was the last attempt, and no hedged attempt is still running
+      if (request.inFlight.decrementAndGet() == 0 && request.done.compareAndSet(false, true)) {
+        failed(request, t);
+      }
+      return;
+    }
+    isFinishedCallback.accept(backend);
+    request.inFlight.decrementAndGet();
+    if (request.done.compareAndSet(false, true)) {
+      succeeded(request, responses);
+    }
+  }
+
+
+  /**
+   * Copy the server's responses over to the documents of a request.
+   * Any document of a batch which did not come back is sent again on its own.
+   */
+  @SuppressWarnings("unchecked")
+  private void succeeded(PendingRequest request, List<Annotation> responses) {
+    Annotation[] byPosition = new Annotation[request.documents.size()];
+    if (request.documents.size() == 1) {
+      byPosition[0] = responses.isEmpty() ? null : responses.get(0);
+    } else {
+      for (Annotation response : responses) {
+        try {
+          byPosition[Integer.parseInt(response.get(CoreAnnotations.DocIDAnnotation.class))] = response;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException | NullPointerException e) {
+          log.warn("Unexpected document in batch response: " + response.get(CoreAnnotations.DocIDAnnotation.class));
+        }
+      }
+    }
+    for (int i = 0; i < byPosition.length; ++i) {
+      Annotation document = request.documents.get(i);
+      if (byPosition[i] == null) {
+        if (request.documents.size() > 1) {
+          annotate(document, request.callback);
+        } else {
+          failed(request, new IllegalStateException("The server sent no document back"));
+          return;
+        }
+        continue;
+      }
+      for (Class key : byPosition[i].keySet()) {
+        // the id of a document of a batch is only its position
+        if (request.documents.size() == 1 || key != CoreAnnotations.DocIDAnnotation.class) {
+          document.set(key, byPosition[i].get(key));
+        }
+      }
+      request.callback.accept(document);
+    }
+    pendingRequests.decrementAndGet();
+  }
+
+
+  /**
+   * Give up on the server for a request: a single document is annotated locally,
+   * and each document of a batch is sent again on its own.
+   */
+  private void failed(PendingRequest request, Throwable t) {
+    if (request.documents.size() > 1) {
+      log.warn("Could not annotate batch via server! Sending the documents one at a time...", t);
+      for (Annotation document : request.documents) {
+        annotate(document, request.callback);
+      }
+    } else {
+      Annotation annotation = request.documents.get(0);
+      try {
         log.warn("Could not annotate via server! Trying to annotate locally...", t);
         StanfordCoreNLP corenlp = new StanfordCoreNLP(properties);
         corenlp.annotate(annotation);
       } finally {
-        callback.accept(annotation);
-        isFinishedCallback.accept(backend);
+        request.callback.accept(annotation);
       }
-    }).start());
+    }
+    pendingRequests.decrementAndGet();
+  }
+
+
+  /**
+   * Thrown when the server is overloaded and asks us to come back later.
+   */
+  private static class ServerBusyException extends IOException {
+    private static final long serialVersionUID = 1L;
+    final long retryAfterMillis;
+
+    ServerBusyException(String message, long retryAfterMillis) {
+      super(message);
+      this.retryAfterMillis = retryAfterMillis;
+    }
   }
 
 
   /**
    * Actually try to perform the annotation on the server side.
-   * This is factored out so that we can retry up to 3 times.
+   * The response is read to the end and the streams are closed, so that the
+   * connection goes back to the pool of kept-alive connections for the next request.
    *
-   * @param annotation The annotation we need to fill.
+   * @param request The request we are making.
    * @param backend The backend we are querying against.
-   * @param serverURL The URL of the server we are hitting.
-   * @param message The message we are sending the server (don't need to recompute each retry).
-   * @param tries The number of times we've tried already.
+   *
+   * @return The annotated documents the server sent back.
    */
-  @SuppressWarnings("unchecked")
-  private void doAnnotation(Annotation annotation, Backend backend, URL serverURL, byte[] message, int tries) {
-
-    try {
-      // 1. Set up the connection
-      URLConnection connection = serverURL.openConnection();
-      // 1.1 Set authentication
-      if (apiKey != null && apiSecret != null) {
-        String userpass = apiKey + ":" + apiSecret;
-        String basicAuth = "Basic " + new String(Base64.getEncoder().encode(userpass.getBytes()));
-        connection.setRequestProperty("Authorization", basicAuth);
+  private List<Annotation> doAnnotation(PendingRequest request, Backend backend) throws IOException, ClassNotFoundException {
+    // 1. Set up the connection
+    String queryParams = String.format(
+        "properties=%s",
+        URLEncoder.encode(StanfordCoreNLPClient.this.propsAsJSON, "utf-8"));
+    URL serverURL = new URL(backend.protocol, backend.host,
+        backend.port,
+        request.path + '?' + queryParams);
+    URLConnection urlConnection = serverURL.openConnection();
+    // 1.1 Set some protocol-dependent properties
+    HttpURLConnection connection;
+    switch (backend.protocol) {
+      case "https":
+      case "http":
+        connection = (HttpURLConnection) urlConnection;
+        connection.setRequestMethod("POST");
+        break;
+      default:
+        throw new IllegalStateException("Haven't implemented protocol: " + backend.protocol);
+    }
+    // 1.2 Set authentication
+    if (apiKey != null && apiSecret != null) {
+      String userpass = apiKey + ":" + apiSecret;
+      String basicAuth = "Basic " + new String(Base64.getEncoder().encode(userpass.getBytes()));
+      connection.setRequestProperty("Authorization", basicAuth);
+    }
+    // 1.3 Set some protocol-independent properties
+    connection.setDoOutput(true);
+    if (connectTimeoutMillis > 0) {
+      connection.setConnectTimeout(connectTimeoutMillis);
+    }
+    if (readTimeoutMillis > 0) {
+      connection.setReadTimeout(readTimeoutMillis);
+    }
+    connection.setFixedLengthStreamingMode(request.message.length);
+    connection.setRequestProperty("Content-Type", "application/x-protobuf");
+    connection.setRequestProperty("Accept-Charset", "utf-8");
+    connection.setRequestProperty("User-Agent", StanfordCoreNLPClient.class.getName());
+
+    // 2. Annotate
+    // 2.1. Fire off the request
+    try (OutputStream os = connection.getOutputStream()) {
+      os.write(request.message);
+    }
+    // 2.2 Await a response
+    int status = connection.getResponseCode();
+    if (status != HttpURLConnection.HTTP_OK) {
+      String error = "";
+      InputStream errorStream = connection.getErrorStream();
+      if (errorStream != null) {
+        try (InputStream is = errorStream) {
+          error = IOUtils.slurpInputStream(is, "utf-8");
+        }
       }
-      // 1.2 Set some protocol-independent properties
-      connection.setDoOutput(true);
-      connection.setRequestProperty("Content-Type", "application/x-protobuf");
-      connection.setRequestProperty("Content-Length", Integer.toString(message.length));
-      connection.setRequestProperty("Accept-Charset", "utf-8");
-      connection.setRequestProperty("User-Agent", StanfordCoreNLPClient.class.getName());
-      // 1.3 Set some protocol-dependent properties
-      switch (backend.protocol) {
-        case "https":
-        case "http":
-          ((HttpURLConnection) connection).setRequestMethod("POST");
-          break;
-        default:
-          throw new IllegalStateException("Haven't implemented protocol: " + backend.protocol);
+      if (status == HttpURLConnection.HTTP_UNAVAILABLE) {
+        long retryAfter = 1000;
+        String header = connection.getHeaderField("Retry-After");
+        if (header != null) {
+          try {
+            retryAfter = 1000L * Integer.parseInt(header.trim());
+          } catch (NumberFormatException e) {
+            // not a number of seconds; keep the default
+          }
+        }
+        throw new ServerBusyException("Server " + backend + " is busy: " + error, retryAfter);
       }
-
-      // 2. Annotate
-      // 2.1. Fire off the request
-      connection.connect();
-      connection.getOutputStream().write(message);
-      connection.getOutputStream().flush();
-      // 2.2 Await a response
-      // -- It might be possible to send more than one message, but we are not going to do that.
-      Annotation response = serializer.read(connection.getInputStream()).first;
-      // 2.3. Copy response over to original annotation
-      for (Class key : response.keySet()) {
-        annotation.set(key, response.get(key));
+      throw new IOException("Server " + backend + " returned HTTP " + status + ": " + error);
+    }
+    byte[] response;
+    try (InputStream is = connection.getInputStream()) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = is.read(buffer)) > 0) {
+        bytes.write(buffer, 0, read);
       }
-
-    } catch (Throwable t) {
-      // 3. We encountered an error -- retry
-      if (tries < 3) {
-        log.warn(t);
-        doAnnotation(annotation, backend, serverURL, message, tries + 1);
-      } else {
-        throw new RuntimeException(t);
+      response = bytes.toByteArray();
+    }
+    // 2.3 Read the documents
+    List<Annotation> documents = new ArrayList<>();
+    InputStream is = new ByteArrayInputStream(response);
+    CoreNLPProtos.Document proto;
+    while ((proto = CoreNLPProtos.Document.parseDelimitedFrom(is)) != null) {
+      String error = StanfordCoreNLPServer.batchError(proto);
+      if (error != null) {
+        // left out, so that it is sent again on its own
+        log.warn("Server could not annotate document " + proto.getDocID() + " of a batch: " + error);
+        continue;
       }
+      documents.add(serializer.fromProto(proto));
     }
+    return documents;
   }
 
 
@@ -644,7 +1001,8 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
   public void shutdown() throws InterruptedException {
     scheduler.stateLock.lock();
     try {
-      while (!scheduler.queue.isEmpty() || scheduler.freeAnnotators.size() != scheduler.backends.size()) {
+      while (!scheduler.queue.isEmpty() || scheduler.freeAnnotators.size() != scheduler.backends.size() ||
+          pendingRequests.get() > 0) {
         scheduler.shouldShutdown.await(5, TimeUnit.SECONDS);
       }
       scheduler.doRun = false;
@@ -652,6 +1010,34 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
     } finally {
       scheduler.stateLock.unlock();
     }
+    requestExecutor.shutdown();
+    timer.shutdown();
+  }
+
+
+  /**
+   * Parse a comma-separated list of backends, such as {@code http://site1:port1,site2:port2}.
+   * A backend without a protocol is reached over http.
+   */
+  static List<Backend> parseBackends(String specs) {
+    List<Backend> backends = new ArrayList<>();
+    for (String spec : specs.split(",")) {
+      Matcher matcher = URL_PATTERN.matcher(spec.trim());
+      if (matcher.matches()) {
+        String protocol = matcher.group(1);
+        if (protocol == null) {
+          protocol = "http";
+        }
+        String host = matcher.group(2);
+        int port = 80;
+        String portStr = matcher.group(3);
+        if (portStr != null) {
+          port = Integer.parseInt(portStr);
+        }
+        backends.add(new Backend(protocol, host, port));
+      }
+    }
+    return backends;
   }
 
 
@@ -690,7 +1076,6 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
     }
 
     // Create the backends
-    List<Backend> backends = new ArrayList<>();
     String defaultBack = "http://localhost:9000";
     String backStr = props.getProperty("backends");
     if (backStr == null) {
@@ -705,22 +1090,7 @@ public class StanfordCoreNLPClient extends AnnotationPipeline  {
       }
     }
 
-    for (String spec : props.getProperty("backends", defaultBack).split(",")) {
-      Matcher matcher = URL_PATTERN.matcher(spec.trim());
-      if (matcher.matches()) {
-        String protocol = matcher.group(1);
-        if (protocol == null) {
-          protocol = "http";
-        }
-        String host = matcher.group(2);
-        int port = 80;
-        String portStr = matcher.group(3);
-        if (portStr != null) {
-          port = Integer.parseInt(portStr);
-        }
-        backends.add(new Backend(protocol, host, port));
-      }
-    }
+    List<Backend> backends = parseBackends(props.getProperty("backends", defaultBack));
     log.info("Using backends: " + backends);
 
     // Run the pipeline
@@ -1,6 +1,9 @@
 package edu.stanford.nlp.pipeline;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
 import com.sun.net.httpserver.*;
+import edu.stanford.nlp.ie.AbstractSequenceClassifier;
 import edu.stanford.nlp.io.IOUtils;
 import edu.stanford.nlp.io.RuntimeIOException;
 import edu.stanford.nlp.ling.CoreAnnotations;
@@ -19,8 +22,15 @@ import edu.stanford.nlp.trees.*;
 import edu.stanford.nlp.util.*;
 import edu.stanford.nlp.util.logging.Redwood;
 
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
 import javax.net.ssl.*;
 import java.io.*;
+import java.lang.ref.SoftReference;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -34,6 +44,7 @@ import java.security.cert.CertificateException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -72,10 +83,27 @@ public class StanfordCoreNLPServer implements Runnable {
   protected static String defaultAnnotators = "tokenize,ssplit,pos,lemma,ner,parse,depparse,mention,coref,natlog,openie,regexner,kbp";
   @ArgumentParser.Option(name="preload", gloss="Cache the following annotators on startup")
   protected static String preloadedAnnotators = "";
+  @ArgumentParser.Option(name="maxQueue", gloss="The most requests which may wait for a CoreNLP thread, and the most which may wait for an annotator at its limit; further requests are rejected with 503 Service Unavailable. Unbounded if negative.")
+  protected static int maxQueuedRequests = -1;
+  @ArgumentParser.Option(name="retryAfter", gloss="The number of seconds rejected clients are asked to wait (Retry-After header) before trying again")
+  protected static int retryAfterSeconds = 1;
+  @ArgumentParser.Option(name="annotatorLimits", gloss="The most concurrent requests which may run a given annotator, e.g., 'coref=2,parse=4'. Further requests wait, up to maxQueue of them.")
+  protected static String annotatorLimits = "";
+  @ArgumentParser.Option(name="pipelineCacheMemory", gloss="The memory budget, in megabytes, of the models of cached pipelines; least recently used pipelines are dropped beyond it. Defaults to half of the maximum heap if negative.")
+  protected static long pipelineCacheMemory = -1;
+  @ArgumentParser.Option(name="pipelineCacheSize", gloss="The most pipelines to cache; least recently used pipelines are dropped beyond it.")
+  protected static int pipelineCacheSize = 64;
 
   protected final String shutdownKey;
 
   public static int MAX_CHAR_LENGTH = 100000;
+
+  /**
+   * The field of a document in the serialized output of the /batch endpoint which holds the error
+   * message of a document which could not be annotated.  It is not in CoreNLP.proto (it is in the
+   * range reserved for extensions), so it is kept among the unknown fields of the document.
+   */
+  public static final int BATCH_ERROR_FIELD = 100;
   public final Properties defaultProps;
 
   /**
@@ -83,14 +111,40 @@ public class StanfordCoreNLPServer implements Runnable {
    */
   private final ExecutorService serverExecutor;
   /**
-   * To prevent grossly wasteful over-creation of pipeline objects, cache the last
-   * few we created, until the garbage collector decides we can kill them.
+   * To prevent grossly wasteful over-creation of pipeline objects, cache the pipelines we created,
+   * keyed on their properties (see {@link #pipelineSignature(Properties)}), so that requests which
+   * only differ in how their input is read and their output written share a pipeline.
+   * Pipelines with different properties still share the annotators they have in common through the
+   * {@link AnnotatorPool}.  Lookups don't lock; pipelines are dropped least recently used first once the cache
+   * is over {@link #pipelineCacheSize} or {@link #pipelineCacheMemory}.
    */
-  private final WeakHashMap<Properties, StanfordCoreNLP> pipelineCache = new WeakHashMap<>();
+  private final ConcurrentHashMap<String, CachedPipeline> pipelineCache = new ConcurrentHashMap<>();
+  /**
+   * Makes the annotators of the cached pipelines, sharing the models of NER annotators
+   * (see {@link SharedClassifierImplementations}).
+   */
+  private final AnnotatorImplementations annotatorImplementations = new SharedClassifierImplementations();
   /**
    * An executor to time out CoreNLP execution with.
+   * Its queue is bounded by {@link #maxQueuedRequests}.
+   */
+  private final ThreadPoolExecutor corenlpExecutor;
+  /**
+   * Fires the timeouts of requests running on the {@link #corenlpExecutor}.
+   */
+  private final ScheduledThreadPoolExecutor timeoutExecutor;
+  /**
+   * The permits for concurrent requests running each annotator, from {@link #annotatorLimits}.
+   */
+  private final Map<String, Semaphore> annotatorPermits;
+  /**
+   * The requests waiting for some annotator at its limit, oldest first; bounded by {@link #maxQueuedRequests}.
    */
-  private final ExecutorService corenlpExecutor;
+  private final Deque<AnnotatorPermits> waitingForPermits = new ArrayDeque<>();
+  /**
+   * The live counters served by the /metrics endpoint.
+   */
+  private final ServerMetrics metrics = new ServerMetrics();
 
 
   /**
@@ -141,7 +195,35 @@ public class StanfordCoreNLPServer implements Runnable {
         "parse.binaryTrees", "true",  // needed for the Sentiment annotator
         "openie.strip_entailments", "true");  // these are large to serialize, so ignore them
     this.serverExecutor = Executors.newFixedThreadPool(ArgumentParser.threads);
-    this.corenlpExecutor = Executors.newFixedThreadPool(ArgumentParser.threads);
+    this.corenlpExecutor = new ThreadPoolExecutor(ArgumentParser.threads, ArgumentParser.threads, 0L, TimeUnit.MILLISECONDS,
+        maxQueuedRequests < 0 ? new LinkedBlockingQueue<>() :
+            (maxQueuedRequests == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(maxQueuedRequests)));
+    this.timeoutExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "corenlp-timeouts");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.timeoutExecutor.setRemoveOnCancelPolicy(true);
+    this.annotatorPermits = new HashMap<>();
+    for (String limit : annotatorLimits.split(",")) {
+      if (limit.trim().isEmpty()) {
+        continue;
+      }
+      String[] fields = limit.split("[=:]");
+      if (fields.length != 2) {
+        throw new IllegalArgumentException("Could not parse annotator limit (expected annotator=limit): " + limit);
+      }
+      annotatorPermits.put(fields[0].trim(), new Semaphore(Integer.parseInt(fields[1].trim())));
+    }
+    metrics.gauge("corenlp_executor_queued_requests", "Tasks waiting for a CoreNLP thread", () -> corenlpExecutor.getQueue().size());
+    metrics.gauge("corenlp_executor_active_threads", "CoreNLP threads which are busy", corenlpExecutor::getActiveCount);
+    metrics.gauge("corenlp_executor_threads", "The size of the CoreNLP thread pool", corenlpExecutor::getMaximumPoolSize);
+    metrics.gauge("corenlp_annotator_waiting_requests", "Requests waiting for an annotator at its limit", () -> {
+      synchronized (waitingForPermits) {
+        return waitingForPermits.size();
+      }
+    });
+    metrics.gauge("corenlp_pipeline_cache_size", "Pipelines in the pipeline cache", pipelineCache::size);
 
     // Generate and write a shutdown key
     String tmpDir = System.getProperty("java.io.tmpdir");
@@ -156,6 +238,18 @@ public class StanfordCoreNLPServer implements Runnable {
     IOUtils.writeStringToFile(shutdownKey, tmpFile.getPath(), "utf-8");
   }
 
+  /**
+   * The error message of a document read from the serialized output of the /batch endpoint.
+   *
+   * @param document A document of the response.
+   *
+   * @return The reason the document could not be annotated, or null if it was annotated.
+   */
+  public static String batchError(CoreNLPProtos.Document document) {
+    UnknownFieldSet.Field error = document.getUnknownFields().getField(BATCH_ERROR_FIELD);
+    return error.getLengthDelimitedList().isEmpty() ? null : error.getLengthDelimitedList().get(0).toStringUtf8();
+  }
+
   /**
    * Parse the URL parameters into a map of (key, value) pairs.
    *
@@ -249,22 +343,174 @@ public class StanfordCoreNLPServer implements Runnable {
   }
 
 
+  /**
+   * A pipeline in the {@link #pipelineCache}.  It is built by whichever request first needs it,
+   * while other requests for the same pipeline wait for it to finish.
+   */
+  private static class CachedPipeline {
+    final FutureTask<StanfordCoreNLP> pipeline;
+    /** The (name, signature) of each annotator, to look up their memory in the {@link AnnotatorPool} */
+    final List<Pair<String, String>> annotators;
+    volatile long lastUsed = System.nanoTime();
+
+    CachedPipeline(Callable<StanfordCoreNLP> create, List<Pair<String, String>> annotators) {
+      this.pipeline = new FutureTask<>(create);
+      this.annotators = annotators;
+    }
+  }
+
+
+  /**
+   * The properties which the server reads from each request itself, to read its input and write its
+   * output, rather than the pipeline reading them when it is built.
+   */
+  private static final Set<String> REQUEST_PROPERTIES = new HashSet<>(Arrays.asList(
+      "inputFormat", "inputSerializer", "outputFormat", "outputSerializer", "serializer", "date", "timeout",
+      "encoding", "prettyPrint", "printable.relation.beam", "output.printSingletonEntities"));
+
+
+  /**
+   * The key of a pipeline in the {@link #pipelineCache}: all of its properties but the
+   * {@link #REQUEST_PROPERTIES}.  Since annotators may read any property, not just those named
+   * after them, every other property is part of the key; a pipeline from the cache then has the
+   * same properties as the request, but for those the server reads from the request.
+   */
+  static String pipelineSignature(Properties props) {
+    StringBuilder signature = new StringBuilder();
+    for (String key : new TreeSet<>(props.stringPropertyNames())) {
+      if ( ! REQUEST_PROPERTIES.contains(key)) {
+        signature.append(key).append('=').append(props.getProperty(key)).append('\n');
+      }
+    }
+    return signature.toString();
+  }
+
+
+  /**
+   * Makes annotators as usual, except that the base classifiers of NER annotators are kept for
+   * as long as memory allows, and shared by the annotators which load them from the same path with the
+   * same properties.  NER annotators which only differ in how they use their base classifiers (for
+   * example, ner.applyNumericClassifiers=false) then don't load a second copy of each model.
+   */
+  static class SharedClassifierImplementations extends AnnotatorImplementations {
+
+    /** The base classifiers loaded from a path, keyed on the path and the properties they were loaded with */
+    private final Map<String, SoftReference<AbstractSequenceClassifier<?>>> nerClassifiers = new HashMap<>();
+
+    /** SUTime's properties are left out of the key, since only the numeric classifiers read them */
+    @Override
+    protected AbstractSequenceClassifier<?> nerClassifier(Properties properties, String path) throws IOException {
+      StringBuilder key = new StringBuilder(path);
+      for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+        if ( ! name.startsWith("sutime.")) {
+          key.append('\n').append(name).append('=').append(properties.getProperty(name));
+        }
+      }
+      synchronized (nerClassifiers) {
+        SoftReference<AbstractSequenceClassifier<?>> shared = nerClassifiers.get(key.toString());
+        if (shared != null && shared.get() != null) {
+          return shared.get();
+        }
+      }
+      AbstractSequenceClassifier<?> classifier = super.nerClassifier(properties, path);
+      synchronized (nerClassifiers) {
+        nerClassifiers.put(key.toString(), new SoftReference<>(classifier));
+      }
+      return classifier;
+    }
+
+  }
+
+
   /**
    * Create (or retrieve) a StanfordCoreNLP object corresponding to these properties.
+   * Annotators (and so their models) with the same signature are shared between pipelines
+   * through the {@link AnnotatorPool}.
+   *
    * @param props The properties to create the object with.
    * @return A pipeline parameterized by these properties.
    */
-  private StanfordCoreNLP mkStanfordCoreNLP(Properties props) {
-    StanfordCoreNLP impl;
-    synchronized (pipelineCache) {
-      impl = pipelineCache.get(props);
-      if (impl == null) {
-        AnnotatorPool pool = StanfordCoreNLP.constructAnnotatorPool(props, new AnnotatorImplementations());
-        impl = new StanfordCoreNLP(props, pool);
-        pipelineCache.put(props, impl);
+  StanfordCoreNLP mkStanfordCoreNLP(Properties props) {
+    String signature = pipelineSignature(props);
+    CachedPipeline cached = pipelineCache.get(signature);
+    metrics.pipelineCacheLookup(cached != null);
+    if (cached == null) {
+      AnnotatorPool pool = StanfordCoreNLP.constructAnnotatorPool(props, annotatorImplementations);
+      List<Pair<String, String>> annotators = new ArrayList<>();
+      for (String name : props.getProperty("annotators", "").split("[, \t]+")) {
+        if ( ! name.isEmpty()) {
+          annotators.add(Pair.makePair(name, pool.signature(name)));
+        }
+      }
+      CachedPipeline created = new CachedPipeline(() -> {
+        StanfordCoreNLP impl = new StanfordCoreNLP(props, pool);
+        impl.setTimingListener(metrics::annotatorFinished);
+        return impl;
+      }, annotators);
+      cached = pipelineCache.putIfAbsent(signature, created);
+      if (cached == null) {
+        cached = created;
+        created.pipeline.run();
+        evictPipelines(created);
+      }
+    }
+    cached.lastUsed = System.nanoTime();
+    try {
+      return cached.pipeline.get();
+    } catch (ExecutionException e) {
+      pipelineCache.remove(signature, cached);  // let the next request try again
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      } else if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      throw new RuntimeInterruptedException(e);
+    }
+  }
+
+
+  /**
+   * Drop the least recently used pipelines until the cache is within {@link #pipelineCacheSize}
+   * and {@link #pipelineCacheMemory}.  The memory of the cache is that of the distinct annotators
+   * of its pipelines, since pipelines share annotators.  Dropped annotators which no other pipeline
+   * uses are then only softly held by the {@link AnnotatorPool}, so the garbage collector can free them.
+   *
+   * @param keep A pipeline which must not be dropped, since it was just created for a request.
+   */
+  private void evictPipelines(CachedPipeline keep) {
+    long budget = pipelineCacheMemory < 0 ? Runtime.getRuntime().maxMemory() / 2 : pipelineCacheMemory * 1024 * 1024;
+    synchronized (pipelineCache) {  // only one eviction at a time; lookups don't take this lock
+      List<Map.Entry<String, CachedPipeline>> entries = new ArrayList<>(pipelineCache.entrySet());
+      entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+      Map<Pair<String, String>, Integer> annotatorUses = new HashMap<>();
+      long memory = 0;
+      for (Map.Entry<String, CachedPipeline> entry : entries) {
+        for (Pair<String, String> annotator : entry.getValue().annotators) {
+          if (annotatorUses.merge(annotator, 1, Integer::sum) == 1) {
+            memory += AnnotatorPool.annotatorMemory(annotator.first, annotator.second);
+          }
+        }
+      }
+      int size = entries.size();
+      for (Map.Entry<String, CachedPipeline> entry : entries) {
+        if (size <= pipelineCacheSize && memory <= budget) {
+          break;
+        }
+        if (entry.getValue() == keep || ! entry.getValue().pipeline.isDone()) {
+          continue;
+        }
+        if (pipelineCache.remove(entry.getKey(), entry.getValue())) {
+          size -= 1;
+          for (Pair<String, String> annotator : entry.getValue().annotators) {
+            if (annotatorUses.merge(annotator, -1, Integer::sum) == 0) {
+              memory -= AnnotatorPool.annotatorMemory(annotator.first, annotator.second);
+            }
+          }
+        }
       }
     }
-    return impl;
   }
 
   /**
@@ -299,6 +545,259 @@ public class StanfordCoreNLPServer implements Runnable {
   }
 
 
+  /**
+   * A helper function to respond to a request which was rejected because the server is overloaded.
+   * The client is told when to try again with a Retry-After header.
+   *
+   * @param httpExchange The exchange to send the error over.
+   *
+   * @throws IOException Thrown if the HttpExchange cannot communicate the error.
+   */
+  private void respondOverloaded(HttpExchange httpExchange) throws IOException {
+    metrics.requestRejected();
+    String response = "CoreNLP server is overloaded; try again later.";
+    httpExchange.getResponseHeaders().add("Content-type", "text/plain");
+    httpExchange.getResponseHeaders().add("Retry-After", Integer.toString(retryAfterSeconds));
+    httpExchange.sendResponseHeaders(HTTP_UNAVAILABLE, response.length());
+    httpExchange.getResponseBody().write(response.getBytes());
+    httpExchange.close();
+  }
+
+
+  /**
+   * The permits a request needs for those of its annotators which have a limit in {@link #annotatorLimits}.
+   * A request which can't take them all at once waits in {@link #waitingForPermits}, holding none of them,
+   * until the requests running those annotators finish; the oldest waiting request goes first.
+   */
+  private class AnnotatorPermits {
+    private final List<Semaphore> semaphores = new ArrayList<>();
+    /** Run once the permits are taken: right away, or on the thread of the request which gave them back */
+    private final Runnable onAcquired;
+    /** Whether the permits are taken; guarded by {@link #waitingForPermits}, as is {@link #released} */
+    private boolean held = false;
+    private boolean released = false;
+
+    AnnotatorPermits(Properties props, Runnable onAcquired) {
+      for (String annotator : new LinkedHashSet<>(Arrays.asList(props.getProperty("annotators", "").split("[, \t]+")))) {
+        Semaphore permits = annotatorPermits.get(annotator.trim());
+        if (permits != null) {
+          semaphores.add(permits);
+        }
+      }
+      this.onAcquired = onAcquired;
+    }
+
+    /** Take every permit, or none if some annotator is at its limit.  Called holding {@link #waitingForPermits}. */
+    private boolean tryAcquire() {
+      for (int i = 0; i < semaphores.size(); i++) {
+        if ( ! semaphores.get(i).tryAcquire()) {
+          for (int k = 0; k < i; k++) {
+            semaphores.get(k).release();
+          }
+          return false;
+        }
+      }
+      held = true;
+      return true;
+    }
+
+    /**
+     * Take the permits and run {@link #onAcquired}, either now or once they are given back.
+     *
+     * @return False if the permits are taken and {@link #maxQueuedRequests} requests are waiting already,
+     *         so the request should be rejected.
+     */
+    boolean acquireOrWait() {
+      synchronized (waitingForPermits) {
+        if (released) {
+          return true;  // timed out already
+        }
+        if ( ! tryAcquire()) {
+          if (maxQueuedRequests >= 0 && waitingForPermits.size() >= maxQueuedRequests) {
+            return false;
+          }
+          waitingForPermits.add(this);
+          return true;
+        }
+      }
+      onAcquired.run();
+      return true;
+    }
+
+    /**
+     * Give back the permits, or stop waiting for them, and start the waiting requests which can now
+     * have theirs.  Only the first call does anything.
+     */
+    void release() {
+      List<AnnotatorPermits> admitted = new ArrayList<>();
+      synchronized (waitingForPermits) {
+        if (released) {
+          return;
+        }
+        released = true;
+        if ( ! held) {
+          waitingForPermits.remove(this);
+          return;
+        }
+        semaphores.forEach(Semaphore::release);
+        for (Iterator<AnnotatorPermits> iter = waitingForPermits.iterator(); iter.hasNext(); ) {
+          AnnotatorPermits waiting = iter.next();
+          if (waiting.tryAcquire()) {
+            iter.remove();
+            admitted.add(waiting);
+          }
+        }
+      }
+      for (AnnotatorPermits permits : admitted) {
+        permits.onAcquired.run();
+      }
+    }
+  }
+
+
+  /**
+   * The work of a request, run on the {@link #corenlpExecutor}.
+   * It is responsible for sending the response, after calling {@link PendingRequest#claimResponse()}.
+   */
+  @FunctionalInterface
+  private interface AsyncJob {
+    void run(PendingRequest request) throws Exception;
+  }
+
+
+  /**
+   * A request whose response is sent from a CoreNLP thread rather than from the HTTP thread
+   * which received it.  The job and the timeout race to respond; only the first one to
+   * {@link #claimResponse()} may write to the exchange.
+   */
+  private class PendingRequest {
+    final HttpExchange httpExchange;
+    private final AnnotatorPermits permits;
+    private final AtomicBoolean responded = new AtomicBoolean(false);
+    /** Set by whichever comes first: the job starting, or the timeout firing before the job started */
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile Future<?> task;
+    private volatile ScheduledFuture<?> timeout;
+
+    PendingRequest(HttpExchange httpExchange, Properties props, AsyncJob job) {
+      this.httpExchange = httpExchange;
+      this.permits = new AnnotatorPermits(props, () -> execute(this, job));
+    }
+
+    /** @return true if the caller may send the response; false if it has already been sent. */
+    boolean claimResponse() {
+      return responded.compareAndSet(false, true);
+    }
+  }
+
+
+  /**
+   * Submit a task to the {@link #corenlpExecutor}, or respond with a 503 if its queue is full.
+   *
+   * @return The future of the task, or null if it was rejected and the client has been told so.
+   *
+   * @throws IOException Thrown if the HttpExchange cannot communicate the rejection.
+   */
+  private <T> Future<T> submitOrReject(HttpExchange httpExchange, Callable<T> task) throws IOException {
+    try {
+      return corenlpExecutor.submit(task);
+    } catch (RejectedExecutionException e) {
+      respondOverloaded(httpExchange);
+      return null;
+    }
+  }
+
+
+  /**
+   * Run a request's job on the {@link #corenlpExecutor} without blocking the calling HTTP thread.
+   * If one of its annotators is at its limit, the request first waits for it (see {@link AnnotatorPermits}).
+   * The request is rejected, with a 503, if too many requests are waiting already or if the executor's
+   * queue is full.  If the job has not responded by the timeout, it is interrupted (or taken out of the
+   * queue it is waiting in) and the client gets an error.
+   *
+   * @param httpExchange The exchange to respond to.
+   * @param props The properties of the request, used for the per-annotator limits.
+   * @param timeoutMilliseconds How long the job may take, including its time waiting.
+   * @param timeoutMessage The error message to send if the job times out.
+   * @param job The work of the request; responsible for sending the response.
+   *
+   * @return True if the job was submitted or is waiting for its annotators, false if the request was rejected.
+   *
+   * @throws IOException Thrown if the HttpExchange cannot communicate a rejection.
+   */
+  private boolean submitAsync(HttpExchange httpExchange, Properties props, long timeoutMilliseconds,
+                              String timeoutMessage, AsyncJob job) throws IOException {
+    PendingRequest request = new PendingRequest(httpExchange, props, job);
+    request.timeout = timeoutExecutor.schedule(() -> {
+      if (request.started.compareAndSet(false, true)) {
+        // the job never started, and now never will
+        request.permits.release();
+      } else if (request.task != null) {
+        request.task.cancel(true);
+      }
+      if (request.claimResponse()) {
+        metrics.requestTimedOut();
+        try {
+          respondError(timeoutMessage, httpExchange);
+        } catch (IOException e) {
+          warn(e);
+        }
+      }
+    }, timeoutMilliseconds, TimeUnit.MILLISECONDS);
+    if ( ! request.permits.acquireOrWait()) {
+      request.timeout.cancel(false);
+      if (request.claimResponse()) {
+        respondOverloaded(httpExchange);
+      }
+      return false;
+    }
+    return true;
+  }
+
+
+  /**
+   * Submit the job of a request which has its annotator permits to the {@link #corenlpExecutor},
+   * or respond with a 503 if the executor's queue is full.
+   */
+  private void execute(PendingRequest request, AsyncJob job) {
+    HttpExchange httpExchange = request.httpExchange;
+    try {
+      request.task = corenlpExecutor.submit(() -> {
+        if ( ! request.started.compareAndSet(false, true)) {
+          return;  // timed out while waiting in the queue
+        }
+        try {
+          job.run(request);
+        } catch (Throwable t) {
+          if (request.claimResponse()) {
+            metrics.requestFailed();
+            // Print the stack trace for debugging
+            t.printStackTrace();
+            try {
+              respondError(t.getClass().getName() + ": " + t.getMessage(), httpExchange);
+            } catch (IOException e) {
+              warn(e);
+            }
+          }
+        } finally {
+          request.timeout.cancel(false);
+          request.permits.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      request.timeout.cancel(false);
+      request.permits.release();
+      if (request.claimResponse()) {
+        try {
+          respondOverloaded(httpExchange);
+        } catch (IOException ioe) {
+          warn(ioe);
+        }
+      }
+    }
+  }
+
+
   /**
    * A helper function to respond to a request with an error stating that the user is not authorized
    * to make this request.
@@ -412,6 +911,24 @@ public class StanfordCoreNLPServer implements Runnable {
   }
 
 
+  /**
+   * Serves the server's {@link ServerMetrics} in the Prometheus text format,
+   * for monitoring and autoscaling.
+   */
+  protected class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+      StringWriter writer = new StringWriter();
+      metrics.write(writer);
+      byte[] response = writer.toString().getBytes("utf-8");
+      httpExchange.getResponseHeaders().set("Content-type", ServerMetrics.CONTENT_TYPE);
+      httpExchange.sendResponseHeaders(HTTP_OK, response.length);
+      httpExchange.getResponseBody().write(response);
+      httpExchange.close();
+    }
+  }
+
+
   /**
    * Sending the appropriate shutdown key will gracefully shutdown the server.
    * This key is, by default, saved into the local file /tmp/corenlp.shutdown on the
@@ -474,12 +991,12 @@ public class StanfordCoreNLPServer implements Runnable {
     /**
      * An authenticator to determine if we can perform this API request.
      */
-    private final Predicate<Properties> authenticator;
+    protected final Predicate<Properties> authenticator;
 
     /**
      * A callback to call when an annotation job has finished.
      */
-    private final Consumer<FinishedRequest> callback;
+    protected final Consumer<FinishedRequest> callback;
 
 
     private final FileHandler homepage;
@@ -529,6 +1046,7 @@ public class StanfordCoreNLPServer implements Runnable {
 
     @Override
     public void handle(HttpExchange httpExchange) throws IOException {
+      long startTime = System.currentTimeMillis();
       // Set common response headers
       httpExchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
 
@@ -567,39 +1085,33 @@ public class StanfordCoreNLPServer implements Runnable {
         return;
       }
 
-      Future<Annotation> completedAnnotationFuture = null;
+      // Annotate, and respond from the CoreNLP thread once done
+      int requestTimeout;
       try {
-        // Annotate
-        StanfordCoreNLP pipeline = mkStanfordCoreNLP(props);
-        completedAnnotationFuture = corenlpExecutor.submit(() -> {
-          pipeline.annotate(ann);
-          return ann;
-        });
-        Annotation completedAnnotation;
-        try {
-          int timeoutMilliseconds = Integer.parseInt(props.getProperty("timeout",
-                                                     Integer.toString(StanfordCoreNLPServer.this.timeoutMilliseconds)));
-          // Check for too long a timeout from an unauthorized source
-          if (timeoutMilliseconds > 15000) {
-            // If two conditions:
-            //   (1) The server is running on corenlp.run (i.e., corenlp.stanford.edu)
-            //   (2) The request is not coming from a *.stanford.edu" email address
-            // Then force the timeout to be 15 seconds
-            if ("corenlp.stanford.edu".equals(InetAddress.getLocalHost().getHostName()) &&
-                !httpExchange.getRemoteAddress().getHostName().toLowerCase().endsWith("stanford.edu")) {
-              timeoutMilliseconds = 15000;
-            }
+        requestTimeout = Integer.parseInt(props.getProperty("timeout", Integer.toString(StanfordCoreNLPServer.this.timeoutMilliseconds)));
+        // Check for too long a timeout from an unauthorized source
+        if (requestTimeout > 15000) {
+          // If two conditions:
+          //   (1) The server is running on corenlp.run (i.e., corenlp.stanford.edu)
+          //   (2) The request is not coming from a *.stanford.edu" email address
+          // Then force the timeout to be 15 seconds
+          if ("corenlp.stanford.edu".equals(InetAddress.getLocalHost().getHostName()) &&
+              !httpExchange.getRemoteAddress().getHostName().toLowerCase().endsWith("stanford.edu")) {
+            requestTimeout = 15000;
           }
-          completedAnnotation = completedAnnotationFuture.get(timeoutMilliseconds, TimeUnit.MILLISECONDS);
-        } catch (NumberFormatException e) {
-          completedAnnotation = completedAnnotationFuture.get(StanfordCoreNLPServer.this.timeoutMilliseconds, TimeUnit.MILLISECONDS);
         }
-        completedAnnotationFuture = null;  // No longer any need for the future
+      } catch (NumberFormatException e) {
+        requestTimeout = StanfordCoreNLPServer.this.timeoutMilliseconds;
+      }
+      submitAsync(httpExchange, props, requestTimeout, "CoreNLP request timed out. Your document may be too long.", request -> {
+        StanfordCoreNLP pipeline = mkStanfordCoreNLP(props);
+        pipeline.annotate(ann);
+        metrics.documentAnnotated(ann);
 
         // Get output
         ByteArrayOutputStream os = new ByteArrayOutputStream();
-        AnnotationOutputter.Options options = AnnotationOutputter.getOptions(pipeline);
-        StanfordCoreNLP.createOutputter(props, options).accept(completedAnnotation, os);
+        AnnotationOutputter.Options options = AnnotationOutputter.getOptions(pipeline, props);
+        StanfordCoreNLP.createOutputter(props, options).accept(ann, os);
         os.close();
         byte[] response = os.toByteArray();
 
@@ -607,35 +1119,19 @@ public class StanfordCoreNLPServer implements Runnable {
         if (contentType.equals("application/json") || contentType.startsWith("text/")) {
           contentType += ";charset=" + options.encoding;
         }
+        if ( ! request.claimResponse()) {
+          return;  // timed out in the meantime
+        }
         httpExchange.getResponseHeaders().add("Content-type", contentType);
         httpExchange.getResponseHeaders().add("Content-length", Integer.toString(response.length));
         httpExchange.sendResponseHeaders(HTTP_OK, response.length);
         httpExchange.getResponseBody().write(response);
         httpExchange.close();
-        if (completedAnnotation != null && props.getProperty("annotators") != null && !"".equals(props.getProperty("annotators"))) {
-          callback.accept(new FinishedRequest(props, completedAnnotation));
-        }
-      } catch (TimeoutException e) {
-        // Print the stack trace for debugging
-        e.printStackTrace();
-        // Return error message.
-        respondError("CoreNLP request timed out. Your document may be too long.", httpExchange);
-        // Cancel the future if it's alive
-        //noinspection ConstantConditions
-        if (completedAnnotationFuture != null) {
-          completedAnnotationFuture.cancel(true);
+        metrics.requestFinished(props.getProperty("annotators", ""), System.currentTimeMillis() - startTime);
+        if (props.getProperty("annotators") != null && !"".equals(props.getProperty("annotators"))) {
+          callback.accept(new FinishedRequest(props, ann));
         }
-      } catch (Exception e) {
-        // Print the stack trace for debugging
-        e.printStackTrace();
-        // Return error message.
-        respondError(e.getClass().getName() + ": " + e.getMessage(), httpExchange);
-        // Cancel the future if it's alive
-        //noinspection ConstantConditions
-        if (completedAnnotationFuture != null) {  // just in case...
-          completedAnnotationFuture.cancel(true);
-        }
-      }
+      });
     }
 
     /**
@@ -648,7 +1144,7 @@ public class StanfordCoreNLPServer implements Runnable {
      *
      * @throws UnsupportedEncodingException Thrown if we could not decode the key/value pairs with UTF-8.
      */
-    private Properties getProperties(HttpExchange httpExchange) throws UnsupportedEncodingException {
+    protected Properties getProperties(HttpExchange httpExchange) throws UnsupportedEncodingException {
       Map<String, String> urlParams = getURLParams(httpExchange.getRequestURI());
 
       // Load the default properties
@@ -723,6 +1219,309 @@ public class StanfordCoreNLPServer implements Runnable {
 
 
 
+  /**
+   * A handler for annotating many documents with one request.
+   * The documents are annotated concurrently on the CoreNLP executor, and each one is
+   * streamed back (with chunked encoding) as soon as it is done, so the results do not come
+   * back in the order they were sent.  Every result carries its document id:
+   * the id sent with the document, or else its 0-based position in the request.
+   * <br>
+   * The request body is either
+   * <ul>
+   *   <li>a JSON array (inputFormat=text, the default) whose elements are either strings
+   *       or objects with a "text" and an optional "id" field; or</li>
+   *   <li>a stream of length-delimited CoreNLP protocol buffers (inputFormat=serialized),
+   *       as written by {@link ProtobufAnnotationSerializer}.</li>
+   * </ul>
+   * The response is either one line of JSON per document (outputFormat=json, the default),
+   * or a stream of length-delimited protocol buffers (outputFormat=serialized).
+   * A document which fails or times out is returned as a JSON object with "docId" and "error"
+   * fields; in serialized output, as a document with only its id and text, and the error message in
+   * the unknown field {@link #BATCH_ERROR_FIELD} (see {@link #batchError(CoreNLPProtos.Document)}).
+   * The "timeout" property bounds the whole batch.
+   * Like the main handler, this does not hold an HTTP thread while the documents are annotated,
+   * and the whole batch is rejected with a 503 if the executor's queue has no room for it.
+   * If its annotators are at their limits, it waits for them like any other request.
+   */
+  protected class BatchHandler extends CoreNLPHandler {
+
+    public BatchHandler(Properties props, Predicate<Properties> authenticator,
+                        Consumer<FinishedRequest> callback,
+                        FileHandler homepage) {
+      super(props, authenticator, callback, homepage);
+    }
+
+    @Override
+    public void handle(HttpExchange httpExchange) throws IOException {
+      long startTime = System.currentTimeMillis();
+      httpExchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+
+      Properties props;
+      List<Annotation> documents;
+      boolean serializedOutput;
+      try {
+        if ( ! "POST".equalsIgnoreCase(httpExchange.getRequestMethod())) {
+          respondBadInput("The batch endpoint only accepts POST requests", httpExchange);
+          return;
+        }
+        props = getProperties(httpExchange);
+        if (authenticator != null && !authenticator.test(props)) {
+          respondUnauthorized(httpExchange);
+          return;
+        }
+        StanfordCoreNLP.OutputFormat of = StanfordCoreNLP.OutputFormat.valueOf(props.getProperty("outputFormat", "json").toUpperCase());
+        if (of != StanfordCoreNLP.OutputFormat.JSON && of != StanfordCoreNLP.OutputFormat.SERIALIZED) {
+          respondBadInput("The batch endpoint only supports the json and serialized output formats", httpExchange);
+          return;
+        }
+        serializedOutput = of == StanfordCoreNLP.OutputFormat.SERIALIZED;
+        props.setProperty("prettyPrint", "false");  // one line per document
+        props.setProperty("outputSerializer", ProtobufAnnotationSerializer.class.getName());
+        documents = getDocuments(props, httpExchange);
+        log("[" + httpExchange.getRemoteAddress() + "] Batch API call of " + documents.size() + " documents w/annotators " + props.getProperty("annotators", "<unknown>"));
+      } catch (IllegalArgumentException e) {
+        respondBadInput(e.getMessage(), httpExchange);
+        return;
+      } catch (Exception e) {
+        e.printStackTrace();
+        respondError("Could not handle incoming batch annotation", httpExchange);
+        return;
+      }
+
+      if (maxQueuedRequests >= 0 &&
+          corenlpExecutor.getQueue().remainingCapacity() + corenlpExecutor.getMaximumPoolSize() - corenlpExecutor.getActiveCount() < documents.size()) {
+        respondOverloaded(httpExchange);
+        return;
+      }
+
+      // Each document responds from its CoreNLP thread as it finishes; this thread is done.
+      // The batch may first wait for its annotators; the timeout counts that time too.
+      PendingBatch batch = new PendingBatch(httpExchange, props, documents, serializedOutput, startTime);
+      synchronized (batch) {  // no document may be written before the headers
+        batch.timeout = timeoutExecutor.schedule(batch::timeOut,
+            PropertiesUtils.getInt(props, "timeout", timeoutMilliseconds), TimeUnit.MILLISECONDS);
+        if ( ! batch.permits.acquireOrWait()) {
+          batch.closed = true;
+          batch.timeout.cancel(false);
+          respondOverloaded(httpExchange);
+          return;
+        }
+        String contentType = serializedOutput ? "application/x-protobuf" : "application/x-ndjson;charset=" + props.getProperty("encoding", "UTF-8");
+        httpExchange.getResponseHeaders().add("Content-type", contentType);
+        httpExchange.sendResponseHeaders(HTTP_OK, 0);  // chunked
+      }
+    }
+
+    /**
+     * The documents of one batch request which are still being annotated.
+     * Each document's result is written to the response as soon as it is done;
+     * the response is closed after the last one, or at the timeout.
+     */
+    private class PendingBatch {
+      final HttpExchange httpExchange;
+      final Properties props;
+      final List<Annotation> documents;
+      final AnnotatorPermits permits;
+      final boolean serializedOutput;
+      final long startTime;
+      final Set<Annotation> unfinished = Collections.newSetFromMap(new IdentityHashMap<>());
+      final Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+      volatile ScheduledFuture<?> timeout;
+      private boolean closed = false;
+
+      PendingBatch(HttpExchange httpExchange, Properties props, List<Annotation> documents,
+                   boolean serializedOutput, long startTime) {
+        this.httpExchange = httpExchange;
+        this.props = props;
+        this.documents = documents;
+        this.permits = new AnnotatorPermits(props, this::start);
+        this.serializedOutput = serializedOutput;
+        this.startTime = startTime;
+        this.unfinished.addAll(documents);
+      }
+
+      /** Submit the documents to the CoreNLP threads, once the batch has the permits of its annotators */
+      synchronized void start() {
+        if (closed) {
+          return;  // timed out while waiting for its annotators
+        }
+        for (Annotation document : documents) {
+          try {
+            tasks.add(corenlpExecutor.submit(() -> annotate(document)));
+          } catch (RejectedExecutionException e) {
+            finished(document, null, "CoreNLP server is overloaded; try again later.");
+          }
+        }
+        if (documents.isEmpty()) {
+          close();
+        }
+      }
+
+      void annotate(Annotation document) {
+        synchronized (this) {
+          if (closed) {
+            return;
+          }
+        }
+        try {
+          StanfordCoreNLP pipeline = mkStanfordCoreNLP(props);
+          pipeline.annotate(document);
+          metrics.documentAnnotated(document);
+          ByteArrayOutputStream os = new ByteArrayOutputStream();
+          StanfordCoreNLP.createOutputter(props, AnnotationOutputter.getOptions(pipeline, props)).accept(document, os);
+          if ( ! serializedOutput) {
+            os.write('\n');
+          }
+          if (finished(document, os.toByteArray(), null)) {
+            callback.accept(new FinishedRequest(props, document));
+          }
+        } catch (Throwable t) {
+          warn("Could not annotate document " + document.get(CoreAnnotations.DocIDAnnotation.class) + ": " + t);
+          metrics.requestFailed();
+          finished(document, null, t.getClass().getName() + ": " + t.getMessage());
+        }
+      }
+
+      /**
+       * Write the result of a document, or its error message, and close the response after the last one.
+       *
+       * @return false if the batch had already timed out, so nothing was written
+       */
+      synchronized boolean finished(Annotation document, byte[] result, String error) {
+        if (closed || ! unfinished.remove(document)) {
+          return false;
+        }
+        try {
+          OutputStream out = httpExchange.getResponseBody();
+          if (result != null) {
+            out.write(result);
+          } else {
+            writeBatchError(out, document, error, serializedOutput);
+          }
+          out.flush();
+        } catch (IOException e) {
+          warn("Could not send batch result: " + e);
+        }
+        if (unfinished.isEmpty()) {
+          close();
+        }
+        return true;
+      }
+
+      synchronized void timeOut() {
+        if (closed) {
+          return;
+        }
+        metrics.requestTimedOut();
+        for (Future<?> task : tasks) {
+          task.cancel(true);
+        }
+        for (Annotation document : new ArrayList<>(unfinished)) {
+          finished(document, null, "CoreNLP request timed out. Your document may be too long.");
+        }
+        close();
+      }
+
+      private synchronized void close() {
+        if ( ! closed) {
+          closed = true;
+          if (timeout != null) {
+            timeout.cancel(false);
+          }
+          permits.release();
+          httpExchange.close();
+          metrics.requestFinished(props.getProperty("annotators", ""), System.currentTimeMillis() - startTime);
+        }
+      }
+    }
+
+    private void writeBatchError(OutputStream os, Annotation document, String message, boolean serializedOutput) throws IOException {
+      if (serializedOutput) {
+        String text = document.get(CoreAnnotations.TextAnnotation.class);
+        CoreNLPProtos.Document.newBuilder()
+            .setText(text == null ? "" : text)
+            .setDocID(document.get(CoreAnnotations.DocIDAnnotation.class))
+            .setUnknownFields(UnknownFieldSet.newBuilder()
+                .addField(BATCH_ERROR_FIELD, UnknownFieldSet.Field.newBuilder().addLengthDelimited(ByteString.copyFromUtf8(message)).build())
+                .build())
+            .build().writeDelimitedTo(os);
+        return;
+      }
+      String json = Json.createObjectBuilder()
+          .add("docId", document.get(CoreAnnotations.DocIDAnnotation.class))
+          .add("error", message)
+          .build().toString();
+      os.write(json.getBytes("utf-8"));
+      os.write('\n');
+    }
+
+    /**
+     * Read the documents of a batch request, giving each one a document id if it does not have one.
+     *
+     * @throws IllegalArgumentException If the request is malformed, or a document is too long.
+     */
+    private List<Annotation> getDocuments(Properties props, HttpExchange httpExchange) throws IOException {
+      List<Annotation> documents = new ArrayList<>();
+      String inputFormat = props.getProperty("inputFormat", "text");
+      switch (inputFormat) {
+        case "text": {
+          JsonArray array;
+          try (JsonReader reader = Json.createReader(IOUtils.encodedInputStreamReader(httpExchange.getRequestBody(), "utf-8"))) {
+            array = reader.readArray();
+          } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Batch requests must be a JSON array of documents");
+          }
+          for (JsonValue value : array) {
+            Annotation document;
+            if (value instanceof JsonString) {
+              document = new Annotation(((JsonString) value).getString());
+            } else if (value instanceof JsonObject && ((JsonObject) value).get("text") instanceof JsonString) {
+              JsonObject object = (JsonObject) value;
+              document = new Annotation(object.getString("text"));
+              if (object.containsKey("id")) {
+                JsonValue id = object.get("id");
+                document.set(CoreAnnotations.DocIDAnnotation.class, id instanceof JsonString ? ((JsonString) id).getString() : id.toString());
+              }
+            } else {
+              throw new IllegalArgumentException("Each document must be a string or an object with a \"text\" field");
+            }
+            documents.add(document);
+          }
+          break;
+        }
+        case "serialized": {
+          ProtobufAnnotationSerializer serializer = new ProtobufAnnotationSerializer(false);
+          InputStream is = httpExchange.getRequestBody();
+          CoreNLPProtos.Document proto;
+          while ((proto = CoreNLPProtos.Document.parseDelimitedFrom(is)) != null) {
+            documents.add(serializer.fromProto(proto));
+          }
+          break;
+        }
+        default:
+          throw new IllegalArgumentException("Could not parse input format: " + inputFormat);
+      }
+
+      String date = props.getProperty("date");
+      for (int i = 0; i < documents.size(); ++i) {
+        Annotation document = documents.get(i);
+        String text = document.get(CoreAnnotations.TextAnnotation.class);
+        if (text != null && text.length() > MAX_CHAR_LENGTH) {
+          throw new IllegalArgumentException("Document " + i + " is too long to be handled by server: " + text.length() + " characters. Max length is " + MAX_CHAR_LENGTH + " characters.");
+        }
+        if (document.get(CoreAnnotations.DocIDAnnotation.class) == null) {
+          document.set(CoreAnnotations.DocIDAnnotation.class, Integer.toString(i));
+        }
+        if (date != null && ! document.containsKey(CoreAnnotations.DocDateAnnotation.class)) {
+          document.set(CoreAnnotations.DocDateAnnotation.class, date);
+        }
+      }
+      return documents;
+    }
+  }
+
+
+
   /**
    * A handler for matching TokensRegex patterns against text.
    */
@@ -759,7 +1558,7 @@ public class StanfordCoreNLPServer implements Runnable {
       }
       Map<String, String> params = getURLParams(httpExchange.getRequestURI());
 
-      Future<Pair<String, Annotation>> future = corenlpExecutor.submit(() -> {
+      Future<Pair<String, Annotation>> future = submitOrReject(httpExchange, () -> {
         try {
           // Get the document
           Annotation doc = getDocument(props, httpExchange);
@@ -825,6 +1624,9 @@ public class StanfordCoreNLPServer implements Runnable {
         }
         return new Pair<>("", null);
       });
+      if (future == null) {
+        return;  // rejected
+      }
 
       // Send response
       try {
@@ -881,7 +1683,7 @@ public class StanfordCoreNLPServer implements Runnable {
       }
       Map<String, String> params = getURLParams(httpExchange.getRequestURI());
 
-      Future<Pair<String, Annotation>> response = corenlpExecutor.submit(() -> {
+      Future<Pair<String, Annotation>> response = submitOrReject(httpExchange, () -> {
         try {
           // Get the document
           Annotation doc = getDocument(props, httpExchange);
@@ -945,6 +1747,9 @@ public class StanfordCoreNLPServer implements Runnable {
         }
         return Pair.makePair("", null);
       });
+      if (response == null) {
+        return;  // rejected
+      }
 
       // Send response
       try {
@@ -999,7 +1804,7 @@ public class StanfordCoreNLPServer implements Runnable {
       }
       Map<String, String> params = getURLParams(httpExchange.getRequestURI());
 
-      Future<Pair<String, Annotation>> response = corenlpExecutor.submit(() -> {
+      Future<Pair<String, Annotation>> response = submitOrReject(httpExchange, () -> {
         try {
           // Get the document
           Annotation doc = getDocument(props, httpExchange);
@@ -1047,6 +1852,9 @@ public class StanfordCoreNLPServer implements Runnable {
         }
         return Pair.makePair("", null);
       });
+      if (response == null) {
+        return;  // rejected
+      }
 
       // Send response
       try {
@@ -1125,9 +1933,10 @@ public class StanfordCoreNLPServer implements Runnable {
         } else {
           server = HttpServer.create(new InetSocketAddress(statusPort), 0); // 0 is the default 'backlog'
         }
-        // Add the two status endpoints
+        // Add the status endpoints
         withAuth(server.createContext("/live", new LiveHandler()), Optional.empty());
         withAuth(server.createContext("/ready", new ReadyHandler(live)), Optional.empty());
+        withAuth(server.createContext("/metrics", new MetricsHandler()), Optional.empty());
         // Start the server
         server.start();
         // Server started
@@ -1139,6 +1948,19 @@ public class StanfordCoreNLPServer implements Runnable {
   }
 
 
+  /**
+   * Stop the server: close its HTTP server, interrupt the requests being annotated, and stop its threads.
+   */
+  public void stop() {
+    if (server != null) {
+      server.stop(0);
+    }
+    serverExecutor.shutdownNow();
+    corenlpExecutor.shutdownNow();
+    timeoutExecutor.shutdownNow();
+  }
+
+
   /**
    * Returns the implementing Http server.
    */
@@ -1179,6 +2001,31 @@ public class StanfordCoreNLPServer implements Runnable {
   }
 
 
+  /**
+   * Count the requests to this endpoint in the server's {@link ServerMetrics}.
+   *
+   * @param context The context to count requests to.
+   *
+   * @return The same context.
+   */
+  private HttpContext withMetrics(HttpContext context) {
+    String endpoint = context.getPath();
+    context.getFilters().add(new Filter() {
+      @Override
+      public void doFilter(HttpExchange httpExchange, Chain chain) throws IOException {
+        metrics.requestReceived(endpoint);
+        chain.doFilter(httpExchange);
+      }
+
+      @Override
+      public String description() {
+        return "Counts the requests to " + endpoint;
+      }
+    });
+    return context;
+  }
+
+
   /**
    * Run the server.
    * This method registers the handlers, and initializes the HTTP server.
@@ -1195,14 +2042,16 @@ public class StanfordCoreNLPServer implements Runnable {
       } else {
         server = HttpServer.create(new InetSocketAddress(serverPort), 0); // 0 is the default 'backlog'
       }
-      withAuth(server.createContext("/", new CoreNLPHandler(defaultProps, authenticator, callback, homepage)), basicAuth);
-      withAuth(server.createContext("/tokensregex", new TokensRegexHandler(authenticator, callback)), basicAuth);
-      withAuth(server.createContext("/semgrex", new SemgrexHandler(authenticator, callback)), basicAuth);
-      withAuth(server.createContext("/tregex", new TregexHandler(authenticator, callback)), basicAuth);
+      withAuth(withMetrics(server.createContext("/", new CoreNLPHandler(defaultProps, authenticator, callback, homepage))), basicAuth);
+      withAuth(withMetrics(server.createContext("/batch", new BatchHandler(defaultProps, authenticator, callback, homepage))), basicAuth);
+      withAuth(withMetrics(server.createContext("/tokensregex", new TokensRegexHandler(authenticator, callback))), basicAuth);
+      withAuth(withMetrics(server.createContext("/semgrex", new SemgrexHandler(authenticator, callback))), basicAuth);
+      withAuth(withMetrics(server.createContext("/tregex", new TregexHandler(authenticator, callback))), basicAuth);
       withAuth(server.createContext("/corenlp-brat.js", new FileHandler("edu/stanford/nlp/pipeline/demo/corenlp-brat.js", "application/javascript")), basicAuth);
       withAuth(server.createContext("/corenlp-brat.cs", new FileHandler("edu/stanford/nlp/pipeline/demo/corenlp-brat.css", "text/css")), basicAuth);
       withAuth(server.createContext("/corenlp-parseviewer.js", new FileHandler("edu/stanford/nlp/pipeline/demo/corenlp-parseviewer.js", "application/javascript")), basicAuth);
       withAuth(server.createContext("/ping", new PingHandler()), Optional.empty());
+      withAuth(server.createContext("/metrics", new MetricsHandler()), Optional.empty());
       withAuth(server.createContext("/shutdown", new ShutdownHandler()), basicAuth);
       if (this.serverPort == this.statusPort) {
         withAuth(server.createContext("/live", new LiveHandler()), Optional.empty());
@@ -0,0 +1,135 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+
+import edu.stanford.nlp.io.RuntimeIOException;
+import edu.stanford.nlp.ling.CoreAnnotations;
+
+/**
+ * Reads documents one at a time from a single, possibly very large, line-oriented
+ * input, such as a JSONL dump of a crawl.  Only the current line is held in memory,
+ * so the input can be arbitrarily long, and it can be stdin.
+ * <br>
+ * Each line holds one document, in one of the {@link Format}s.  Blank lines are skipped.
+ * The document id, if there is one, is stored in the {@link CoreAnnotations.DocIDAnnotation};
+ * otherwise the document is given its line number as id.
+ *
+ * @see StanfordCoreNLP#processStream(BufferedReader, java.io.OutputStream, int)
+ */
+public class StreamingDocumentReader implements Iterator<Annotation>, Closeable {
+
+  public enum Format {
+    /** The whole line is the text of the document */
+    TEXT,
+    /** An id, a tab, and then the text of the document */
+    TSV,
+    /** A JSON object with a "text" field and an optional "id" field */
+    JSONL
+  }
+
+  private final BufferedReader reader;
+  private final Format format;
+  private int lineNumber = 0;
+  private Annotation next;
+
+  public StreamingDocumentReader(BufferedReader reader, Format format) {
+    this.reader = reader;
+    this.format = format;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      next = readNext();
+    }
+    return next != null;
+  }
+
+  @Override
+  public Annotation next() {
+    if ( ! hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Annotation annotation = next;
+    next = null;
+    return annotation;
+  }
+
+  /** @return The number of lines read so far */
+  public int lineNumber() {
+    return lineNumber;
+  }
+
+  private Annotation readNext() {
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        return parse(line);
+      }
+      return null;
+    } catch (IOException e) {
+      throw new RuntimeIOException(e);
+    }
+  }
+
+  private Annotation parse(String line) {
+    String id = Integer.toString(lineNumber);
+    String text;
+    switch (format) {
+      case TEXT:
+        text = line;
+        break;
+      case TSV: {
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+          throw new IllegalArgumentException("Line " + lineNumber + ": expected <id>\\t<text>, found no tab");
+        }
+        id = line.substring(0, tab);
+        text = line.substring(tab + 1);
+        break;
+      }
+      case JSONL: {
+        JsonObject record;
+        try (JsonReader json = Json.createReader(new StringReader(line))) {
+          record = json.readObject();
+        } catch (RuntimeException e) {
+          throw new IllegalArgumentException("Line " + lineNumber + ": not a JSON object", e);
+        }
+        JsonString jsonText = record.getJsonString("text");
+        if (jsonText == null) {
+          throw new IllegalArgumentException("Line " + lineNumber + ": no \"text\" field");
+        }
+        text = jsonText.getString();
+        if (record.containsKey("id")) {
+          id = record.get("id") instanceof JsonString ? record.getString("id") : record.get("id").toString();
+        }
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown input format " + format);
+    }
+    Annotation annotation = new Annotation(text);
+    annotation.set(CoreAnnotations.DocIDAnnotation.class, id);
+    return annotation;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+}
@@ -7,6 +7,7 @@ import java.util.*;
 import edu.stanford.nlp.ling.CoreAnnotation;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.TokenColumns;
 import edu.stanford.nlp.process.TokenizerFactory;
 import edu.stanford.nlp.process.CoreLabelTokenFactory;
 import edu.stanford.nlp.process.PTBTokenizer;
@@ -129,6 +130,8 @@ public class TokenizerAnnotator implements Annotator  {
 
   private final boolean VERBOSE;
   private final TokenizerFactory<CoreLabel> factory;
+  /** If true, the tokens are kept in a {@link TokenColumns} store, to save memory on long documents */
+  private final boolean columnar;
 
   /** new segmenter properties **/
   private final boolean useSegmenter;
@@ -189,6 +192,7 @@ public class TokenizerAnnotator implements Annotator  {
       segmenterAnnotator = null;
     }
     VERBOSE = PropertiesUtils.getBool(props, "tokenize.verbose", verbose);
+    columnar = PropertiesUtils.getBool(props, "tokenize.columnar", false);
     TokenizerType type = TokenizerType.getTokenizerType(props);
     factory = initFactory(type, props, options);
   }
@@ -291,6 +295,9 @@ public class TokenizerAnnotator implements Annotator  {
       // don't wrap in BufferedReader.  It gives you nothing for in-memory String unless you need the readLine() method!
 
       List<CoreLabel> tokens = getTokenizer(r).tokenize();
+      if (columnar) {
+        tokens = TokenColumns.columnar(tokens);
+      }
       // cdm 2010-05-15: This is now unnecessary, as it is done in CoreLabelTokenFactory
       // for (CoreLabel token: tokens) {
       // token.set(CoreAnnotations.TextAnnotation.class, token.get(CoreAnnotations.TextAnnotation.class));
@@ -80,6 +80,21 @@ public abstract class FeatureFactory<IN> implements Serializable {
    */
   public abstract Collection<String> getCliqueFeatures(PaddedList<IN> info, int position, Clique clique);
 
+  /**
+   * The same features as {@link #getCliqueFeatures(PaddedList, int, Clique)}, in the same order,
+   * as {@link FeatureKey}s, which a classifier can look up without building the full feature names.
+   * The default wraps the Strings of getCliqueFeatures; factories which add suffixes to their
+   * features can override this to skip building the suffixed Strings.
+   */
+  public Collection<FeatureKey> getCliqueFeatureKeys(PaddedList<IN> info, int position, Clique clique) {
+    Collection<String> features = getCliqueFeatures(info, position, clique);
+    List<FeatureKey> keys = new ArrayList<>(features.size());
+    for (String feature : features) {
+      keys.add(new FeatureKey(feature, ""));
+    }
+    return keys;
+  }
+
 
   /** Makes more complete feature names out of partial feature names, by
    *  adding a suffix to the String feature name, adding results to an
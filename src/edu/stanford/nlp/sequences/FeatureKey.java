@@ -0,0 +1,108 @@
+package edu.stanford.nlp.sequences;
+
+import java.util.Collection;
+
+/**
+ * A feature name made of a base and a suffix, such as "Stanford-WORD" and "|C",
+ * which stands for their concatenation without building it.
+ * It hashes, compares and sorts exactly as the concatenated String would, so a hash set
+ * of keys iterates in the same order as the hash set of the Strings,
+ * and a key can be looked up against the String feature names of a model.
+ *
+ * @see FeatureFactory#getCliqueFeatureKeys(edu.stanford.nlp.util.PaddedList, int, Clique)
+ */
+public final class FeatureKey implements CharSequence, Comparable<FeatureKey> {
+
+  private final String base;
+  private final String suffix;
+  private final int hash;
+
+  public FeatureKey(String base, String suffix) {
+    this.base = base;
+    this.suffix = suffix;
+    int h = base.hashCode();
+    for (int i = 0; i < suffix.length(); ++i) {
+      h = 31 * h + suffix.charAt(i);
+    }
+    this.hash = h;
+  }
+
+  /**
+   * The keys version of {@link FeatureFactory#addAllInterningAndSuffixing(Collection, Collection, String)}:
+   * adds a key for each of the base features, with a "|" and the suffix, if there is one.
+   */
+  public static void addAllSuffixing(Collection<FeatureKey> accumulator, Collection<String> addend, String suffix) {
+    String fullSuffix = suffix == null || suffix.isEmpty() ? "" : '|' + suffix;
+    for (String feat : addend) {
+      accumulator.add(new FeatureKey(feat, fullSuffix));
+    }
+  }
+
+  @Override
+  public int length() {
+    return base.length() + suffix.length();
+  }
+
+  @Override
+  public char charAt(int i) {
+    return i < base.length() ? base.charAt(i) : suffix.charAt(i - base.length());
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  /** @return Whether this is the given feature name */
+  public boolean matches(String feature) {
+    return feature.length() == length() && feature.startsWith(base) && feature.startsWith(suffix, base.length());
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if ( ! (o instanceof FeatureKey)) {
+      return false;
+    }
+    FeatureKey other = (FeatureKey) o;
+    if (hash != other.hash || length() != other.length()) {
+      return false;
+    }
+    if (base.length() == other.base.length()) {
+      return base.equals(other.base) && suffix.equals(other.suffix);
+    }
+    for (int i = 0, length = length(); i < length; ++i) {
+      if (charAt(i) != other.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** The same order as {@link String#compareTo(String)} of the concatenations */
+  @Override
+  public int compareTo(FeatureKey other) {
+    int length = Math.min(length(), other.length());
+    for (int i = 0; i < length; ++i) {
+      char c1 = charAt(i);
+      char c2 = other.charAt(i);
+      if (c1 != c2) {
+        return c1 - c2;
+      }
+    }
+    return length() - other.length();
+  }
+
+  @Override
+  public String toString() {
+    return base + suffix;
+  }
+
+}
@@ -505,6 +505,11 @@ public class SeqClassifierFlags implements Serializable  {
   public String svmModelFile = null;
 
   public String inferenceType = "Viterbi";
+  /**
+   * For inferenceType AdaptiveBeam, how far below the best partial score, in log potentials, a state
+   * may be and still be kept.  If not positive, as in models saved before it was added, 10 is used.
+   */
+  public double beamMargin = 10.0;
 
   public boolean useLemmaAsWord = false;
 
@@ -964,6 +969,20 @@ public class SeqClassifierFlags implements Serializable  {
   public double dropoutScale = 1.0;
   // keenon: changed from = 1, nowadays it makes sense to default to parallelism
   public int multiThreadGrad = Runtime.getRuntime().availableProcessors();
+  /** The host:port of each CRFGradientWorker to spread the training documents of a CRFClassifier over, separated by commas */
+  public String trainWorkers = null;
+  /**
+   * If set, a CRFClassifier featurizes its training documents into this file, one at a time, and trains
+   * reading them back from it, rather than holding them all in memory.
+   */
+  public String featurizedDataFile = null;
+  /** Train from the documents and indices already in featurizedDataFile, if it exists, without reading any documents */
+  public boolean reuseFeaturizedData = false;
+  /**
+   * Keep the feature names of a loaded CRFClassifier in a StringIndex, which takes much less memory than a
+   * HashIndex but is a little slower to look names up in, for models with very many features.
+   */
+  public boolean compactFeatureIndex = false;
   public int maxQNItr = 0;
   public boolean dropoutApprox = false;
   public String unsupDropoutFile = null;
@@ -1060,6 +1079,7 @@ public class SeqClassifierFlags implements Serializable  {
   public boolean useSUTime;
   public boolean applyNumericClassifiers;
   public String combinationMode;
+  public boolean parallelModels;
   public String nerModel;
 
   /**
@@ -1967,6 +1987,8 @@ public class SeqClassifierFlags implements Serializable  {
         numSamples = Integer.parseInt(val);
       } else if (key.equalsIgnoreCase("inferenceType")) {
         inferenceType = val;
+      } else if (key.equalsIgnoreCase("beamMargin")) {
+        beamMargin = Double.parseDouble(val);
       } else if (key.equalsIgnoreCase("loadProcessedData")) {
         loadProcessedData = val;
       } else if (key.equalsIgnoreCase("normalizationTable")) {
@@ -2495,6 +2517,14 @@ public class SeqClassifierFlags implements Serializable  {
         dropoutScale = Double.parseDouble(val);
       } else if (key.equalsIgnoreCase("multiThreadGrad")){
         multiThreadGrad = Integer.parseInt(val);
+      } else if (key.equalsIgnoreCase("trainWorkers")) {
+        trainWorkers = val;
+      } else if (key.equalsIgnoreCase("featurizedDataFile")) {
+        featurizedDataFile = val;
+      } else if (key.equalsIgnoreCase("reuseFeaturizedData")) {
+        reuseFeaturizedData = Boolean.parseBoolean(val);
+      } else if (key.equalsIgnoreCase("compactFeatureIndex")) {
+        compactFeatureIndex = Boolean.parseBoolean(val);
       } else if (key.equalsIgnoreCase("maxQNItr")){
         maxQNItr = Integer.parseInt(val);
       } else if (key.equalsIgnoreCase("dropoutApprox")){
@@ -2614,6 +2644,8 @@ public class SeqClassifierFlags implements Serializable  {
         applyNumericClassifiers = Boolean.parseBoolean(val);
       } else if (key.equalsIgnoreCase("ner.combinationMode")) {
         combinationMode = val;
+      } else if (key.equalsIgnoreCase("ner.parallelModels")) {
+        parallelModels = Boolean.parseBoolean(val);
       } else if (key.equalsIgnoreCase("ner.model")) {
         nerModel = val;
         // ADD VALUE ABOVE HERE
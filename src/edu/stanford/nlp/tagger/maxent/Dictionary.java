@@ -10,11 +10,15 @@ import edu.stanford.nlp.util.logging.Redwood;
 import edu.stanford.nlp.io.IOUtils;
 import edu.stanford.nlp.stats.IntCounter;
 import edu.stanford.nlp.util.Generics;
+import edu.stanford.nlp.util.MappedStringIndex;
 
 import java.io.IOException;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.nio.IntBuffer;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 
 /** Maintains a map from words to tags and their counts.
@@ -29,6 +33,8 @@ public class Dictionary  {
 
   private final Map<String,TagCount> dict = Generics.newHashMap();
   private final Map<Integer,CountWrapper> partTakingVerbs = Generics.newHashMap();
+  /** The words of a model read from a {@link TaggerModelFile}, which are used instead of dict */
+  private MappedWords mapped; // = null
   private static final String naWord = "NA";
   private static final boolean VERBOSE = false;
 
@@ -121,6 +127,9 @@ public class Dictionary  {
 
 
   protected int getCount(String word, String tag) {
+    if (mapped != null) {
+      return mapped.count(word, tag);
+    }
     TagCount count = dict.get(word);
     if (count == null) {
       return 0;
@@ -131,6 +140,9 @@ public class Dictionary  {
 
 
   protected String[] getTags(String word) {
+    if (mapped != null) {
+      return mapped.tags(word);
+    }
     TagCount count = get(word);
     if (count == null) {
       return null;
@@ -140,11 +152,17 @@ public class Dictionary  {
 
 
   protected TagCount get(String word) {
+    if (mapped != null) {
+      return mapped.tagCount(word);
+    }
     return dict.get(word);
   }
 
 
   String getFirstTag(String word) {
+    if (mapped != null) {
+      return mapped.firstTag(word);
+    }
     TagCount count = dict.get(word);
     if (count != null) {
       return count.getFirstTag();
@@ -154,6 +172,9 @@ public class Dictionary  {
 
 
   protected int sum(String word) {
+    if (mapped != null) {
+      return mapped.sum(word);
+    }
     TagCount count = dict.get(word);
     if (count != null) {
       return count.sum();
@@ -162,9 +183,141 @@ public class Dictionary  {
   }
 
   boolean isUnknown(String word) {
+    if (mapped != null) {
+      return mapped.words.indexOf(word) < 0;
+    }
     return ! dict.containsKey(word);
   }
 
+  /** The words of the dictionary */
+  Set<String> words() {
+    unmap();
+    return Collections.unmodifiableSet(dict.keySet());
+  }
+
+  /**
+   * Uses the words of a {@link TaggerModelFile} instead of the words read in.
+   *
+   * @param words The words
+   * @param rows For each word, where its tags start in tags and counts, and then where the tags of the last word end
+   * @param tags The tags of the words, as indices in tagNames
+   * @param counts How many times each word was seen with each of its tags
+   * @param ambClasses The ambiguity class of each word
+   * @param tagNames The tags
+   */
+  void map(MappedStringIndex words, IntBuffer rows, IntBuffer tags, IntBuffer counts, IntBuffer ambClasses, String[] tagNames) {
+    dict.clear();
+    mapped = new MappedWords(words, rows, tags, counts, ambClasses, tagNames);
+  }
+
+  /** Reads the words of a {@link TaggerModelFile} into the dictionary, so that it can be saved or changed */
+  void unmap() {
+    if (mapped != null) {
+      for (int id = 0, size = mapped.words.size(); id < size; id++) {
+        dict.put(mapped.words.get(id), mapped.tagCount(id));
+      }
+      mapped = null;
+    }
+  }
+
+  /**
+   * The words, tags and counts of a dictionary, read straight from a model file
+   * mapped into memory.  The tags of each word are kept in the order that
+   * {@link TagCount#getTags()} gave them in, so the tagger gives the same tags.
+   */
+  private static class MappedWords {
+
+    private final MappedStringIndex words;
+    private final IntBuffer rows;
+    private final IntBuffer tags;
+    private final IntBuffer counts;
+    private final IntBuffer ambClasses;
+    private final String[] tagNames;
+
+    MappedWords(MappedStringIndex words, IntBuffer rows, IntBuffer tags, IntBuffer counts, IntBuffer ambClasses, String[] tagNames) {
+      this.words = words;
+      this.rows = rows;
+      this.tags = tags;
+      this.counts = counts;
+      this.ambClasses = ambClasses;
+      this.tagNames = tagNames;
+    }
+
+    int count(String word, String tag) {
+      int id = words.indexOf(word);
+      if (id < 0) {
+        return 0;
+      }
+      for (int i = rows.get(id), end = rows.get(id + 1); i < end; i++) {
+        String t = tagNames[tags.get(i)];
+        if (t == null ? tag == null : t.equals(tag)) {
+          return counts.get(i);
+        }
+      }
+      return 0;
+    }
+
+    String[] tags(String word) {
+      int id = words.indexOf(word);
+      if (id < 0) {
+        return null;
+      }
+      int start = rows.get(id);
+      String[] wordTags = new String[rows.get(id + 1) - start];
+      for (int i = 0; i < wordTags.length; i++) {
+        wordTags[i] = tagNames[tags.get(start + i)];
+      }
+      return wordTags;
+    }
+
+    /** The most frequent tag of a word, the first of them if there's a tie, as TagCount does */
+    String firstTag(String word) {
+      int id = words.indexOf(word);
+      if (id < 0) {
+        return null;
+      }
+      String first = null;
+      int max = 0;
+      for (int i = rows.get(id), end = rows.get(id + 1); i < end; i++) {
+        if (counts.get(i) > max) {
+          first = tagNames[tags.get(i)];
+          max = counts.get(i);
+        }
+      }
+      return first;
+    }
+
+    int sum(String word) {
+      int id = words.indexOf(word);
+      int sum = 0;
+      if (id >= 0) {
+        for (int i = rows.get(id), end = rows.get(id + 1); i < end; i++) {
+          sum += counts.get(i);
+        }
+      }
+      return sum;
+    }
+
+    TagCount tagCount(String word) {
+      int id = words.indexOf(word);
+      return id < 0 ? null : tagCount(id);
+    }
+
+    TagCount tagCount(int id) {
+      int start = rows.get(id);
+      String[] wordTags = new String[rows.get(id + 1) - start];
+      int[] wordCounts = new int[wordTags.length];
+      for (int i = 0; i < wordTags.length; i++) {
+        wordTags[i] = tagNames[tags.get(start + i)];
+        wordCounts[i] = counts.get(start + i);
+      }
+      TagCount count = new TagCount(wordTags, wordCounts);
+      count.setAmbClassId(ambClasses.get(id));
+      return count;
+    }
+
+  }
+
 
   /*
   public void save(String filename) {
@@ -179,7 +332,16 @@ public class Dictionary  {
   */
 
   void save(DataOutputStream file) {
-    String[] arr = dict.keySet().toArray(new String[dict.keySet().size()]);
+    save(file, true);
+  }
+
+  /**
+   * Saves the dictionary; without its words, if not withWords, which is how a
+   * {@link TaggerModelFile} keeps the rest of the dictionary.
+   */
+  void save(DataOutputStream file, boolean withWords) {
+    unmap();
+    String[] arr = withWords ? dict.keySet().toArray(new String[dict.keySet().size()]) : new String[0];
     try {
       file.writeInt(arr.length);
       log.info("Saving dictionary of " + arr.length + " words ...");
@@ -330,6 +492,7 @@ public class Dictionary  {
    * their classes in the TagCounts
    */
   protected void setAmbClasses(AmbiguityClasses ambClasses, int veryCommonWordThresh, TTags ttags) {
+    // the words of a mapped model have theirs already
     for (Map.Entry<String,TagCount> entry : dict.entrySet()) {
       String w = entry.getKey();
       TagCount count = entry.getValue();
@@ -342,10 +505,11 @@ public class Dictionary  {
     if (word.equals(naWord)) {
       return -2;
     }
-    if (get(word) == null) {
+    TagCount count = get(word);
+    if (count == null) {
       return -1;
     }
-    return get(word).getAmbClassId();
+    return count.getAmbClassId();
   }
 
   public static void main(String[] args) {
@@ -0,0 +1,101 @@
+package edu.stanford.nlp.tagger.maxent;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+import edu.stanford.nlp.util.Generics;
+import edu.stanford.nlp.util.MappedStringIndex;
+
+/**
+ * The features of a tagger model read straight from a {@link TaggerModelFile} mapped
+ * into memory, in place of {@link MaxentTagger#fAssociations} and the lambdas.
+ * <br>
+ * For each kind of feature, that is, each extractor (the rare word extractors
+ * following the others), the values it extracts are in a {@link MappedStringIndex}.
+ * The values of all of the kinds are numbered one after another, and each has a row of
+ * (tag index, lambda index) pairs, for the tags it has a feature with.
+ */
+class MappedFeatures {
+
+  private final MappedStringIndex[] values;
+  /** The number of the first value of each kind */
+  private final int[] firstValue;
+  /** For each value, where its pairs start in entries, and then where the last value's end */
+  private final IntBuffer rows;
+  private final IntBuffer entries;
+  private final DoubleBuffer lambda;
+
+  MappedFeatures(MappedStringIndex[] values, IntBuffer rows, IntBuffer entries, DoubleBuffer lambda) {
+    this.values = values;
+    this.firstValue = new int[values.length];
+    for (int k = 1; k < values.length; k++) {
+      firstValue[k] = firstValue[k - 1] + values[k - 1].size();
+    }
+    this.rows = rows;
+    this.entries = entries;
+    this.lambda = lambda;
+  }
+
+  int numKinds() {
+    return values.length;
+  }
+
+  /**
+   * Adds the weights of the features of an extracted value to the scores of tags.
+   *
+   * @param kind The number of the extractor, as in fAssociations
+   * @param value The value it extracted
+   * @param tagIndices The tags scored, or null if every tag is
+   * @param scores The scores: of the tags in tagIndices, in order, or else of every tag, by index
+   */
+  void addScores(int kind, String value, int[] tagIndices, double[] scores) {
+    int id = values[kind].indexOf(value);
+    if (id < 0) {
+      return;
+    }
+    id += firstValue[kind];
+    for (int e = rows.get(id), end = rows.get(id + 1); e < end; e++) {
+      int tag = entries.get(2 * e);
+      double weight = lambda.get(entries.get(2 * e + 1));
+      if (tagIndices == null) {
+        scores[tag] += weight;
+      } else {
+        for (int j = 0; j < tagIndices.length; j++) {
+          if (tagIndices[j] == tag) {
+            scores[j] += weight;
+            break;
+          }
+        }
+      }
+    }
+  }
+
+  /** Reads the features into maps, as fAssociations holds them */
+  List<Map<String, int[]>> associations(int ySize) {
+    List<Map<String, int[]>> associations = Generics.newArrayList(values.length);
+    for (int k = 0; k < values.length; k++) {
+      Map<String, int[]> kind = Generics.newHashMap(values[k].size());
+      int id = firstValue[k];
+      for (String value : values[k]) {
+        int[] fNums = new int[ySize];
+        Arrays.fill(fNums, -1);
+        for (int e = rows.get(id), end = rows.get(id + 1); e < end; e++) {
+          fNums[entries.get(2 * e)] = entries.get(2 * e + 1);
+        }
+        kind.put(value, fNums);
+        id++;
+      }
+      associations.add(kind);
+    }
+    return associations;
+  }
+
+  /** The lambdas, in an array */
+  double[] lambda() {
+    double[] lambdas = new double[lambda.limit()];
+    lambda.duplicate().get(lambdas);
+    return lambdas;
+  }
+
+}
@@ -58,6 +58,8 @@ import edu.stanford.nlp.util.logging.Redwood;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.lang.reflect.Method;
@@ -358,6 +360,8 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
   // For each extractor index, we have a map from possible extracted
   // features to an array which maps from tag number to feature weight index in the lambdas array.
   List<Map<String, int[]>> fAssociations = Generics.newArrayList();
+  /** The features of a model read from a {@link TaggerModelFile}, which are used instead of fAssociations and the lambdas */
+  MappedFeatures mappedFeatures; // = null
   //PairsHolder pairs = new PairsHolder();
   Extractors extractors;
   Extractors extractorsRare;
@@ -453,6 +457,40 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
   Function<String, String> wordFunction;
 
 
+  /**
+   * TestSentences which are free to tag with.  A sentence is tagged with one taken from
+   * here, which is put back afterwards, so that its buffers and the local scores of the
+   * words it has seen needn't be made again for each sentence.  There are at most as
+   * many as there are processors; any more are dropped once they have been used.
+   * They are held by this tagger rather than by the threads that tagged with them, so
+   * they go away along with it.
+   */
+  private transient volatile BlockingQueue<TestSentence> testSentences;
+
+  /** Takes a TestSentence to tag with, which should be given back with {@link #release(TestSentence)} */
+  TestSentence acquireTestSentence() {
+    BlockingQueue<TestSentence> pool = testSentences;
+    if (pool == null) {
+      synchronized (this) {
+        pool = testSentences;
+        if (pool == null) {
+          pool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+          testSentences = pool;
+        }
+      }
+    }
+    TestSentence testSentence = pool.poll();
+    if (testSentence == null || ! testSentence.isFor(this)) {
+      testSentence = new TestSentence(this);
+    }
+    return testSentence;
+  }
+
+  /** Gives back a TestSentence taken with {@link #acquireTestSentence()} */
+  void release(TestSentence testSentence) {
+    testSentences.offer(testSentence);
+  }
+
   /* Package access - shouldn't be part of public API. */
   LambdaSolve getLambdaSolve() {
     return prob;
@@ -733,14 +771,29 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
   }
 
   protected void saveModel(DataOutputStream file) throws IOException {
+    saveModel(file, true);
+  }
+
+  /**
+   * Saves the model; without its features and the words of its dictionary, if not
+   * withFeatures, which is how a {@link TaggerModelFile} keeps the rest of the model.
+   */
+  void saveModel(DataOutputStream file, boolean withFeatures) throws IOException {
+      unmap();
       config.saveConfig(file);
       file.writeInt(xSize);
       file.writeInt(ySize);
-      dict.save(file);
+      dict.save(file, withFeatures);
       tags.save(file, tagTokens);
 
       saveExtractors(file);
 
+      if ( ! withFeatures) {
+        file.writeInt(0);
+        LambdaSolve.save_lambdas(file, new double[0]);
+        return;
+      }
+
       int sizeAssoc = 0;
       for (Map<String, int[]> fValueAssociations : fAssociations) {
         for (int[] fTagAssociations : fValueAssociations.values()) {
@@ -788,6 +841,11 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
    */
   protected void readModelAndInit(Properties config, String modelFileOrUrl, boolean printLoading) {
     try {
+      File file = new File(modelFileOrUrl);
+      if (TaggerModelFile.isModelFile(file)) {
+        TaggerModelFile.load(this, file, config, printLoading);
+        return;
+      }
       readModelAndInit(config, IOUtils.getInputStreamFromURLOrClasspathOrFileSystem(modelFileOrUrl), printLoading);
     } catch (IOException e) {
       throw new RuntimeIOException("Error while loading a tagger model (probably missing model file)", e);
@@ -922,6 +980,7 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
 
 
   protected void dumpModel(PrintStream out) {
+    unmap();
     out.println("Features: template featureValue tag: lambda");
     NumberFormat nf = new DecimalFormat(" 0.000000;-0.000000");
     for (int i = 0; i < fAssociations.size(); ++i) {
@@ -943,6 +1002,19 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
   }
 
 
+  /**
+   * Reads the features and the dictionary of a model mapped from a {@link TaggerModelFile}
+   * into the usual maps, so that the model can be saved or changed.
+   */
+  synchronized void unmap() {
+    if (mappedFeatures != null) {
+      fAssociations = mappedFeatures.associations(ySize);
+      prob = new LambdaSolveTagger(mappedFeatures.lambda());
+      mappedFeatures = null;
+    }
+    dict.unmap();
+  }
+
   /* Package access so it doesn't appear in public API. */
   boolean isRare(String word) {
     return dict.sum(word) < rareWordThresh;
@@ -961,9 +1033,13 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
    */
   public String tagTokenizedString(String toTag) {
     List<Word> sent = SentenceUtils.toUntaggedList(Arrays.asList(toTag.split("\\s+")));
-    TestSentence testSentence = new TestSentence(this);
-    testSentence.tagSentence(sent, false);
-    return testSentence.getTaggedNice();
+    TestSentence testSentence = acquireTestSentence();
+    try {
+      testSentence.tagSentence(sent, false);
+      return testSentence.getTaggedNice();
+    } finally {
+      release(testSentence);
+    }
   }
 
 
@@ -989,8 +1065,7 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
    */
   @Override
   public List<TaggedWord> apply(List<? extends HasWord> in) {
-    TestSentence testSentence = new TestSentence(this);
-    return testSentence.tagSentence(in, false);
+    return tagSentence(in, false);
   }
 
 
@@ -1009,9 +1084,13 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
   public List<List<TaggedWord>> process(List<? extends List<? extends HasWord>> sentences) {
     List<List<TaggedWord>> taggedSentences = Generics.newArrayList();
 
-    TestSentence testSentence = new TestSentence(this);
-    for (List<? extends HasWord> sentence : sentences) {
-      taggedSentences.add(testSentence.tagSentence(sentence, false));
+    TestSentence testSentence = acquireTestSentence();
+    try {
+      for (List<? extends HasWord> sentence : sentences) {
+        taggedSentences.add(testSentence.tagSentence(sentence, false));
+      }
+    } finally {
+      release(testSentence);
     }
     return taggedSentences;
   }
@@ -1025,8 +1104,7 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
    * @return tagged sentence
    */
   public List<TaggedWord> tagSentence(List<? extends HasWord> sentence) {
-    TestSentence testSentence = new TestSentence(this);
-    return testSentence.tagSentence(sentence, false);
+    return tagSentence(sentence, false);
   }
 
   /**
@@ -1042,8 +1120,12 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
    */
   public List<TaggedWord> tagSentence(List<? extends HasWord> sentence,
                                            boolean reuseTags) {
-    TestSentence testSentence = new TestSentence(this);
-    return testSentence.tagSentence(sentence, reuseTags);
+    TestSentence testSentence = acquireTestSentence();
+    try {
+      return testSentence.tagSentence(sentence, reuseTags);
+    } finally {
+      release(testSentence);
+    }
   }
 
   /**
@@ -1058,15 +1140,15 @@ public class MaxentTagger extends Tagger implements ListProcessor<List<? extends
    * Takes a sentence composed of CoreLabels and add the tags to the
    * CoreLabels, modifying the input sentence.  If reuseTags is set to
    * true, any tags supplied with the CoreLabels are taken as correct.
+   * The tags are set in place, without making a TaggedWord for each word.
    */
   public void tagCoreLabels(List<CoreLabel> sentence,
                             boolean reuseTags) {
-    List<TaggedWord> taggedWords = tagSentence(sentence, reuseTags);
-    if (taggedWords.size() != sentence.size())
-      throw new AssertionError("Tagged word list not the same length " +
-                               "as the original sentence");
-    for (int i = 0, size = sentence.size(); i < size; ++i) {
-      sentence.get(i).setTag(taggedWords.get(i).tag());
+    TestSentence testSentence = acquireTestSentence();
+    try {
+      testSentence.tagCoreLabels(sentence, reuseTags);
+    } finally {
+      release(testSentence);
     }
   }
 
@@ -44,6 +44,19 @@ class TagCount {
     sumCache = calculateSumCache();
   }
 
+  /**
+   * A TagCount of the given tags, which {@link #getTags()} returns in the same order
+   * as a TagCount read with the tags in this order would.
+   */
+  TagCount(String[] tags, int[] counts) {
+    map = Generics.newHashMap(tags.length);
+    for (int i = 0; i < tags.length; i++) {
+      map.put(tags[i], counts[i]);
+    }
+    getTagsCache = map.keySet().toArray(new String[map.keySet().size()]);
+    sumCache = calculateSumCache();
+  }
+
   private static final String NULL_SYMBOL = "<<NULL>>";
 
   /**
@@ -147,9 +147,14 @@ public class TaggerConfig extends Properties /* Inherits implementation of Seria
       if (name != null) {
         try {
           log.info("Loading default properties from tagger " + name);
-          DataInputStream in = new DataInputStream(IOUtils.getInputStreamFromURLOrClasspathOrFileSystem(name));
-          this.putAll(TaggerConfig.readConfig(in)); // overwrites defaults with any serialized values.
-          in.close();
+          File file = new File(name);
+          if (TaggerModelFile.isModelFile(file)) {
+            this.putAll(TaggerModelFile.readConfig(file));
+          } else {
+            DataInputStream in = new DataInputStream(IOUtils.getInputStreamFromURLOrClasspathOrFileSystem(name));
+            this.putAll(TaggerConfig.readConfig(in)); // overwrites defaults with any serialized values.
+            in.close();
+          }
         } catch (Exception e) {
           throw new RuntimeIOException("No such trained tagger config file found: " + name);
         }
@@ -0,0 +1,322 @@
+package edu.stanford.nlp.tagger.maxent;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import edu.stanford.nlp.util.MappedFiles;
+import edu.stanford.nlp.util.MappedStringIndex;
+import edu.stanford.nlp.util.StringUtils;
+import edu.stanford.nlp.util.Timing;
+import edu.stanford.nlp.util.logging.Redwood;
+
+import static edu.stanford.nlp.util.MappedFiles.align;
+import static edu.stanford.nlp.util.MappedFiles.ints;
+import static edu.stanford.nlp.util.MappedFiles.littleEndian;
+import static edu.stanford.nlp.util.MappedFiles.section;
+
+/**
+ * A binary file format for MaxentTagger models, which is mapped into memory
+ * rather than read, so that loading a model is nearly instant, and the JVMs on a
+ * host which load the same model share one copy of it in the page cache.
+ * <br>
+ * The features and the dictionary, which are most of a model, are stored in flat
+ * sections which are used where they are (see {@link MappedFeatures}).  The values
+ * each extractor extracts, and the words of the dictionary, are sorted and front coded,
+ * with hash tables to look them up (see {@link MappedStringIndex}).  Each value has a row
+ * of (tag, lambda index) pairs, and the lambdas are stored as doubles, so the tagger
+ * tags exactly as it does with the usual model.  Each word has a row of tags and one
+ * of their counts, in the order its tags had, and its ambiguity class.
+ * The rest of the model, such as the config, the tags and the extractors, is stored
+ * as {@link MaxentTagger#saveModel(DataOutputStream)} stores it, with no features and
+ * no words, followed by the tags of the dictionary, and is read as usual.
+ * <br>
+ * The file is little endian, and starts with a fixed header:
+ * <pre>
+ *   int magic ("TAGB"), int version, int number of kinds of features, int names per block,
+ *   long offset and long length of the rest of the model,
+ *   long offset of the directory of string indices,
+ *   long offset of the feature rows, long offset of the feature pairs,
+ *   long offset and long number of the lambdas,
+ *   long offset of the word rows, long offset of the word tags, long offset of the word counts,
+ *   long offset of the ambiguity classes
+ * </pre>
+ * and the sections follow, each aligned to 8 bytes.  The directory has an entry for each
+ * kind of feature, and then one for the words, of longs: the number of names, the number
+ * of slots of the hash table, the offset and length of the names, the offset of the blocks
+ * and the offset of the hash table.
+ * <br>
+ * {@link MaxentTagger} recognizes these files when it is given the path of one, so they
+ * can be used wherever a tagger model can, as long as they are files and not
+ * classpath resources.  A mapped tagger can tag, and can be saved again as a usual
+ * model, when its features are read into maps.  To convert a model: <br>
+ * {@code java edu.stanford.nlp.tagger.maxent.TaggerModelFile -model english-left3words-distsim.tagger
+ * -serializeTo english-left3words-distsim.taggerb}
+ */
+public class TaggerModelFile {
+
+  /** A logger for this class */
+  private static final Redwood.RedwoodChannels log = Redwood.channels(TaggerModelFile.class);
+
+  /** "TAGB", read little endian */
+  private static final int MAGIC = 0x42474154;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 104;
+  private static final int BLOCK_SIZE = 16;
+  /** The longs in each entry of the directory */
+  private static final int DIRECTORY_ENTRY = 6;
+
+  private TaggerModelFile() {} // static methods
+
+  /** @return Whether the file is a model in this format */
+  public static boolean isModelFile(File file) {
+    return MappedFiles.hasMagic(file, MAGIC, HEADER_SIZE);
+  }
+
+  /**
+   * Write a tagger in this format.
+   *
+   * @param tagger A tagger, which is unmapped first if it was read from a file in this format
+   * @param file The file to write
+   */
+  public static void write(MaxentTagger tagger, File file) throws IOException {
+    tagger.unmap();
+    List<Map<String, int[]>> fAssociations = tagger.fAssociations;
+    int numKinds = tagger.extractors.size() + tagger.extractorsRare.size();
+    double[] lambda = tagger.getLambdaSolve().lambda;
+
+    List<MappedStringIndex.Encoding> indices = new ArrayList<>();
+    List<Integer> sizes = new ArrayList<>();
+    int numPairs = 0;
+    List<int[]> featureRows = new ArrayList<>();
+    for (int k = 0; k < numKinds; k++) {
+      Map<String, int[]> kind = k < fAssociations.size() ? fAssociations.get(k) : Collections.emptyMap();
+      String[] values = kind.keySet().toArray(new String[kind.size()]);
+      Arrays.sort(values);
+      indices.add(MappedStringIndex.encode(values, BLOCK_SIZE));
+      sizes.add(values.length);
+      for (String value : values) {
+        int[] fNums = kind.get(value);
+        featureRows.add(fNums);
+        for (int fNum : fNums) {
+          if (fNum >= 0) {
+            numPairs++;
+          }
+        }
+      }
+    }
+    int[] rows = new int[featureRows.size() + 1];
+    int[] pairs = new int[2 * numPairs];
+    int pair = 0;
+    for (int v = 0; v < featureRows.size(); v++) {
+      rows[v] = pair;
+      int[] fNums = featureRows.get(v);
+      for (int tag = 0; tag < fNums.length; tag++) {
+        if (fNums[tag] >= 0) {
+          pairs[2 * pair] = tag;
+          pairs[2 * pair + 1] = fNums[tag];
+          pair++;
+        }
+      }
+    }
+    rows[featureRows.size()] = pair;
+
+    Dictionary dict = tagger.dict;
+    String[] words = dict.words().toArray(new String[0]);
+    Arrays.sort(words);
+    indices.add(MappedStringIndex.encode(words, BLOCK_SIZE));
+    sizes.add(words.length);
+    Map<String, Integer> dictTags = new LinkedHashMap<>();
+    int[] wordRows = new int[words.length + 1];
+    int[] ambClasses = new int[words.length];
+    int numWordTags = 0;
+    for (String word : words) {
+      numWordTags += dict.get(word).numTags();
+    }
+    int[] wordTags = new int[numWordTags];
+    int[] wordCounts = new int[numWordTags];
+    int wordTag = 0;
+    for (int w = 0; w < words.length; w++) {
+      TagCount count = dict.get(words[w]);
+      wordRows[w] = wordTag;
+      for (String tag : count.getTags()) {
+        Integer id = dictTags.get(tag);
+        if (id == null) {
+          id = dictTags.size();
+          dictTags.put(tag, id);
+        }
+        wordTags[wordTag] = id;
+        wordCounts[wordTag] = count.get(tag);
+        wordTag++;
+      }
+      ambClasses[w] = count.getAmbClassId();
+    }
+    wordRows[words.length] = wordTag;
+
+    ByteArrayOutputStream rest = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(rest)) {
+      tagger.saveModel(out, false);
+      out.writeInt(dictTags.size());
+      for (String tag : dictTags.keySet()) {
+        out.writeBoolean(tag != null);
+        if (tag != null) {
+          out.writeUTF(tag);
+        }
+      }
+    }
+
+    long restOffset = HEADER_SIZE;
+    long directoryOffset = align(restOffset + rest.size());
+    long[] directory = new long[DIRECTORY_ENTRY * indices.size()];
+    long offset = align(directoryOffset + 8L * directory.length);
+    for (int i = 0; i < indices.size(); i++) {
+      MappedStringIndex.Encoding index = indices.get(i);
+      int entry = DIRECTORY_ENTRY * i;
+      directory[entry] = sizes.get(i);
+      directory[entry + 1] = index.table.length / 2;
+      directory[entry + 2] = offset;
+      directory[entry + 3] = index.names.length;
+      directory[entry + 4] = offset = align(offset + index.names.length);
+      directory[entry + 5] = offset = align(offset + 4L * index.blocks.length);
+      offset = align(offset + 4L * index.table.length);
+    }
+    long rowsOffset = offset;
+    long pairsOffset = align(rowsOffset + 4L * rows.length);
+    long lambdaOffset = align(pairsOffset + 4L * pairs.length);
+    long wordRowsOffset = align(lambdaOffset + 8L * lambda.length);
+    long wordTagsOffset = align(wordRowsOffset + 4L * wordRows.length);
+    long wordCountsOffset = align(wordTagsOffset + 4L * wordTags.length);
+    long ambClassesOffset = align(wordCountsOffset + 4L * wordCounts.length);
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = littleEndian(HEADER_SIZE);
+      header.putInt(MAGIC).putInt(VERSION).putInt(numKinds).putInt(BLOCK_SIZE)
+          .putLong(restOffset).putLong(rest.size())
+          .putLong(directoryOffset)
+          .putLong(rowsOffset).putLong(pairsOffset)
+          .putLong(lambdaOffset).putLong(lambda.length)
+          .putLong(wordRowsOffset).putLong(wordTagsOffset).putLong(wordCountsOffset)
+          .putLong(ambClassesOffset);
+      MappedFiles.write(channel, header, 0);
+      MappedFiles.write(channel, ByteBuffer.wrap(rest.toByteArray()), restOffset);
+      ByteBuffer directoryBuffer = littleEndian(8 * directory.length);
+      directoryBuffer.asLongBuffer().put(directory);
+      MappedFiles.write(channel, directoryBuffer, directoryOffset);
+      for (int i = 0; i < indices.size(); i++) {
+        MappedStringIndex.Encoding index = indices.get(i);
+        int entry = DIRECTORY_ENTRY * i;
+        MappedFiles.write(channel, ByteBuffer.wrap(index.names), directory[entry + 2]);
+        MappedFiles.write(channel, ints(index.blocks), directory[entry + 4]);
+        MappedFiles.write(channel, ints(index.table), directory[entry + 5]);
+      }
+      MappedFiles.write(channel, ints(rows), rowsOffset);
+      MappedFiles.write(channel, ints(pairs), pairsOffset);
+      ByteBuffer lambdaBuffer = littleEndian(8 * lambda.length);
+      lambdaBuffer.asDoubleBuffer().put(lambda);
+      MappedFiles.write(channel, lambdaBuffer, lambdaOffset);
+      MappedFiles.write(channel, ints(wordRows), wordRowsOffset);
+      MappedFiles.write(channel, ints(wordTags), wordTagsOffset);
+      MappedFiles.write(channel, ints(wordCounts), wordCountsOffset);
+      MappedFiles.write(channel, ints(ambClasses), ambClassesOffset);
+    }
+  }
+
+  /** Map a model file, and set the tagger up to use it */
+  static void load(MaxentTagger tagger, File file, Properties config, boolean printLoading) throws IOException {
+    Timing t = new Timing();
+    ByteBuffer mapped = map(file);
+    int numKinds = mapped.getInt(8);
+    int blockSize = mapped.getInt(12);
+    long directoryOffset = mapped.getLong(32);
+    long rowsOffset = mapped.getLong(40);
+    long pairsOffset = mapped.getLong(48);
+    long lambdaOffset = mapped.getLong(56);
+    long numLambda = mapped.getLong(64);
+    long wordRowsOffset = mapped.getLong(72);
+    long wordTagsOffset = mapped.getLong(80);
+    long wordCountsOffset = mapped.getLong(88);
+    long ambClassesOffset = mapped.getLong(96);
+
+    DataInputStream rest = rest(mapped);
+    tagger.readModelAndInit(config, rest, false);
+    String[] dictTags = new String[rest.readInt()];
+    for (int i = 0; i < dictTags.length; i++) {
+      dictTags[i] = rest.readBoolean() ? rest.readUTF() : null;
+    }
+
+    MappedStringIndex[] values = new MappedStringIndex[numKinds];
+    int numValues = 0;
+    for (int k = 0; k < numKinds; k++) {
+      values[k] = index(mapped, directoryOffset, k, blockSize);
+      numValues += values[k].size();
+    }
+    ByteBuffer rows = section(mapped, rowsOffset, 4L * (numValues + 1));
+    int numPairs = rows.getInt(4 * numValues);
+    tagger.mappedFeatures = new MappedFeatures(values, rows.asIntBuffer(),
+        section(mapped, pairsOffset, 8L * numPairs).asIntBuffer(),
+        section(mapped, lambdaOffset, 8L * numLambda).asDoubleBuffer());
+
+    MappedStringIndex words = index(mapped, directoryOffset, numKinds, blockSize);
+    ByteBuffer wordRows = section(mapped, wordRowsOffset, 4L * (words.size() + 1));
+    int numWordTags = wordRows.getInt(4 * words.size());
+    tagger.dict.map(words, wordRows.asIntBuffer(),
+        section(mapped, wordTagsOffset, 4L * numWordTags).asIntBuffer(),
+        section(mapped, wordCountsOffset, 4L * numWordTags).asIntBuffer(),
+        section(mapped, ambClassesOffset, 4L * words.size()).asIntBuffer(), dictTags);
+    if (printLoading) {
+      t.done(log, "Mapping POS tagger model from " + file);
+    }
+  }
+
+  /** Reads just the config of a model file, as {@link TaggerConfig#readConfig(DataInputStream)} does from the usual model */
+  static TaggerConfig readConfig(File file) throws IOException, ClassNotFoundException {
+    return TaggerConfig.readConfig(rest(map(file)));
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    return MappedFiles.map(file, MAGIC, VERSION, "tagger model");
+  }
+
+  /** The rest of the model, to be read as the usual model is */
+  private static DataInputStream rest(ByteBuffer mapped) {
+    byte[] rest = new byte[(int) mapped.getLong(24)];
+    section(mapped, mapped.getLong(16), rest.length).get(rest);
+    return new DataInputStream(new ByteArrayInputStream(rest));
+  }
+
+  /** The string index of an entry of the directory */
+  private static MappedStringIndex index(ByteBuffer mapped, long directoryOffset, int i, int blockSize) {
+    long entry = directoryOffset + 8L * DIRECTORY_ENTRY * i;
+    int size = (int) mapped.getLong((int) entry);
+    long capacity = mapped.getLong((int) entry + 8);
+    long namesOffset = mapped.getLong((int) entry + 16);
+    long namesLength = mapped.getLong((int) entry + 24);
+    long blocksOffset = mapped.getLong((int) entry + 32);
+    long tableOffset = mapped.getLong((int) entry + 40);
+    int numBlocks = (size + blockSize - 1) / blockSize;
+    return new MappedStringIndex(size, blockSize, section(mapped, namesOffset, namesLength),
+        section(mapped, blocksOffset, 4L * numBlocks).asIntBuffer(),
+        section(mapped, tableOffset, 8L * capacity).asIntBuffer());
+  }
+
+  /**
+   * Convert a tagger model to this format.  The options are -model, the model to
+   * convert, and -serializeTo, the file to write.
+   */
+  public static void main(String[] args) throws Exception {
+    Properties props = StringUtils.argsToProperties(args);
+    String model = props.getProperty("model");
+    String serializeTo = props.getProperty("serializeTo");
+    if (model == null || serializeTo == null) {
+      log.info("Usage: java " + TaggerModelFile.class.getName() + " -model model.tagger -serializeTo model.taggerb");
+      return;
+    }
+    MaxentTagger tagger = new MaxentTagger(model);
+    write(tagger, new File(serializeTo));
+    log.info("Wrote " + tagger.getLambdaSolve().lambda.length + " feature weights to " + serializeTo);
+  }
+
+}
@@ -63,11 +63,13 @@ public class TestSentence implements SequenceModel  {
   private static final String[] naTagArr = { naTag };
   protected static final boolean DBG = false;
   protected static final int kBestSize = 1;
+  /** The number of words whose local scores are kept from one sentence to the next */
+  private static final int MAX_LOCAL_SCORES = 10000;
 
   protected final String tagSeparator;
   protected final String encoding;
   protected final PairsHolder pairs = new PairsHolder();
-  protected List<String> sent;
+  protected List<String> sent = new ArrayList<>();
   private List<String> originalTags;
   // origWords is only set when run with a list of HasWords; when run
   // with a list of strings, this will be null
@@ -86,7 +88,20 @@ public class TestSentence implements SequenceModel  {
   private volatile Map<String,double[]> localScores = Generics.newHashMap();
   private volatile double[][] localContextScores;
 
+  /** For each position, including the padding of the left and right windows, its possible tags, and their indices */
+  private String[][] tagsAt = new String[0][];
+  private int[][] tagIndicesAt = new int[0][];
+  /** The scores of all of the tags, which are reused for each history */
+  private double[] allTagScores;
+
+  /** The extractors of each kind, with the maps of their values to features */
+  private final ExtractorGroup local, localContext, dynamic;
+  private final ExtractorGroup localRare, localContextRare, dynamicRare;
+
   protected final MaxentTagger maxentTagger;
+  /** The feature maps, or the mapped features, of the tagger when this was made */
+  private final List<Map<String,int[]>> fAssociations;
+  private final MappedFeatures mappedFeatures;
 
   public TestSentence(MaxentTagger maxentTagger) {
     assert(maxentTagger != null);
@@ -102,6 +117,51 @@ public class TestSentence implements SequenceModel  {
       VERBOSE = false;
     }
     history = new History(pairs, maxentTagger.extractors);
+    fAssociations = maxentTagger.fAssociations;
+    mappedFeatures = maxentTagger.mappedFeatures;
+    Extractors ex = maxentTagger.extractors, exR = maxentTagger.extractorsRare;
+    int szCommon = ex.size();
+    local = new ExtractorGroup(ex.local, fAssociations, mappedFeatures, 0);
+    localContext = new ExtractorGroup(ex.localContext, fAssociations, mappedFeatures, 0);
+    dynamic = new ExtractorGroup(ex.dynamic, fAssociations, mappedFeatures, 0);
+    localRare = new ExtractorGroup(exR.local, fAssociations, mappedFeatures, szCommon);
+    localContextRare = new ExtractorGroup(exR.localContext, fAssociations, mappedFeatures, szCommon);
+    dynamicRare = new ExtractorGroup(exR.dynamic, fAssociations, mappedFeatures, szCommon);
+  }
+
+  /** Whether this can still tag for a tagger, whose model hasn't changed since this was made */
+  boolean isFor(MaxentTagger tagger) {
+    return tagger == maxentTagger && tagger.fAssociations == fAssociations && tagger.mappedFeatures == mappedFeatures;
+  }
+
+  /**
+   * The extractors of one kind, in arrays, along with the map of the values of each
+   * extractor to features, so that scoring a history needn't look them up in lists.
+   * For a mapped model, the features are looked up in the MappedFeatures instead.
+   */
+  private static class ExtractorGroup {
+
+    final Extractor[] extractors;
+    final List<Map<String,int[]>> features;
+    final int[] kinds;
+    final MappedFeatures mapped;
+
+    ExtractorGroup(List<Pair<Integer,Extractor>> extractors, List<Map<String,int[]>> fAssociations,
+                   MappedFeatures mapped, int offset) {
+      this.extractors = new Extractor[extractors.size()];
+      this.features = new ArrayList<>(extractors.size());
+      this.kinds = new int[extractors.size()];
+      this.mapped = mapped;
+      int numKinds = mapped != null ? mapped.numKinds() : fAssociations.size();
+      for (int i = 0; i < this.extractors.length; i++) {
+        Pair<Integer,Extractor> e = extractors.get(i);
+        this.extractors[i] = e.second();
+        int kf = e.first() + offset;
+        this.kinds[i] = kf < numKinds ? kf : -1;
+        this.features.add(kf < fAssociations.size() ? fAssociations.get(kf) : Collections.emptyMap());
+      }
+    }
+
   }
 
   public void setCorrectTags(List<? extends HasTag> sentence) {
@@ -121,9 +181,43 @@ public class TestSentence implements SequenceModel  {
    */
   public ArrayList<TaggedWord> tagSentence(List<? extends HasWord> s,
                                            boolean reuseTags) {
-    this.origWords = new ArrayList<>(s);
+    setSentence(s, reuseTags);
+    ArrayList<TaggedWord> result = testTagInference();
+    if (maxentTagger.wordFunction != null) {
+      for (int j = 0, sz = s.size(); j < sz; ++j) {
+        result.get(j).setWord(s.get(j).word());
+      }
+    }
+    origWords = null;
+    return result;
+  }
+
+  /**
+   * Tags a sentence of CoreLabels by running the maxent model, setting the tag of each
+   * CoreLabel in place, without making a TaggedWord for each of them.
+   *
+   * @param s Input sentence, which is tagged
+   * @param reuseTags Whether to keep the tags the sentence already has
+   */
+  public void tagCoreLabels(List<? extends CoreLabel> s, boolean reuseTags) {
+    setSentence(s, reuseTags);
+    runTagInference();
+    for (int j = 0, sz = s.size(); j < sz; ++j) {
+      s.get(j).setTag(finalTags[j]);
+    }
+    origWords = null;
+  }
+
+  /** Sets up the words (and, if reuseTags, the tags) of a sentence to tag, reusing the state of the last one */
+  private void setSentence(List<? extends HasWord> s, boolean reuseTags) {
+    // the state left by a sentence whose tagging was interrupted
+    revert(0);
+    if (localScores.size() > MAX_LOCAL_SCORES) {
+      localScores.clear();
+    }
+    this.origWords = Collections.unmodifiableList(s);
     int sz = s.size();
-    this.sent = new ArrayList<>(sz + 1);
+    sent.clear();
     for (HasWord value1 : s) {
       if (maxentTagger.wordFunction != null) {
         sent.add(maxentTagger.wordFunction.apply(value1.word()));
@@ -142,19 +236,14 @@ public class TestSentence implements SequenceModel  {
         }
       }
       originalTags.add(Tagger.EOS_TAG);
+    } else {
+      this.originalTags = null;
     }
     size = sz + 1;
     if (VERBOSE) {
       log.info("Sentence is " + SentenceUtils.listToString(sent, false, tagSeparator));
     }
     init();
-    ArrayList<TaggedWord> result = testTagInference();
-    if (maxentTagger.wordFunction != null) {
-      for (int j = 0; j < sz; ++j) {
-        result.get(j).setWord(s.get(j).word());
-      }
-    }
-    return result;
   }
 
 
@@ -164,7 +253,19 @@ public class TestSentence implements SequenceModel  {
 
   protected void init() {
     //the eos are assumed already there
-    localContextScores = new double[size][];
+    if (localContextScores == null || localContextScores.length < size) {
+      localContextScores = new double[size][];
+    } else {
+      Arrays.fill(localContextScores, 0, size, null);
+    }
+    int padLength = size + leftWindow() + rightWindow();
+    if (tagsAt.length < padLength) {
+      tagsAt = new String[padLength][];
+      tagIndicesAt = new int[padLength][];
+    } else {
+      Arrays.fill(tagsAt, 0, padLength, null);
+      Arrays.fill(tagIndicesAt, 0, padLength, null);
+    }
     for (int i = 0; i < size - 1; i++) {
       if (maxentTagger.dict.isUnknown(sent.get(i))) {
         numUnknown++;
@@ -396,15 +497,16 @@ public class TestSentence implements SequenceModel  {
   }
 
   private double[] getExactScores(History h) {
-    String[] tags = stringTagsAt(h.current - h.start + leftWindow());
-    double[] histories = getHistories(tags, h); // log score for each tag
+    int[] tagIndices = tagIndicesAt(h.current - h.start + leftWindow());
+    if (allTagScores == null) {
+      allTagScores = new double[maxentTagger.ySize];
+    }
+    double[] histories = histories(h, null, allTagScores); // log score for each tag
     ArrayMath.logNormalize(histories);
-    double[] scores = new double[tags.length];
-    for (int j = 0; j < tags.length; j++) {
+    double[] scores = new double[tagIndices.length];
+    for (int j = 0; j < tagIndices.length; j++) {
       // score the j-th tag
-      String tag = tags[j];
-      int tagindex = maxentTagger.tags.getIndex(tag);
-      scores[j] = histories[tagindex];
+      scores[j] = histories[tagIndices[j]];
     }
     return scores;
   }
@@ -413,11 +515,12 @@ public class TestSentence implements SequenceModel  {
   // (e.g., apple_CC) gets a default (constant) score instead of its exact score.
   // The scores of all other tags are computed exactly.
   private double[] getApproximateScores(History h) {
-    String[] tags = stringTagsAt(h.current - h.start + leftWindow());
-    double[] scores = getHistories(tags, h); // log score for each active tag, unnormalized
+    int[] tagIndices = tagIndicesAt(h.current - h.start + leftWindow());
+    // log score for each active tag, unnormalized
+    double[] scores = histories(h, tagIndices, new double[tagIndices.length]);
 
     // Number of tags that get assigned a default score:
-    int nDefault = maxentTagger.ySize - tags.length;
+    int nDefault = maxentTagger.ySize - tagIndices.length;
     double logScore = ArrayMath.logSum(scores);
     double logScoreInactiveTags = maxentTagger.getInactiveTagDefaultScore(nDefault);
     double logTotal = SloppyMath.logAdd(logScore, logScoreInactiveTags);
@@ -426,123 +529,98 @@ public class TestSentence implements SequenceModel  {
     return scores;
   }
 
-  // This precomputes scores of local features (localScores).
+  /**
+   * Returns an unnormalized score (in log space) for each tag: for each of the possible tags
+   * at the current position when scoring is approximate, and for all of the tags otherwise.
+   */
   protected double[] getHistories(String[] tags, History h) {
+    if (maxentTagger.hasApproximateScoring()) {
+      return histories(h, tagIndicesAt(h.current - h.start + leftWindow()), new double[tags.length]);
+    }
+    return histories(h, null, new double[maxentTagger.ySize]);
+  }
+
+  // This precomputes scores of local features (localScores).
+  private double[] histories(History h, int[] tagIndices, double[] totalS) {
     boolean rare = maxentTagger.isRare(ExtractorFrames.cWord.extract(h));
-    Extractors ex = maxentTagger.extractors, exR = maxentTagger.extractorsRare;
     String w = pairs.getWord(h.current);
+    int numScores = totalS.length;
     double[] lS, lcS;
-    lS = localScores.get(w);
+    // the scores of a word given a tag are only for its tag, and so aren't kept for other sentences
+    boolean given = originalTags != null && originalTags.get(h.current - h.start) != null;
+    lS = given ? null : localScores.get(w);
     if (lS == null) {
-      lS = getHistories(tags, h, ex.local, rare ? exR.local : null);
-      localScores.put(w,lS);
-    } else if (lS.length != tags.length) {
+      lS = new double[numScores];
+      addScores(h, tagIndices, local, rare ? localRare : null, lS);
+      if ( ! given) {
+        localScores.put(w,lS);
+      }
+    } else if (lS.length != numScores) {
       // This case can occur when a word was given a specific forced
       // tag, and then later it shows up without the forced tag.
       // TODO: if a word is given a forced tag, we should always get
       // its features rather than use the cache, just in case the tag
       // given is not the same tag as before
-      lS = getHistories(tags, h, ex.local, rare ? exR.local : null);
-      if (tags.length > 1) {
+      lS = new double[numScores];
+      addScores(h, tagIndices, local, rare ? localRare : null, lS);
+      if (numScores > 1) {
         localScores.put(w,lS);
       }
     }
     if((lcS = localContextScores[h.current]) == null) {
-      lcS = getHistories(tags, h, ex.localContext, rare ? exR.localContext : null);
+      lcS = new double[numScores];
+      addScores(h, tagIndices, localContext, rare ? localContextRare : null, lcS);
       localContextScores[h.current] = lcS;
       ArrayMath.pairwiseAddInPlace(lcS,lS);
     }
-    double[] totalS = getHistories(tags, h, ex.dynamic, rare ? exR.dynamic : null);
-    ArrayMath.pairwiseAddInPlace(totalS,lcS);
+    System.arraycopy(lcS, 0, totalS, 0, numScores);
+    addScores(h, tagIndices, dynamic, rare ? dynamicRare : null, totalS);
     return totalS;
   }
 
-  private double[] getHistories(String[] tags, History h, List<Pair<Integer,Extractor>> extractors, List<Pair<Integer,Extractor>> extractorsRare) {
-    if(maxentTagger.hasApproximateScoring())
-      return getApproximateHistories(tags, h, extractors, extractorsRare);
-    return getExactHistories(h, extractors, extractorsRare);
+  /**
+   * Adds the weights of the features of a history to the scores: of each of the
+   * given tags, or if tagIndices is null, of every tag.
+   */
+  private void addScores(History h, int[] tagIndices, ExtractorGroup group, ExtractorGroup groupRare, double[] scores) {
+    double[] lambda = maxentTagger.getLambdaSolve().lambda;
+    addScores(h, tagIndices, group, lambda, scores);
+    if (groupRare != null) {
+      addScores(h, tagIndices, groupRare, lambda, scores);
+    }
   }
 
-  private double[] getExactHistories(History h, List<Pair<Integer,Extractor>> extractors, List<Pair<Integer,Extractor>> extractorsRare) {
-    double[] scores = new double[maxentTagger.ySize];
-    int szCommon = maxentTagger.extractors.size();
-
-    for (Pair<Integer,Extractor> e : extractors) {
-      int kf = e.first();
-      Extractor ex = e.second();
-      String val = ex.extract(h);
-      int[] fAssociations = maxentTagger.fAssociations.get(kf).get(val);
-      if (fAssociations != null) {
-        for (int i = 0; i < maxentTagger.ySize; i++) {
-          int fNum = fAssociations[i];
-          if (fNum > -1) {
-            scores[i] += maxentTagger.getLambdaSolve().lambda[fNum];
-          }
+  private static void addScores(History h, int[] tagIndices, ExtractorGroup group, double[] lambda, double[] scores) {
+    Extractor[] extractors = group.extractors;
+    if (group.mapped != null) {
+      for (int k = 0; k < extractors.length; k++) {
+        if (group.kinds[k] >= 0) {
+          group.mapped.addScores(group.kinds[k], extractors[k].extract(h), tagIndices, scores);
         }
       }
+      return;
     }
-    if (extractorsRare != null) {
-      for (Pair<Integer,Extractor> e : extractorsRare) {
-        int kf = e.first();
-        Extractor ex = e.second();
-        String val = ex.extract(h);
-        int[] fAssociations = maxentTagger.fAssociations.get(kf+szCommon).get(val);
-        if (fAssociations != null) {
-          for (int i = 0; i < maxentTagger.ySize; i++) {
-            int fNum = fAssociations[i];
-            if (fNum > -1) {
-              scores[i] += maxentTagger.getLambdaSolve().lambda[fNum];
-            }
-          }
-        }
+    for (int k = 0; k < extractors.length; k++) {
+      int[] fAssociations = group.features.get(k).get(extractors[k].extract(h));
+      if (fAssociations == null) {
+        continue;
       }
-    }
-    return scores;
-  }
-
-  // todo [cdm 2016]: Could this be sped up a bit by caching lambda array, extracting method for shared code?
-  // todo [cdm 2016]: Also it's allocating java.util.ArrayList$Itr for for loop - why can't it just random access array?
-  /** Returns an unnormalized score (in log space) for each tag. */
-  private double[] getApproximateHistories(String[] tags, History h, List<Pair<Integer,Extractor>> extractors, List<Pair<Integer,Extractor>> extractorsRare) {
-
-    double[] scores = new double[tags.length];
-    int szCommon = maxentTagger.extractors.size();
-
-    for (Pair<Integer,Extractor> e : extractors) {
-      int kf = e.first();
-      Extractor ex = e.second();
-      String val = ex.extract(h);
-      int[] fAssociations = maxentTagger.fAssociations.get(kf).get(val);
-      if (fAssociations != null) {
-        for (int j = 0; j < tags.length; j++) {
-          String tag = tags[j];
-          int tagIndex = maxentTagger.tags.getIndex(tag);
-          int fNum = fAssociations[tagIndex];
+      if (tagIndices == null) {
+        for (int i = 0; i < scores.length; i++) {
+          int fNum = fAssociations[i];
           if (fNum > -1) {
-            scores[j] += maxentTagger.getLambdaSolve().lambda[fNum];
+            scores[i] += lambda[fNum];
           }
         }
-      }
-    }
-    if (extractorsRare != null) {
-      for (Pair<Integer,Extractor> e : extractorsRare) {
-        int kf = e.first();
-        Extractor ex = e.second();
-        String val = ex.extract(h);
-        int[] fAssociations = maxentTagger.fAssociations.get(szCommon+kf).get(val);
-        if (fAssociations != null) {
-          for (int j = 0; j < tags.length; j++) {
-            String tag = tags[j];
-            int tagIndex = maxentTagger.tags.getIndex(tag);
-            int fNum = fAssociations[tagIndex];
-            if (fNum > -1) {
-              scores[j] += maxentTagger.getLambdaSolve().lambda[fNum];
-            }
+      } else {
+        for (int j = 0; j < tagIndices.length; j++) {
+          int fNum = fAssociations[tagIndices[j]];
+          if (fNum > -1) {
+            scores[j] += lambda[fNum];
           }
         }
       }
     }
-    return scores;
   }
 
 
@@ -700,12 +778,20 @@ public class TestSentence implements SequenceModel  {
 
   @Override
   public int[] getPossibleValues(int pos) {
-    String[] arr1 = stringTagsAt(pos);
-    int[] arr = new int[arr1.length];
-    for (int i = 0; i < arr.length; i++) {
-      arr[i] = maxentTagger.tags.getIndex(arr1[i]);
-    }
+    return tagIndicesAt(pos).clone();
+  }
 
+  /** The indices of the tags of stringTagsAt(pos), which are found once per sentence */
+  private int[] tagIndicesAt(int pos) {
+    int[] arr = tagIndicesAt[pos];
+    if (arr == null) {
+      String[] arr1 = stringTagsAt(pos);
+      arr = new int[arr1.length];
+      for (int i = 0; i < arr.length; i++) {
+        arr[i] = maxentTagger.tags.getIndex(arr1[i]);
+      }
+      tagIndicesAt[pos] = arr;
+    }
     return arr;
   }
 
@@ -743,7 +829,16 @@ public class TestSentence implements SequenceModel  {
     if ((pos < leftWindow()) || (pos >= size + leftWindow())) {
       return naTagArr;
     }
+    String[] tags = tagsAt[pos];
+    if (tags == null) {
+      tags = findTagsAt(pos);
+      tagsAt[pos] = tags;
+    }
+    return tags;
+  }
 
+  /** The possible tags of a word of the sentence, at a position padded by the left window */
+  private String[] findTagsAt(int pos) {
     String[] arr1;
     if (originalTags != null && originalTags.get(pos - leftWindow()) != null) {
       arr1 = new String[1];
@@ -82,17 +82,25 @@ public class ArrayCoreMap implements CoreMap /*, Serializable */ {
    * @param other The ArrayCoreMap to copy. It may not be null.
    */
   public ArrayCoreMap(ArrayCoreMap other) {
-    size = other.size;
-    keys = Arrays.copyOf(other.keys, size);
-    values = Arrays.copyOf(other.values, size);
+    if (other.isSelfContained()) {
+      size = other.size;
+      keys = Arrays.copyOf(other.keys, size);
+      values = Arrays.copyOf(other.values, size);
+    } else {
+      copyEntries(other);
+    }
   }
 
   /**
    * Copy constructor.
    * @param other The ArrayCoreMap to copy. It may not be null.
    */
-  @SuppressWarnings("unchecked")
   public ArrayCoreMap(CoreMap other) {
+    copyEntries(other);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void copyEntries(CoreMap other) {
     Set<Class<?>> otherKeys = other.keySet();
 
     size = otherKeys.size();
@@ -254,6 +262,15 @@ public class ArrayCoreMap implements CoreMap /*, Serializable */ {
   }
 
 
+  /**
+   * Whether all the entries of this map are in its own arrays, so that they can be
+   * copied and compared directly, rather than through {@link #keySet()} and {@link #get(Class)}.
+   * Subclasses which keep some of their entries elsewhere must return false.
+   */
+  protected boolean isSelfContained() {
+    return true;
+  }
+
   /**
    * Reduces memory consumption to the minimum for representing the values
    * currently stored stored in this object.
@@ -320,12 +337,25 @@ public class ArrayCoreMap implements CoreMap /*, Serializable */ {
     calledSet.add(this);
 
     StringBuilder s = new StringBuilder("[");
-    for (int i = 0; i < size; i++) {
-      s.append(keys[i].getSimpleName());
-      s.append('=');
-      s.append(values[i]);
-      if (i < size-1) {
-        s.append(' ');
+    if (isSelfContained()) {
+      for (int i = 0; i < size; i++) {
+        s.append(keys[i].getSimpleName());
+        s.append('=');
+        s.append(values[i]);
+        if (i < size-1) {
+          s.append(' ');
+        }
+      }
+    } else {
+      for (Class<?> key : keySet()) {
+        if (s.length() > 1) {
+          s.append(' ');
+        }
+        @SuppressWarnings("unchecked")
+        Class<? extends Key<Object>> typedKey = (Class<? extends Key<Object>>) key;
+        s.append(key.getSimpleName());
+        s.append('=');
+        s.append(get(typedKey));
       }
     }
     s.append(']');
@@ -492,7 +522,7 @@ public class ArrayCoreMap implements CoreMap /*, Serializable */ {
       return obj.equals(this);
     }
 
-    if (obj instanceof ArrayCoreMap) {
+    if (obj instanceof ArrayCoreMap && isSelfContained() && ((ArrayCoreMap) obj).isSelfContained()) {
       // specialized equals for ArrayCoreMap
       return equals((ArrayCoreMap)obj);
     }
@@ -660,6 +690,8 @@ public class ArrayCoreMap implements CoreMap /*, Serializable */ {
 
   /**
    * {@inheritDoc}
+   * The entries are read through {@link #keySet()} and {@link #get(Class)}, so that
+   * those a subclass keeps outside its arrays are logged too.
    */
   @Override
   @SuppressWarnings("unchecked")
@@ -0,0 +1,109 @@
+package edu.stanford.nlp.util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Utilities for the binary model files which are mapped into memory rather than read,
+ * such as {@link edu.stanford.nlp.ie.crf.CRFModelFile} and
+ * {@link edu.stanford.nlp.tagger.maxent.TaggerModelFile}.
+ * <br>
+ * Such a file is little endian, and starts with an int magic number and an int version,
+ * followed by the rest of a fixed header, which gives the offsets of the sections of the
+ * file; each section is aligned to 8 bytes.  The sections are then used where they are,
+ * for instance as the buffers of a {@link MappedStringIndex}.
+ */
+public class MappedFiles {
+
+  private MappedFiles() {} // static methods
+
+  /**
+   * @param file The file to check
+   * @param magic The magic number of the format, as read little endian
+   * @param headerSize The size of the header of the format
+   * @return Whether the file starts with the magic number, and is long enough for the header
+   */
+  public static boolean hasMagic(File file, int magic, int headerSize) {
+    if ( ! file.isFile() || file.length() < headerSize) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return Integer.reverseBytes(in.readInt()) == magic;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Map all of a file into memory, little endian, and check its magic number and version.
+   *
+   * @param file The file to map
+   * @param magic The magic number of the format, as read little endian
+   * @param version The version of the format which can be read
+   * @param kind What the file is, for the messages of errors, e.g., "CRF model"
+   * @return The mapped file
+   * @throws IOException If the file can't be mapped, or is not of this format and version
+   */
+  public static ByteBuffer map(File file, int magic, int version, String kind) throws IOException {
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("File is too large to map: " + file);
+      }
+      // the mapping stays valid after the channel is closed
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    mapped.order(ByteOrder.LITTLE_ENDIAN);
+    if (mapped.getInt(0) != magic) {
+      throw new IOException("Not a " + kind + " file: " + file);
+    }
+    int fileVersion = mapped.getInt(4);
+    if (fileVersion != version) {
+      throw new IOException("Unknown " + kind + " file version " + fileVersion + " in " + file);
+    }
+    return mapped;
+  }
+
+  /** A section of a buffer, as a little endian buffer of its own */
+  public static ByteBuffer section(ByteBuffer buffer, long offset, long length) {
+    ByteBuffer section = buffer.duplicate();
+    section.position((int) offset);
+    section.limit((int) (offset + length));
+    return section.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** The offset at which a section which would start at the given offset starts, once aligned */
+  public static long align(long offset) {
+    return (offset + 7) & ~7L;
+  }
+
+  /** A new little endian buffer of the given size */
+  public static ByteBuffer littleEndian(int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /** The ints as a little endian buffer, to be written */
+  public static ByteBuffer ints(int[] values) {
+    ByteBuffer buffer = littleEndian(4 * values.length);
+    buffer.asIntBuffer().put(values);
+    return buffer;
+  }
+
+  /** Write all of a buffer at a position of the file, and return how much was written */
+  public static int write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    buffer.rewind();
+    int length = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    return length;
+  }
+
+}
@@ -0,0 +1,324 @@
+package edu.stanford.nlp.util;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * A read-only Index of Strings which are read straight from buffers, usually
+ * parts of a model file mapped into memory, without making a String for each of them.
+ * Model files such as {@link edu.stanford.nlp.ie.crf.CRFModelFile} store their feature
+ * names this way, and {@link #encode(String[], int)} makes the buffers to store.
+ * <br>
+ * The names are front coded in blocks: each name is stored as the length of the
+ * prefix it shares with the one before it, followed by the rest of its chars, and
+ * the first name of each block is stored in full.  The lengths and the chars are
+ * written as varints, so an ASCII char takes one byte.  Front coding works best when
+ * the names are sorted, so that the id of a name is its rank.  Names are looked up in
+ * a {@link StringIdTable}, which is stored with them.
+ * <br>
+ * When serialized, this index is replaced by a {@link HashIndex} of the same names.
+ */
+public class MappedStringIndex extends AbstractCollection<String> implements Index<String>, RandomAccess {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int size;
+  private final int blockSize;
+  private final transient ByteBuffer names;
+  /** Where each block starts in names */
+  private final transient IntBuffer blocks;
+  /** The ids of the names by their hash codes */
+  private final transient StringIdTable table;
+
+  private final transient ThreadLocal<char[][]> buffer = ThreadLocal.withInitial(() -> new char[][] { new char[64] });
+
+  /**
+   * @param size The number of names
+   * @param blockSize The number of names in each front coded block
+   * @param names The blocks of names
+   * @param blocks Where each block starts in names
+   * @param table The hash table, as made by {@link StringIdTable#toArray()}
+   */
+  public MappedStringIndex(int size, int blockSize, ByteBuffer names, IntBuffer blocks, IntBuffer table) {
+    this.size = size;
+    this.blockSize = blockSize;
+    this.names = names;
+    this.blocks = blocks;
+    this.table = new StringIdTable(table);
+  }
+
+  /** The buffers of a MappedStringIndex, to be stored, as made by {@link #encode(String[], int)} */
+  public static class Encoding {
+
+    /** The blocks of names */
+    public final byte[] names;
+    /** Where each block starts in names */
+    public final int[] blocks;
+    /** The hash table */
+    public final int[] table;
+
+    private Encoding(byte[] names, int[] blocks, int[] table) {
+      this.names = names;
+      this.blocks = blocks;
+      this.table = table;
+    }
+
+  }
+
+  /**
+   * Encodes names, so that a MappedStringIndex over the buffers stored gives each name
+   * its position in the array as its id.
+   *
+   * @param names The names, best sorted, with no name twice
+   * @param blockSize The number of names in each front coded block
+   */
+  public static Encoding encode(String[] names, int blockSize) {
+    ByteArrayOutputStream nameBytes = new ByteArrayOutputStream();
+    int[] blocks = new int[(names.length + blockSize - 1) / blockSize];
+    String previous = "";
+    for (int i = 0; i < names.length; i++) {
+      String name = names[i];
+      int prefix = 0;
+      if (i % blockSize == 0) {
+        blocks[i / blockSize] = nameBytes.size();
+      } else {
+        int max = Math.min(name.length(), previous.length());
+        while (prefix < max && name.charAt(prefix) == previous.charAt(prefix)) {
+          prefix++;
+        }
+      }
+      writeVarint(nameBytes, prefix);
+      writeVarint(nameBytes, name.length() - prefix);
+      for (int c = prefix; c < name.length(); c++) {
+        writeVarint(nameBytes, name.charAt(c));
+      }
+      previous = name;
+    }
+
+    StringIdTable table = new StringIdTable(names.length);
+    for (int i = 0; i < names.length; i++) {
+      table.put(i, names[i].hashCode());
+    }
+    return new Encoding(nameBytes.toByteArray(), blocks, table.toArray());
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String get(int i) {
+    if (i < 0 || i >= size) {
+      throw new ArrayIndexOutOfBoundsException("Index " + i + " not in index of size " + size);
+    }
+    char[][] chars = buffer.get();
+    int length = decode(i, chars);
+    return new String(chars[0], 0, length);
+  }
+
+  /**
+   * Decode a name into the thread's buffer, which is grown if needed.
+   *
+   * @return The length of the name
+   */
+  private int decode(int id, char[][] chars) {
+    int[] position = { blocks.get(id / blockSize) };
+    int length = 0;
+    for (int i = id - id % blockSize; i <= id; i++) {
+      int prefix = readVarint(position);
+      int suffix = readVarint(position);
+      length = prefix + suffix;
+      if (length > chars[0].length) {
+        chars[0] = Arrays.copyOf(chars[0], Math.max(length, 2 * chars[0].length));
+      }
+      for (int c = prefix; c < length; c++) {
+        chars[0][c] = (char) readVarint(position);
+      }
+    }
+    return length;
+  }
+
+  private int readVarint(int[] position) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = names.get(position[0]++);
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  @Override
+  public int indexOf(String o) {
+    return o == null ? -1 : indexOf(o, o.hashCode());
+  }
+
+  /**
+   * Looks up a name without making it into a String.
+   *
+   * @param name The name to look up
+   * @param hash The hash code {@link String#hashCode()} gives the name
+   * @return The id of the name, or -1 if it's not in the index
+   */
+  public int indexOf(CharSequence name, int hash) {
+    char[][] chars = null;
+    for (int slot = table.slot(hash); ; slot = table.next(slot)) {
+      int id = table.id(slot);
+      if (id < 0) {
+        return -1;
+      }
+      if (table.hash(slot) == hash) {
+        if (chars == null) {
+          chars = buffer.get();
+        }
+        int length = decode(id, chars);
+        if (length == name.length() && matches(chars[0], name, length)) {
+          return id;
+        }
+      }
+    }
+  }
+
+  private static boolean matches(char[] chars, CharSequence name, int length) {
+    for (int i = 0; i < length; i++) {
+      if (chars[i] != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** The index can't be added to, so this is the same as {@link #indexOf(String)} */
+  @Override
+  public int addToIndex(String o) {
+    return indexOf(o);
+  }
+
+  @Override
+  @Deprecated
+  public int indexOf(String o, boolean add) {
+    return indexOf(o);
+  }
+
+  @Override
+  public List<String> objectsList() {
+    List<String> objects = new ArrayList<>(size);
+    for (String name : this) {
+      objects.add(name);
+    }
+    return Collections.unmodifiableList(objects);
+  }
+
+  @Override
+  public Collection<String> objects(int[] indices) {
+    List<String> objects = new ArrayList<>(indices.length);
+    for (int index : indices) {
+      objects.add(get(index));
+    }
+    return objects;
+  }
+
+  @Override
+  public boolean isLocked() {
+    return true;
+  }
+
+  @Override
+  public void lock() {
+  }
+
+  @Override
+  public void unlock() {
+    throw new UnsupportedOperationException("A mapped index can't be changed");
+  }
+
+  @Override
+  public void saveToWriter(Writer out) throws IOException {
+    int i = 0;
+    for (String name : this) {
+      out.write(i++ + "=" + name + '\n');
+    }
+  }
+
+  @Override
+  public void saveToFilename(String file) {
+    try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+      saveToWriter(bw);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof String && indexOf((String) o) >= 0;
+  }
+
+  /** The index can't be added to, so this only returns false */
+  @Override
+  public boolean add(String s) {
+    return false;
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("A mapped index can't be changed");
+  }
+
+  /** Decodes the names in order, a block at a time */
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private int next = 0;
+      private final int[] position = new int[1];
+      private char[] chars = new char[64];
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public String next() {
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        if (next % blockSize == 0) {
+          position[0] = blocks.get(next / blockSize);
+        }
+        int prefix = readVarint(position);
+        int length = prefix + readVarint(position);
+        if (length > chars.length) {
+          chars = Arrays.copyOf(chars, Math.max(length, 2 * chars.length));
+        }
+        for (int c = prefix; c < length; c++) {
+          chars[c] = (char) readVarint(position);
+        }
+        next++;
+        return new String(chars, 0, length);
+      }
+    };
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    return new HashIndex<>(objectsList());
+  }
+
+}
@@ -0,0 +1,110 @@
+package edu.stanford.nlp.util;
+
+import java.nio.IntBuffer;
+
+/**
+ * The open addressing hash table in which {@link StringIndex}, {@link MappedStringIndex}
+ * and the feature lookup of a CRF model find the id of a name by its String hash code.
+ * Each slot holds the id of a name plus one (or 0 if the slot is empty), and then the
+ * name's hash code, next to each other so that a probe reads one cache line.  The number
+ * of slots is a power of two, and a table is made with room for twice the names it is
+ * for, so the probes stay short.
+ * <br>
+ * Only the hash codes are stored, so the caller compares the name of each id found
+ * with the one looked up, in whatever form it keeps its names:
+ * <pre>
+ *   for (int slot = table.slot(hash); ; slot = table.next(slot)) {
+ *     int id = table.id(slot);
+ *     if (id &lt; 0) return -1;
+ *     if (table.hash(slot) == hash &amp;&amp; matches(id, name)) return id;
+ *   }
+ * </pre>
+ * The slots can be kept in an array, or read straight from a buffer of a model file
+ * mapped into memory, as stored from {@link #toArray()}.
+ */
+public class StringIdTable {
+
+  private final IntBuffer table;
+  private final int mask;
+
+  /**
+   * Makes an empty table.
+   *
+   * @param capacity The number of names the table is for
+   */
+  public StringIdTable(int capacity) {
+    this(IntBuffer.allocate(2 * slots(capacity)));
+  }
+
+  /**
+   * Makes a table over slots already filled in.
+   *
+   * @param table The slots, as made by {@link #toArray()}; their number is a power of two
+   */
+  public StringIdTable(IntBuffer table) {
+    this.table = table;
+    this.mask = table.limit() / 2 - 1;
+  }
+
+  /** The number of slots of a table for the given number of names: a power of two, at least twice as many */
+  private static int slots(int capacity) {
+    return Integer.highestOneBit(Math.max(2 * capacity, 2) - 1) << 1;
+  }
+
+  /** Whether the table has gotten too full for the given number of names, and should be made again bigger */
+  public boolean isFull(int size) {
+    return 2 * size > mask + 1;
+  }
+
+  /** The first slot to look for a hash code in */
+  public int slot(int hash) {
+    return ((hash ^ (hash >>> 16)) * 0x45d9f3b) & mask;
+  }
+
+  /** The slot to look in after the given one */
+  public int next(int slot) {
+    return (slot + 1) & mask;
+  }
+
+  /** The id in a slot, or -1 if the slot is empty */
+  public int id(int slot) {
+    return table.get(2 * slot) - 1;
+  }
+
+  /** The hash code in a slot */
+  public int hash(int slot) {
+    return table.get(2 * slot + 1);
+  }
+
+  /** Puts an id in the first empty slot for its hash code.  The table must not have the id already. */
+  public void put(int id, int hash) {
+    int slot = slot(hash);
+    while (table.get(2 * slot) != 0) {
+      slot = next(slot);
+    }
+    table.put(2 * slot, id + 1);
+    table.put(2 * slot + 1, hash);
+  }
+
+  /** Makes a table for the given number of names, with the ids of this one */
+  public StringIdTable resize(int capacity) {
+    StringIdTable resized = new StringIdTable(capacity);
+    for (int slot = 0; slot <= mask; slot++) {
+      int id = id(slot);
+      if (id >= 0) {
+        resized.put(id, hash(slot));
+      }
+    }
+    return resized;
+  }
+
+  /** The slots of the table, to be stored */
+  public int[] toArray() {
+    int[] array = new int[table.limit()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = table.get(i);
+    }
+    return array;
+  }
+
+}
@@ -0,0 +1,409 @@
+package edu.stanford.nlp.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An Index of Strings kept in primitive arrays, for the large indices of feature
+ * names in models, where a {@link HashIndex} spends most of its memory on a String,
+ * a HashMap entry and a boxed Integer for each name, and a lookup follows several
+ * pointers.  The names are stored one after another in a single byte array: as one
+ * byte per char if they are all Latin-1, as most feature names are, and as two
+ * otherwise.  They are looked up by their String hash codes in a {@link StringIdTable},
+ * and compared to the chars stored, so a lookup makes no objects.
+ * <br>
+ * {@link #get(int)} makes a new String each time, so code which gets the same names
+ * over and over again should keep them.  Names can also be looked up by any
+ * {@link CharSequence}, without first making them into Strings.
+ * <br>
+ * Like a HashIndex, this index can be locked and unlocked; {@link #freeze()} trims it
+ * and locks it for good, once it is built.  Many threads can look names up at once, but
+ * adding to it is not thread safe: an index which many threads build at once can be
+ * built as a {@link edu.stanford.nlp.util.concurrent.ConcurrentHashIndex} and then copied.
+ */
+public class StringIndex extends AbstractCollection<String> implements Index<String>, RandomAccess {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Marks the start of a name which is stored with two bytes per char */
+  private static final int WIDE = 0x80000000;
+  private static final int OFFSET = 0x7fffffff;
+  private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+  private int size;
+  private boolean locked; // = false;
+  private boolean frozen; // = false;
+
+  /** The names, one after another */
+  private transient byte[] names;
+  /**
+   * Where each name starts in names, or'ed with WIDE if it is stored with two bytes per char;
+   * starts[size] is where the next name will go
+   */
+  private transient int[] starts;
+  /** The ids of the names by their hash codes */
+  private transient StringIdTable table;
+
+  public StringIndex() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * @param capacity The number of names expected
+   */
+  public StringIndex(int capacity) {
+    this(capacity, 8 * Math.max(capacity, 1));
+  }
+
+  private StringIndex(int capacity, int nameBytes) {
+    names = new byte[nameBytes];
+    starts = new int[Math.max(capacity, 1) + 1];
+    table = new StringIdTable(capacity);
+  }
+
+  /**
+   * Makes an index of the same names as another, with the same ids, and locked if it is.
+   *
+   * @param index The index to copy
+   */
+  public StringIndex(Index<String> index) {
+    this(index.size(), bytes(index));
+    for (String name : index) {
+      addToIndex(name);
+    }
+    locked = index.isLocked();
+  }
+
+  private static boolean isWide(CharSequence name) {
+    for (int i = 0, length = name.length(); i < length; i++) {
+      if (name.charAt(i) > 0xff) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** The number of bytes the names of an index take */
+  private static int bytes(Index<String> index) {
+    long length = 0;
+    for (String name : index) {
+      length += isWide(name) ? 2 * name.length() : name.length();
+    }
+    if (length > OFFSET) {
+      throw new IllegalArgumentException("The names of the index take more than " + OFFSET + " bytes");
+    }
+    return (int) length;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String get(int i) {
+    if (i < 0 || i >= size) {
+      throw new ArrayIndexOutOfBoundsException("Index " + i + " outside the bounds [0," + size + ")");
+    }
+    int start = starts[i] & OFFSET;
+    int end = starts[i + 1] & OFFSET;
+    if ((starts[i] & WIDE) != 0) {
+      return new String(names, start, end - start, StandardCharsets.UTF_16BE);
+    } else {
+      return new String(names, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+  }
+
+  /** Whether the name with the given id is the same as a CharSequence */
+  private boolean matches(int id, CharSequence name) {
+    int start = starts[id] & OFFSET;
+    int end = starts[id + 1] & OFFSET;
+    int length = name.length();
+    if ((starts[id] & WIDE) != 0) {
+      if (end - start != 2 * length) {
+        return false;
+      }
+      for (int i = 0, b = start; i < length; i++, b += 2) {
+        if ((char) (((names[b] & 0xff) << 8) | (names[b + 1] & 0xff)) != name.charAt(i)) {
+          return false;
+        }
+      }
+    } else {
+      if (end - start != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if ((char) (names[start + i] & 0xff) != name.charAt(i)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /** The String hash code of the name with the given id */
+  private int hash(int id) {
+    int start = starts[id] & OFFSET;
+    int end = starts[id + 1] & OFFSET;
+    int h = 0;
+    if ((starts[id] & WIDE) != 0) {
+      for (int b = start; b < end; b += 2) {
+        h = 31 * h + (char) (((names[b] & 0xff) << 8) | (names[b + 1] & 0xff));
+      }
+    } else {
+      for (int b = start; b < end; b++) {
+        h = 31 * h + (names[b] & 0xff);
+      }
+    }
+    return h;
+  }
+
+  @Override
+  public int indexOf(String name) {
+    return name == null ? -1 : indexOf(name, name.hashCode());
+  }
+
+  /**
+   * Looks up a name without making it into a String.
+   *
+   * @param name The name to look up
+   * @param hash The hash code {@link String#hashCode()} gives the name
+   * @return The id of the name, or -1 if it's not in the index
+   */
+  public int indexOf(CharSequence name, int hash) {
+    for (int slot = table.slot(hash); ; slot = table.next(slot)) {
+      int id = table.id(slot);
+      if (id < 0) {
+        return -1;
+      }
+      if (table.hash(slot) == hash && matches(id, name)) {
+        return id;
+      }
+    }
+  }
+
+  @Override
+  public int addToIndex(String name) {
+    int hash = name.hashCode();
+    int id = indexOf(name, hash);
+    if (id < 0 && ! locked) {
+      id = append(name, hash);
+    }
+    return id;
+  }
+
+  @Override
+  @Deprecated
+  public int indexOf(String name, boolean add) {
+    return add ? addToIndex(name) : indexOf(name);
+  }
+
+  /**
+   * Adds a name to the index, if it isn't there already and the index isn't locked.
+   *
+   * @return true if the name was added
+   */
+  @Override
+  public boolean add(String name) {
+    int hash = name.hashCode();
+    if (locked || indexOf(name, hash) >= 0) {
+      return false;
+    }
+    append(name, hash);
+    return true;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends String> c) {
+    boolean changed = false;
+    for (String name : c) {
+      changed |= add(name);
+    }
+    return changed;
+  }
+
+  /** Adds a name which is not in the index, and returns its id */
+  private int append(String name, int hash) {
+    boolean wide = isWide(name);
+    int length = name.length();
+    int start = starts[size];
+    long end = (long) start + (wide ? 2 * length : length);
+    if (end > OFFSET) {
+      throw new IllegalStateException("The names of the index would take more than " + OFFSET + " bytes");
+    }
+    if (end > names.length) {
+      names = Arrays.copyOf(names, (int) Math.min(OFFSET, Math.max(end, names.length + (names.length >> 1))));
+    }
+    if (size + 2 > starts.length) {
+      starts = Arrays.copyOf(starts, starts.length + (starts.length >> 1) + 1);
+    }
+    if (wide) {
+      for (int i = 0, b = start; i < length; i++, b += 2) {
+        char c = name.charAt(i);
+        names[b] = (byte) (c >>> 8);
+        names[b + 1] = (byte) c;
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        names[start + i] = (byte) name.charAt(i);
+      }
+    }
+    int id = size;
+    starts[id] = wide ? start | WIDE : start;
+    starts[id + 1] = (int) end;
+    size++;
+
+    if (table.isFull(size)) {
+      table = table.resize(size);
+    }
+    table.put(id, hash);
+    return id;
+  }
+
+  @Override
+  public List<String> objectsList() {
+    List<String> objects = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      objects.add(get(i));
+    }
+    return objects;
+  }
+
+  @Override
+  public Collection<String> objects(final int[] indices) {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return StringIndex.this.get(indices[index]);
+      }
+
+      @Override
+      public int size() {
+        return indices.length;
+      }
+    };
+  }
+
+  @Override
+  public boolean isLocked() {
+    return locked;
+  }
+
+  @Override
+  public void lock() {
+    locked = true;
+  }
+
+  /** Unlocks the index, unless it is frozen, when an UnsupportedOperationException is thrown */
+  @Override
+  public void unlock() {
+    if (frozen) {
+      throw new UnsupportedOperationException("This index is frozen");
+    }
+    locked = false;
+  }
+
+  /**
+   * Locks the index for good, once all of its names have been added, and trims its
+   * arrays to the names it has.
+   */
+  public void freeze() {
+    names = Arrays.copyOf(names, starts[size] & OFFSET);
+    starts = Arrays.copyOf(starts, size + 1);
+    locked = true;
+    frozen = true;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof String && indexOf((String) o) >= 0;
+  }
+
+  @Override
+  public void clear() {
+    if (frozen) {
+      throw new UnsupportedOperationException("This index is frozen");
+    }
+    size = 0;
+    Arrays.fill(starts, 0);
+    table = new StringIdTable(starts.length - 1);
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private int index; // = 0;
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      public String next() {
+        if (index >= size) {
+          throw new NoSuchElementException();
+        }
+        return get(index++);
+      }
+    };
+  }
+
+  @Override
+  public void saveToWriter(Writer bw) throws IOException {
+    for (int i = 0, sz = size(); i < sz; i++) {
+      bw.write(i + "=" + get(i) + '\n');
+    }
+  }
+
+  @Override
+  public void saveToFilename(String file) {
+    try (BufferedWriter bw = new BufferedWriter(new FileWriter(file))) {
+      saveToWriter(bw);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buff = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        buff.append(',');
+      }
+      buff.append(i).append('=').append(get(i));
+    }
+    buff.append(']');
+    return buff.toString();
+  }
+
+  /** The names and where they start are written; the hash table is made again when they are read */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    for (int i = 0; i <= size; i++) {
+      out.writeInt(starts[i]);
+    }
+    out.write(names, 0, starts[size] & OFFSET);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    starts = new int[size + 1];
+    for (int i = 0; i <= size; i++) {
+      starts[i] = in.readInt();
+    }
+    names = new byte[starts[size] & OFFSET];
+    in.readFully(names);
+    table = new StringIdTable(size);
+    for (int id = 0; id < size; id++) {
+      table.put(id, hash(id));
+    }
+  }
+
+}
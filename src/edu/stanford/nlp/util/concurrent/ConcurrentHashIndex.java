@@ -1,25 +1,49 @@
 package edu.stanford.nlp.util.concurrent;
 
 import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.AbstractCollection;
 import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.RandomAccess;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
 
 import edu.stanford.nlp.io.IOUtils;
-import edu.stanford.nlp.util.Generics;
 import edu.stanford.nlp.util.Index;
 
 /**
- * A fast threadsafe index that supports constant-time lookup in both directions. This
- * index is tuned for circumstances in which readers significantly outnumber writers.
+ * A fast threadsafe index that supports constant-time lookup in both directions, and
+ * which many threads can add to at once.  It can be used in place of a
+ * {@link edu.stanford.nlp.util.HashIndex} wherever an index is built by several threads:
+ * the ids are dense and in the order the objects were added, {@code add} is true only
+ * for a new object, and the index can be locked once it is built.
+ * <br>
+ * Lookups never lock.  An object is added with {@link ConcurrentHashMap#computeIfAbsent},
+ * so adds of different objects only contend when they hash to the same bin of the map,
+ * rather than all waiting on one lock as {@code HashIndex.addToIndex} does.  The objects
+ * are kept by id in an append-only array of chunks, each twice the size of the one
+ * before, so the array never has to be copied as it grows, and {@link #get(int)} never
+ * sees a partly copied array.
+ * <br>
+ * The id of an object is taken from a counter before the object is stored under it, so while
+ * objects are being added, {@link #size()} may count an object that {@link #get(int)} doesn't
+ * return yet.  The id returned by {@link #addToIndex} or {@link #indexOf} can always be
+ * looked up, and once the threads adding to the index are done (joined), the index is
+ * consistent.  {@link #clear()} should not be called while objects are being added.
  *
  * @author Spence Green
  *
@@ -32,10 +56,16 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
   public static final int UNKNOWN_ID = -1;
   private static final int DEFAULT_INITIAL_CAPACITY = 100;
 
+  /** The first chunk holds 1 &lt;&lt; FIRST_CHUNK_BITS objects */
+  private static final int FIRST_CHUNK_BITS = 5;
+  /** Enough chunks for ids up to MAX_SIZE, each of which fits in an array */
+  private static final int NUM_CHUNKS = 31 - FIRST_CHUNK_BITS;
+  private static final int MAX_SIZE = Integer.MAX_VALUE - (1 << FIRST_CHUNK_BITS);
+
   private final ConcurrentHashMap<E,Integer> item2Index;
-  private int indexSize;
-  private final ReentrantLock lock;
-  private final AtomicReference<Object[]> index2Item;
+  private final AtomicInteger indexSize;
+  private final AtomicReferenceArray<Object[]> index2Item;
+  private volatile boolean locked; // = false;
 
   /**
    * Constructor.
@@ -47,26 +77,46 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
   /**
    * Constructor.
    *
-   * @param initialCapacity
+   * @param initialCapacity The number of objects expected
    */
   public ConcurrentHashIndex(int initialCapacity) {
     item2Index = new ConcurrentHashMap<>(initialCapacity);
-    indexSize = 0;
-    lock = new ReentrantLock();
-    Object[] arr = new Object[initialCapacity];
-    index2Item = new AtomicReference<>(arr);
+    indexSize = new AtomicInteger();
+    index2Item = new AtomicReferenceArray<>(NUM_CHUNKS);
+  }
+
+  /**
+   * Constructor which adds the objects of another index, with the same ids.
+   *
+   * @param index The index to copy
+   */
+  public ConcurrentHashIndex(Index<? extends E> index) {
+    this(Math.max(index.size(), DEFAULT_INITIAL_CAPACITY));
+    for (int i = 0, size = index.size(); i < size; i++) {
+      addToIndex(index.get(i));
+    }
+  }
+
+  /** The chunk which holds an id: chunk c holds ids [2^(c+b) - 2^b, 2^(c+b+1) - 2^b) */
+  private static int chunk(int id) {
+    return 31 - Integer.numberOfLeadingZeros((id >>> FIRST_CHUNK_BITS) + 1);
+  }
+
+  /** The position of an id in its chunk */
+  private static int offset(int id, int chunk) {
+    return id + (1 << FIRST_CHUNK_BITS) - (1 << (chunk + FIRST_CHUNK_BITS));
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public E get(int i) {
-    Object[] arr = index2Item.get();
-    if (i < indexSize) {
-      // arr.length guaranteed to be == to size() given the
-      // implementation of indexOf below.
-      return (E) arr[i];
+    int size = indexSize.get();
+    if (i < 0 || i >= size) {
+      throw new ArrayIndexOutOfBoundsException(String.format("Out of bounds: %d >= %d", i, size));
     }
-    throw new ArrayIndexOutOfBoundsException(String.format("Out of bounds: %d >= %d", i, indexSize));
+    int c = chunk(i);
+    Object[] arr = index2Item.get(c);
+    return arr == null ? null : (E) arr[offset(i, c)];
   }
 
   @Override
@@ -75,37 +125,41 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
     return id == null ? UNKNOWN_ID : id;
   }
 
+  /** Give a new object the next id.  This is called by the map, at most once per object. */
+  private Integer store(E o) {
+    int id = indexSize.getAndIncrement();
+    if (id >= MAX_SIZE) {
+      indexSize.decrementAndGet();
+      throw new IllegalStateException("The index is full");
+    }
+    int c = chunk(id);
+    Object[] arr = index2Item.get(c);
+    if (arr == null) {
+      index2Item.compareAndSet(c, null, new Object[1 << (c + FIRST_CHUNK_BITS)]);
+      arr = index2Item.get(c);
+    }
+    // published to other threads by the map, with the id
+    arr[offset(id, c)] = o;
+    return id;
+  }
+
+  /**
+   * Returns the id of an object, adding it if it's not in the index and the index isn't
+   * locked.  Any number of threads may call this at once.
+   *
+   * @param o The object to add
+   * @return The id of the object, or -1 if it's new and the index is locked
+   */
   @Override
   public int addToIndex(E o) {
     Integer index = item2Index.get(o);
     if (index != null) {
       return index;
     }
-
-    lock.lock();
-    try {
-      // Recheck state
-      if (item2Index.containsKey(o)) {
-        return item2Index.get(o);
-
-      } else {
-        final int newIndex = indexSize++;
-        Object[] arr = index2Item.get();
-        assert newIndex <= arr.length;
-        if (newIndex == arr.length) {
-          // Increase size of array if necessary
-          Object[] newArr = new Object[2*newIndex];
-          System.arraycopy(arr, 0, newArr, 0, arr.length);
-          arr = newArr;
-        }
-        arr[newIndex] = o;
-        index2Item.set(arr);
-        item2Index.put(o, newIndex);
-        return newIndex;
-      }
-    } finally {
-      lock.unlock();
+    if (locked) {
+      return UNKNOWN_ID;
     }
+    return item2Index.computeIfAbsent(o, this::store);
   }
 
   @Override
@@ -118,9 +172,22 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
     }
   }
 
+  /**
+   * Adds an object to the index, if it isn't in the index and the index isn't locked.
+   *
+   * @return true if the object was added by this call
+   */
   @Override
   public boolean add(E o) {
-    return addToIndex(o) != UNKNOWN_ID;
+    if (locked || item2Index.containsKey(o)) {
+      return false;
+    }
+    boolean[] added = { false };
+    item2Index.computeIfAbsent(o, key -> {
+      added[0] = true;
+      return store(key);
+    });
+    return added[0];
   }
 
   @Override
@@ -132,9 +199,15 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
     return changed;
   }
 
+  /** Returns the objects of the index, in the order of their ids */
   @Override
   public List<E> objectsList() {
-    return Generics.newArrayList(item2Index.keySet());
+    int size = indexSize.get();
+    List<E> objects = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      objects.add(get(i));
+    }
+    return objects;
   }
 
   @Override
@@ -153,26 +226,27 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
 
   @Override
   public boolean isLocked() {
-    return false;
+    return locked;
   }
 
+  /** Once locked, objects that are not in the index are no longer added to it */
   @Override
   public void lock() {
-    throw new UnsupportedOperationException();
+    locked = true;
   }
 
   @Override
   public void unlock() {
-    throw new UnsupportedOperationException();
+    locked = false;
   }
 
   @Override
   public void saveToWriter(Writer out) throws IOException {
     final String nl = System.getProperty("line.separator");
-    for (int i = 0, sz = indexSize; i < sz; i++) {
+    for (int i = 0, sz = size(); i < sz; i++) {
       E o = get(i);
       if (o != null) {
-        out.write(i + "=" + get(i) + nl);
+        out.write(i + "=" + o + nl);
       }
     }
   }
@@ -182,7 +256,7 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
     PrintWriter bw = null;
     try {
       bw = IOUtils.getPrintWriter(s);
-      for (int i = 0, size = indexSize; i < size; i++) {
+      for (int i = 0, size = size(); i < size; i++) {
         E o = get(i);
         if (o != null) {
           bw.printf("%d=%s%n", i, o.toString());
@@ -202,13 +276,16 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
   public Iterator<E> iterator() {
     return new Iterator<E>() {
       private int index = 0;
-      private int size = ConcurrentHashIndex.this.size();
+      private final int size = ConcurrentHashIndex.this.size();
       @Override
       public boolean hasNext() {
         return index < size;
       }
       @Override
       public E next() {
+        if (index >= size) {
+          throw new NoSuchElementException();
+        }
         return ConcurrentHashIndex.this.get(index++);
       }
       @Override
@@ -220,7 +297,7 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
 
   @Override
   public int size() {
-    return indexSize;
+    return indexSize.get();
   }
 
   @Override
@@ -246,16 +323,67 @@ public class ConcurrentHashIndex<E> extends AbstractCollection<E> implements Ind
     return indexOf((E) o) != UNKNOWN_ID;
   }
 
+  /** Empties the index.  This is not safe while other threads are adding to it. */
   @Override
   public void clear() {
-    lock.lock();
-    try {
-      item2Index.clear();
-      indexSize = 0;
-      Object[] arr = new Object[DEFAULT_INITIAL_CAPACITY];
-      index2Item.set(arr);
-    } finally {
-      lock.unlock();
+    item2Index.clear();
+    for (int c = 0; c < NUM_CHUNKS; c++) {
+      index2Item.set(c, null);
+    }
+    indexSize.set(0);
+  }
+
+  /**
+   * The fields of the serialized form, which is that of the ConcurrentHashIndex this class
+   * replaced, so that indices serialized by either one can be read by the other: the map from
+   * objects to ids, the number of objects, an unused lock, and the objects in the order of their
+   * ids.  Whether the index is locked is saved too; older readers skip it.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("item2Index", ConcurrentHashMap.class),
+      new ObjectStreamField("indexSize", int.class),
+      new ObjectStreamField("lock", ReentrantLock.class),
+      new ObjectStreamField("index2Item", AtomicReference.class),
+      new ObjectStreamField("locked", boolean.class),
+  };
+
+  /** The objects read by {@link #readObject}, in the order of their ids, for {@link #readResolve} */
+  private transient Object[] serializedObjects;
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    Object[] objects = objectsList().toArray();
+    ConcurrentHashMap<Object,Integer> ids = new ConcurrentHashMap<>(objects.length);
+    for (int i = 0; i < objects.length; i++) {
+      ids.put(objects[i], i);
     }
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("item2Index", ids);
+    fields.put("indexSize", objects.length);
+    fields.put("lock", new ReentrantLock());
+    fields.put("index2Item", new AtomicReference<>(objects));
+    fields.put("locked", locked);
+    out.writeFields();
   }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    AtomicReference<?> objects = (AtomicReference<?>) fields.get("index2Item", null);
+    int size = fields.get("indexSize", 0);
+    if (objects == null || ! (objects.get() instanceof Object[]) || ((Object[]) objects.get()).length < size) {
+      throw new InvalidObjectException("No objects for a ConcurrentHashIndex of size " + size);
+    }
+    serializedObjects = Arrays.copyOf((Object[]) objects.get(), size);
+    locked = fields.get("locked", false);
+  }
+
+  /** Rebuild the index from the objects read, since its fields are final */
+  private Object readResolve() {
+    ConcurrentHashIndex<Object> index = new ConcurrentHashIndex<>(Math.max(serializedObjects.length, DEFAULT_INITIAL_CAPACITY));
+    for (Object o : serializedObjects) {
+      index.addToIndex(o);
+    }
+    index.locked = locked;
+    return index;
+  }
+
 }
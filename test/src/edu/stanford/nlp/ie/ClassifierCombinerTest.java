@@ -4,6 +4,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ie.crf.CRFTestUtils;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.CoreUtilities;
@@ -100,6 +102,26 @@ public class ClassifierCombinerTest extends TestCase {
     runTest(ans2, ans3, ans3, "NUM", "PROD");
   }
 
+  /** Running the base classifiers in parallel gives the same answers as running them one after another */
+  public void testParallelModels() {
+    CRFClassifier<CoreLabel> people = CRFTestUtils.train(CRFTestUtils.props(),
+        "John/PERSON Smith/PERSON works/O at/O Stanford/O ./O",
+        "Mary/PERSON visited/O Palo/O Alto/O with/O Bill/PERSON ./O");
+    CRFClassifier<CoreLabel> places = CRFTestUtils.train(CRFTestUtils.props(),
+        "John/O Smith/O works/O at/O Stanford/ORGANIZATION in/O California/LOCATION ./O",
+        "Mary/O visited/O Palo/LOCATION Alto/LOCATION near/O Google/ORGANIZATION ./O");
+    ClassifierCombiner<CoreLabel> combiner = new ClassifierCombiner<>(people, places);
+    String test = "Bill/O visited/O California/O and/O met/O John/O at/O Stanford/O ./O";
+
+    List<String> sequential = CRFTestUtils.answers(combiner.classify(CRFTestUtils.document(test)));
+    combiner.setParallelModels(true);
+    for (int i = 0; i < 20; i++) {
+      assertEquals(sequential, CRFTestUtils.answers(combiner.classify(CRFTestUtils.document(test))));
+    }
+    assertTrue(sequential.contains("PERSON"));
+    assertTrue(sequential.contains("LOCATION"));
+  }
+
   public void outputResults(String[] firstInput, String[] secondInput, 
                             String[] expectedOutput, String ... labels) {
     List<CoreLabel> input1 = CoreUtilities.toCoreLabelList(words, tags, firstInput);
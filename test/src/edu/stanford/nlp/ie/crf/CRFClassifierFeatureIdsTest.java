@@ -0,0 +1,65 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.Triple;
+import junit.framework.TestCase;
+
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.document;
+
+/**
+ * Checks that looking the features of a document up as FeatureKeys gives
+ * the same data as making the CRFDatums of feature names.
+ */
+public class CRFClassifierFeatureIdsTest extends TestCase {
+
+  private static class Classifier extends CRFClassifier<CoreLabel> {
+    private boolean featureIds = true;
+
+    Classifier(Properties props) {
+      super(props);
+    }
+
+    @Override
+    protected boolean canMakeFeatureIds() {
+      return featureIds && super.canMakeFeatureIds();
+    }
+  }
+
+  public void testSameData() {
+    Classifier crf = new Classifier(PropertiesUtils.asProperties(
+        "useWord", "true", "usePrev", "true", "useNext", "true", "useClassFeature", "true",
+        "useNGrams", "true", "maxNGramLeng", "4", "useDisjunctive", "true", "useSequences", "true",
+        "usePrevSequences", "true", "useTypeSeqs", "true", "useTypeSeqs2", "true", "wordShape", "chris2useLC",
+        "maxLeft", "2", "featureCountThreshold", "2", "maxIterations", "10"));
+    List<List<CoreLabel>> train = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      train.add(document("John/PERSON Smith/PERSON works/O at/O Stanford/ORGANIZATION in/O California/LOCATION ./O"));
+      train.add(document("Mary/PERSON visited/O Palo/LOCATION Alto/LOCATION ,/O near/O Google/ORGANIZATION ./O"));
+    }
+    crf.train(train);
+
+    // features both known and unknown to the model
+    List<CoreLabel> test = document("Mary/PERSON Jones/PERSON works/O at/O Google/ORGANIZATION in/O Ohio/LOCATION ./O");
+    Triple<int[][][], int[], double[][][]> fast = crf.documentToDataAndLabels(test);
+    crf.featureIds = false;
+    Triple<int[][][], int[], double[][][]> slow = crf.documentToDataAndLabels(test);
+    assertTrue(Arrays.deepEquals(slow.first(), fast.first()));
+    assertTrue(Arrays.equals(slow.second(), fast.second()));
+    assertTrue(Arrays.deepEquals(slow.third(), fast.third()));
+
+    crf.featureIds = true;
+    List<String> answers = new ArrayList<>();
+    for (CoreLabel word : crf.classify(test)) {
+      answers.add(word.get(CoreAnnotations.AnswerAnnotation.class));
+    }
+    crf.featureIds = false;
+    for (CoreLabel word : crf.classify(test)) {
+      assertEquals(answers.remove(0), word.get(CoreAnnotations.AnswerAnnotation.class));
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.Triple;
+import junit.framework.TestCase;
+
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.TEST;
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.TRAIN;
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.document;
+
+/**
+ * Checks that training over CRFGradientWorkers sees the same objective function,
+ * and trains the same model, as training in one JVM.
+ */
+public class CRFDistributedTrainingTest extends TestCase {
+
+  private final List<Thread> workers = new ArrayList<>();
+
+  private static Properties props() {
+    return CRFTestUtils.props("multiThreadGrad", "1");
+  }
+
+  private static List<List<CoreLabel>> documents(int from, int to) {
+    return CRFTestUtils.documents(Arrays.copyOfRange(TRAIN, from, to));
+  }
+
+  /** Start a worker for each shard, and return their addresses */
+  private String[] startWorkers() throws IOException {
+    int[][] shards = { { 0, 2 }, { 2, TRAIN.length } };
+    String[] addresses = new String[shards.length];
+    for (int i = 0; i < shards.length; i++) {
+      ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+      addresses[i] = serverSocket.getInetAddress().getHostAddress() + ':' + serverSocket.getLocalPort();
+      CRFGradientWorker worker = new CRFGradientWorker(serverSocket, props(), documents(shards[i][0], shards[i][1]));
+      Thread thread = new Thread(() -> {
+        try {
+          worker.run();
+        } finally {
+          try {
+            serverSocket.close();
+          } catch (IOException e) {
+            // already closed
+          }
+        }
+      });
+      thread.setDaemon(true);
+      thread.start();
+      workers.add(thread);
+    }
+    return addresses;
+  }
+
+  @Override
+  public void tearDown() throws InterruptedException {
+    for (Thread worker : workers) {
+      worker.join(10000);
+    }
+  }
+
+  public void testSameObjective() throws IOException {
+    CRFClassifier<CoreLabel> crf = new CRFClassifier<>(props());
+    List<List<CoreLabel>> docs = documents(0, TRAIN.length);
+    crf.makeAnswerArraysAndTagIndex(docs);
+    Triple<int[][][][], int[][], double[][][][]> dataAndLabels = crf.documentsToDataAndLabels(docs);
+    CRFLogConditionalObjectiveFunction local = crf.getObjectiveFunction(dataAndLabels.first(), dataAndLabels.second());
+
+    try (CRFDistributedObjectiveFunction distributed = new CRFDistributedObjectiveFunction(crf, startWorkers())) {
+      assertEquals(TRAIN.length, distributed.dataDimension());
+      assertEquals(local.domainDimension(), distributed.domainDimension());
+      for (int k = 0; k < 2; k++) {
+        double[] x = local.initial(new Random(k));
+        assertEquals(local.valueAt(x), distributed.valueAt(x), 1e-9 * Math.abs(local.valueAt(x)));
+        double[] expected = local.derivativeAt(x);
+        double[] actual = distributed.derivativeAt(x);
+        for (int i = 0; i < expected.length; i++) {
+          assertEquals(expected[i], actual[i], 1e-9);
+        }
+      }
+    }
+  }
+
+  public void testSameModel() throws IOException {
+    CRFClassifier<CoreLabel> local = new CRFClassifier<>(props());
+    local.train(documents(0, TRAIN.length));
+
+    Properties props = props();
+    props.setProperty("trainWorkers", String.join(",", startWorkers()));
+    CRFClassifier<CoreLabel> distributed = new CRFClassifier<>(props);
+    distributed.train(documents(0, TRAIN.length));
+
+    assertEquals(local.featureIndex.objectsList(), distributed.featureIndex.objectsList());
+    for (int i = 0; i < local.weights.length; i++) {
+      for (int j = 0; j < local.weights[i].length; j++) {
+        assertEquals(local.weights[i][j], distributed.weights[i][j], 1e-6);
+      }
+    }
+    List<CoreLabel> localAnswers = local.classify(document(TEST));
+    List<CoreLabel> distributedAnswers = distributed.classify(document(TEST));
+    for (int i = 0; i < localAnswers.size(); i++) {
+      assertEquals(localAnswers.get(i).get(CoreAnnotations.AnswerAnnotation.class),
+                   distributedAnswers.get(i).get(CoreAnnotations.AnswerAnnotation.class));
+    }
+  }
+
+}
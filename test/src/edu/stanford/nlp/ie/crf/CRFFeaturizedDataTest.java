@@ -0,0 +1,140 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.Triple;
+import junit.framework.TestCase;
+
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.TRAIN;
+
+/**
+ * Checks that documents featurized to disk read back as they were, and train the same model
+ * as documents featurized in memory, including when the file is used again.
+ */
+public class CRFFeaturizedDataTest extends TestCase {
+
+  private File file;
+
+  private static Properties props() {
+    return CRFTestUtils.props("useNGrams", "true", "maxLeft", "2", "multiThreadGrad", "1");
+  }
+
+  private static List<List<CoreLabel>> documents() {
+    return CRFTestUtils.documents(TRAIN);
+  }
+
+  @Override
+  public void setUp() throws IOException {
+    file = File.createTempFile("crf", ".crfd");
+    file.deleteOnExit();
+  }
+
+  @Override
+  public void tearDown() {
+    file.delete();
+  }
+
+  public void testRoundTrip() throws IOException {
+    CRFClassifier<CoreLabel> crf = new CRFClassifier<>(props());
+    List<List<CoreLabel>> docs = documents();
+    crf.makeAnswerArraysAndTagIndex(docs);
+    Triple<int[][][][], int[][], double[][][][]> expected = crf.documentsToDataAndLabels(docs);
+
+    assertEquals(TRAIN.length, CRFFeaturizedData.write(crf, docs, file));
+    CRFFeaturizedData featurized = CRFFeaturizedData.open(file);
+    assertEquals(TRAIN.length, featurized.size());
+    for (int i = 0; i < TRAIN.length; i++) {
+      assertTrue(Arrays.deepEquals(expected.first()[i], featurized.data(i)));
+      assertTrue(Arrays.equals(expected.second()[i], featurized.labels(i)));
+    }
+  }
+
+  /**
+   * A classifier whose node features have values, as they would with useEmbedding.
+   * There are no embeddings to make the features from, so they are made as usual.
+   */
+  private static CRFClassifier<CoreLabel> withFeatureValues() {
+    return new CRFClassifier<CoreLabel>(props()) {
+      @Override
+      public Triple<int[][][], int[], double[][][]> documentToDataAndLabels(List<CoreLabel> document) {
+        boolean useEmbedding = flags.useEmbedding;
+        flags.useEmbedding = false;
+        Triple<int[][][], int[], double[][][]> dataAndLabels;
+        try {
+          dataAndLabels = super.documentToDataAndLabels(document);
+        } finally {
+          flags.useEmbedding = useEmbedding;
+        }
+        int[][][] data = dataAndLabels.first();
+        double[][][] values = new double[data.length][windowSize][];
+        for (int t = 0; t < data.length; t++) {
+          values[t][0] = new double[data[t][0].length];
+          for (int m = 0; m < values[t][0].length; m++) {
+            values[t][0][m] = 0.5 + (data[t][0][m] % 7) / 3.0;
+          }
+        }
+        return new Triple<>(data, dataAndLabels.second(), values);
+      }
+    };
+  }
+
+  public void testFeatureValues() throws IOException {
+    CRFClassifier<CoreLabel> crf = withFeatureValues();
+    List<List<CoreLabel>> docs = documents();
+    crf.makeAnswerArraysAndTagIndex(docs);
+    crf.flags.useEmbedding = true;
+    Triple<int[][][][], int[][], double[][][][]> expected = crf.documentsToDataAndLabels(docs);
+    assertNotNull(expected.third());
+
+    CRFFeaturizedData.write(crf, docs, file);
+    CRFFeaturizedData featurized = CRFFeaturizedData.open(file);
+    for (int i = 0; i < TRAIN.length; i++) {
+      assertTrue(Arrays.deepEquals(expected.first()[i], featurized.data(i)));
+      assertTrue(Arrays.deepEquals(expected.third()[i], featurized.featureVals(i)));
+    }
+
+    // the objective over the file is the one over the documents in memory, values and all
+    CRFLogConditionalObjectiveFunction inMemory = new CRFLogConditionalObjectiveFunction(expected.first(), expected.second(),
+        crf.windowSize, crf.classIndex, crf.labelIndices, crf.map, "QUADRATIC", crf.flags.backgroundSymbol, 1.0, expected.third(), 1);
+    CRFLogConditionalObjectiveFunction withoutValues = new CRFLogConditionalObjectiveFunction(expected.first(), expected.second(),
+        crf.windowSize, crf.classIndex, crf.labelIndices, crf.map, "QUADRATIC", crf.flags.backgroundSymbol, 1.0, null, 1);
+    CRFFeaturizedDataObjectiveFunction onDisk = new CRFFeaturizedDataObjectiveFunction(featurized, crf.windowSize,
+        crf.classIndex, crf.labelIndices, crf.map, "QUADRATIC", crf.flags.backgroundSymbol, 1.0, 1);
+    double[] x = new double[inMemory.domainDimension()];
+    Random random = new Random(5);
+    for (int i = 0; i < x.length; i++) {
+      x[i] = random.nextGaussian() * 0.1;
+    }
+    assertEquals(inMemory.valueAt(x), onDisk.valueAt(x), 1e-9);
+    assertTrue(Arrays.equals(inMemory.derivativeAt(x), onDisk.derivativeAt(x)));
+    assertTrue(Math.abs(withoutValues.valueAt(x) - onDisk.valueAt(x)) > 1e-3);
+  }
+
+  public void testSameModel() {
+    CRFClassifier<CoreLabel> inMemory = new CRFClassifier<>(props());
+    inMemory.train(documents());
+
+    Properties props = props();
+    props.setProperty("featurizedDataFile", file.getPath());
+    CRFClassifier<CoreLabel> onDisk = new CRFClassifier<>(props);
+    onDisk.train(documents());
+    assertTrue(file.length() > 0);
+
+    // trains from the file, without the documents
+    props.setProperty("reuseFeaturizedData", "true");
+    CRFClassifier<CoreLabel> reused = new CRFClassifier<>(props);
+    reused.train(new ArrayList<>());
+
+    for (CRFClassifier<CoreLabel> crf : Arrays.asList(onDisk, reused)) {
+      assertEquals(inMemory.featureIndex.objectsList(), crf.featureIndex.objectsList());
+      assertEquals(inMemory.classIndex.objectsList(), crf.classIndex.objectsList());
+      for (int i = 0; i < inMemory.weights.length; i++) {
+        assertTrue(Arrays.equals(inMemory.weights[i], crf.weights[i]));
+      }
+    }
+  }
+
+}
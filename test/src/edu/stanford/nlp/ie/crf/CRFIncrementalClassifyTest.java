@@ -0,0 +1,93 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import junit.framework.TestCase;
+
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.answers;
+
+/**
+ * Checks that classifying a document again after an edit gives the labels that classifying
+ * the whole edited document gives.
+ */
+public class CRFIncrementalClassifyTest extends TestCase {
+
+  private static final String TEXT =
+      "Mary met John Smith at Google in Palo Alto . Bill works at Stanford in California . " +
+      "The team flew to Ohio with Bill Gates . John visited Stanford University near Palo Alto . " +
+      "Mary Smith works at Google in Ohio . The Stanford team met Bill in California .";
+
+  private static CRFClassifier<CoreLabel> crf;
+
+  @Override
+  public void setUp() {
+    synchronized (CRFIncrementalClassifyTest.class) {
+      if (crf == null) {
+        crf = CRFTestUtils.train(
+            CRFTestUtils.props("useDisjunctive", "true", "maxLeft", "2", "maxIterations", "30"), CRFTestUtils.TRAIN);
+      }
+    }
+  }
+
+  private static CoreLabel token(String word) {
+    CoreLabel token = new CoreLabel();
+    token.setWord(word);
+    token.setValue(word);
+    return token;
+  }
+
+  private static List<CoreLabel> document(List<String> words) {
+    List<CoreLabel> document = new ArrayList<>();
+    for (String word : words) {
+      document.add(token(word));
+    }
+    return document;
+  }
+
+  /**
+   * Replace the words [start, end) of the classified text with others, classify the edited
+   * document incrementally, and check it against classifying it from scratch.
+   */
+  private static void checkEdit(int start, int end, String... replacement) {
+    List<String> words = new ArrayList<>(Arrays.asList(TEXT.split(" ")));
+    List<CoreLabel> document = crf.classify(document(words));
+
+    List<CoreLabel> edit = document(Arrays.asList(replacement));
+    document.subList(start, end).clear();
+    document.addAll(start, edit);
+    words.subList(start, end).clear();
+    words.addAll(start, Arrays.asList(replacement));
+
+    List<CoreLabel> expected = crf.classify(document(words));
+    crf.classifyIncrementally(document, start, start + replacement.length);
+    assertEquals(answers(expected), answers(document));
+  }
+
+  public void testReplace() {
+    checkEdit(1, 2, "visited");
+    checkEdit(20, 22, "Stanford", "University");
+    checkEdit(40, 41, "Gates");
+  }
+
+  public void testInsert() {
+    checkEdit(0, 0, "Bill", "Gates", "and");
+    checkEdit(30, 30, "Google", "in", "California");
+    int size = TEXT.split(" ").length;
+    checkEdit(size, size, "Mary", "flew", "to", "Ohio", ".");
+  }
+
+  public void testDelete() {
+    checkEdit(2, 4);
+    checkEdit(15, 25);
+  }
+
+  public void testUnclassified() {
+    // without previous answers, the whole document is classified
+    List<String> words = Arrays.asList(TEXT.split(" "));
+    List<CoreLabel> document = document(words);
+    crf.classifyIncrementally(document, 3, 4);
+    assertEquals(answers(crf.classify(document(words))), answers(document));
+  }
+
+}
@@ -0,0 +1,209 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.io.*;
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.FeatureKey;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.MappedStringIndex;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.StringIndex;
+import junit.framework.TestCase;
+
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.TEST;
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.document;
+
+/**
+ * Round trips a small classifier through CRFModelFile, and checks that the mapped
+ * classifier has the same features and tags the same way.
+ */
+public class CRFModelFileTest extends TestCase {
+
+  private static CRFClassifier<CoreLabel> crf;
+
+  private File file;
+
+  private static List<String> answers(CRFClassifier<CoreLabel> classifier) {
+    return CRFTestUtils.answers(classifier.classify(document(TEST)));
+  }
+
+  @Override
+  public void setUp() throws IOException {
+    synchronized (CRFModelFileTest.class) {
+      if (crf == null) {
+        crf = CRFTestUtils.train(CRFTestUtils.props("useNGrams", "true"), CRFTestUtils.TRAIN);
+      }
+    }
+    file = File.createTempFile("crf", ".crfb");
+    file.deleteOnExit();
+  }
+
+  @Override
+  public void tearDown() {
+    file.delete();
+  }
+
+  public void testRoundTrip() throws IOException, ClassNotFoundException {
+    CRFModelFile.write(crf, file, false);
+    assertTrue(CRFModelFile.isModelFile(file));
+    CRFClassifier<CoreLabel> mapped = CRFClassifier.getClassifier(file.getPath());
+    assertTrue(mapped.featureIndex instanceof MappedStringIndex);
+
+    assertEquals(crf.featureIndex.size(), mapped.featureIndex.size());
+    assertEquals(new HashSet<>(crf.featureIndex.objectsList()), new HashSet<>(mapped.featureIndex.objectsList()));
+    String previous = "";
+    int id = 0;
+    for (String feature : mapped.featureIndex) {
+      assertTrue(previous.compareTo(feature) < 0);
+      assertEquals(feature, mapped.featureIndex.get(id));
+      assertEquals(id, mapped.featureIndex.indexOf(feature));
+      FeatureKey key = new FeatureKey(feature, "");
+      assertEquals(id, ((MappedStringIndex) mapped.featureIndex).indexOf(key, key.hashCode()));
+      // the weights are the same, as floats
+      double[] weights = crf.weights[crf.featureIndex.indexOf(feature)];
+      double[] mappedWeights = ((MappedCliquePotentialFunction) mapped.cliquePotentialFunction).weights(id);
+      assertEquals(weights.length, mappedWeights.length);
+      for (int k = 0; k < weights.length; k++) {
+        assertEquals((float) weights[k], (float) mappedWeights[k]);
+      }
+      previous = feature;
+      id++;
+    }
+    assertEquals(-1, mapped.featureIndex.indexOf("no such feature"));
+
+    assertEquals(answers(crf), answers(mapped));
+  }
+
+  public void testHalfPrecision() throws IOException, ClassNotFoundException {
+    CRFModelFile.write(crf, file, true);
+    CRFClassifier<CoreLabel> mapped = CRFClassifier.getClassifier(file.getPath());
+    assertEquals(answers(crf), answers(mapped));
+  }
+
+  /** A mapped classifier can be serialized as usual */
+  public void testReserialize() throws IOException, ClassNotFoundException {
+    CRFModelFile.write(crf, file, false);
+    CRFClassifier<CoreLabel> mapped = CRFClassifier.getClassifier(file.getPath());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+      mapped.serializeClassifier(oos);
+    }
+    CRFClassifier<CoreLabel> copy = CRFClassifier.getClassifier(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(answers(crf), answers(copy));
+  }
+
+  private CRFClassifier<CoreLabel> mapped() throws IOException, ClassNotFoundException {
+    CRFModelFile.write(crf, file, false);
+    CRFClassifier<CoreLabel> mapped = CRFClassifier.getClassifier(file.getPath());
+    assertNull(mapped.weights);
+    return mapped;
+  }
+
+  private static double[] weights(CRFClassifier<CoreLabel> classifier, String feature) {
+    return classifier.weights[classifier.featureIndex.indexOf(feature)];
+  }
+
+  public void testSaveToFilename() throws IOException, ClassNotFoundException {
+    CRFClassifier<CoreLabel> mapped = mapped();
+    File names = File.createTempFile("features", ".txt");
+    names.deleteOnExit();
+    mapped.featureIndex.saveToFilename(names.getPath());
+    assertEquals(mapped.featureIndex.objectsList(), HashIndex.loadFromFilename(names.getPath()).objectsList());
+    names.delete();
+  }
+
+  public void testScaleWeights() throws IOException, ClassNotFoundException {
+    CRFClassifier<CoreLabel> mapped = mapped();
+    mapped.scaleWeights(2.0);
+    for (String feature : crf.featureIndex) {
+      double[] weights = weights(crf, feature), scaled = weights(mapped, feature);
+      for (int k = 0; k < weights.length; k++) {
+        assertEquals(2 * (float) weights[k], scaled[k], 1e-6);
+      }
+    }
+    assertEquals(answers(crf), answers(mapped));
+  }
+
+  public void testCombine() throws IOException, ClassNotFoundException {
+    CRFClassifier<CoreLabel> mapped = mapped();
+    mapped.combine(CRFClassifier.getClassifier(file.getPath()), 1.0);
+    assertEquals(crf.featureIndex.size(), mapped.featureIndex.size());
+    for (String feature : crf.featureIndex) {
+      double[] weights = weights(crf, feature), combined = weights(mapped, feature);
+      for (int k = 0; k < weights.length; k++) {
+        assertEquals(2 * (float) weights[k], combined[k], 1e-6);
+      }
+    }
+    assertEquals(answers(crf), answers(mapped));
+  }
+
+  public void testDropFeaturesBelowThreshold() throws IOException, ClassNotFoundException {
+    CRFClassifier<CoreLabel> mapped = mapped();
+    mapped.dropFeaturesBelowThreshold(0.0);
+    assertEquals(mapped.featureIndex.size(), mapped.weights.length);
+    assertTrue(mapped.featureIndex.size() > 0);
+    assertTrue(mapped.featureIndex.size() <= crf.featureIndex.size());
+    assertEquals(answers(crf), answers(mapped));
+  }
+
+  public void testPrintLabelValue() throws IOException, ClassNotFoundException {
+    CRFClassifier<CoreLabel> mapped = mapped();
+    PrintStream out = System.out;
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(bytes));
+    try {
+      mapped.printLabelValue(document(TEST));
+    } finally {
+      System.setOut(out);
+    }
+    assertTrue(bytes.toString().contains("--== Stanford ==--"));
+  }
+
+  public void testAddBiasFeature() throws IOException, ClassNotFoundException {
+    CRFModelFile.write(crf, file, false);
+    CRFBiasedClassifier<CoreLabel> biased = new CRFBiasedClassifier<>(new Properties());
+    biased.loadClassifier(file, null);
+    assertNull(biased.weights);
+    biased.setBiasWeight("PERSON", 1.0);
+    assertEquals(crf.featureIndex.size() + 1, biased.featureIndex.size());
+    assertEquals(biased.featureIndex.size(), biased.weights.length);
+    assertEquals(1.0, weights(biased, "@@@DECODING_CLASS_BIAS@@@")[biased.classIndex.indexOf("PERSON")]);
+  }
+
+  /** A loaded classifier keeps its features in a HashIndex, unless asked to keep them in a StringIndex */
+  public void testCompactFeatureIndex() throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+      crf.serializeClassifier(oos);
+    }
+    CRFClassifier<CoreLabel> loaded = new CRFClassifier<>(new Properties());
+    loaded.loadClassifier(new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())), null);
+    assertTrue(loaded.featureIndex instanceof HashIndex);
+
+    CRFClassifier<CoreLabel> compact = new CRFClassifier<>(new Properties());
+    compact.loadClassifier(new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+        PropertiesUtils.asProperties("compactFeatureIndex", "true"));
+    assertTrue(compact.featureIndex instanceof StringIndex);
+    assertEquals(crf.featureIndex.objectsList(), compact.featureIndex.objectsList());
+    assertEquals(answers(crf), answers(compact));
+  }
+
+  public void testHalfFloats() {
+    float[] values = { 0.0f, -0.0f, 1.0f, -2.5f, 0.1f, 65504.0f, 1.0e-5f, 6.0e-8f, Float.POSITIVE_INFINITY };
+    for (float value : values) {
+      float half = MappedCliquePotentialFunction.halfToFloat(MappedCliquePotentialFunction.floatToHalf(value));
+      assertEquals(value, half, Math.abs(value) / 1024 + 6.0e-8f);
+    }
+    assertEquals(Float.POSITIVE_INFINITY, MappedCliquePotentialFunction.halfToFloat(MappedCliquePotentialFunction.floatToHalf(1.0e6f)));
+    assertTrue(Float.isNaN(MappedCliquePotentialFunction.halfToFloat(MappedCliquePotentialFunction.floatToHalf(Float.NaN))));
+    // every half-precision float round trips exactly
+    for (int h = 0; h < 1 << 16; h++) {
+      float value = MappedCliquePotentialFunction.halfToFloat((short) h);
+      if ( ! Float.isNaN(value)) {
+        assertEquals(h, MappedCliquePotentialFunction.floatToHalf(value) & 0xffff);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.PropertiesUtils;
+
+/**
+ * The small classifiers the CRF tests train, and the documents they train and test them on.
+ * Documents are written as word/LABEL tokens separated by spaces.
+ */
+public class CRFTestUtils {
+
+  private CRFTestUtils() {} // static methods
+
+  /** Training sentences, for a model which tells people, places and organizations apart */
+  public static final String[] TRAIN = {
+      "John/PERSON Smith/PERSON works/O at/O Stanford/ORGANIZATION in/O California/LOCATION ./O",
+      "Mary/PERSON visited/O Palo/LOCATION Alto/LOCATION ,/O near/O Google/ORGANIZATION ./O",
+      "The/O Stanford/ORGANIZATION University/ORGANIZATION team/O met/O Bill/PERSON Gates/PERSON ./O",
+      "Bill/PERSON flew/O to/O Ohio/LOCATION with/O Mary/PERSON ./O",
+      "Google/ORGANIZATION hired/O John/PERSON in/O Palo/LOCATION Alto/LOCATION ./O",
+  };
+
+  /** A sentence which is not one of {@link #TRAIN}, but has the same words */
+  public static final String TEST = "Bill/PERSON visited/O California/LOCATION and/O met/O John/PERSON at/O Stanford/ORGANIZATION ./O";
+
+  /**
+   * The flags of a small first order model with word, neighboring word and class sequence
+   * features, trained for a few iterations.
+   *
+   * @param flags More flags, as key, value pairs, which are added to or replace these
+   */
+  public static Properties props(String... flags) {
+    Properties props = PropertiesUtils.asProperties(
+        "useWord", "true", "usePrev", "true", "useNext", "true", "useClassFeature", "true",
+        "useSequences", "true", "usePrevSequences", "true", "maxLeft", "1", "maxIterations", "20");
+    props.putAll(PropertiesUtils.asProperties(flags));
+    return props;
+  }
+
+  /** A document of word/LABEL tokens, with the labels as both the answers and the gold answers */
+  public static List<CoreLabel> document(String text) {
+    List<CoreLabel> document = new ArrayList<>();
+    for (String token : text.split(" ")) {
+      String[] parts = token.split("/");
+      CoreLabel word = new CoreLabel();
+      word.setWord(parts[0]);
+      word.set(CoreAnnotations.AnswerAnnotation.class, parts[1]);
+      word.set(CoreAnnotations.GoldAnswerAnnotation.class, parts[1]);
+      document.add(word);
+    }
+    return document;
+  }
+
+  public static List<List<CoreLabel>> documents(String... texts) {
+    List<List<CoreLabel>> documents = new ArrayList<>();
+    for (String text : texts) {
+      documents.add(document(text));
+    }
+    return documents;
+  }
+
+  /** Train a classifier with the given flags on documents of word/LABEL tokens */
+  public static CRFClassifier<CoreLabel> train(Properties props, String... texts) {
+    CRFClassifier<CoreLabel> crf = new CRFClassifier<>(props);
+    crf.train(documents(texts));
+    return crf;
+  }
+
+  /** The answers of the tokens of a document, in order */
+  public static List<String> answers(List<CoreLabel> document) {
+    List<String> answers = new ArrayList<>();
+    for (CoreLabel word : document) {
+      answers.add(word.get(CoreAnnotations.AnswerAnnotation.class));
+    }
+    return answers;
+  }
+
+}
@@ -0,0 +1,82 @@
+package edu.stanford.nlp.ie.crf;
+
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.sequences.ExactBestSequenceFinder;
+import junit.framework.TestCase;
+
+import static edu.stanford.nlp.ie.crf.CRFTestUtils.document;
+
+/**
+ * Checks that the Viterbi decoder finds the same labels as the best sequence of the calibrated clique tree.
+ */
+public class ViterbiDecoderTest extends TestCase {
+
+  private static final String[] TEST = {
+      "Mary/PERSON Jones/PERSON works/O at/O Google/ORGANIZATION in/O Ohio/LOCATION ./O",
+      "Stanford/ORGANIZATION ./O",
+      "Bill/PERSON visited/O California/LOCATION and/O met/O John/PERSON at/O Stanford/ORGANIZATION University/ORGANIZATION ./O",
+  };
+
+  private static CRFClassifier<CoreLabel> train(String maxLeft) {
+    return CRFTestUtils.train(CRFTestUtils.props("useNGrams", "true", "maxLeft", maxLeft), CRFTestUtils.TRAIN);
+  }
+
+  private static void checkSameLabels(CRFClassifier<CoreLabel> crf) {
+    List<List<CoreLabel>> sentences = CRFTestUtils.documents(TEST);
+    sentences.add(new ArrayList<>());
+    crf.classifySentences(sentences);
+    for (List<CoreLabel> sentence : sentences) {
+      if (sentence.isEmpty()) {
+        continue;
+      }
+      int[] best = new ExactBestSequenceFinder().bestSequence(crf.getSequenceModel(sentence));
+      for (int j = 0; j < sentence.size(); j++) {
+        assertEquals(crf.classIndex.get(best[j + crf.windowSize - 1]), sentence.get(j).get(CoreAnnotations.AnswerAnnotation.class));
+      }
+    }
+  }
+
+  public void testFirstOrder() {
+    checkSameLabels(train("1"));
+  }
+
+  public void testSecondOrder() {
+    checkSameLabels(train("2"));
+  }
+
+  /** Unconstrained by training, the weights give many close scores */
+  public void testRandomWeights() {
+    CRFClassifier<CoreLabel> crf = train("2");
+    Random random = new Random(7);
+    for (double[] row : crf.weights) {
+      for (int k = 0; k < row.length; k++) {
+        row[k] = random.nextGaussian();
+      }
+    }
+    checkSameLabels(crf);
+  }
+
+  /** A wide beam finds the best labels, and a narrow one keeps fewer states and still labels confident tokens */
+  public void testAdaptiveBeam() {
+    CRFClassifier<CoreLabel> crf = train("2");
+    crf.flags.inferenceType = "AdaptiveBeam";
+    crf.flags.beamMargin = 1000.0;
+    checkSameLabels(crf);
+
+    ViterbiDecoder decoder = new ViterbiDecoder((LinearPotentials) crf.getCliquePotentialFunctionForTest(),
+        crf.labelIndices, crf.classIndex.size(), crf.classIndex.indexOf(crf.flags.backgroundSymbol));
+    List<CoreLabel> sentence = document(TEST[0]);
+    int[][][] data = crf.documentToDataAndLabels(sentence).first();
+    int[] exact = new int[sentence.size()];
+    int[] pruned = new int[sentence.size()];
+    int exactStates = decoder.bestSequence(data, null, null, Double.POSITIVE_INFINITY, exact);
+    int prunedStates = decoder.bestSequence(data, null, null, 1.0, pruned);
+    assertTrue(prunedStates < exactStates);
+    assertEquals(crf.classIndex.get(exact[2]), "O");
+    assertEquals(crf.classIndex.get(pruned[2]), "O");
+  }
+
+}
@@ -0,0 +1,143 @@
+package edu.stanford.nlp.ling;
+
+import java.io.*;
+import java.util.*;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.PropertiesUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks that ColumnarCoreLabel views behave like the CoreLabels they were made from.
+ */
+public class TokenColumnsTest extends TestCase {
+
+  private static List<CoreLabel> tokens() {
+    List<CoreLabel> tokens = new ArrayList<>();
+    String[] words = { "Stanford", "is", "in", "California", "." };
+    int offset = 0;
+    for (int i = 0; i < words.length; ++i) {
+      CoreLabel token = new CoreLabel();
+      token.setWord(words[i]);
+      token.setValue(words[i]);
+      token.setOriginalText(words[i]);
+      token.setBeginPosition(offset);
+      token.setEndPosition(offset + words[i].length());
+      token.setIndex(i + 1);
+      token.setSentIndex(0);
+      token.setTag(i == 0 || i == 3 ? "NNP" : "XX");
+      token.set(CoreAnnotations.ShapeAnnotation.class, "Xx");
+      offset += words[i].length() + 1;
+      tokens.add(token);
+    }
+    return tokens;
+  }
+
+  public void testCopy() {
+    List<CoreLabel> tokens = tokens();
+    List<CoreLabel> views = TokenColumns.columnar(tokens);
+    assertEquals(tokens.size(), views.size());
+    for (int i = 0; i < tokens.size(); ++i) {
+      CoreLabel token = tokens.get(i);
+      CoreLabel view = views.get(i);
+      assertTrue(view instanceof ColumnarCoreLabel);
+      assertEquals(token, view);
+      assertEquals(view, token);
+      assertEquals(token.hashCode(), view.hashCode());
+      assertEquals(token.keySet(), view.keySet());
+      assertEquals(token.size(), view.size());
+      assertEquals(token.toString(CoreLabel.OutputFormat.VALUE_TAG_INDEX), view.toString(CoreLabel.OutputFormat.VALUE_TAG_INDEX));
+      assertEquals(token.toString(CoreLabel.OutputFormat.MAP), view.toString(CoreLabel.OutputFormat.MAP));
+      assertEquals(token.beginPosition(), view.beginPosition());
+      assertEquals(token.index(), view.index());
+      assertEquals("Xx", view.get(CoreAnnotations.ShapeAnnotation.class));
+    }
+    // the strings are shared by all the tokens of the store
+    assertSame(views.get(0).tag(), views.get(3).tag());
+  }
+
+  /** The short strings are made from the columns and the other annotations, as for a plain copy */
+  public void testShortStrings() {
+    for (CoreLabel view : TokenColumns.columnar(tokens())) {
+      CoreLabel copy = new CoreLabel(view);
+      assertEquals(copy.hashCode(), view.hashCode());
+      assertEquals(copy.toShorterString(), view.toShorterString());
+      assertEquals(copy.toShorterString("Text", "Shape", "Index"), view.toShorterString("Text", "Shape", "Index"));
+      assertEquals(copy.toShorterString("Shape"), view.toShorterString("Shape"));
+      assertEquals(copy.toShortString(), view.toShortString());
+      assertEquals(copy.toShortString('|', "Text", "Shape"), view.toShortString('|', "Text", "Shape"));
+    }
+    CoreLabel view = TokenColumns.columnar(tokens()).get(0);
+    view.set(CoreAnnotations.ShapeAnnotation.class, "X x");
+    view.setIndex(7);
+    CoreLabel copy = new CoreLabel(view);
+    assertEquals(copy.hashCode(), view.hashCode());
+    assertEquals("{Stanford/X x}", view.toShortString("Text", "Shape"));
+    assertEquals(copy.toShortString("Text", "Shape"), view.toShortString("Text", "Shape"));
+    assertEquals("[Index=7 Shape=X x]", view.toShorterString("Index", "Shape"));
+    assertEquals(copy.toShorterString("Index", "Shape"), view.toShorterString("Index", "Shape"));
+  }
+
+  public void testSetAndRemove() {
+    CoreLabel view = TokenColumns.columnar(tokens()).get(0);
+    assertEquals("NNP", view.set(CoreAnnotations.PartOfSpeechAnnotation.class, "NN"));
+    assertEquals("NN", view.tag());
+
+    // null values are kept, as in any CoreMap
+    assertEquals("NN", view.set(CoreAnnotations.PartOfSpeechAnnotation.class, null));
+    assertTrue(view.containsKey(CoreAnnotations.PartOfSpeechAnnotation.class));
+    assertNull(view.tag());
+    assertNull(view.set(CoreAnnotations.PartOfSpeechAnnotation.class, "JJ"));
+    assertEquals("JJ", view.tag());
+
+    int size = view.size();
+    assertEquals("JJ", view.remove(CoreAnnotations.PartOfSpeechAnnotation.class));
+    assertFalse(view.containsKey(CoreAnnotations.PartOfSpeechAnnotation.class));
+    assertEquals(size - 1, view.size());
+    assertEquals(1, view.index());
+    view.remove(CoreAnnotations.IndexAnnotation.class);
+    assertEquals(-1, view.index());
+
+    view.setNER("ORGANIZATION");
+    assertEquals("ORGANIZATION", view.ner());
+    Iterator<Class<?>> keys = view.keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next() == CoreAnnotations.NamedEntityTagAnnotation.class) {
+        keys.remove();
+      }
+    }
+    assertNull(view.ner());
+  }
+
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    CoreLabel view = TokenColumns.columnar(tokens()).get(1);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(view);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      Object copy = in.readObject();
+      assertEquals(CoreLabel.class, copy.getClass());
+      assertEquals(view, copy);
+    }
+  }
+
+  public void testPipeline() {
+    String text = "Stanford is in California. It was founded in 1885.";
+    Annotation plain = new Annotation(text);
+    new StanfordCoreNLP(PropertiesUtils.asProperties("annotators", "tokenize,ssplit")).annotate(plain);
+    Annotation columnar = new Annotation(text);
+    new StanfordCoreNLP(PropertiesUtils.asProperties("annotators", "tokenize,ssplit", "tokenize.columnar", "true")).annotate(columnar);
+
+    List<CoreLabel> plainTokens = plain.get(CoreAnnotations.TokensAnnotation.class);
+    List<CoreLabel> columnarTokens = columnar.get(CoreAnnotations.TokensAnnotation.class);
+    assertTrue(columnarTokens.get(0) instanceof ColumnarCoreLabel);
+    assertEquals(plainTokens, columnarTokens);
+    List<CoreMap> sentences = columnar.get(CoreAnnotations.SentencesAnnotation.class);
+    assertEquals(2, sentences.size());
+    assertEquals(plain.get(CoreAnnotations.SentencesAnnotation.class), sentences);
+  }
+
+}
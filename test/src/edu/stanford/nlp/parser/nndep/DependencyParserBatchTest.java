@@ -0,0 +1,264 @@
+package edu.stanford.nlp.parser.nndep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.trees.GrammaticalStructure;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.PropertiesUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks that feeding a batch of configurations forward through the classifier, and
+ * parsing sentences in batches, gives exactly what parsing one at a time does.
+ */
+public class DependencyParserBatchTest extends TestCase {
+
+  private static final int WORDS = 50, TAGS = 6, LABELS = 5, EMBEDDING = 8, HIDDEN = 12;
+
+  private static final Random random = new Random(42);
+
+  private static String row(int n, double scale) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      if (i > 0) sb.append(' ');
+      sb.append(random.nextGaussian() * scale);
+    }
+    return sb.toString();
+  }
+
+  /** Writes a model with random weights, in which some of the (word, position) inputs are precomputed */
+  static File randomModel() throws IOException {
+    File model = File.createTempFile("nndep", ".txt");
+    model.deleteOnExit();
+    List<String> names = new ArrayList<>(Arrays.asList(Config.UNKNOWN, Config.NULL, Config.ROOT));
+    for (int i = 0; i < WORDS; i++) names.add("w" + i);
+    names.addAll(Arrays.asList(Config.UNKNOWN, Config.NULL, Config.ROOT));
+    for (int i = 0; i < TAGS; i++) names.add("T" + i);
+    names.addAll(Arrays.asList(Config.NULL, "root"));
+    for (int i = 0; i < LABELS - 2; i++) names.add("l" + i);
+
+    List<Integer> preComputed = new ArrayList<>();
+    for (int id = 0; id < names.size(); id += 2) {
+      for (int j = 0; j < Config.numTokens; j += 3) {
+        preComputed.add(id * Config.numTokens + j);
+      }
+    }
+
+    try (PrintWriter pw = new PrintWriter(model, "utf-8")) {
+      pw.println("dict=" + (WORDS + 3));
+      pw.println("pos=" + (TAGS + 3));
+      pw.println("label=" + LABELS);
+      pw.println("embeddingSize=" + EMBEDDING);
+      pw.println("hiddenSize=" + HIDDEN);
+      pw.println("numTokens=" + Config.numTokens);
+      pw.println("preComputed=" + preComputed.size());
+      for (String name : names) {
+        pw.println(name + ' ' + row(EMBEDDING, 1.0));
+      }
+      for (int j = 0; j < EMBEDDING * Config.numTokens; j++) {
+        pw.println(row(HIDDEN, 0.3));
+      }
+      pw.println(row(HIDDEN, 0.3));
+      for (int j = 0; j < HIDDEN; j++) {
+        pw.println(row(2 * LABELS - 1, 1.0));
+      }
+      for (int id : preComputed) {
+        pw.println(id);
+      }
+    }
+    return model;
+  }
+
+  private static List<CoreMap> randomSentences(int n) {
+    List<CoreMap> sentences = new ArrayList<>();
+    for (int s = 0; s < n; s++) {
+      int length = s % 7 == 0 ? s % 3 : 1 + random.nextInt(15);
+      List<CoreLabel> tokens = new ArrayList<>();
+      for (int i = 0; i < length; i++) {
+        // some of the words are unknown to the model
+        String word = "w" + random.nextInt(WORDS + 10);
+        CoreLabel token = new CoreLabel();
+        token.setWord(word);
+        token.setValue(word);
+        token.setTag("T" + random.nextInt(TAGS));
+        token.setIndex(i + 1);
+        tokens.add(token);
+      }
+      CoreMap sentence = new ArrayCoreMap();
+      sentence.set(CoreAnnotations.TokensAnnotation.class, tokens);
+      sentences.add(sentence);
+    }
+    return sentences;
+  }
+
+  /** Writes a treebank of chains of words, each headed by the next, with random tags and labels */
+  static File randomTreebank(int n) throws IOException {
+    File treebank = File.createTempFile("nndep", ".conll");
+    treebank.deleteOnExit();
+    try (PrintWriter pw = new PrintWriter(treebank, "utf-8")) {
+      for (int s = 0; s < n; s++) {
+        int length = 1 + random.nextInt(8);
+        for (int i = 1; i <= length; i++) {
+          String tag = "T" + random.nextInt(TAGS);
+          int head = i < length ? i + 1 : 0;
+          String label = head == 0 ? "root" : "l" + random.nextInt(LABELS - 2);
+          pw.printf("%d\tw%d\t_\t%s\t%s\t_\t%d\t%s\t_\t_%n", i, random.nextInt(WORDS), tag, tag, head, label);
+        }
+        pw.println();
+      }
+    }
+    return treebank;
+  }
+
+  /**
+   * The parser left in memory by training must parse as the model it wrote does,
+   * even when the weights changed after the last evaluation on the dev set.
+   */
+  public void testTrainThenEvaluate() throws IOException {
+    String train = randomTreebank(100).getPath(), dev = randomTreebank(30).getPath();
+    File model = File.createTempFile("nndep", ".txt.gz");
+    model.deleteOnExit();
+    Properties props = PropertiesUtils.asProperties(
+        "maxIter", "6", "evalPerIter", "4", "saveIntermediate", "false",
+        "hiddenSize", Integer.toString(HIDDEN), "embeddingSize", Integer.toString(EMBEDDING),
+        "numPreComputed", "40", "batchSize", "50", "adaAlpha", "0.1");
+    DependencyParser parser = new DependencyParser(props);
+    parser.train(train, dev, model.getPath());
+    DependencyParser loaded = DependencyParser.loadFromModelFile(model.getPath(), props);
+
+    List<CoreMap> sentences = new ArrayList<>();
+    Util.loadConllFile(dev, sentences, new ArrayList<>());
+    List<GrammaticalStructure> trained = parser.predictMultiple(sentences), written = loaded.predictMultiple(sentences);
+    for (int i = 0; i < sentences.size(); i++) {
+      assertEquals(written.get(i).typedDependencies().toString(), trained.get(i).typedDependencies().toString());
+    }
+    assertEquals(loaded.testCoNLLScores(dev, null), parser.testCoNLLScores(dev, null));
+  }
+
+  public void testComputeScores() {
+    Config config = new Config(new Properties());
+    config.embeddingSize = EMBEDDING;
+    config.hiddenSize = HIDDEN;
+    int numE = 20, numLabels = 7;
+    double[][] E = new double[numE][EMBEDDING];
+    double[][] W1 = new double[HIDDEN][EMBEDDING * Config.numTokens];
+    double[] b1 = new double[HIDDEN];
+    double[][] W2 = new double[numLabels][HIDDEN];
+    for (double[] e : E) for (int k = 0; k < EMBEDDING; k++) e[k] = random.nextGaussian();
+    for (double[] w : W1) for (int k = 0; k < w.length; k++) w[k] = random.nextGaussian() * 0.3;
+    for (int i = 0; i < HIDDEN; i++) b1[i] = random.nextGaussian();
+    for (double[] w : W2) for (int k = 0; k < HIDDEN; k++) w[k] = random.nextGaussian();
+    List<Integer> preComputed = new ArrayList<>();
+    for (int i = 0; i < numE * Config.numTokens; i += 5) {
+      preComputed.add(i);
+    }
+    Classifier classifier = new Classifier(config, E, W1, b1, W2, preComputed);
+    classifier.preCompute();
+
+    int n = 5;
+    int[][] features = new int[n][Config.numTokens];
+    for (int[] feature : features) {
+      for (int j = 0; j < Config.numTokens; j++) {
+        feature[j] = random.nextInt(numE);
+      }
+    }
+    double[][] scores = new double[n][numLabels];
+    classifier.computeScores(features, n, new double[n][HIDDEN], scores);
+
+    for (int b = 0; b < n; b++) {
+      // the hidden layer straight from the weights
+      double[] hidden = new double[HIDDEN];
+      for (int j = 0; j < Config.numTokens; j++) {
+        for (int i = 0; i < HIDDEN; i++) {
+          for (int k = 0; k < EMBEDDING; k++) {
+            hidden[i] += W1[i][j * EMBEDDING + k] * E[features[b][j]][k];
+          }
+        }
+      }
+      for (int l = 0; l < numLabels; l++) {
+        double expected = 0;
+        for (int i = 0; i < HIDDEN; i++) {
+          expected += W2[l][i] * Math.pow(hidden[i] + b1[i], 3);
+        }
+        assertEquals(expected, scores[b][l], 1e-9 * Math.max(1, Math.abs(expected)));
+      }
+      assertTrue(Arrays.equals(classifier.computeScores(features[b]), scores[b]));
+    }
+  }
+
+  /** Scores fed forward after a training step must come from the updated weights */
+  public void testComputeScoresAfterTrainingStep() {
+    Config config = new Config(new Properties());
+    config.embeddingSize = EMBEDDING;
+    config.hiddenSize = HIDDEN;
+    int numE = 20, numLabels = 7;
+    double[][] E = new double[numE][EMBEDDING];
+    double[][] W1 = new double[HIDDEN][EMBEDDING * Config.numTokens];
+    double[] b1 = new double[HIDDEN];
+    double[][] W2 = new double[numLabels][HIDDEN];
+    for (double[] e : E) for (int k = 0; k < EMBEDDING; k++) e[k] = random.nextGaussian();
+    for (double[] w : W1) for (int k = 0; k < w.length; k++) w[k] = random.nextGaussian() * 0.3;
+    for (double[] w : W2) for (int k = 0; k < HIDDEN; k++) w[k] = random.nextGaussian();
+    Dataset dataset = new Dataset(Config.numTokens, numLabels);
+    for (int i = 0; i < 20; i++) {
+      List<Integer> feature = new ArrayList<>(), label = new ArrayList<>();
+      for (int j = 0; j < Config.numTokens; j++) feature.add(random.nextInt(numE));
+      int gold = random.nextInt(numLabels);
+      for (int l = 0; l < numLabels; l++) label.add(l == gold ? 1 : 0);
+      dataset.addExample(feature, label);
+    }
+    Classifier classifier = new Classifier(config, dataset, E, W1, b1, W2, new ArrayList<>());
+    classifier.preCompute();
+
+    int[] feature = new int[Config.numTokens];
+    for (int j = 0; j < Config.numTokens; j++) feature[j] = random.nextInt(numE);
+    double[] before = classifier.computeScores(feature);
+    classifier.takeAdaGradientStep(classifier.computeCostFunction(20, 1e-8, 0.0), 0.5, 1e-6);
+    double[] after = classifier.computeScores(feature);
+    classifier.finalizeTraining();
+
+    assertFalse(Arrays.equals(before, after));
+    double[] hidden = new double[HIDDEN];
+    for (int j = 0; j < Config.numTokens; j++) {
+      for (int i = 0; i < HIDDEN; i++) {
+        for (int k = 0; k < EMBEDDING; k++) {
+          hidden[i] += W1[i][j * EMBEDDING + k] * E[feature[j]][k];
+        }
+      }
+    }
+    for (int l = 0; l < numLabels; l++) {
+      double expected = 0;
+      for (int i = 0; i < HIDDEN; i++) {
+        expected += W2[l][i] * Math.pow(hidden[i] + b1[i], 3);
+      }
+      assertEquals(expected, after[l], 1e-9 * Math.max(1, Math.abs(expected)));
+    }
+  }
+
+  public void testPredictMultiple() throws IOException {
+    String model = randomModel().getPath();
+    List<CoreMap> sentences = randomSentences(40);
+    DependencyParser parser = DependencyParser.loadFromModelFile(model);
+    List<String> expected = new ArrayList<>();
+    for (CoreMap sentence : sentences) {
+      expected.add(parser.predict(sentence).typedDependencies().toString());
+    }
+
+    for (int batchSize : new int[] { 1, 3, 64 }) {
+      DependencyParser batched = DependencyParser.loadFromModelFile(model,
+          PropertiesUtils.asProperties("parseBatchSize", Integer.toString(batchSize)));
+      List<GrammaticalStructure> parses = batched.predictMultiple(sentences);
+      assertEquals(sentences.size(), parses.size());
+      for (int i = 0; i < sentences.size(); i++) {
+        assertEquals(expected.get(i), parses.get(i).typedDependencies().toString());
+      }
+    }
+  }
+
+}
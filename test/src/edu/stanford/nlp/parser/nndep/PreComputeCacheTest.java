@@ -0,0 +1,130 @@
+package edu.stanford.nlp.parser.nndep;
+
+import java.util.*;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the runtime cache of hidden-layer activations learns the frequent inputs,
+ * and that scores found through it are those found without it.
+ */
+public class PreComputeCacheTest extends TestCase {
+
+  private static final int EMBEDDING = 8, HIDDEN = 12, NUM_E = 200, LABELS = 7;
+
+  private static Classifier classifier(double cacheSize, Random random) {
+    Config config = new Config(new Properties());
+    config.embeddingSize = EMBEDDING;
+    config.hiddenSize = HIDDEN;
+    config.preComputeCacheSize = cacheSize;
+    double[][] E = new double[NUM_E][EMBEDDING];
+    double[][] W1 = new double[HIDDEN][EMBEDDING * Config.numTokens];
+    double[] b1 = new double[HIDDEN];
+    double[][] W2 = new double[LABELS][HIDDEN];
+    for (double[] e : E) for (int k = 0; k < EMBEDDING; k++) e[k] = random.nextGaussian();
+    for (double[] w : W1) for (int k = 0; k < w.length; k++) w[k] = random.nextGaussian() * 0.3;
+    for (int i = 0; i < HIDDEN; i++) b1[i] = random.nextGaussian();
+    for (double[] w : W2) for (int k = 0; k < HIDDEN; k++) w[k] = random.nextGaussian();
+    // only the first few IDs are precomputed at "training time"
+    List<Integer> preComputed = new ArrayList<>();
+    for (int i = 0; i < 10 * Config.numTokens; i++) {
+      preComputed.add(i);
+    }
+    Classifier classifier = new Classifier(config, E, W1, b1, W2, preComputed);
+    classifier.preCompute();
+    return classifier;
+  }
+
+  /** Features of which most are drawn from a few frequent IDs outside those precomputed */
+  private static int[][] features(int n, Random random) {
+    int[][] features = new int[n][Config.numTokens];
+    for (int[] feature : features) {
+      for (int j = 0; j < Config.numTokens; j++) {
+        feature[j] = random.nextInt(4) > 0 ? 100 + random.nextInt(5) : random.nextInt(NUM_E);
+      }
+    }
+    return features;
+  }
+
+  public void testCachedScores() {
+    Classifier uncached = classifier(0, new Random(42));
+    Classifier cached = classifier(1, new Random(42));
+    Random random = new Random(7);
+    for (int round = 0; round < 20; round++) {
+      int n = 16;
+      int[][] features = features(n, random);
+      double[][] expected = new double[n][LABELS], scores = new double[n][LABELS];
+      uncached.computeScores(features, n, new double[n][HIDDEN], expected);
+      cached.computeScores(features, n, new double[n][HIDDEN], scores);
+      for (int b = 0; b < n; b++) {
+        for (int l = 0; l < LABELS; l++) {
+          assertEquals(expected[b][l], scores[b][l], 1e-9 * Math.max(1, Math.abs(expected[b][l])));
+        }
+      }
+    }
+
+    PreComputeCache cache = cached.getPreComputeCache();
+    assertTrue(cache.capacity() > 0);
+    assertTrue(cache.size() > 0);
+    assertTrue(cache.hitRate() > 0.5);
+    assertTrue(cache.totalHitRate() >= cache.hitRate());
+    assertEquals(20 * 16 * Config.numTokens, cache.preComputedHits() + cache.hits() + cache.misses());
+  }
+
+  public void testNoCache() {
+    Classifier classifier = classifier(0, new Random(42));
+    int[][] features = features(16, new Random(7));
+    classifier.computeScores(features, 16, new double[16][HIDDEN], new double[16][LABELS]);
+    classifier.computeScores(features, 16, new double[16][HIDDEN], new double[16][LABELS]);
+
+    PreComputeCache cache = classifier.getPreComputeCache();
+    assertEquals(0, cache.capacity());
+    assertEquals(0, cache.hits());
+    assertEquals(0, cache.admissions());
+    assertTrue(cache.preComputedHits() > 0);
+    assertEquals(2 * 16 * Config.numTokens, cache.preComputedHits() + cache.misses());
+  }
+
+  /** Activations are never quantized, even for an INT8 model */
+  public void testActivationsStayFloat() {
+    Random random = new Random(3);
+    double[] activations = new double[HIDDEN];
+    for (int k = 0; k < HIDDEN; k++) {
+      activations[k] = random.nextGaussian() * 100;
+    }
+    activations[0] = 1e-3;  // far below the step of an INT8 row scaled to the others
+    for (Config.WeightPrecision precision : Config.WeightPrecision.values()) {
+      PreComputeCache cache = new PreComputeCache(1, HIDDEN, precision);
+      WeightMatrix stored = cache.put(0, activations);
+      assertFalse(stored instanceof WeightMatrix.Int8Matrix);
+      for (int k = 0; k < HIDDEN; k++) {
+        assertEquals(activations[k], stored.get(0, k), 1e-6 * Math.abs(activations[k]));
+      }
+    }
+  }
+
+  public void testFrequentInputsEvictRareOnes() {
+    PreComputeCache cache = new PreComputeCache(0.01, HIDDEN, Config.WeightPrecision.FLOAT);
+    int capacity = cache.capacity();
+    assertTrue(capacity > 0);
+    double[] activations = new double[HIDDEN];
+    // every input is seen twice; the first half of them many more times
+    for (int round = 0; round < 10; round++) {
+      for (int index = 0; index < 4 * capacity; index++) {
+        if (round < 2 || index < capacity / 2) {
+          if (cache.get(index) == null && cache.admits(index)) {
+            cache.put(index, activations);
+          }
+        }
+      }
+    }
+    int frequent = 0;
+    for (int index = 0; index < capacity / 2; index++) {
+      if (cache.get(index) != null) {
+        frequent++;
+      }
+    }
+    assertTrue(frequent > capacity / 4);
+  }
+
+}
@@ -0,0 +1,156 @@
+package edu.stanford.nlp.parser.nndep;
+
+import java.io.IOException;
+import java.util.*;
+
+import edu.stanford.nlp.util.Pair;
+import junit.framework.TestCase;
+
+/**
+ * Checks that storing a classifier's weights in less than double precision changes
+ * its scores by no more than their rounding, and that the weights in doubles are
+ * dropped only where they can't be needed again.
+ */
+public class WeightPrecisionTest extends TestCase {
+
+  private static final int EMBEDDING = 8, HIDDEN = 12, NUM_E = 40, LABELS = 7;
+
+  private static double[][] random(int rows, int columns, double scale, Random random) {
+    double[][] m = new double[rows][columns];
+    for (double[] row : m) for (int k = 0; k < columns; k++) row[k] = random.nextGaussian() * scale;
+    return m;
+  }
+
+  private static Config config(Config.WeightPrecision precision) {
+    Config config = new Config(new Properties());
+    config.embeddingSize = EMBEDDING;
+    config.hiddenSize = HIDDEN;
+    config.preComputeCacheSize = 0;
+    config.weightPrecision = precision;
+    return config;
+  }
+
+  private static Classifier classifier(Config.WeightPrecision precision, Dataset dataset) {
+    Random random = new Random(42);
+    double[][] E = random(NUM_E, EMBEDDING, 1.0, random);
+    double[][] W1 = random(HIDDEN, EMBEDDING * Config.numTokens, 0.3, random);
+    double[] b1 = random(1, HIDDEN, 1.0, random)[0];
+    double[][] W2 = random(LABELS, HIDDEN, 1.0, random);
+    List<Integer> preComputed = new ArrayList<>();
+    for (int i = 0; i < NUM_E * Config.numTokens; i += 3) {
+      preComputed.add(i);
+    }
+    return new Classifier(config(precision), dataset, E, W1, b1, W2, preComputed);
+  }
+
+  private static int[][] features(int n) {
+    Random random = new Random(7);
+    int[][] features = new int[n][Config.numTokens];
+    for (int[] feature : features) {
+      for (int j = 0; j < Config.numTokens; j++) {
+        feature[j] = random.nextInt(NUM_E);
+      }
+    }
+    return features;
+  }
+
+  private static double[][] scores(Classifier classifier, int[][] features) {
+    double[][] scores = new double[features.length][LABELS];
+    classifier.computeScores(features, features.length, new double[features.length][HIDDEN], scores);
+    return scores;
+  }
+
+  /** The largest difference between two rows of scores, relative to the largest score of the first */
+  private static double relativeError(double[] expected, double[] actual) {
+    double max = 0, error = 0;
+    for (int l = 0; l < expected.length; l++) {
+      max = Math.max(max, Math.abs(expected[l]));
+      error = Math.max(error, Math.abs(expected[l] - actual[l]));
+    }
+    return error / Math.max(max, 1);
+  }
+
+  public void testScoresNearDouble() {
+    int[][] features = features(32);
+    Classifier exact = classifier(Config.WeightPrecision.DOUBLE, null);
+    exact.preCompute();
+    double[][] expected = scores(exact, features);
+
+    Map<Config.WeightPrecision, Double> tolerances = new EnumMap<>(Config.WeightPrecision.class);
+    tolerances.put(Config.WeightPrecision.FLOAT, 1e-5);
+    tolerances.put(Config.WeightPrecision.INT8, 0.1);
+    for (Map.Entry<Config.WeightPrecision, Double> entry : tolerances.entrySet()) {
+      Classifier classifier = classifier(entry.getKey(), null);
+      classifier.preCompute();
+      double[][] scores = scores(classifier, features);
+      for (int b = 0; b < features.length; b++) {
+        double error = relativeError(expected[b], scores[b]);
+        assertTrue(entry.getKey() + " is off by " + error, error <= entry.getValue());
+      }
+    }
+  }
+
+  /** The precomputed activations are sums of many weights, so they are not quantized with them */
+  public void testSavedActivationsNotQuantized() {
+    Classifier exact = classifier(Config.WeightPrecision.DOUBLE, null);
+    exact.preCompute();
+    double[][] expected = exact.getSaved().toArray();
+    Classifier classifier = classifier(Config.WeightPrecision.INT8, null);
+    classifier.preCompute();
+    assertTrue(classifier.getSaved() instanceof WeightMatrix.FloatMatrix);
+    double[][] saved = classifier.getSaved().toArray();
+    assertEquals(expected.length, saved.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertTrue(relativeError(expected[i], saved[i]) <= 1e-6);
+    }
+  }
+
+  /** Once the weights in doubles are dropped, they can still be read, and precomputed again */
+  public void testPreComputeAfterRounding() {
+    int[][] features = features(16);
+    Classifier classifier = classifier(Config.WeightPrecision.INT8, null);
+    classifier.preCompute();
+    double[][] first = scores(classifier, features);
+    assertEquals(NUM_E, classifier.getE().length);
+    assertEquals(HIDDEN, classifier.getW1().length);
+    assertEquals(LABELS, classifier.getW2().length);
+
+    classifier.preCompute();
+    double[][] second = scores(classifier, features);
+    for (int b = 0; b < features.length; b++) {
+      assertTrue(relativeError(first[b], second[b]) <= 0.1);
+    }
+  }
+
+  /** A classifier made for training keeps parsing with its weights in doubles after training is finalized */
+  public void testTrainedClassifierStaysDouble() {
+    Dataset dataset = new Dataset(Config.numTokens, LABELS);
+    Classifier trained = classifier(Config.WeightPrecision.INT8, dataset);
+    double[][] W1 = trained.getW1();
+    trained.finalizeTraining();
+    trained.preCompute();
+    assertSame(W1, trained.getW1());
+    assertNull(trained.getPreComputeCache());
+
+    Classifier exact = classifier(Config.WeightPrecision.DOUBLE, null);
+    exact.preCompute();
+    int[][] features = features(16);
+    assertTrue(Arrays.deepEquals(scores(exact, features), scores(trained, features)));
+  }
+
+  public void testCompareWeightPrecision() throws IOException {
+    String model = DependencyParserBatchTest.randomModel().getPath();
+    String treebank = DependencyParserBatchTest.randomTreebank(30).getPath();
+    Map<Config.WeightPrecision, Pair<Double, Double>> scores =
+        CompareWeightPrecision.compare(model, treebank, new Properties());
+    assertEquals(EnumSet.allOf(Config.WeightPrecision.class), scores.keySet());
+    for (Pair<Double, Double> uasLas : scores.values()) {
+      assertTrue(uasLas.first() >= 0 && uasLas.first() <= 100);
+      assertTrue(uasLas.second() >= 0 && uasLas.second() <= uasLas.first());
+    }
+    Pair<Double, Double> exact = scores.get(Config.WeightPrecision.DOUBLE);
+    Pair<Double, Double> rounded = scores.get(Config.WeightPrecision.FLOAT);
+    assertEquals(exact.second(), rounded.second(), 2.0);
+  }
+
+}
@@ -0,0 +1,148 @@
+package edu.stanford.nlp.pipeline;
+
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+import junit.framework.TestCase;
+
+/**
+ * Tests the multi-document modes of AnnotationPipeline which don't need models.
+ */
+public class AnnotationPipelineTest extends TestCase {
+
+  /** Fails on any document containing the word "explode", and errs on any containing "assert" */
+  private static class ExplodingAnnotator implements Annotator {
+    @Override
+    public void annotate(Annotation annotation) {
+      if (annotation.get(CoreAnnotations.TextAnnotation.class).contains("explode")) {
+        throw new IllegalStateException("boom");
+      }
+      if (annotation.get(CoreAnnotations.TextAnnotation.class).contains("assert")) {
+        throw new AssertionError("bang");
+      }
+      for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
+        sentence.set(CoreAnnotations.AuthorAnnotation.class, "seen");
+      }
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requirementsSatisfied() {
+      return Collections.singleton(CoreAnnotations.AuthorAnnotation.class);
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requires() {
+      return Collections.singleton(CoreAnnotations.SentencesAnnotation.class);
+    }
+  }
+
+  private static AnnotationPipeline buildPipeline() {
+    AnnotationPipeline pipeline = new AnnotationPipeline();
+    pipeline.addAnnotator(new TokenizerAnnotator(false, "en"));
+    pipeline.addAnnotator(new WordsToSentencesAnnotator(false));
+    pipeline.addAnnotator(new ExplodingAnnotator());
+    return pipeline;
+  }
+
+  public void testPipelined() {
+    List<Annotation> documents = new ArrayList<>();
+    for (int i = 0; i < 50; ++i) {
+      documents.add(new Annotation("Document " + i + " is here. It is short."));
+    }
+    AnnotationPipeline pipeline = buildPipeline();
+    pipeline.setPipelined(new int[] { 1, 2, 3 }, 2);
+    assertTrue(pipeline.isPipelined());
+
+    List<Annotation> finished = Collections.synchronizedList(new ArrayList<>());
+    pipeline.annotate(documents, 1, finished::add);
+    assertEquals(documents.size(), finished.size());
+    assertEquals(new HashSet<>(documents), new HashSet<>(finished));
+    for (Annotation document : documents) {
+      List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+      assertEquals(2, sentences.size());
+      for (CoreMap sentence : sentences) {
+        assertEquals("seen", sentence.get(CoreAnnotations.AuthorAnnotation.class));
+      }
+    }
+    assertTrue(pipeline.timingInformation().contains("queue wait"));
+  }
+
+  public void testPipelinedException() {
+    List<Annotation> documents = Arrays.asList(new Annotation("This is fine."),
+                                               new Annotation("This will explode."),
+                                               new Annotation("This is also fine."));
+    AnnotationPipeline pipeline = buildPipeline();
+    pipeline.setPipelined(new int[] { 1, 1, 1 }, 1);
+    List<Annotation> finished = new ArrayList<>();
+    try {
+      pipeline.annotate(documents, 1, finished::add);
+      fail("Expected the annotator's exception to be rethrown");
+    } catch (IllegalStateException e) {
+      assertEquals("boom", e.getMessage());
+    }
+    assertFalse(finished.contains(documents.get(1)));
+    assertNull(documents.get(1).get(CoreAnnotations.ExceptionAnnotation.class));
+  }
+
+  public void testPipelinedError() {
+    // more documents than fit in the queues, so that every stage would block if one died
+    List<Annotation> documents = new ArrayList<>();
+    for (int i = 0; i < 50; ++i) {
+      documents.add(new Annotation(i == 5 ? "This will assert." : "Document " + i + " is fine."));
+    }
+    AnnotationPipeline pipeline = buildPipeline();
+    pipeline.setPipelined(new int[] { 2, 1, 2 }, 1);
+    try {
+      pipeline.annotate(documents, 1, in -> {});
+      fail("Expected the annotator's error to be rethrown");
+    } catch (AssertionError e) {
+      assertEquals("bang", e.getMessage());
+    }
+  }
+
+  public void testPipelinedCallbackException() {
+    List<Annotation> documents = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      documents.add(new Annotation("Document " + i + " is fine."));
+    }
+    AnnotationPipeline pipeline = buildPipeline();
+    pipeline.setPipelined(new int[] { 1, 1, 1 }, 1);
+    try {
+      pipeline.annotate(documents, 1, in -> { throw new UnsupportedOperationException("callback"); });
+      fail("Expected the callback's exception to be rethrown");
+    } catch (UnsupportedOperationException e) {
+      assertEquals("callback", e.getMessage());
+    }
+  }
+
+  public void testTimingListener() {
+    AnnotationPipeline pipeline = buildPipeline();
+    List<String> annotators = Collections.synchronizedList(new ArrayList<>());
+    pipeline.setTimingListener((annotator, millis) -> {
+      assertTrue(millis >= 0);
+      annotators.add(annotator.getClass().getSimpleName());
+    });
+    pipeline.annotate(new Annotation("One sentence here."));
+    assertEquals(Arrays.asList("TokenizerAnnotator", "WordsToSentencesAnnotator", "ExplodingAnnotator"), annotators);
+  }
+
+  public void testBadStageThreads() {
+    AnnotationPipeline pipeline = buildPipeline();
+    try {
+      pipeline.setPipelined(new int[] { 1, 1 }, 1);
+      fail("Expected an exception for the wrong number of stages");
+    } catch (IllegalArgumentException e) {
+      // yay
+    }
+    try {
+      pipeline.setPipelined(new int[] { 1, 0, 1 }, 1);
+      fail("Expected an exception for a stage without threads");
+    } catch (IllegalArgumentException e) {
+      // yay
+    }
+    assertFalse(pipeline.isPipelined());
+  }
+
+}
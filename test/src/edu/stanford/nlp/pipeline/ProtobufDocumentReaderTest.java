@@ -0,0 +1,120 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.*;
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+import junit.framework.TestCase;
+
+/**
+ * Round trips documents through ProtobufDocumentWriter and ProtobufDocumentReader,
+ * with and without the optional parts.
+ */
+public class ProtobufDocumentReaderTest extends TestCase {
+
+  private static final int DOCUMENTS = 20;
+
+  private File file;
+
+  @Override
+  public void setUp() throws IOException {
+    file = File.createTempFile("documents", ".pb");
+    file.deleteOnExit();
+    AnnotationPipeline pipeline = new AnnotationPipeline();
+    pipeline.addAnnotator(new TokenizerAnnotator(false, "en"));
+    pipeline.addAnnotator(new WordsToSentencesAnnotator(false));
+    try (ProtobufDocumentWriter writer = new ProtobufDocumentWriter(new FileOutputStream(file))) {
+      for (int i = 0; i < DOCUMENTS; ++i) {
+        Annotation document = new Annotation("Document " + i + " is from Stanford. It has a tree.");
+        document.set(CoreAnnotations.DocIDAnnotation.class, "doc" + i);
+        pipeline.annotate(document);
+        for (CoreLabel token : document.get(CoreAnnotations.TokensAnnotation.class)) {
+          token.setNER(token.word().equals("Stanford") ? "ORGANIZATION" : "O");
+        }
+        for (CoreMap sentence : document.get(CoreAnnotations.SentencesAnnotation.class)) {
+          sentence.set(TreeCoreAnnotations.TreeAnnotation.class, Tree.valueOf("(ROOT (S (NN tree)))"));
+        }
+        writer.write(document);
+      }
+    }
+  }
+
+  @Override
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static void checkDocument(Annotation document, int i, boolean hasTrees) {
+    assertEquals("doc" + i, document.get(CoreAnnotations.DocIDAnnotation.class));
+    List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    assertEquals(2, sentences.size());
+    assertEquals("Document " + i + " is from Stanford.", sentences.get(0).get(CoreAnnotations.TextAnnotation.class));
+    List<CoreLabel> tokens = document.get(CoreAnnotations.TokensAnnotation.class);
+    assertEquals(11, tokens.size());
+    assertEquals("ORGANIZATION", tokens.get(4).ner());
+    assertEquals("O", tokens.get(3).ner());
+    for (CoreMap sentence : sentences) {
+      assertEquals(hasTrees, sentence.containsKey(TreeCoreAnnotations.TreeAnnotation.class));
+    }
+  }
+
+  /** The reader sets the document's id on its sentences again, as ssplit did */
+  private static void checkSentenceIds(Annotation document) {
+    for (CoreMap sentence : document.get(CoreAnnotations.SentencesAnnotation.class)) {
+      assertEquals(document.get(CoreAnnotations.DocIDAnnotation.class), sentence.get(CoreAnnotations.DocIDAnnotation.class));
+    }
+  }
+
+  public void testSkipParts() throws IOException {
+    int count = 0;
+    try (ProtobufDocumentReader reader = new ProtobufDocumentReader(file)) {
+      while (reader.hasNext()) {
+        Annotation document = reader.next();
+        checkDocument(document, count++, false);
+        checkSentenceIds(document);
+      }
+    }
+    assertEquals(DOCUMENTS, count);
+  }
+
+  public void testAllParts() throws IOException {
+    int count = 0;
+    try (ProtobufDocumentReader reader = new ProtobufDocumentReader(file, new ProtobufAnnotationSerializer(),
+                                                                    EnumSet.allOf(ProtobufDocumentReader.Part.class))) {
+      while (reader.hasNext()) {
+        Annotation document = reader.next();
+        checkDocument(document, count++, true);
+        checkSentenceIds(document);
+      }
+    }
+    assertEquals(DOCUMENTS, count);
+  }
+
+  /** Documents must be found across the boundaries of the mapped windows */
+  public void testSmallWindow() throws IOException {
+    int count = 0;
+    try (ProtobufDocumentReader reader = new ProtobufDocumentReader(file, new ProtobufAnnotationSerializer(),
+                                                                    EnumSet.of(ProtobufDocumentReader.Part.PARSE_TREES), 100)) {
+      while (reader.hasNext()) {
+        checkDocument(reader.next(), count++, true);
+      }
+    }
+    assertEquals(DOCUMENTS, count);
+  }
+
+  /** The writer's output is the same format as the serializer's */
+  public void testSerializerCompatible() throws IOException, ClassNotFoundException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      ProtobufAnnotationSerializer serializer = new ProtobufAnnotationSerializer();
+      for (int i = 0; i < DOCUMENTS; ++i) {
+        checkDocument(serializer.read(in).first, i, true);
+      }
+      assertEquals(-1, in.read());
+    }
+  }
+
+}
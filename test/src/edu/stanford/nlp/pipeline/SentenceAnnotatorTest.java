@@ -0,0 +1,120 @@
+package edu.stanford.nlp.pipeline;
+
+import java.util.*;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+import junit.framework.TestCase;
+
+/**
+ * Checks that SentenceAnnotators are run on every sentence, both with their
+ * own threads and on the work-stealing pool of the AnnotationPipeline.
+ */
+public class SentenceAnnotatorTest extends TestCase {
+
+  /** Writes the name of the annotating thread into each sentence */
+  private static class ThreadNameAnnotator extends SentenceAnnotator {
+    private final int nThreads;
+
+    ThreadNameAnnotator(int nThreads) {
+      this.nThreads = nThreads;
+    }
+
+    @Override
+    protected int nThreads() {
+      return nThreads;
+    }
+
+    @Override
+    protected long maxTime() {
+      return -1;
+    }
+
+    @Override
+    protected void doOneSentence(Annotation annotation, CoreMap sentence) {
+      sentence.set(CoreAnnotations.AuthorAnnotation.class, Thread.currentThread().getName());
+    }
+
+    @Override
+    protected void doOneFailedSentence(Annotation annotation, CoreMap sentence) {
+      fail("No sentence should fail without a time limit");
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requirementsSatisfied() {
+      return Collections.singleton(CoreAnnotations.AuthorAnnotation.class);
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requires() {
+      return Collections.singleton(CoreAnnotations.SentencesAnnotation.class);
+    }
+  }
+
+  private static AnnotationPipeline buildPipeline(int nThreads) {
+    AnnotationPipeline pipeline = new AnnotationPipeline();
+    pipeline.addAnnotator(new TokenizerAnnotator(false, "en"));
+    pipeline.addAnnotator(new WordsToSentencesAnnotator(false));
+    pipeline.addAnnotator(new ThreadNameAnnotator(nThreads));
+    return pipeline;
+  }
+
+  private static List<Annotation> buildDocuments() {
+    List<Annotation> documents = new ArrayList<>();
+    StringBuilder longDocument = new StringBuilder();
+    for (int i = 0; i < 200; ++i) {
+      longDocument.append("This is sentence number ").append(i).append(". ");
+    }
+    documents.add(new Annotation(longDocument.toString()));
+    for (int i = 0; i < 20; ++i) {
+      documents.add(new Annotation("A short document. It has two sentences."));
+    }
+    return documents;
+  }
+
+  private static void checkAllSentences(List<Annotation> documents) {
+    for (Annotation document : documents) {
+      for (CoreMap sentence : document.get(CoreAnnotations.SentencesAnnotation.class)) {
+        assertNotNull(sentence.get(CoreAnnotations.AuthorAnnotation.class));
+      }
+    }
+  }
+
+  public void testOwnThreads() {
+    List<Annotation> documents = buildDocuments();
+    AnnotationPipeline pipeline = buildPipeline(3);
+    for (Annotation document : documents) {
+      pipeline.annotate(document);
+    }
+    checkAllSentences(documents);
+  }
+
+  public void testWorkStealing() {
+    List<Annotation> documents = buildDocuments();
+    AnnotationPipeline pipeline = buildPipeline(1);
+    pipeline.setWorkStealing(true);
+    List<Annotation> finished = Collections.synchronizedList(new ArrayList<>());
+    pipeline.annotate(documents, 4, finished::add);
+    assertEquals(documents.size(), finished.size());
+    checkAllSentences(documents);
+
+    Set<String> threads = new HashSet<>();
+    for (CoreMap sentence : documents.get(0).get(CoreAnnotations.SentencesAnnotation.class)) {
+      String thread = sentence.get(CoreAnnotations.AuthorAnnotation.class);
+      assertTrue(thread, thread.startsWith("AnnotationPipeline-worker-"));
+      threads.add(thread);
+    }
+    assertFalse(threads.isEmpty());
+  }
+
+  public void testSingleThreadAnnotatesOnce() {
+    List<Annotation> documents = buildDocuments();
+    AnnotationPipeline pipeline = buildPipeline(1);
+    List<Annotation> finished = new ArrayList<>();
+    pipeline.annotate(documents, 1, finished::add);
+    assertEquals(documents.size(), finished.size());
+    checkAllSentences(documents);
+  }
+
+}
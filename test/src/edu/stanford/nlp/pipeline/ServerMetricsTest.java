@@ -0,0 +1,83 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the Prometheus text output of {@link ServerMetrics}.
+ */
+public class ServerMetricsTest extends TestCase {
+
+  private static String write(ServerMetrics metrics) throws IOException {
+    StringWriter writer = new StringWriter();
+    metrics.write(writer);
+    return writer.toString();
+  }
+
+  public void testCounters() throws IOException {
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.requestReceived("/");
+    metrics.requestReceived("/");
+    metrics.requestReceived("/batch");
+    metrics.requestRejected();
+    metrics.pipelineCacheLookup(true);
+    metrics.pipelineCacheLookup(false);
+    metrics.pipelineCacheLookup(false);
+    metrics.gauge("corenlp_test_gauge", "A test gauge", () -> 42);
+
+    String output = write(metrics);
+    assertTrue(output, output.contains("corenlp_requests_total{endpoint=\"/\"} 2\n"));
+    assertTrue(output, output.contains("corenlp_requests_total{endpoint=\"/batch\"} 1\n"));
+    assertTrue(output, output.contains("corenlp_requests_rejected_total 1\n"));
+    assertTrue(output, output.contains("corenlp_pipeline_cache_hits_total 1\n"));
+    assertTrue(output, output.contains("corenlp_pipeline_cache_misses_total 2\n"));
+    assertTrue(output, output.contains("# TYPE corenlp_test_gauge gauge\ncorenlp_test_gauge 42\n"));
+  }
+
+  public void testHistogram() throws IOException {
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.requestFinished("tokenize,ssplit", 5);
+    metrics.requestFinished("tokenize,ssplit", 300);
+    metrics.requestFinished("tokenize,ssplit", 100000);
+
+    String output = write(metrics);
+    assertTrue(output, output.contains("corenlp_request_duration_seconds_bucket{annotators=\"tokenize,ssplit\",le=\"0.01\"} 1\n"));
+    assertTrue(output, output.contains("corenlp_request_duration_seconds_bucket{annotators=\"tokenize,ssplit\",le=\"0.5\"} 2\n"));
+    assertTrue(output, output.contains("corenlp_request_duration_seconds_bucket{annotators=\"tokenize,ssplit\",le=\"60.0\"} 2\n"));
+    assertTrue(output, output.contains("corenlp_request_duration_seconds_bucket{annotators=\"tokenize,ssplit\",le=\"+Inf\"} 3\n"));
+    assertTrue(output, output.contains("corenlp_request_duration_seconds_count{annotators=\"tokenize,ssplit\"} 3\n"));
+  }
+
+  public void testDocumentCounts() throws IOException {
+    AnnotationPipeline pipeline = new AnnotationPipeline();
+    pipeline.addAnnotator(new TokenizerAnnotator(false, "en"));
+    pipeline.addAnnotator(new WordsToSentencesAnnotator(false));
+    ServerMetrics metrics = new ServerMetrics();
+    pipeline.setTimingListener(metrics::annotatorFinished);
+    Annotation document = new Annotation("Two sentences. Here they are.");
+    pipeline.annotate(document);
+    metrics.documentAnnotated(document);
+
+    String output = write(metrics);
+    assertTrue(output, output.contains("corenlp_documents_total 1\n"));
+    assertTrue(output, output.contains("corenlp_tokens_total 7\n"));
+    assertTrue(output, output.contains("corenlp_sentences_total 2\n"));
+    assertTrue(output, output.contains("corenlp_annotator_seconds_total{annotator=\"TokenizerAnnotator\"}"));
+  }
+
+  /** Annotators a client made up all share one label */
+  public void testAnnotatorLabels() throws IOException {
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.requestFinished("tokenize, SSPLIT,myAnnotator", 5);
+    metrics.requestFinished("tokenize,ssplit,otherAnnotator", 5);
+
+    String output = write(metrics);
+    assertTrue(output, output.contains("corenlp_request_duration_seconds_count{annotators=\"tokenize,ssplit,custom\"} 2\n"));
+    assertFalse(output, output.contains("Annotator"));
+    assertEquals("pos", ServerMetrics.annotatorLabel("pos"));
+    assertEquals(ServerMetrics.CUSTOM_ANNOTATOR, ServerMetrics.annotatorLabel("evil\"label"));
+  }
+
+}
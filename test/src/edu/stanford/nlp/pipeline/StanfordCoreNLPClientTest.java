@@ -0,0 +1,261 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.PropertiesUtils;
+import junit.framework.TestCase;
+
+/**
+ * Runs the client against stub servers, which send back the documents they are sent,
+ * to check that it retries, hedges and batches its requests.
+ */
+public class StanfordCoreNLPClientTest extends TestCase {
+
+  private final List<HttpServer> servers = new ArrayList<>();
+
+  /** Start a server on a free port, and return its address as a backend */
+  private String stub(HttpHandler handler) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", handler);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    servers.add(server);
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @Override
+  public void tearDown() {
+    for (HttpServer server : servers) {
+      server.stop(0);
+    }
+  }
+
+  private static List<CoreNLPProtos.Document> read(HttpExchange exchange) throws IOException {
+    List<CoreNLPProtos.Document> documents = new ArrayList<>();
+    try (InputStream is = exchange.getRequestBody()) {
+      CoreNLPProtos.Document proto;
+      while ((proto = CoreNLPProtos.Document.parseDelimitedFrom(is)) != null) {
+        documents.add(proto);
+      }
+    }
+    return documents;
+  }
+
+  /** Send back the documents of a request, with their date set to the name of the server */
+  private static void echo(HttpExchange exchange, List<CoreNLPProtos.Document> documents, String name) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (CoreNLPProtos.Document document : documents) {
+      document.toBuilder().setDocDate(name).build().writeDelimitedTo(bytes);
+    }
+    exchange.sendResponseHeaders(200, bytes.size());
+    try (OutputStream os = exchange.getResponseBody()) {
+      bytes.writeTo(os);
+    }
+  }
+
+  private static void refuse(HttpExchange exchange, int status) throws IOException {
+    read(exchange);
+    exchange.getResponseHeaders().set("Retry-After", "0");
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  private static StanfordCoreNLPClient client(String backends, String... properties) {
+    Properties props = PropertiesUtils.asProperties(properties);
+    props.setProperty("annotators", "tokenize,ssplit");
+    return new StanfordCoreNLPClient(props, StanfordCoreNLPClient.parseBackends(backends));
+  }
+
+  private static String server(Annotation document) {
+    return document.get(CoreAnnotations.DocDateAnnotation.class);
+  }
+
+  public void testParseBackends() {
+    assertEquals("[http://localhost:9000, https://example.com:443, http://other:80]",
+        StanfordCoreNLPClient.parseBackends("localhost:9000, https://example.com:443,other:").toString());
+  }
+
+  /** A busy server is asked again, rather than the document being annotated locally */
+  public void testRetryWhenBusy() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    String backend = stub(exchange -> {
+      if (requests.incrementAndGet() == 1) {
+        refuse(exchange, 503);
+      } else {
+        echo(exchange, read(exchange), "stub");
+      }
+    });
+    StanfordCoreNLPClient client = client(backend, "client.retries", "2");
+    Annotation document = client.process("A sentence.");
+    client.shutdown();
+    assertEquals("stub", server(document));
+    assertEquals(2, requests.get());
+  }
+
+  /** A failed request is sent to the other server */
+  public void testRetryOnOtherServer() throws Exception {
+    AtomicInteger failures = new AtomicInteger();
+    String broken = stub(exchange -> {
+      failures.incrementAndGet();
+      refuse(exchange, 500);
+    });
+    String working = stub(exchange -> echo(exchange, read(exchange), "working"));
+    StanfordCoreNLPClient client = client(broken + ',' + working, "client.retries", "1");
+    for (int i = 0; i < 4; i++) {
+      assertEquals("working", server(client.process("Sentence " + i + '.')));
+    }
+    client.shutdown();
+    assertTrue(failures.get() <= 4);
+  }
+
+  /** Once the retries run out, the document is annotated locally */
+  public void testGiveUp() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    String backend = stub(exchange -> {
+      requests.incrementAndGet();
+      refuse(exchange, 500);
+    });
+    StanfordCoreNLPClient client = client(backend, "client.retries", "2");
+    Annotation document = client.process("A sentence.");
+    client.shutdown();
+    assertNull(server(document));
+    assertEquals(1, document.get(CoreAnnotations.SentencesAnnotation.class).size());
+    assertEquals(3, requests.get());
+  }
+
+  /** A request which is slow to come back is also sent to the other server, which answers first */
+  public void testHedging() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch released = new CountDownLatch(1);
+    HttpHandler handler = exchange -> {
+      List<CoreNLPProtos.Document> documents = read(exchange);
+      if (requests.incrementAndGet() == 1) {
+        // the first request hangs until the test is over
+        try {
+          released.await(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        echo(exchange, documents, "slow");
+      } else {
+        echo(exchange, documents, "fast");
+      }
+    };
+    String backends = stub(handler) + ',' + stub(handler);
+    StanfordCoreNLPClient client = client(backends, "client.hedgeAfter", "100");
+    long start = System.currentTimeMillis();
+    Annotation document = client.process("A sentence.");
+    long elapsed = System.currentTimeMillis() - start;
+    released.countDown();
+    client.shutdown();
+    assertEquals("fast", server(document));
+    assertEquals(2, requests.get());
+    assertTrue("took " + elapsed + "ms", elapsed < 10000);
+  }
+
+  /** A document of a batch which the server could not annotate is sent again on its own */
+  public void testBatchError() throws Exception {
+    List<Annotation> documents = Arrays.asList(new Annotation("One."), new Annotation("Two."));
+    List<String> paths = Collections.synchronizedList(new ArrayList<>());
+    String backend = stub(exchange -> {
+      paths.add(exchange.getRequestURI().getPath());
+      List<CoreNLPProtos.Document> sent = read(exchange);
+      if (sent.size() == 1) {
+        echo(exchange, sent, "alone");
+        return;
+      }
+      List<CoreNLPProtos.Document> answered = new ArrayList<>(sent);
+      answered.set(1, sent.get(1).toBuilder().clearSentence().setUnknownFields(UnknownFieldSet.newBuilder()
+          .addField(StanfordCoreNLPServer.BATCH_ERROR_FIELD, UnknownFieldSet.Field.newBuilder()
+              .addLengthDelimited(ByteString.copyFromUtf8("Could not annotate")).build())
+          .build()).build());
+      echo(exchange, answered, "batch");
+    });
+    StanfordCoreNLPClient client = client(backend, "client.batchSize", "2");
+    CountDownLatch done = new CountDownLatch(documents.size());
+    client.annotate(documents, 1, document -> done.countDown());
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    client.shutdown();
+
+    assertEquals(Arrays.asList("/batch", "/"), paths);
+    assertEquals("batch", server(documents.get(0)));
+    assertEquals("alone", server(documents.get(1)));
+  }
+
+  /** A document which was already split, and so has its id on its sentences too, can be sent */
+  public void testSplitDocumentWithId() throws Exception {
+    Annotation document = new Annotation("One sentence. Two sentences.");
+    document.set(CoreAnnotations.DocIDAnnotation.class, "split");
+    AnnotationPipeline pipeline = new AnnotationPipeline();
+    pipeline.addAnnotator(new TokenizerAnnotator(false, "en"));
+    pipeline.addAnnotator(new WordsToSentencesAnnotator(false));
+    pipeline.annotate(document);
+    List<CoreNLPProtos.Document> sent = Collections.synchronizedList(new ArrayList<>());
+    String backend = stub(exchange -> {
+      List<CoreNLPProtos.Document> documents = read(exchange);
+      sent.addAll(documents);
+      echo(exchange, documents, "stub");
+    });
+    StanfordCoreNLPClient client = client(backend);
+    client.annotate(document);
+    client.shutdown();
+
+    assertEquals(1, sent.size());
+    assertEquals("split", sent.get(0).getDocID());
+    assertEquals(2, sent.get(0).getSentenceCount());
+    assertEquals("stub", server(document));
+    assertEquals("split", document.get(CoreAnnotations.DocIDAnnotation.class));
+  }
+
+  /** Short documents go in one request, and keep their ids */
+  public void testBatch() throws Exception {
+    List<Annotation> documents = Arrays.asList(new Annotation("One."), new Annotation("Two."), new Annotation("Three."));
+    documents.get(0).set(CoreAnnotations.DocIDAnnotation.class, "a");
+    documents.get(1).set(CoreAnnotations.DocIDAnnotation.class, "b");
+    List<String> paths = Collections.synchronizedList(new ArrayList<>());
+    List<String> idsWhileRunning = Collections.synchronizedList(new ArrayList<>());
+    String backend = stub(exchange -> {
+      paths.add(exchange.getRequestURI().getPath());
+      List<CoreNLPProtos.Document> sent = read(exchange);
+      for (Annotation document : documents) {
+        idsWhileRunning.add(document.get(CoreAnnotations.DocIDAnnotation.class));
+      }
+      List<CoreNLPProtos.Document> answered = new ArrayList<>(sent);
+      // the order of a batch's answers does not matter
+      Collections.reverse(answered);
+      echo(exchange, answered, "stub");
+    });
+    StanfordCoreNLPClient client = client(backend, "client.batchSize", "3");
+    CountDownLatch done = new CountDownLatch(documents.size());
+    client.annotate(documents, 1, document -> done.countDown());
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    client.shutdown();
+
+    assertEquals(Collections.singletonList("/batch"), paths);
+    assertEquals(Arrays.asList("a", "b", null), idsWhileRunning);
+    for (Annotation document : documents) {
+      assertEquals("stub", server(document));
+    }
+    assertEquals("a", documents.get(0).get(CoreAnnotations.DocIDAnnotation.class));
+    assertEquals("b", documents.get(1).get(CoreAnnotations.DocIDAnnotation.class));
+    assertNull(documents.get(2).get(CoreAnnotations.DocIDAnnotation.class));
+    assertEquals("Three.", documents.get(2).get(CoreAnnotations.TextAnnotation.class));
+  }
+
+}
@@ -0,0 +1,372 @@
+package edu.stanford.nlp.pipeline;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ie.crf.CRFTestUtils;
+import edu.stanford.nlp.io.IOUtils;
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.ArgumentParser;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
+import junit.framework.TestCase;
+
+/**
+ * Checks which requests the server's pipeline cache gives the same pipeline, that
+ * NER models are shared between NER annotators, and which requests a running server
+ * admits, queues, rejects and times out.
+ */
+public class StanfordCoreNLPServerTest extends TestCase {
+
+  /** An annotator which holds up each document until the test lets it through */
+  public static class Gated implements Annotator {
+    static final Semaphore running = new Semaphore(0);
+    static final Semaphore gate = new Semaphore(0);
+
+    public Gated(String name, Properties props) { }
+
+    @Override
+    public void annotate(Annotation annotation) {
+      running.release();
+      try {
+        if ( ! gate.tryAcquire(30, TimeUnit.SECONDS)) {
+          throw new IllegalStateException("The test never let the document through");
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeInterruptedException(e);
+      }
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requirementsSatisfied() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requires() {
+      return Collections.emptySet();
+    }
+  }
+
+  /** An annotator which fails on documents which ask it to */
+  public static class Failing implements Annotator {
+    public Failing(String name, Properties props) { }
+
+    @Override
+    public void annotate(Annotation annotation) {
+      if (annotation.get(CoreAnnotations.TextAnnotation.class).contains("fail")) {
+        throw new IllegalStateException("Asked to fail");
+      }
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requirementsSatisfied() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requires() {
+      return Collections.emptySet();
+    }
+  }
+
+  private final int threads = ArgumentParser.threads;
+  private StanfordCoreNLPServer server;
+  private final ExecutorService clients = Executors.newCachedThreadPool();
+
+  /** Start a server on a free port, with the given number of CoreNLP threads and admission limits */
+  private void start(int threads, int maxQueue, String annotatorLimits) throws IOException {
+    ArgumentParser.threads = threads;
+    StanfordCoreNLPServer.maxQueuedRequests = maxQueue;
+    StanfordCoreNLPServer.annotatorLimits = annotatorLimits;
+    server = new StanfordCoreNLPServer();
+    server.serverPort = 0;
+    server.quiet = true;
+    server.run(Optional.empty(), props -> true, request -> {}, null, false, new AtomicBoolean());
+  }
+
+  @Override
+  public void tearDown() {
+    if (server != null) {
+      server.stop();
+    }
+    clients.shutdownNow();
+    ArgumentParser.threads = threads;
+    StanfordCoreNLPServer.maxQueuedRequests = -1;
+    StanfordCoreNLPServer.annotatorLimits = "";
+    Gated.running.drainPermits();
+    Gated.gate.drainPermits();
+  }
+
+  private URL url(String path) throws IOException {
+    return new URL("http://localhost:" + server.server.getAddress().getPort() + path);
+  }
+
+  /** Send a sentence to the gated annotator; the future is the status of the response */
+  private Future<Integer> annotate(int timeout) {
+    return clients.submit(() -> {
+      HttpURLConnection connection = (HttpURLConnection) url("/?annotators=gated&enforceRequirements=false&timeout=" + timeout +
+          "&customAnnotatorClass.gated=" + URLEncoder.encode(Gated.class.getName(), "UTF-8")).openConnection();
+      connection.setDoOutput(true);
+      try (OutputStream os = connection.getOutputStream()) {
+        os.write("A sentence.".getBytes("UTF-8"));
+      }
+      int status = connection.getResponseCode();
+      connection.disconnect();
+      return status;
+    });
+  }
+
+  private static int status(Future<Integer> response) throws Exception {
+    return response.get(30, TimeUnit.SECONDS);
+  }
+
+  /** Wait until the given number of requests wait for an annotator, as the /metrics endpoint tells */
+  private void awaitWaiting(int requests) throws Exception {
+    long deadline = System.currentTimeMillis() + 30000;
+    while (true) {
+      String metrics;
+      try (InputStream is = url("/metrics").openStream()) {
+        metrics = IOUtils.slurpInputStream(is, "UTF-8");
+      }
+      if (metrics.contains("\ncorenlp_annotator_waiting_requests " + requests + "\n")) {
+        return;
+      }
+      assertTrue("expected " + requests + " waiting requests:\n" + metrics, System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+
+  /** Requests beyond what the CoreNLP threads and their queue can take are turned away */
+  public void testExecutorQueue() throws Exception {
+    start(1, 0, "");
+    Future<Integer> first = annotate(30000);
+    assertTrue(Gated.running.tryAcquire(30, TimeUnit.SECONDS));
+    assertEquals(503, status(annotate(30000)));
+    Gated.gate.release();
+    assertEquals(200, status(first));
+  }
+
+  /** Requests beyond an annotator's limit wait for it, up to maxQueue of them */
+  public void testAnnotatorLimit() throws Exception {
+    start(4, 1, "gated=1");
+    Future<Integer> first = annotate(30000);
+    assertTrue(Gated.running.tryAcquire(30, TimeUnit.SECONDS));
+    Future<Integer> second = annotate(30000);
+    awaitWaiting(1);
+    assertFalse(Gated.running.tryAcquire(200, TimeUnit.MILLISECONDS));
+    assertEquals(503, status(annotate(30000)));
+
+    Gated.gate.release();
+    assertEquals(200, status(first));
+    assertTrue(Gated.running.tryAcquire(30, TimeUnit.SECONDS));
+    awaitWaiting(0);
+    Gated.gate.release();
+    assertEquals(200, status(second));
+  }
+
+  /** A request which times out waiting for an annotator leaves the queue, and takes no permit with it */
+  public void testTimeoutWhileWaiting() throws Exception {
+    start(4, -1, "gated=1");
+    Future<Integer> first = annotate(30000);
+    assertTrue(Gated.running.tryAcquire(30, TimeUnit.SECONDS));
+    assertEquals(500, status(annotate(200)));
+    awaitWaiting(0);
+    Gated.gate.release();
+    assertEquals(200, status(first));
+
+    Future<Integer> third = annotate(30000);
+    assertTrue(Gated.running.tryAcquire(30, TimeUnit.SECONDS));
+    Gated.gate.release();
+    assertEquals(200, status(third));
+  }
+
+  /** A running request which times out is interrupted, and gives its permit back */
+  public void testTimeoutWhileRunning() throws Exception {
+    start(4, -1, "gated=1");
+    assertEquals(500, status(annotate(200)));
+    Future<Integer> next = annotate(30000);
+    assertTrue(Gated.running.tryAcquire(30, TimeUnit.SECONDS));
+    Gated.gate.release();
+    assertEquals(200, status(next));
+  }
+
+  /** Send a batch of documents to the given annotators; the response must be a 200 */
+  private InputStream batch(String annotators, String outputFormat, int timeout, byte[] documents) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url("/batch?annotators=" + annotators + "&enforceRequirements=false" +
+        "&inputFormat=" + (outputFormat.equals("json") ? "text" : outputFormat) + "&outputFormat=" + outputFormat + "&timeout=" + timeout +
+        "&customAnnotatorClass.gated=" + URLEncoder.encode(Gated.class.getName(), "UTF-8") +
+        "&customAnnotatorClass.failing=" + URLEncoder.encode(Failing.class.getName(), "UTF-8")).openConnection();
+    connection.setDoOutput(true);
+    try (OutputStream os = connection.getOutputStream()) {
+      os.write(documents);
+    }
+    assertEquals(200, connection.getResponseCode());
+    return connection.getInputStream();
+  }
+
+  /** Each document of a batch comes back as a line of JSON, which is an error for those which failed */
+  public void testBatchJson() throws Exception {
+    start(2, -1, "");
+    Map<String, JsonObject> byId = new HashMap<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(batch("failing", "json", 30000,
+        "[\"One sentence.\", {\"text\": \"This one should fail.\", \"id\": \"bad\"}, {\"text\": \"Another.\", \"id\": 7}]".getBytes("UTF-8")), "UTF-8"))) {
+      for (String line; (line = reader.readLine()) != null; ) {
+        JsonObject document = Json.createReader(new StringReader(line)).readObject();
+        byId.put(document.getString("docId"), document);
+      }
+    }
+    assertEquals(new HashSet<>(Arrays.asList("0", "bad", "7")), byId.keySet());
+    assertFalse(byId.get("0").containsKey("error"));
+    assertFalse(byId.get("7").containsKey("error"));
+    assertTrue(byId.get("bad").getString("error").contains("Asked to fail"));
+  }
+
+  /** In serialized output, a document which failed comes back with its id, its text and the error */
+  public void testBatchSerialized() throws Exception {
+    start(2, -1, "");
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    for (String text : new String[] {"One sentence.", "This one should fail.", "Another."}) {
+      CoreNLPProtos.Document.newBuilder().setText(text).build().writeDelimitedTo(request);
+    }
+    Map<String, CoreNLPProtos.Document> byId = new HashMap<>();
+    try (InputStream is = batch("failing", "serialized", 30000, request.toByteArray())) {
+      CoreNLPProtos.Document document;
+      while ((document = CoreNLPProtos.Document.parseDelimitedFrom(is)) != null) {
+        byId.put(document.getDocID(), document);
+      }
+    }
+    assertEquals(new HashSet<>(Arrays.asList("0", "1", "2")), byId.keySet());
+    assertNull(StanfordCoreNLPServer.batchError(byId.get("0")));
+    assertNull(StanfordCoreNLPServer.batchError(byId.get("2")));
+    assertEquals("Another.", byId.get("2").getText());
+    assertTrue(StanfordCoreNLPServer.batchError(byId.get("1")).contains("Asked to fail"));
+    assertEquals("This one should fail.", byId.get("1").getText());
+    assertEquals(0, byId.get("1").getSentenceCount());
+  }
+
+  /** A batch waits for an annotator at its limit, and at its timeout each document gets an error */
+  public void testBatchTimeout() throws Exception {
+    start(2, -1, "gated=1");
+    Future<Integer> running = annotate(30000);
+    assertTrue(Gated.running.tryAcquire(30, TimeUnit.SECONDS));
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(batch("gated", "json", 200,
+        "[\"One.\", \"Two.\"]".getBytes("UTF-8")), "UTF-8"))) {
+      for (String line; (line = reader.readLine()) != null; ) {
+        lines.add(line);
+      }
+    }
+    assertEquals(2, lines.size());
+    for (String line : lines) {
+      assertTrue(line, Json.createReader(new StringReader(line)).readObject().getString("error").contains("timed out"));
+    }
+    awaitWaiting(0);
+    assertFalse(Gated.running.tryAcquire(200, TimeUnit.MILLISECONDS));
+    Gated.gate.release();
+    assertEquals(200, status(running));
+  }
+
+  private static Set<Thread> timeoutThreads() {
+    Set<Thread> threads = new HashSet<>();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if ("corenlp-timeouts".equals(thread.getName())) {
+        threads.add(thread);
+      }
+    }
+    return threads;
+  }
+
+  /** Stopping the server stops its threads, and it takes no more requests */
+  public void testStop() throws Exception {
+    Set<Thread> others = timeoutThreads();
+    start(2, -1, "");
+    Gated.gate.release();
+    assertEquals(200, status(annotate(30000)));
+    Set<Thread> threads = timeoutThreads();
+    threads.removeAll(others);
+    assertEquals(1, threads.size());
+
+    server.stop();
+    for (Thread thread : threads) {
+      thread.join(30000);
+      assertFalse(thread.isAlive());
+    }
+    try {
+      status(annotate(30000));
+      fail("The server should be closed");
+    } catch (ExecutionException e) {
+      // could not connect
+    }
+  }
+
+  private static Properties props(String... keysAndValues) {
+    Properties props = PropertiesUtils.asProperties("annotators", "tokenize,ssplit", "outputFormat", "json");
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      props.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return props;
+  }
+
+  public void testPipelineSignature() {
+    String signature = StanfordCoreNLPServer.pipelineSignature(props());
+    assertEquals(signature, StanfordCoreNLPServer.pipelineSignature(props("outputFormat", "xml", "prettyPrint", "true")));
+    assertEquals(signature, StanfordCoreNLPServer.pipelineSignature(props("timeout", "1000", "date", "2016-10-16")));
+    assertFalse(signature.equals(StanfordCoreNLPServer.pipelineSignature(props("annotators", "tokenize"))));
+    assertFalse(signature.equals(StanfordCoreNLPServer.pipelineSignature(props("tokenize.options", "americanize=false"))));
+    // annotators may read properties which aren't named after them
+    assertFalse(signature.equals(StanfordCoreNLPServer.pipelineSignature(props("coref.md.type", "rule"))));
+    assertFalse(signature.equals(StanfordCoreNLPServer.pipelineSignature(props("threads", "2"))));
+  }
+
+  public void testPipelineCache() throws IOException {
+    StanfordCoreNLPServer server = new StanfordCoreNLPServer();
+    StanfordCoreNLP pipeline = server.mkStanfordCoreNLP(props());
+    assertSame(pipeline, server.mkStanfordCoreNLP(props("outputFormat", "xml")));
+
+    StanfordCoreNLP other = server.mkStanfordCoreNLP(props("tokenize.options", "americanize=false"));
+    assertNotSame(pipeline, other);
+    assertEquals("americanize=false", other.getProperties().getProperty("tokenize.options"));
+    assertNull(pipeline.getProperties().getProperty("tokenize.options"));
+    assertSame(other, server.mkStanfordCoreNLP(props("tokenize.options", "americanize=false")));
+  }
+
+  /** Trains a tiny CRF model, and saves it in a temporary file */
+  private static File crfModel() throws IOException {
+    CRFClassifier<CoreLabel> crf = CRFTestUtils.train(PropertiesUtils.asProperties(
+        "useWord", "true", "useClassFeature", "true", "maxIterations", "5"),
+        "John/PERSON works/O at/O Stanford/ORGANIZATION ./O");
+    File file = File.createTempFile("ner", ".ser.gz");
+    file.deleteOnExit();
+    crf.serializeClassifier(file.getPath());
+    return file;
+  }
+
+  public void testSharedNERClassifiers() throws IOException {
+    File model = crfModel();
+    try {
+      StanfordCoreNLPServer.SharedClassifierImplementations shared = new StanfordCoreNLPServer.SharedClassifierImplementations();
+      Object classifier = shared.nerClassifier(new Properties(), model.getPath());
+      assertSame(classifier, shared.nerClassifier(new Properties(), model.getPath()));
+      assertSame(classifier, shared.nerClassifier(PropertiesUtils.asProperties("sutime.binders", "0"), model.getPath()));
+      assertNotSame(classifier, shared.nerClassifier(PropertiesUtils.asProperties("beamMargin", "5"), model.getPath()));
+      // servers don't share their models with each other, or with other code
+      assertNotSame(classifier, new StanfordCoreNLPServer.SharedClassifierImplementations().nerClassifier(new Properties(), model.getPath()));
+      AnnotatorImplementations plain = new AnnotatorImplementations();
+      assertNotSame(plain.nerClassifier(new Properties(), model.getPath()), plain.nerClassifier(new Properties(), model.getPath()));
+    } finally {
+      model.delete();
+    }
+  }
+
+}
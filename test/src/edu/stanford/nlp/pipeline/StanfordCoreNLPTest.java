@@ -2,7 +2,21 @@ package edu.stanford.nlp.pipeline;
 
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.PropertiesUtils;
+import edu.stanford.nlp.util.RuntimeInterruptedException;
 
 import static org.junit.Assert.*;
 
@@ -73,4 +87,137 @@ public class StanfordCoreNLPTest {
     assertEquals("__empty__", props.getProperty("coref.md.type", "__empty__"));
   }
 
+
+  /** An annotator which takes a while, fails on documents which ask it to, and counts the documents it is on */
+  public static class Slow implements Annotator {
+    static final AtomicInteger running = new AtomicInteger();
+
+    public Slow(String name, Properties props) { }
+
+    @Override
+    public void annotate(Annotation annotation) {
+      running.incrementAndGet();
+      try {
+        Thread.sleep(20);
+        if (annotation.get(CoreAnnotations.TextAnnotation.class).contains("fail")) {
+          throw new IllegalStateException("Asked to fail");
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeInterruptedException(e);
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requirementsSatisfied() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    public Set<Class<? extends CoreAnnotation>> requires() {
+      return Collections.emptySet();
+    }
+  }
+
+  private static String processStream(String input, String format, boolean ordered) throws Exception {
+    return processStream(input, format, ordered, 1);
+  }
+
+  private static String processStream(String input, String format, boolean ordered, int numThreads,
+                                      String... properties) throws Exception {
+    Properties props = PropertiesUtils.asProperties(properties);
+    props.putIfAbsent("annotators", "tokenize,ssplit");
+    props.setProperty("outputFormat", "json");
+    props.setProperty("prettyPrint", "false");
+    props.setProperty("stream.format", format);
+    props.setProperty("stream.window", "2");
+    props.setProperty("stream.ordered", Boolean.toString(ordered));
+    StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    pipeline.processStream(new BufferedReader(new StringReader(input)), output, numThreads);
+    return output.toString("UTF-8");
+  }
+
+  private static String slowDocuments(int n, int failing) {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < n; i++) {
+      input.append(i).append('\t').append(i == failing ? "Please fail." : "Document " + i + '.').append('\n');
+    }
+    return input.toString();
+  }
+
+  @Test
+  public void testProcessStream() throws Exception {
+    String output = processStream("{\"id\": \"a\", \"text\": \"First document.\"}\n" +
+        "\n" +
+        "{\"id\": 7, \"text\": \"Second one. Two sentences.\"}\n" +
+        "{\"text\": \"No id here.\"}\n", "jsonl", true);
+    String[] lines = output.split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0], lines[0].contains("\"docId\":\"a\""));
+    assertTrue(lines[1], lines[1].contains("\"docId\":\"7\""));
+    assertTrue(lines[2], lines[2].contains("\"docId\":\"4\""));
+  }
+
+  @Test
+  public void testProcessStreamTsvUnordered() throws Exception {
+    String output = processStream("x\tOne.\ny\tTwo.\nz\tThree.\n", "tsv", false);
+    assertEquals(3, output.split("\n").length);
+    for (String id : new String[] { "x", "y", "z" }) {
+      assertTrue(output, output.contains("\"docId\":\"" + id + "\""));
+    }
+  }
+
+  @Test
+  public void testProcessStreamThreads() throws Exception {
+    String[] lines = processStream(slowDocuments(12, -1), "tsv", true, 3,
+        "annotators", "tokenize,ssplit,slow", "customAnnotatorClass.slow", Slow.class.getName(), "enforceRequirements", "false").split("\n");
+    assertEquals(12, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      assertTrue(lines[i], lines[i].contains("\"docId\":\"" + i + '"'));
+    }
+  }
+
+  @Test
+  public void testProcessStreamStopsOnError() throws Exception {
+    try {
+      processStream(slowDocuments(40, 2), "tsv", true, 3,
+          "annotators", "tokenize,ssplit,slow", "customAnnotatorClass.slow", Slow.class.getName(), "enforceRequirements", "false");
+      fail("Expected the failed document to stop the stream");
+    } catch (RuntimeException e) {
+      assertEquals("Error annotating document 2", e.getMessage());
+    }
+    assertEquals(0, Slow.running.get());
+  }
+
+  @Test
+  public void testProcessStreamPipelinedContinueOnError() throws Exception {
+    String[] lines = processStream(slowDocuments(6, 2), "tsv", true, 1,
+        "annotators", "tokenize,ssplit,slow", "customAnnotatorClass.slow", Slow.class.getName(), "enforceRequirements", "false",
+        "pipelined", "true", "continueOnAnnotateError", "true").split("\n");
+    assertEquals(5, lines.length);
+    assertTrue(lines[1], lines[1].contains("\"docId\":\"1\""));
+    assertTrue(lines[2], lines[2].contains("\"docId\":\"3\""));
+  }
+
+  /** The work-stealing pool is shut down when asked, and made again if the pipeline is used after */
+  @Test
+  public void testShutdownWorkStealingPool() throws Exception {
+    StanfordCoreNLP pipeline = new StanfordCoreNLP(PropertiesUtils.asProperties(
+        "annotators", "tokenize,ssplit", "workStealing", "true", "threads", "2"));
+    CountDownLatch first = new CountDownLatch(1);
+    pipeline.annotate(new Annotation("One document."), document -> first.countDown());
+    assertTrue(first.await(30, TimeUnit.SECONDS));
+    ForkJoinPool pool = pipeline.getWorkStealingPool();
+    pipeline.shutdown();
+    assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+    CountDownLatch second = new CountDownLatch(1);
+    pipeline.annotate(new Annotation("Another document."), document -> second.countDown());
+    assertTrue(second.await(30, TimeUnit.SECONDS));
+    assertNotSame(pool, pipeline.getWorkStealingPool());
+    pipeline.shutdown();
+  }
+
 }
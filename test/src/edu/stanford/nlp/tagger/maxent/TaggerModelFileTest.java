@@ -0,0 +1,143 @@
+package edu.stanford.nlp.tagger.maxent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+import edu.stanford.nlp.ling.SentenceUtils;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.util.PropertiesUtils;
+import junit.framework.TestCase;
+
+/**
+ * Round trips a small tagger through TaggerModelFile, and checks that the mapped
+ * tagger has the same dictionary and features, and tags the same way.
+ */
+public class TaggerModelFileTest extends TestCase {
+
+  private static final String[] TRAIN = {
+      "The/DT dog/NN barks/VBZ ./.",
+      "A/DT cat/NN sleeps/VBZ on/IN the/DT mat/NN ./.",
+      "The/DT big/JJ dog/NN chased/VBD a/DT small/JJ cat/NN ./.",
+      "John/NNP walks/VBZ to/TO the/DT park/NN ./.",
+      "Mary/NNP saw/VBD the/DT dog/NN in/IN the/DT park/NN ./.",
+      "The/DT park/NN walks/NNS are/VBP long/JJ ./.",
+      "Zürich/NNP is/VBZ big/JJ ./.",
+  };
+
+  private static final String[] TEXT = {
+      "The cat barks .",
+      "Mary walks the big dog to the park near the lake .",
+      "John chased a small mouse on the mat .",
+      "The small cat saw John in Zürich , and the big dog saw Mary .",
+  };
+
+  private static File model;
+  private static MaxentTagger tagger;
+
+  private File file;
+
+  @Override
+  public void setUp() throws Exception {
+    synchronized (TaggerModelFileTest.class) {
+      if (tagger == null) {
+        File train = File.createTempFile("tagger", ".txt");
+        model = File.createTempFile("tagger", ".tagger");
+        train.deleteOnExit();
+        model.deleteOnExit();
+        new File(model.getPath() + ".props").deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(train, "utf-8")) {
+          for (String sentence : TRAIN) {
+            pw.println(sentence);
+          }
+        }
+        MaxentTagger.main(new String[] {
+            "-model", model.getPath(), "-trainFile", train.getPath(), "-tagSeparator", "/",
+            "-arch", "words(-1,1),order(2),suffix(3),prefix(2)", "-iterations", "30" });
+        tagger = new MaxentTagger(model.getPath());
+      }
+    }
+    file = File.createTempFile("tagger", ".taggerb");
+    file.deleteOnExit();
+  }
+
+  @Override
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static List<String> tags(MaxentTagger tagger) {
+    List<String> tags = new ArrayList<>();
+    for (String text : TEXT) {
+      for (TaggedWord word : tagger.tagSentence(SentenceUtils.toWordList(text.split(" ")))) {
+        tags.add(word.tag());
+      }
+    }
+    return tags;
+  }
+
+  public void testRoundTrip() throws IOException {
+    TaggerModelFile.write(tagger, file);
+    assertTrue(TaggerModelFile.isModelFile(file));
+    assertFalse(TaggerModelFile.isModelFile(model));
+    MaxentTagger mapped = new MaxentTagger(file.getPath());
+    assertNotNull(mapped.mappedFeatures);
+    assertTrue(mapped.fAssociations.stream().allMatch(Map::isEmpty));
+
+    assertEquals(tagger.tagSet(), mapped.tagSet());
+    for (String word : Arrays.asList("the", "park", "walks", "Zürich", "lake", "")) {
+      assertEquals(tagger.dict.isUnknown(word), mapped.dict.isUnknown(word));
+      assertEquals(tagger.dict.sum(word), mapped.dict.sum(word));
+      assertEquals(tagger.dict.getFirstTag(word), mapped.dict.getFirstTag(word));
+      assertEquals(tagger.dict.getCount(word, "NN"), mapped.dict.getCount(word, "NN"));
+      assertTrue(Arrays.equals(tagger.dict.getTags(word), mapped.dict.getTags(word)));
+    }
+
+    assertEquals(tags(tagger), tags(mapped));
+  }
+
+  public void testExactScoring() throws IOException {
+    TaggerModelFile.write(tagger, file);
+    Properties props = PropertiesUtils.asProperties("approximate", "false");
+    MaxentTagger exact = new MaxentTagger(model.getPath(), props, false);
+    MaxentTagger mapped = new MaxentTagger(file.getPath(), props, false);
+    assertFalse(mapped.hasApproximateScoring());
+    assertEquals(tags(exact), tags(mapped));
+  }
+
+  /** A mapped tagger can be read back into maps, and saved as a usual model */
+  public void testUnmap() throws IOException {
+    TaggerModelFile.write(tagger, file);
+    MaxentTagger mapped = new MaxentTagger(file.getPath());
+    mapped.unmap();
+    assertNull(mapped.mappedFeatures);
+    assertEquals(tagger.fAssociations.size(), mapped.fAssociations.size());
+    for (int k = 0; k < tagger.fAssociations.size(); k++) {
+      Map<String, int[]> expected = tagger.fAssociations.get(k);
+      Map<String, int[]> actual = mapped.fAssociations.get(k);
+      assertEquals(expected.keySet(), actual.keySet());
+      for (String value : expected.keySet()) {
+        assertTrue(Arrays.equals(expected.get(value), actual.get(value)));
+      }
+    }
+    assertTrue(Arrays.equals(tagger.getLambdaSolve().lambda, mapped.getLambdaSolve().lambda));
+    assertEquals(tags(tagger), tags(mapped));
+
+    File saved = File.createTempFile("tagger", ".tagger");
+    saved.deleteOnExit();
+    try {
+      mapped.saveModel(saved.getPath());
+      assertEquals(tags(tagger), tags(new MaxentTagger(saved.getPath())));
+    } finally {
+      saved.delete();
+    }
+  }
+
+  public void testConfig() throws IOException {
+    TaggerModelFile.write(tagger, file);
+    TaggerConfig config = new TaggerConfig("-model", file.getPath());
+    assertEquals(tagger.config.getArch(), config.getArch());
+  }
+
+}
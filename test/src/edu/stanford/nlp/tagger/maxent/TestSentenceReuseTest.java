@@ -0,0 +1,163 @@
+package edu.stanford.nlp.tagger.maxent;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.SentenceUtils;
+import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.ling.Word;
+import junit.framework.TestCase;
+
+/**
+ * Checks that a TestSentence which is used again and again tags each sentence as a new
+ * TestSentence does, and that tagging CoreLabels in place gives the same tags.
+ */
+public class TestSentenceReuseTest extends TestCase {
+
+  private static final String[] TRAIN = {
+      "The/DT dog/NN barks/VBZ ./.",
+      "A/DT cat/NN sleeps/VBZ on/IN the/DT mat/NN ./.",
+      "The/DT big/JJ dog/NN chased/VBD a/DT small/JJ cat/NN ./.",
+      "John/NNP walks/VBZ to/TO the/DT park/NN ./.",
+      "Mary/NNP saw/VBD the/DT dog/NN in/IN the/DT park/NN ./.",
+  };
+
+  private static final String[] TEXT = {
+      "The cat barks .",
+      "Mary walks the big dog to the park near the lake .",
+      "A dog",
+      "John chased a small mouse on the mat .",
+      "",
+      "Sleeps",
+      "The small cat saw John in the park , and the big dog saw Mary .",
+  };
+
+  private static MaxentTagger tagger;
+  private static String modelPath;
+
+  @Override
+  public void setUp() throws Exception {
+    synchronized (TestSentenceReuseTest.class) {
+      if (tagger == null) {
+        File train = File.createTempFile("tagger", ".txt");
+        File model = File.createTempFile("tagger", ".tagger");
+        train.deleteOnExit();
+        model.deleteOnExit();
+        new File(model.getPath() + ".props").deleteOnExit();
+        try (PrintWriter pw = new PrintWriter(train, "utf-8")) {
+          for (String sentence : TRAIN) {
+            pw.println(sentence);
+          }
+        }
+        MaxentTagger.main(new String[] {
+            "-model", model.getPath(), "-trainFile", train.getPath(), "-tagSeparator", "/",
+            "-arch", "words(-1,1),order(2),suffix(3)", "-iterations", "30" });
+        modelPath = model.getPath();
+        tagger = new MaxentTagger(modelPath);
+      }
+    }
+  }
+
+  private static List<Word> words(String text) {
+    return text.isEmpty() ? new ArrayList<>() : SentenceUtils.toUntaggedList(Arrays.asList(text.split(" ")));
+  }
+
+  private static List<String> tags(List<TaggedWord> tagged) {
+    List<String> tags = new ArrayList<>();
+    for (TaggedWord word : tagged) {
+      tags.add(word.tag());
+    }
+    return tags;
+  }
+
+  public void testReuse() {
+    TestSentence reused = new TestSentence(tagger);
+    for (int round = 0; round < 3; round++) {
+      for (String text : TEXT) {
+        List<String> expected = tags(new TestSentence(tagger).tagSentence(words(text), false));
+        assertEquals(expected, tags(reused.tagSentence(words(text), false)));
+        assertEquals(expected, tags(tagger.tagSentence(words(text))));
+      }
+    }
+  }
+
+  public void testTagCoreLabels() {
+    for (String text : TEXT) {
+      List<String> expected = tags(tagger.tagSentence(words(text)));
+      List<CoreLabel> tokens = SentenceUtils.toCoreLabelList(text.isEmpty() ? new String[0] : text.split(" "));
+      tagger.tagCoreLabels(tokens);
+      List<String> actual = new ArrayList<>();
+      for (CoreLabel token : tokens) {
+        actual.add(token.tag());
+      }
+      assertEquals(expected, actual);
+    }
+  }
+
+  public void testReuseTags() {
+    List<CoreLabel> tokens = SentenceUtils.toCoreLabelList("The cat barks .".split(" "));
+    tokens.get(2).setTag("NN");
+    tagger.tagCoreLabels(tokens, true);
+    assertEquals("NN", tokens.get(2).tag());
+
+    // the tags given with the last sentence are not used for the next one
+    List<String> expected = tags(new TestSentence(tagger).tagSentence(words("The cat barks ."), false));
+    assertEquals(expected, tags(tagger.tagSentence(words("The cat barks ."))));
+  }
+
+  public void testThreads() throws InterruptedException {
+    List<List<String>> expected = new ArrayList<>();
+    for (String text : TEXT) {
+      expected.add(tags(new TestSentence(tagger).tagSentence(words(text), false)));
+    }
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] = new Thread(() -> {
+        try {
+          for (int i = 0; i < 50; i++) {
+            int s = (i + offset) % TEXT.length;
+            assertEquals(expected.get(s), tags(tagger.tagSentence(words(TEXT[s]))));
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Collections.emptyList(), errors);
+  }
+
+  /** Tags a sentence on the pool with a new tagger, which is then dropped */
+  private static WeakReference<MaxentTagger> tagWithNewTagger(ExecutorService pool) throws Exception {
+    MaxentTagger discarded = new MaxentTagger(modelPath);
+    List<String> expected = tags(tagger.tagSentence(words(TEXT[1])));
+    assertEquals(expected, pool.submit(() -> tags(discarded.tagSentence(words(TEXT[1])))).get());
+    return new WeakReference<>(discarded);
+  }
+
+  /** A long-lived thread which has tagged with a tagger must not keep it from being collected */
+  public void testDiscardedTaggerIsCollected() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      WeakReference<MaxentTagger> reference = tagWithNewTagger(pool);
+      for (int i = 0; i < 20 && reference.get() != null; i++) {
+        System.gc();
+        Thread.sleep(50);
+      }
+      assertNull(reference.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+}
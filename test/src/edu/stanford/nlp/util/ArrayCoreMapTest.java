@@ -351,4 +351,24 @@ public class ArrayCoreMapTest extends TestCase {
     assertEquals("fozzle", boff.get(CoreAnnotations.LemmaAnnotation.class));
   }
 
+  /** A map which claims to keep its entries elsewhere, so that they are read through keySet() and get() */
+  private static class NotSelfContained extends ArrayCoreMap {
+    @Override
+    protected boolean isSelfContained() {
+      return false;
+    }
+  }
+
+  public void testToStringNotSelfContained() {
+    ArrayCoreMap plain = new ArrayCoreMap();
+    ArrayCoreMap other = new NotSelfContained();
+    for (ArrayCoreMap map : new ArrayCoreMap[] { plain, other }) {
+      map.set(CoreAnnotations.TextAnnotation.class, "foo");
+      map.set(CoreAnnotations.IndexAnnotation.class, 3);
+    }
+    assertEquals("[TextAnnotation=foo IndexAnnotation=3]", plain.toString());
+    assertEquals(plain.toString(), other.toString());
+    assertEquals("[]", new NotSelfContained().toString());
+  }
+
 }
@@ -0,0 +1,67 @@
+package edu.stanford.nlp.util;
+
+import junit.framework.TestCase;
+
+import java.nio.IntBuffer;
+
+
+public class StringIdTableTest extends TestCase  {
+
+  /** Looks an id up as the indices do, with the name of an id being its number */
+  private static int find(StringIdTable table, int name, int hash) {
+    for (int slot = table.slot(hash); ; slot = table.next(slot)) {
+      int id = table.id(slot);
+      if (id < 0) {
+        return -1;
+      }
+      if (table.hash(slot) == hash && id == name) {
+        return id;
+      }
+    }
+  }
+
+  /** Only a few hash codes, so that many ids collide */
+  private static int hash(int id) {
+    return id % 7;
+  }
+
+  public void testPutAndFind() {
+    StringIdTable table = new StringIdTable(100);
+    for (int id = 0; id < 100; id++) {
+      assertFalse(table.isFull(id + 1));
+      table.put(id, hash(id));
+    }
+    for (int id = 0; id < 100; id++) {
+      assertEquals(id, find(table, id, hash(id)));
+    }
+    assertEquals(-1, find(table, 100, hash(100)));
+  }
+
+  public void testResize() {
+    StringIdTable table = new StringIdTable(1);
+    for (int id = 0; id < 1000; id++) {
+      if (table.isFull(id + 1)) {
+        table = table.resize(id + 1);
+      }
+      table.put(id, hash(id));
+    }
+    for (int id = 0; id < 1000; id++) {
+      assertEquals(id, find(table, id, hash(id)));
+    }
+  }
+
+  public void testStored() {
+    StringIdTable table = new StringIdTable(10);
+    for (int id = 0; id < 10; id++) {
+      table.put(id, hash(id) * 1000003);
+    }
+    int[] stored = table.toArray();
+    assertEquals(0, Integer.bitCount(stored.length / 2) - 1);
+    StringIdTable read = new StringIdTable(IntBuffer.wrap(stored));
+    for (int id = 0; id < 10; id++) {
+      assertEquals(id, find(read, id, hash(id) * 1000003));
+    }
+    assertEquals(-1, find(read, 3, 0));
+  }
+
+}
@@ -0,0 +1,104 @@
+package edu.stanford.nlp.util;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.*;
+
+import edu.stanford.nlp.sequences.FeatureKey;
+
+
+public class StringIndexTest extends TestCase  {
+
+  private static final String[] NAMES = {
+      "WORD-Stanford", "", "PREV-WORD-the|C", "Zürich", "北京", "SHAPE-Xxxx", "aĀb",
+  };
+
+  private static StringIndex index() {
+    StringIndex index = new StringIndex(1);
+    for (String name : NAMES) {
+      index.add(name);
+    }
+    return index;
+  }
+
+  public void testGetAndIndexOf() {
+    StringIndex index = index();
+    assertEquals(NAMES.length, index.size());
+    for (int i = 0; i < NAMES.length; i++) {
+      assertEquals(NAMES[i], index.get(i));
+      assertEquals(i, index.indexOf(NAMES[i]));
+      assertEquals(i, index.indexOf(new StringBuilder(NAMES[i]), NAMES[i].hashCode()));
+    }
+    assertEquals(-1, index.indexOf("WORD-stanford"));
+    assertEquals(-1, index.indexOf("Zurich"));
+    assertEquals(-1, index.indexOf((String) null));
+    assertTrue(index.contains("北京"));
+    assertFalse(index.contains("Beijing"));
+    assertEquals(Arrays.asList(NAMES), index.objectsList());
+  }
+
+  public void testFeatureKey() {
+    StringIndex index = index();
+    FeatureKey key = new FeatureKey("PREV-WORD-the", "|C");
+    assertEquals(2, index.indexOf(key, key.hashCode()));
+  }
+
+  public void testAddAndLock() {
+    StringIndex index = index();
+    assertFalse(index.add("SHAPE-Xxxx"));
+    assertEquals(5, index.addToIndex("SHAPE-Xxxx"));
+    index.lock();
+    assertFalse(index.add("NEW"));
+    assertEquals(-1, index.addToIndex("NEW"));
+    index.unlock();
+    assertEquals(NAMES.length, index.addToIndex("NEW"));
+
+    index.freeze();
+    assertTrue(index.isLocked());
+    assertEquals(-1, index.addToIndex("NEWER"));
+    assertEquals("NEW", index.get(NAMES.length));
+    try {
+      index.unlock();
+      fail("A frozen index shouldn't unlock");
+    } catch (UnsupportedOperationException e) {
+      // as expected
+    }
+  }
+
+  /** Checks that a StringIndex gives the same ids as a HashIndex, as both grow */
+  public void testManyNames() {
+    Random random = new Random(7);
+    HashIndex<String> expected = new HashIndex<>();
+    StringIndex actual = new StringIndex();
+    for (int i = 0; i < 50000; i++) {
+      String name = "F-" + random.nextInt(30000) + (i % 100 == 0 ? "-Ω" : "");
+      assertEquals(expected.addToIndex(name), actual.addToIndex(name));
+    }
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.objectsList(), actual.objectsList());
+    StringIndex copy = new StringIndex(expected);
+    for (String name : expected) {
+      assertEquals(expected.indexOf(name), copy.indexOf(name));
+    }
+  }
+
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    StringIndex index = index();
+    index.freeze();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+      oos.writeObject(index);
+    }
+    StringIndex read;
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = (StringIndex) ois.readObject();
+    }
+    assertTrue(read.isFrozen());
+    assertEquals(index.objectsList(), read.objectsList());
+    for (String name : NAMES) {
+      assertEquals(index.indexOf(name), read.indexOf(name));
+    }
+  }
+
+}
@@ -2,8 +2,9 @@ package edu.stanford.nlp.util.concurrent;
 
 import junit.framework.TestCase;
 
-import java.util.Iterator;
-import java.util.List;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import edu.stanford.nlp.util.Index;
 
@@ -81,4 +82,141 @@ public class ConcurrentHashIndexTest extends TestCase  {
     assertEquals("Beast", foo.get(1));
   }
 
+  public void testObjectsList() {
+    assertEquals(Arrays.asList("Beauty", "And", "The", "Beast"), index2.objectsList());
+  }
+
+  public void testAddAndLock() {
+    assertFalse(index.add("The"));
+    assertTrue(index.add("Beauty"));
+    assertEquals(2, index.indexOf("Beauty"));
+    index.lock();
+    assertTrue(index.isLocked());
+    assertFalse(index.add("And"));
+    assertEquals(-1, index.addToIndex("And"));
+    assertEquals(1, index.addToIndex("Beast"));
+    assertEquals(3, index.size());
+    index.unlock();
+    assertEquals(3, index.addToIndex("And"));
+  }
+
+  public void testGrowth() {
+    Index<Integer> ints = new ConcurrentHashIndex<>(1);
+    for (int i = 0; i < 100000; i++) {
+      assertEquals(i, ints.addToIndex(i));
+    }
+    for (int i = 0; i < 100000; i++) {
+      assertEquals(Integer.valueOf(i), ints.get(i));
+    }
+    try {
+      ints.get(100000);
+      fail("Expected an ArrayIndexOutOfBoundsException");
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // as expected
+    }
+  }
+
+  public void testConcurrentAdds() throws InterruptedException {
+    final int numThreads = 8;
+    final int numWords = 20011; // prime, so each thread sees every word
+    final ConcurrentHashIndex<String> words = new ConcurrentHashIndex<>();
+    final int[][] ids = new int[numThreads][numWords];
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      threads.add(new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        // each thread adds the same words, in a different order
+        for (int i = 0; i < numWords; i++) {
+          int word = (i * (2 * thread + 1) + thread) % numWords;
+          ids[thread][word] = words.addToIndex("w" + word);
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(numWords, words.size());
+    Set<Integer> seen = new HashSet<>();
+    for (int word = 0; word < numWords; word++) {
+      int id = ids[0][word];
+      for (int t = 1; t < numThreads; t++) {
+        assertEquals(id, ids[t][word]);
+      }
+      assertEquals("w" + word, words.get(id));
+      assertTrue(seen.add(id));
+    }
+    List<String> objects = words.objectsList();
+    for (int i = 0; i < numWords; i++) {
+      assertEquals(i, words.indexOf(objects.get(i)));
+    }
+  }
+
+  public void testSerialization() throws IOException, ClassNotFoundException {
+    index2.lock();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+      oos.writeObject(index2);
+    }
+    Index<String> read;
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      read = (Index<String>) ois.readObject();
+    }
+    assertTrue(read instanceof ConcurrentHashIndex);
+    assertTrue(read.isLocked());
+    assertEquals(index2.objectsList(), read.objectsList());
+  }
+
+  /**
+   * "the quick brown fox jumps", as serialized by the ConcurrentHashIndex which used a
+   * ReentrantLock and an AtomicReference to its array of objects.
+   */
+  private static final String OLD_FORM =
+      "rO0ABXNyADRlZHUuc3RhbmZvcmQubmxwLnV0aWwuY29uY3VycmVudC5Db25jdXJyZW50SGFzaEluZGV4Wblor/PDC3UCAARJ" +
+      "AAlpbmRleFNpemVMAAppbmRleDJJdGVtdAAtTGphdmEvdXRpbC9jb25jdXJyZW50L2F0b21pYy9BdG9taWNSZWZlcmVuY2U7" +
+      "TAAKaXRlbTJJbmRleHQAKExqYXZhL3V0aWwvY29uY3VycmVudC9Db25jdXJyZW50SGFzaE1hcDtMAARsb2NrdAAqTGphdmEv" +
+      "dXRpbC9jb25jdXJyZW50L2xvY2tzL1JlZW50cmFudExvY2s7eHAAAAAFc3IAK2phdmEudXRpbC5jb25jdXJyZW50LmF0b21p" +
+      "Yy5BdG9taWNSZWZlcmVuY2XmV3HUVXhUxgIAAUwABXZhbHVldAASTGphdmEvbGFuZy9PYmplY3Q7eHB1cgATW0xqYXZhLmxh" +
+      "bmcuT2JqZWN0O5DOWJ8QcylsAgAAeHAAAABkdAADdGhldAAFcXVpY2t0AAVicm93bnQAA2ZveHQABWp1bXBzcHBwcHBwcHBw" +
+      "cHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBwcHBw" +
+      "cHBwcHBwcHBwcHBwcHBzcgAmamF2YS51dGlsLmNvbmN1cnJlbnQuQ29uY3VycmVudEhhc2hNYXBkmd4SnYcpPQMAA0kAC3Nl" +
+      "Z21lbnRNYXNrSQAMc2VnbWVudFNoaWZ0WwAIc2VnbWVudHN0ADFbTGphdmEvdXRpbC9jb25jdXJyZW50L0NvbmN1cnJlbnRI" +
+      "YXNoTWFwJFNlZ21lbnQ7eHAAAAAPAAAAHHVyADFbTGphdmEudXRpbC5jb25jdXJyZW50LkNvbmN1cnJlbnRIYXNoTWFwJFNl" +
+      "Z21lbnQ7Unc/QTKbOXQCAAB4cAAAABBzcgAuamF2YS51dGlsLmNvbmN1cnJlbnQuQ29uY3VycmVudEhhc2hNYXAkU2VnbWVu" +
+      "dB82TJBYkyk9AgABRgAKbG9hZEZhY3RvcnhyAChqYXZhLnV0aWwuY29uY3VycmVudC5sb2Nrcy5SZWVudHJhbnRMb2NrZlWo" +
+      "LCzIausCAAFMAARzeW5jdAAvTGphdmEvdXRpbC9jb25jdXJyZW50L2xvY2tzL1JlZW50cmFudExvY2skU3luYzt4cHNyADRq" +
+      "YXZhLnV0aWwuY29uY3VycmVudC5sb2Nrcy5SZWVudHJhbnRMb2NrJE5vbmZhaXJTeW5jZYgy51N7vwsCAAB4cgAtamF2YS51" +
+      "dGlsLmNvbmN1cnJlbnQubG9ja3MuUmVlbnRyYW50TG9jayRTeW5juB6ilKpEWnwCAAB4cgA1amF2YS51dGlsLmNvbmN1cnJl" +
+      "bnQubG9ja3MuQWJzdHJhY3RRdWV1ZWRTeW5jaHJvbml6ZXJmVahDdT9S4wIAAUkABXN0YXRleHIANmphdmEudXRpbC5jb25j" +
+      "dXJyZW50LmxvY2tzLkFic3RyYWN0T3duYWJsZVN5bmNocm9uaXplcjPfr7mtbW+pAgAAeHAAAAAAP0AAAHNxAH4AFHNxAH4A" +
+      "GAAAAAA/QAAAc3EAfgAUc3EAfgAYAAAAAD9AAABzcQB+ABRzcQB+ABgAAAAAP0AAAHNxAH4AFHNxAH4AGAAAAAA/QAAAc3EA" +
+      "fgAUc3EAfgAYAAAAAD9AAABzcQB+ABRzcQB+ABgAAAAAP0AAAHNxAH4AFHNxAH4AGAAAAAA/QAAAc3EAfgAUc3EAfgAYAAAA" +
+      "AD9AAABzcQB+ABRzcQB+ABgAAAAAP0AAAHNxAH4AFHNxAH4AGAAAAAA/QAAAc3EAfgAUc3EAfgAYAAAAAD9AAABzcQB+ABRz" +
+      "cQB+ABgAAAAAP0AAAHNxAH4AFHNxAH4AGAAAAAA/QAAAc3EAfgAUc3EAfgAYAAAAAD9AAABzcQB+ABRzcQB+ABgAAAAAP0AA" +
+      "AHEAfgAOc3IAEWphdmEubGFuZy5JbnRlZ2VyEuKgpPeBhzgCAAFJAAV2YWx1ZXhyABBqYXZhLmxhbmcuTnVtYmVyhqyVHQuU" +
+      "4IsCAAB4cAAAAARxAH4ACnNxAH4AOwAAAABxAH4AC3NxAH4AOwAAAAFxAH4ADHNxAH4AOwAAAAJxAH4ADXNxAH4AOwAAAANw" +
+      "cHhzcQB+ABVzcQB+ABgAAAAA";
+
+  public void testReadOldForm() throws IOException, ClassNotFoundException {
+    Index<String> read;
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(OLD_FORM)))) {
+      read = (Index<String>) ois.readObject();
+    }
+    assertTrue(read instanceof ConcurrentHashIndex);
+    assertFalse(read.isLocked());
+    assertEquals(Arrays.asList("the", "quick", "brown", "fox", "jumps"), read.objectsList());
+    assertEquals(3, read.indexOf("fox"));
+    assertEquals(5, read.addToIndex("over"));
+  }
+
 }